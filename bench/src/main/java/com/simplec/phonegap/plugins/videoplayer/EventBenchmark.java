@@ -0,0 +1,103 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaResourceApi;
+import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.PluginResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Event construction as done for swipes, key presses and prepared: posting
+ * to the EventChannel and serializing the batch for the bridge. "Each"
+ * sends every event on its own, as an interval of 0 does; the batched
+ * benchmarks queue a burst and flush it once, as a frame's interval does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EventBenchmark {
+
+	private static final int BURST = 16;
+
+	/** stands in for the web view; keeps what was sent so it is not optimized away */
+	private int sent;
+
+	private EventChannel immediate;
+	private EventChannel batched;
+	private CallbackContext callback;
+	private int keyCode;
+
+	@Setup
+	public void setUp() {
+		CordovaWebView webView = new CordovaWebView() {
+			public CordovaResourceApi getResourceApi() {
+				return null;
+			}
+
+			public void sendPluginResult(PluginResult result, String callbackId) {
+				sent += result.getMessage().length();
+			}
+		};
+		callback = new CallbackContext("bench", webView);
+		Handler handler = new Handler(Looper.getMainLooper());
+		immediate = new EventChannel(handler);
+		immediate.open(callback, 0);
+		batched = new EventChannel(handler);
+		batched.open(callback, EventChannel.DEFAULT_INTERVAL);
+	}
+
+	@Benchmark
+	public int swipeEach() {
+		immediate.post(EventChannel.SWIPE, "direction", PlayerGestureDetection.swipeName(PlayerGestureDetection.SWIPE_LEFT));
+		return sent;
+	}
+
+	@Benchmark
+	public int keyEach() {
+		immediate.post(EventChannel.KEY, "keyCode", 21 + (keyCode++ & 3), "flags", 0, "action", "down");
+		return sent;
+	}
+
+	@Benchmark
+	public int preparedEach() {
+		immediate.post(EventChannel.PREPARED, "duration", 5400);
+		return sent;
+	}
+
+	/** a key held down: repeats of one key merge into a single event */
+	@Benchmark
+	public int keyRepeatBurst() {
+		for (int i = 0; i < BURST; i++) {
+			batched.post(EventChannel.KEY, "keyCode", 22, "flags", 0, "action", "down");
+		}
+		batched.flush();
+		return sent;
+	}
+
+	/** different keys in one frame: one batch of distinct events */
+	@Benchmark
+	public int keyMixedBurst() {
+		for (int i = 0; i < BURST; i++) {
+			batched.post(EventChannel.KEY, "keyCode", 19 + (i & 3), "flags", 0, "action", "down");
+		}
+		batched.flush();
+		return sent;
+	}
+}
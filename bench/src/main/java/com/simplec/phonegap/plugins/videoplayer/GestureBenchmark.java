@@ -0,0 +1,51 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Swipe classification as run from PlayerGestureDetection.onFling for
+ * every fling, over a mix of swipes in each direction and rejected flings.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GestureBenchmark {
+
+	/** x1, y1, x2, y2, velocityX, velocityY */
+	private static final float[][] FLINGS = {
+		{ 900, 500, 200, 520, -2400, 80 },
+		{ 200, 500, 900, 480, 2400, -60 },
+		{ 500, 900, 520, 100, 40, -3000 },
+		{ 500, 100, 480, 900, -40, 3000 },
+		{ 500, 500, 520, 510, 900, 300 },
+		{ 500, 500, 900, 520, 40, 20 },
+	};
+
+	private int next;
+
+	@Benchmark
+	public int classifyFling() {
+		float[] f = FLINGS[next++ % FLINGS.length];
+		return PlayerGestureDetection.classifyFling(f[0], f[1], f[2], f[3], f[4], f[5], 50, -1, 100);
+	}
+
+	@Benchmark
+	public String classifyAndName() {
+		float[] f = FLINGS[next++ % FLINGS.length];
+		return PlayerGestureDetection.swipeName(
+				PlayerGestureDetection.classifyFling(f[0], f[1], f[2], f[3], f[4], f[5], 50, -1, 100));
+	}
+}
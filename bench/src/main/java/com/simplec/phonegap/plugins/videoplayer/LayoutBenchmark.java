@@ -0,0 +1,44 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The aspect-ratio math run when the dialog opens and again once the player
+ * knows the real video size, for wide, tall and square videos.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LayoutBenchmark {
+
+	private static final double[][] VIDEOS = {
+		{ 1920, 1080 },
+		{ 1080, 1920 },
+		{ 640, 480 },
+		{ 720, 720 },
+		{ 3840, 1600 },
+	};
+
+	private final int[] out = new int[2];
+	private int next;
+
+	@Benchmark
+	public int fit() {
+		double[] v = VIDEOS[next++ % VIDEOS.length];
+		VideoLayout.fit(1280, 800, v[0], v[1], out);
+		return out[0] + out[1];
+	}
+}
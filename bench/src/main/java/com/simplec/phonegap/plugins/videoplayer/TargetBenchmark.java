@@ -0,0 +1,54 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The protocol dispatch every play, enqueue and lookup starts with:
+ * classifying the resolved target and stripping file:// from local ones.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TargetBenchmark {
+
+	private static final String[] TARGETS = {
+		"file:///mnt/internal_sd/Android/data/com.simplec.therapyplayer.prd/files/offline-content/content/a.mp4",
+		"file:///android_asset/www/video/intro.mp4",
+		"https://example.com/stream/master.m3u8",
+		"http://example.com/video.mp4",
+		"content://media/external/video/media/42",
+	};
+
+	private int next;
+
+	@Benchmark
+	public int targetType() {
+		return VideoPlayer.targetType(TARGETS[next++ % TARGETS.length]);
+	}
+
+	@Benchmark
+	public String dispatch() {
+		String uri = TARGETS[next++ % TARGETS.length];
+		switch (VideoPlayer.targetType(uri)) {
+		case VideoPlayer.TARGET_FILE:
+			return VideoPlayer.stripFileProtocol(uri);
+		case VideoPlayer.TARGET_HTTP:
+			return uri;
+		default:
+			return null;
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+/**
+ * Throughput estimate over the last {@link #WINDOW} downloads, used to pick
+ * an HLS variant.
+ *
+ * The estimate is the total bytes over the total transfer time of the
+ * window, so that one fast cached response cannot outweigh several slow
+ * ones. Transfers too small to say anything about the link are ignored.
+ */
+public class BandwidthEstimator {
+
+	static final int WINDOW = 8;
+	static final long MIN_BYTES = 32 * 1024;
+	/** share of the estimate a variant's peak bandwidth may use */
+	static final double SAFETY = 0.75;
+
+	private final long[] bytes = new long[WINDOW];
+	private final long[] nanos = new long[WINDOW];
+	private int next = 0;
+	private int count = 0;
+
+	public synchronized void sample(long byteCount, long elapsedNanos) {
+		if (byteCount < MIN_BYTES || elapsedNanos <= 0) {
+			return;
+		}
+		bytes[next] = byteCount;
+		nanos[next] = elapsedNanos;
+		next = (next + 1) % WINDOW;
+		count = Math.min(WINDOW, count + 1);
+	}
+
+	/**
+	 * Returns the estimated throughput in bits per second, or 0 before the
+	 * first sample.
+	 */
+	public synchronized long estimate() {
+		long totalBytes = 0;
+		long totalNanos = 0;
+		for (int i = 0; i < count; i++) {
+			totalBytes += bytes[i];
+			totalNanos += nanos[i];
+		}
+		return totalNanos > 0 ? totalBytes * 8 * 1000000000L / totalNanos : 0;
+	}
+
+	/**
+	 * Picks the highest of the given bandwidths (ascending, bits per second)
+	 * that fits the estimate with some headroom, or the lowest if none does.
+	 */
+	public int choose(long[] bandwidths) {
+		long budget = (long) (estimate() * SAFETY);
+		int chosen = 0;
+		for (int i = 1; i < bandwidths.length; i++) {
+			if (bandwidths[i] <= budget) {
+				chosen = i;
+			}
+		}
+		return chosen;
+	}
+
+	public synchronized void reset() {
+		next = 0;
+		count = 0;
+	}
+}
@@ -0,0 +1,155 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Least-recently-used bookkeeping for a size-bounded directory of cache
+ * files, shared by {@link ChunkCache} and {@link FileCache}.
+ *
+ * Entries are named by their path relative to the directory, with '/'
+ * between levels. Access order is kept in memory and mirrored in the files'
+ * modification times by the caches, so that {@link #load(List)} can restore
+ * it after a restart. Files are deleted here when evicted; a cache that keeps
+ * more than the files themselves cleans up after them in
+ * {@link #onEvicted(File)}.
+ *
+ * Not synchronized: each cache calls it under its own lock.
+ */
+class CacheIndex {
+
+	private final File dir;
+	private final long maxBytes;
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(64, 0.75f, true);
+	private long totalBytes = 0;
+
+	CacheIndex(File dir, long maxBytes) {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns a file name for a URL or other key: the hex SHA-1 of it.
+	 */
+	static String keyFor(String url) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			byte[] digest = md.digest(url.getBytes("UTF-8"));
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest) {
+				sb.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	long getTotalBytes() {
+		return totalBytes;
+	}
+
+	File file(String name) {
+		return new File(dir, name);
+	}
+
+	boolean contains(String name) {
+		return entries.containsKey(name);
+	}
+
+	/**
+	 * Marks an entry as most recently used. Returns false if it is not
+	 * cached.
+	 */
+	boolean touch(String name) {
+		return entries.get(name) != null;
+	}
+
+	/**
+	 * Records a file just published under the given name, replacing any
+	 * previous entry, and evicts the least recently used files if the cache
+	 * is now over its size limit.
+	 */
+	void put(String name, long size) {
+		forget(name);
+		entries.put(name, Long.valueOf(size));
+		totalBytes += size;
+		trim();
+	}
+
+	/**
+	 * Drops an entry without touching its file, e.g. one deleted underneath
+	 * the cache.
+	 */
+	void forget(String name) {
+		Long size = entries.remove(name);
+		if (size != null) {
+			totalBytes -= size.longValue();
+		}
+	}
+
+	/**
+	 * Deletes the files of every entry whose name starts with the prefix;
+	 * an empty prefix deletes them all.
+	 */
+	void delete(String prefix) {
+		Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, Long> e = it.next();
+			if (e.getKey().startsWith(prefix)) {
+				new File(dir, e.getKey()).delete();
+				totalBytes -= e.getValue().longValue();
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Restores the entries found on disk, oldest modification time first,
+	 * then trims to the size limit.
+	 */
+	void load(List<File> files) {
+		Collections.sort(files, new Comparator<File>() {
+			public int compare(File a, File b) {
+				long x = a.lastModified();
+				long y = b.lastModified();
+				return x < y ? -1 : (x == y ? 0 : 1);
+			}
+		});
+		int prefix = dir.getPath().length() + 1;
+		for (File f : files) {
+			long size = f.length();
+			entries.put(f.getPath().substring(prefix).replace(File.separatorChar, '/'), Long.valueOf(size));
+			totalBytes += size;
+		}
+		trim();
+	}
+
+	/**
+	 * Called after an evicted file has been deleted.
+	 */
+	protected void onEvicted(File f) {
+	}
+
+	private void trim() {
+		Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+		while (totalBytes > maxBytes && it.hasNext()) {
+			Map.Entry<String, Long> eldest = it.next();
+			File f = new File(dir, eldest.getKey());
+			f.delete();
+			totalBytes -= eldest.getValue().longValue();
+			it.remove();
+			onEvicted(f);
+		}
+	}
+}
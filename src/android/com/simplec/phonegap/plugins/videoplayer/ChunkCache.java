@@ -0,0 +1,264 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.util.Log;
+
+/**
+ * Size-bounded on-disk cache of fixed-size chunks of remote resources.
+ *
+ * Each resource gets a directory named after the hash of its URL holding one
+ * file per complete chunk plus a small info file with the total length,
+ * content type and validator (ETag or Last-Modified) the chunks were fetched
+ * under. A resource that changes at the origin is dropped whole with
+ * {@link #remove(String)}. Chunks are only ever published complete (written to a temp
+ * file and renamed), so a partially downloaded resource is simply one with
+ * some chunks missing and can be resumed on a later play or after a restart.
+ *
+ * Eviction is least-recently-used by chunk, kept by a {@link CacheIndex};
+ * the info file and directory go with a resource's last chunk.
+ */
+public class ChunkCache {
+
+	private static final String LOG_TAG = "ChunkCache";
+
+	public static final int CHUNK_SIZE = 256 * 1024;
+
+	private static final String INFO = "info";
+	private static final String SUFFIX = ".chunk";
+
+	public static class Info {
+		public final long length;
+		public final String contentType;
+		/** strong ETag or Last-Modified of the origin, or null if it sent neither */
+		public final String validator;
+
+		public Info(long length, String contentType, String validator) {
+			this.length = length;
+			this.contentType = contentType;
+			this.validator = validator;
+		}
+	}
+
+	private final File dir;
+	private final CacheIndex chunks;
+	private boolean loaded = false;
+
+	public ChunkCache(File dir, long maxBytes) {
+		this.dir = dir;
+		this.chunks = new CacheIndex(dir, maxBytes) {
+			@Override
+			protected void onEvicted(File f) {
+				if (!hasChunks(f.getParentFile())) {
+					deleteResource(f.getParentFile());
+				}
+			}
+		};
+	}
+
+	public synchronized long getTotalBytes() {
+		ensureLoaded();
+		return chunks.getTotalBytes();
+	}
+
+	public synchronized Info getInfo(String key) {
+		ensureLoaded();
+		File f = new File(new File(dir, key), INFO);
+		if (!f.exists()) {
+			return null;
+		}
+		try {
+			String[] lines = new String(readFully(f), "UTF-8").split("\n");
+			long length = Long.parseLong(lines[0].trim());
+			String contentType = lines.length > 1 && lines[1].length() > 0 ? lines[1] : null;
+			String validator = lines.length > 2 && lines[2].length() > 0 ? lines[2] : null;
+			return new Info(length, contentType, validator);
+		} catch (Exception e) {
+			Log.w(LOG_TAG, "bad info for " + key + ": " + e.getLocalizedMessage());
+			return null;
+		}
+	}
+
+	public synchronized void putInfo(String key, Info info) {
+		ensureLoaded();
+		File resourceDir = new File(dir, key);
+		resourceDir.mkdirs();
+		String content = info.length + "\n" + (info.contentType != null ? info.contentType : "") + "\n"
+				+ (info.validator != null ? info.validator : "") + "\n";
+		try {
+			byte[] bytes = content.getBytes("UTF-8");
+			writeAtomically(new File(resourceDir, INFO), bytes, bytes.length);
+		} catch (IOException e) {
+			Log.w(LOG_TAG, "could not write info for " + key + ": " + e.getLocalizedMessage());
+		}
+	}
+
+	public synchronized boolean has(String key, long index) {
+		ensureLoaded();
+		return chunks.contains(name(key, index));
+	}
+
+	/**
+	 * Opens a cached chunk and marks it as most recently used, or returns null
+	 * if it is not cached.
+	 */
+	public InputStream open(String key, long index) throws IOException {
+		File f;
+		synchronized (this) {
+			ensureLoaded();
+			if (!chunks.touch(name(key, index))) {
+				return null;
+			}
+			f = chunkFile(key, index);
+		}
+		f.setLastModified(System.currentTimeMillis());
+		try {
+			return new FileInputStream(f);
+		} catch (IOException e) {
+			// evicted or deleted underneath us
+			synchronized (this) {
+				chunks.forget(name(key, index));
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Publishes a complete chunk and evicts the least recently used chunks if
+	 * the cache is now over its size limit.
+	 */
+	public void put(String key, long index, byte[] data, int length) throws IOException {
+		File resourceDir = new File(dir, key);
+		resourceDir.mkdirs();
+		try {
+			writeAtomically(chunkFile(key, index), data, length);
+		} catch (IOException e) {
+			// its last chunk was evicted and the directory went with it
+			resourceDir.mkdirs();
+			writeAtomically(chunkFile(key, index), data, length);
+		}
+		synchronized (this) {
+			ensureLoaded();
+			chunks.put(name(key, index), length);
+		}
+	}
+
+	/**
+	 * Drops every chunk and the info of a resource, for when it has changed
+	 * at the origin.
+	 */
+	public synchronized void remove(String key) {
+		ensureLoaded();
+		chunks.delete(key + "/");
+		deleteResource(new File(dir, key));
+	}
+
+	public synchronized void clear() {
+		ensureLoaded();
+		chunks.delete("");
+		File[] resources = dir.listFiles();
+		if (resources != null) {
+			for (File resource : resources) {
+				deleteResource(resource);
+			}
+		}
+	}
+
+	private static boolean hasChunks(File resourceDir) {
+		String[] names = resourceDir.list();
+		if (names != null) {
+			for (String name : names) {
+				if (name.endsWith(SUFFIX)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Deletes a resource's info file and directory. The directory stays if
+	 * a chunk is being written into it.
+	 */
+	private static void deleteResource(File resourceDir) {
+		new File(resourceDir, INFO).delete();
+		resourceDir.delete();
+	}
+
+	private void ensureLoaded() {
+		if (loaded) {
+			return;
+		}
+		loaded = true;
+
+		File[] resources = dir.listFiles();
+		if (resources == null) {
+			return;
+		}
+		List<File> files = new ArrayList<File>();
+		for (File resource : resources) {
+			File[] list = resource.listFiles();
+			if (list == null) {
+				continue;
+			}
+			if (!hasChunks(resource)) {
+				// info left behind by an older version's eviction
+				deleteResource(resource);
+				continue;
+			}
+			for (File f : list) {
+				if (f.getName().endsWith(SUFFIX)) {
+					files.add(f);
+				} else if (f.getName().endsWith(".tmp")) {
+					f.delete();
+				}
+			}
+		}
+		chunks.load(files);
+		Log.v(LOG_TAG, "found " + files.size() + " chunks, " + chunks.getTotalBytes() + " bytes");
+	}
+
+	private File chunkFile(String key, long index) {
+		return chunks.file(name(key, index));
+	}
+
+	private static String name(String key, long index) {
+		return key + "/" + index + SUFFIX;
+	}
+
+	private static void writeAtomically(File target, byte[] data, int length) throws IOException {
+		File tmp = new File(target.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+		OutputStream out = new FileOutputStream(tmp);
+		try {
+			out.write(data, 0, length);
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(target)) {
+			tmp.delete();
+			throw new IOException("could not rename " + tmp);
+		}
+	}
+
+	private static byte[] readFully(File f) throws IOException {
+		byte[] data = new byte[(int) f.length()];
+		InputStream in = new FileInputStream(f);
+		try {
+			int off = 0;
+			int n;
+			while (off < data.length && (n = in.read(data, off, data.length - off)) > 0) {
+				off += n;
+			}
+		} finally {
+			in.close();
+		}
+		return data;
+	}
+}
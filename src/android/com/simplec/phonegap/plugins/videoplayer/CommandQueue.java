@@ -0,0 +1,121 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+import android.os.Handler;
+
+/**
+ * Runs player commands one at a time, in order, on the thread of the given
+ * handler (the UI thread, where the player and its callbacks live), so that
+ * the bridge thread never touches the player while it is being swapped.
+ *
+ * Commands still waiting when a newer one arrives can be superseded: a
+ * command names the commands it makes pointless, and any of those still
+ * queued are dropped and told so through {@link Command#superseded()}. A
+ * burst of seeks therefore costs one seek, and a stop sent before a queued
+ * play has run means the player is never created or prepared.
+ */
+public class CommandQueue {
+
+	public static abstract class Command implements Runnable {
+		final String name;
+		final String[] supersedes;
+		long queuedAt;
+
+		/**
+		 * @param name
+		 *            the command's name, used for coalescing and metrics
+		 * @param supersedes
+		 *            names of queued commands this one replaces
+		 */
+		public Command(String name, String... supersedes) {
+			this.name = name;
+			this.supersedes = supersedes;
+		}
+
+		/**
+		 * Called instead of run() when a later command made this one
+		 * pointless. Callers waiting on a result should be answered here.
+		 */
+		protected void superseded() {
+		}
+
+		boolean replaces(Command queued) {
+			for (String s : supersedes) {
+				if (s.equals(queued.name)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private final Handler handler;
+	private final PlaybackMetrics metrics;
+	private final ArrayDeque<Command> queue = new ArrayDeque<Command>();
+	private boolean drainScheduled = false;
+
+	private final Runnable drain = new Runnable() {
+		public void run() {
+			while (true) {
+				Command c;
+				synchronized (CommandQueue.this) {
+					c = queue.poll();
+					if (c == null) {
+						drainScheduled = false;
+						return;
+					}
+				}
+				long start = PlaybackMetrics.now();
+				try {
+					c.run();
+				} finally {
+					long end = PlaybackMetrics.now();
+					metrics.queued(c.name, start - c.queuedAt, end - c.queuedAt);
+				}
+			}
+		}
+	};
+
+	public CommandQueue(Handler handler, PlaybackMetrics metrics) {
+		this.handler = handler;
+		this.metrics = metrics;
+	}
+
+	public void submit(Command command) {
+		ArrayDeque<Command> dropped = null;
+		synchronized (this) {
+			if (command.supersedes.length > 0) {
+				Iterator<Command> it = queue.iterator();
+				while (it.hasNext()) {
+					Command queued = it.next();
+					if (command.replaces(queued)) {
+						it.remove();
+						if (dropped == null) {
+							dropped = new ArrayDeque<Command>();
+						}
+						dropped.add(queued);
+					}
+				}
+			}
+			command.queuedAt = PlaybackMetrics.now();
+			queue.add(command);
+			metrics.queueDepth(queue.size());
+			if (!drainScheduled) {
+				drainScheduled = true;
+				handler.post(drain);
+			}
+		}
+		if (dropped != null) {
+			for (Command c : dropped) {
+				metrics.coalesced();
+				c.superseded();
+			}
+		}
+	}
+
+	public synchronized int depth() {
+		return queue.size();
+	}
+}
@@ -0,0 +1,288 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads width, height, rotation and duration straight from the container
+ * headers, without starting a decoder.
+ *
+ * MP4 files are read through {@link Mp4Reader}: mvhd gives the duration and
+ * the tkhd of the first video track gives the size and, from its matrix, the
+ * rotation. Only the pages holding those headers are ever touched. WebM and
+ * Matroska files are read from the first {@link #EBML_WINDOW} bytes, which
+ * hold the Info and Tracks elements in practice.
+ *
+ * Anything that cannot be understood returns null so that the caller can
+ * fall back to MediaMetadataRetriever.
+ */
+public class ContainerProbe {
+
+	static final int EBML_WINDOW = 64 * 1024;
+
+	private static final int EBML_HEADER = 0x1A45DFA3;
+	private static final int SEGMENT = 0x18538067;
+	private static final int INFO = 0x1549A966;
+	private static final int TIMECODE_SCALE = 0x2AD7B1;
+	private static final int DURATION = 0x4489;
+	private static final int TRACKS = 0x1654AE6B;
+	private static final int TRACK_ENTRY = 0xAE;
+	private static final int TRACK_TYPE = 0x83;
+	private static final int VIDEO = 0xE0;
+	private static final int PIXEL_WIDTH = 0xB0;
+	private static final int PIXEL_HEIGHT = 0xBA;
+	private static final int CLUSTER = 0x1F43B675;
+
+	private ContainerProbe() {
+	}
+
+	public static VideoMetadata probe(File file) {
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				ByteBuffer head = ByteBuffer.allocate(8);
+				if (raf.getChannel().read(head, 0) < 8) {
+					return null;
+				}
+				if (head.getInt(0) == EBML_HEADER) {
+					return probeMatroska(raf.getChannel());
+				}
+			} finally {
+				raf.close();
+			}
+			return probeMp4(file);
+		} catch (IOException e) {
+			return null;
+		} catch (RuntimeException e) {
+			// malformed headers pointing outside the buffers
+			return null;
+		}
+	}
+
+	private static VideoMetadata probeMp4(File file) throws IOException {
+		Mp4Reader reader = new Mp4Reader(file);
+		try {
+			Mp4Reader.Box moovBox = reader.find(Mp4Reader.MOOV);
+			if (moovBox == null) {
+				return null;
+			}
+			ByteBuffer moov = reader.map(moovBox);
+
+			long durationMs = 0;
+			int mvhd = Mp4Reader.child(moov, moovBox.headerSize, moov.limit(), Mp4Reader.MVHD);
+			if (mvhd >= 0) {
+				int body = mvhd + 8;
+				boolean v1 = moov.get(body) == 1;
+				int timescale = moov.getInt(body + (v1 ? 20 : 12));
+				long duration = v1 ? moov.getLong(body + 24) : moov.getInt(body + 16) & 0xffffffffL;
+				if (timescale > 0) {
+					durationMs = duration * 1000 / timescale;
+				}
+			}
+
+			int width = 0;
+			int height = 0;
+			int rotation = 0;
+			int trak = moovBox.headerSize;
+			while ((trak = Mp4Reader.child(moov, trak, moov.limit(), Mp4Reader.TRAK)) >= 0) {
+				int trakEnd = trak + Mp4Reader.boxSize(moov, trak);
+				int tkhd = Mp4Reader.child(moov, trak + 8, trakEnd, Mp4Reader.TKHD);
+				if (tkhd >= 0) {
+					int body = tkhd + 8;
+					int matrix = body + (moov.get(body) == 1 ? 52 : 40);
+					// 16.16 fixed point, after the matrix
+					int w = moov.getInt(matrix + 36) >>> 16;
+					int h = moov.getInt(matrix + 40) >>> 16;
+					if (w > 0 && h > 0) {
+						width = w;
+						height = h;
+						rotation = rotation(moov.getInt(matrix), moov.getInt(matrix + 4));
+						break;
+					}
+				}
+				trak = trakEnd;
+			}
+
+			if (durationMs <= 0 && width == 0) {
+				return null;
+			}
+			int bitrate = durationMs > 0 ? (int) Math.min(Integer.MAX_VALUE, reader.length() * 8000 / durationMs) : 0;
+			return new VideoMetadata(width, height, durationMs, rotation, bitrate);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Rotation in degrees from the first row (a, b) of a tkhd matrix.
+	 */
+	static int rotation(int a, int b) {
+		if (a == 0 && b > 0) {
+			return 90;
+		}
+		if (a < 0 && b == 0) {
+			return 180;
+		}
+		if (a == 0 && b < 0) {
+			return 270;
+		}
+		return 0;
+	}
+
+	private static VideoMetadata probeMatroska(FileChannel channel) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate((int) Math.min(EBML_WINDOW, channel.size()));
+		while (b.hasRemaining() && channel.read(b, b.position()) > 0) {
+			// fill the window
+		}
+		b.flip();
+		b.order(ByteOrder.BIG_ENDIAN);
+
+		// skip the EBML header, then enter the segment
+		long[] el = element(b, 0);
+		if (el == null || el[0] != EBML_HEADER) {
+			return null;
+		}
+		int pos = (int) (el[2] + el[1]);
+		el = element(b, pos);
+		if (el == null || el[0] != SEGMENT) {
+			return null;
+		}
+		pos = (int) el[2];
+		int end = segmentEnd(b, el);
+
+		long timecodeScale = 1000000;
+		double duration = 0;
+		int width = 0;
+		int height = 0;
+		boolean seenInfo = false;
+		boolean seenTracks = false;
+		while (pos < end && !(seenInfo && seenTracks)) {
+			el = element(b, pos);
+			if (el == null || el[0] == CLUSTER || el[1] < 0) {
+				break;
+			}
+			int body = (int) el[2];
+			int bodyEnd = (int) Math.min(end, body + el[1]);
+			if (el[0] == INFO) {
+				seenInfo = true;
+				for (int p = body; p < bodyEnd;) {
+					long[] child = element(b, p);
+					if (child == null || child[1] < 0) {
+						break;
+					}
+					if (child[0] == TIMECODE_SCALE) {
+						timecodeScale = readUInt(b, (int) child[2], (int) child[1]);
+					} else if (child[0] == DURATION) {
+						duration = child[1] == 4 ? b.getFloat((int) child[2]) : b.getDouble((int) child[2]);
+					}
+					p = (int) (child[2] + child[1]);
+				}
+			} else if (el[0] == TRACKS) {
+				seenTracks = true;
+				for (int p = body; p < bodyEnd && width == 0;) {
+					long[] entry = element(b, p);
+					if (entry == null || entry[1] < 0) {
+						break;
+					}
+					if (entry[0] == TRACK_ENTRY) {
+						int[] size = videoSize(b, (int) entry[2], (int) Math.min(bodyEnd, entry[2] + entry[1]));
+						width = size[0];
+						height = size[1];
+					}
+					p = (int) (entry[2] + entry[1]);
+				}
+			}
+			pos = body + (int) el[1];
+		}
+
+		long durationMs = (long) (duration * timecodeScale / 1000000);
+		if (durationMs <= 0 && width == 0) {
+			return null;
+		}
+		int bitrate = durationMs > 0 ? (int) Math.min(Integer.MAX_VALUE, channel.size() * 8000 / durationMs) : 0;
+		return new VideoMetadata(width, height, durationMs, 0, bitrate);
+	}
+
+	private static int[] videoSize(ByteBuffer b, int start, int end) {
+		int[] size = new int[2];
+		boolean video = false;
+		for (int p = start; p < end;) {
+			long[] child = element(b, p);
+			if (child == null || child[1] < 0) {
+				break;
+			}
+			if (child[0] == TRACK_TYPE) {
+				video = readUInt(b, (int) child[2], (int) child[1]) == 1;
+			} else if (child[0] == VIDEO) {
+				int vEnd = (int) Math.min(end, child[2] + child[1]);
+				for (int q = (int) child[2]; q < vEnd;) {
+					long[] v = element(b, q);
+					if (v == null || v[1] < 0) {
+						break;
+					}
+					if (v[0] == PIXEL_WIDTH) {
+						size[0] = (int) readUInt(b, (int) v[2], (int) v[1]);
+					} else if (v[0] == PIXEL_HEIGHT) {
+						size[1] = (int) readUInt(b, (int) v[2], (int) v[1]);
+					}
+					q = (int) (v[2] + v[1]);
+				}
+			}
+			p = (int) (child[2] + child[1]);
+		}
+		if (!video) {
+			size[0] = 0;
+			size[1] = 0;
+		}
+		return size;
+	}
+
+	private static int segmentEnd(ByteBuffer b, long[] segment) {
+		// live recordings leave the segment size unknown
+		return segment[1] < 0 ? b.limit() : (int) Math.min(b.limit(), segment[2] + segment[1]);
+	}
+
+	/**
+	 * Reads the EBML element header at pos. Returns {id, size, body offset},
+	 * with size -1 for an unknown size, or null if the header does not fit in
+	 * the buffer.
+	 */
+	private static long[] element(ByteBuffer b, int pos) {
+		if (pos >= b.limit()) {
+			return null;
+		}
+		int first = b.get(pos) & 0xff;
+		int idLength = Integer.numberOfLeadingZeros(first) - 23;
+		if (first == 0 || idLength > 4 || pos + idLength >= b.limit()) {
+			return null;
+		}
+		long id = readUInt(b, pos, idLength);
+		pos += idLength;
+
+		int lead = b.get(pos) & 0xff;
+		int sizeLength = Integer.numberOfLeadingZeros(lead) - 23;
+		if (lead == 0 || pos + sizeLength > b.limit()) {
+			return null;
+		}
+		long size = lead & (0xff >> sizeLength);
+		boolean unknown = size == (0xff >> sizeLength);
+		for (int i = 1; i < sizeLength; i++) {
+			int next = b.get(pos + i) & 0xff;
+			size = (size << 8) | next;
+			unknown &= next == 0xff;
+		}
+		return new long[] { id, unknown ? -1 : size, pos + sizeLength };
+	}
+
+	private static long readUInt(ByteBuffer b, int pos, int length) {
+		long value = 0;
+		for (int i = 0; i < length; i++) {
+			value = (value << 8) | (b.get(pos + i) & 0xff);
+		}
+		return value;
+	}
+}
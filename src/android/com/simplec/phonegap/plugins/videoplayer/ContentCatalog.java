@@ -0,0 +1,408 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.os.FileObserver;
+import android.util.Log;
+
+/**
+ * In-memory index of the offline content tree.
+ *
+ * The tree is walked once on a background executor. After that it is kept
+ * current by one FileObserver per directory (FileObserver is not recursive),
+ * so existence checks and listings on the play path are answered from memory
+ * instead of stat()ing slow storage. Until the first scan has finished, or
+ * for paths outside the root, callers fall back to the file system.
+ *
+ * Video files are probed for metadata in a second, lower priority pass; the
+ * probe is expected to be cached, so only new or changed files cost anything.
+ */
+public class ContentCatalog {
+
+	private static final String LOG_TAG = "ContentCatalog";
+
+	private static final int WATCH_MASK = FileObserver.CREATE | FileObserver.DELETE | FileObserver.MOVED_FROM
+			| FileObserver.MOVED_TO | FileObserver.CLOSE_WRITE | FileObserver.DELETE_SELF;
+
+	private static final String[] VIDEO_EXTENSIONS = { ".mp4", ".m4v", ".mov", ".3gp", ".webm", ".mkv" };
+
+	public interface Prober {
+		/**
+		 * Returns metadata for the file, or null. Called on the catalog's
+		 * executor.
+		 */
+		VideoMetadata probe(String path, long size, long mtime);
+	}
+
+	public static class Entry {
+		public final String path;
+		public final long size;
+		public final long mtime;
+		public final boolean directory;
+		volatile VideoMetadata metadata;
+
+		Entry(String path, long size, long mtime, boolean directory) {
+			this.path = path;
+			this.size = size;
+			this.mtime = mtime;
+			this.directory = directory;
+		}
+
+		public VideoMetadata getMetadata() {
+			return metadata;
+		}
+
+		public JSONObject toJSON() throws JSONException {
+			JSONObject json = new JSONObject();
+			json.put("path", path);
+			json.put("directory", directory);
+			if (!directory) {
+				json.put("size", size);
+				json.put("mtime", mtime);
+			}
+			VideoMetadata m = metadata;
+			if (m != null) {
+				json.put("metadata", m.toJSON());
+			}
+			return json;
+		}
+	}
+
+	private final ExecutorService executor;
+	private final Prober prober;
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private final Map<String, FileObserver> observers = new HashMap<String, FileObserver>();
+
+	private volatile String root;
+	private volatile boolean ready = false;
+	private volatile int generation = 0;
+
+	public ContentCatalog(ExecutorService executor, Prober prober) {
+		this.executor = executor;
+		this.prober = prober;
+	}
+
+	public String getRoot() {
+		return root;
+	}
+
+	public boolean isReady() {
+		return ready;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * True if the index is complete and authoritative for the given path.
+	 */
+	public boolean covers(String path) {
+		String r = root;
+		return ready && r != null && (path.equals(r) || path.startsWith(r + "/"));
+	}
+
+	/**
+	 * Returns the entry for path, or null if it is not in the index. Only
+	 * meaningful when {@link #covers(String)} is true.
+	 */
+	public Entry lookup(String path) {
+		return entries.get(path);
+	}
+
+	/**
+	 * Returns the entry for path from the index when it is authoritative for
+	 * that path, otherwise from the file system. Returns null if the path does
+	 * not exist.
+	 *
+	 * A path under the root that the index does not know is looked up on the
+	 * file system too: it may have been created before its change event was
+	 * handled. If it exists, it is added to the index.
+	 */
+	public Entry find(String path) {
+		path = normalize(path);
+		boolean indexed = covers(path);
+		if (indexed) {
+			Entry e = entries.get(path);
+			if (e != null) {
+				return e;
+			}
+		}
+		File f = new File(path);
+		if (!f.exists()) {
+			return null;
+		}
+		boolean directory = f.isDirectory();
+		Entry e = new Entry(path, directory ? 0 : f.length(), f.lastModified(), directory);
+		if (indexed && entries.putIfAbsent(path, e) == null && directory) {
+			scanLater(f);
+		}
+		return e;
+	}
+
+	/**
+	 * Lists the entries directly below the given directory, sorted by path.
+	 */
+	public List<Entry> list(String dir, int limit) {
+		String prefix = dir.endsWith("/") ? dir : dir + "/";
+		List<Entry> result = new ArrayList<Entry>();
+		for (Entry e : entries.values()) {
+			if (e.path.startsWith(prefix) && e.path.indexOf('/', prefix.length()) < 0) {
+				result.add(e);
+			}
+		}
+		Collections.sort(result, new Comparator<Entry>() {
+			public int compare(Entry a, Entry b) {
+				return a.path.compareTo(b.path);
+			}
+		});
+		return limit > 0 && result.size() > limit ? result.subList(0, limit) : result;
+	}
+
+	/**
+	 * Lists all indexed video files, sorted by path.
+	 */
+	public List<Entry> videos() {
+		List<Entry> result = new ArrayList<Entry>();
+		for (Entry e : entries.values()) {
+			if (!e.directory && isVideo(e.path)) {
+				result.add(e);
+			}
+		}
+		Collections.sort(result, new Comparator<Entry>() {
+			public int compare(Entry a, Entry b) {
+				return a.path.compareTo(b.path);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Starts indexing the given root in the background, replacing any previous
+	 * index. Does nothing if that root is already indexed.
+	 */
+	public synchronized void scan(String rootPath) {
+		rootPath = normalize(rootPath);
+		if (rootPath.equals(root)) {
+			return;
+		}
+		stopWatching();
+		entries.clear();
+		ready = false;
+		root = rootPath;
+		final int gen = ++generation;
+		final String r = rootPath;
+		executor.execute(new Runnable() {
+			public void run() {
+				long start = System.currentTimeMillis();
+				File top = new File(r);
+				if (top.isDirectory()) {
+					entries.put(r, new Entry(r, 0, top.lastModified(), true));
+				}
+				scanTree(top, gen);
+				synchronized (ContentCatalog.this) {
+					if (gen != generation) {
+						return;
+					}
+					ready = true;
+				}
+				Log.v(LOG_TAG, "indexed " + entries.size() + " entries under " + r + " in "
+						+ (System.currentTimeMillis() - start) + "ms");
+				probeAll(gen);
+			}
+		});
+	}
+
+	public synchronized void close() {
+		generation++;
+		stopWatching();
+		entries.clear();
+		ready = false;
+		root = null;
+	}
+
+	private void scanLater(final File dir) {
+		final int gen = generation;
+		executor.execute(new Runnable() {
+			public void run() {
+				scanTree(dir, gen);
+			}
+		});
+	}
+
+	private void scanTree(File top, int gen) {
+		Deque<File> dirs = new ArrayDeque<File>();
+		dirs.push(top);
+		while (!dirs.isEmpty()) {
+			if (gen != generation) {
+				return;
+			}
+			File dir = dirs.pop();
+			// watch before listing, so that nothing created in between is missed
+			watch(dir.getPath(), gen);
+			File[] children = dir.listFiles();
+			if (children == null) {
+				continue;
+			}
+			for (File child : children) {
+				if (child.isDirectory()) {
+					entries.put(child.getPath(), new Entry(child.getPath(), 0, child.lastModified(), true));
+					dirs.push(child);
+				} else {
+					entries.put(child.getPath(), new Entry(child.getPath(), child.length(), child.lastModified(), false));
+				}
+			}
+		}
+	}
+
+	private void probeAll(int gen) {
+		if (prober == null) {
+			return;
+		}
+		for (Entry e : new ArrayList<Entry>(entries.values())) {
+			if (gen != generation) {
+				return;
+			}
+			probe(e);
+		}
+	}
+
+	private void probe(Entry e) {
+		if (prober == null || e.directory || e.metadata != null || !isVideo(e.path)) {
+			return;
+		}
+		e.metadata = prober.probe(e.path, e.size, e.mtime);
+	}
+
+	/**
+	 * Drops repeated and trailing separators and resolves "." and ".."
+	 * segments, so that a path has one spelling in the index.
+	 */
+	static String normalize(String path) {
+		boolean absolute = path.startsWith("/");
+		Deque<String> segments = new ArrayDeque<String>();
+		for (String segment : path.split("/")) {
+			if (segment.length() == 0 || segment.equals(".")) {
+				continue;
+			}
+			if (segment.equals("..") && !segments.isEmpty() && !segments.peekLast().equals("..")) {
+				segments.removeLast();
+			} else if (!segment.equals("..") || !absolute) {
+				segments.addLast(segment);
+			}
+		}
+		StringBuilder sb = new StringBuilder(path.length());
+		for (String segment : segments) {
+			if (sb.length() > 0 || absolute) {
+				sb.append('/');
+			}
+			sb.append(segment);
+		}
+		if (sb.length() == 0) {
+			return absolute ? "/" : ".";
+		}
+		return sb.toString();
+	}
+
+	private static boolean isVideo(String path) {
+		String lower = path.toLowerCase(Locale.US);
+		for (String ext : VIDEO_EXTENSIONS) {
+			if (lower.endsWith(ext)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private synchronized void watch(final String dir, final int gen) {
+		if (gen != generation || observers.containsKey(dir)) {
+			return;
+		}
+		FileObserver observer = new FileObserver(dir, WATCH_MASK) {
+			@Override
+			public void onEvent(int event, final String name) {
+				final int type = event & WATCH_MASK;
+				if (type == 0) {
+					return;
+				}
+				executor.execute(new Runnable() {
+					public void run() {
+						onChange(dir, type, name, gen);
+					}
+				});
+			}
+		};
+		observer.startWatching();
+		observers.put(dir, observer);
+	}
+
+	private void onChange(String dir, int type, String name, int gen) {
+		if (gen != generation) {
+			return;
+		}
+		if ((type & FileObserver.DELETE_SELF) != 0) {
+			removeTree(dir);
+			return;
+		}
+		if (name == null) {
+			return;
+		}
+		String path = dir + "/" + name;
+		File f = new File(path);
+		if (!f.exists()) {
+			removeTree(path);
+			return;
+		}
+		if (f.isDirectory()) {
+			if (!entries.containsKey(path)) {
+				entries.put(path, new Entry(path, 0, f.lastModified(), true));
+				scanTree(f, gen);
+			}
+			return;
+		}
+		Entry e = new Entry(path, f.length(), f.lastModified(), false);
+		entries.put(path, e);
+		if (ready) {
+			probe(e);
+		}
+	}
+
+	private void removeTree(String path) {
+		String prefix = path + "/";
+		entries.remove(path);
+		for (String key : new ArrayList<String>(entries.keySet())) {
+			if (key.startsWith(prefix)) {
+				entries.remove(key);
+			}
+		}
+		synchronized (this) {
+			for (String dir : new ArrayList<String>(observers.keySet())) {
+				if (dir.equals(path) || dir.startsWith(prefix)) {
+					observers.remove(dir).stopWatching();
+				}
+			}
+		}
+	}
+
+	private void stopWatching() {
+		for (FileObserver observer : observers.values()) {
+			observer.stopWatching();
+		}
+		observers.clear();
+	}
+}
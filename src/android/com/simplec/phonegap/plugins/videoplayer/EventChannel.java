@@ -0,0 +1,346 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONObject;
+
+import android.os.Handler;
+
+/**
+ * Batches player events to the keep-alive callback of the current play.
+ *
+ * Events are queued as pooled records and flushed as one JSON array per
+ * interval (a frame by default) instead of one bridge message each. The
+ * array is written straight from the records into a reused buffer and sent
+ * as a string, which www/VideoPlayer.js parses, so no JSON objects are built
+ * per event. While queued, redundant events are merged: consecutive
+ * identical key or swipe events become one event with a count, only the
+ * latest of a run of paused/playing events is kept (and dropped entirely if
+ * it matches what JS was last told), and only the latest queue and progress
+ * events are kept. Terminal events flush immediately and close the callback.
+ *
+ * An interval of 0 sends every event as soon as it is posted, still wrapped
+ * in an array.
+ */
+public class EventChannel {
+
+	public static final String PAUSED = "paused";
+	public static final String PLAYING = "playing";
+	public static final String PREPARED = "prepared";
+	public static final String COMPLETED = "completed";
+	public static final String ERROR = "error";
+	public static final String KEY = "key";
+	public static final String SWIPE = "swipe";
+	public static final String QUEUE = "queue";
+	public static final String PROGRESS = "progress";
+	public static final String EVICTED = "evicted";
+	public static final String BUFFERING = "buffering";
+	public static final String BUFFERED = "buffered";
+	public static final String REBUFFERING = "rebuffering";
+	public static final String REBUFFERED = "rebuffered";
+
+	public static final int DEFAULT_INTERVAL = 16;
+
+	private static final int POOL_SIZE = 64;
+	private static final int MAX_PENDING = 256;
+
+	private static class Record {
+		String type;
+		String key1;
+		int value1;
+		String key2;
+		int value2;
+		String textKey;
+		String text;
+		String flagKey;
+		boolean flag;
+		JSONObject json;
+		int count;
+
+		boolean sameAs(String type, String key1, int value1, String key2, int value2, String textKey, String text) {
+			return this.type.equals(type) && eq(this.key1, key1) && this.value1 == value1 && eq(this.key2, key2)
+					&& this.value2 == value2 && eq(this.textKey, textKey) && eq(this.text, text);
+		}
+
+		/**
+		 * Writes the event as a JSON object. The fields of a structured event
+		 * are copied from its own serialization, leaving it untouched.
+		 */
+		void appendTo(StringBuilder sb) {
+			sb.append("{\"type\":");
+			quote(sb, type);
+			if (key1 != null) {
+				field(sb, key1).append(value1);
+			}
+			if (key2 != null) {
+				field(sb, key2).append(value2);
+			}
+			if (textKey != null) {
+				quote(field(sb, textKey), text);
+			}
+			if (flagKey != null) {
+				field(sb, flagKey).append(flag);
+			}
+			if (count > 1) {
+				field(sb, "count").append(count);
+			}
+			if (json != null && json.length() > 0) {
+				String fields = json.toString();
+				sb.append(',').append(fields, 1, fields.length() - 1);
+			}
+			sb.append('}');
+		}
+
+		private static boolean eq(String a, String b) {
+			return a == null ? b == null : a.equals(b);
+		}
+
+		private static StringBuilder field(StringBuilder sb, String key) {
+			sb.append(',');
+			quote(sb, key);
+			return sb.append(':');
+		}
+
+		/** appends a JSON string literal, or null */
+		private static void quote(StringBuilder sb, String s) {
+			if (s == null) {
+				sb.append("null");
+				return;
+			}
+			sb.append('"');
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				if (c == '"' || c == '\\') {
+					sb.append('\\').append(c);
+				} else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+					// control characters, and line separators JS does not allow in strings
+					sb.append("\\u");
+					String hex = Integer.toHexString(c);
+					for (int pad = hex.length(); pad < 4; pad++) {
+						sb.append('0');
+					}
+					sb.append(hex);
+				} else {
+					sb.append(c);
+				}
+			}
+			sb.append('"');
+		}
+	}
+
+	private final Handler handler;
+	private final ArrayList<Record> pending = new ArrayList<Record>();
+	private final ArrayList<Record> pool = new ArrayList<Record>(POOL_SIZE);
+	/** the batch being written, kept between flushes */
+	private final StringBuilder batch = new StringBuilder(1024);
+
+	private CallbackContext callbackContext;
+	private int interval = DEFAULT_INTERVAL;
+	private boolean flushScheduled = false;
+	private String lastPlayState;
+
+	private final Runnable flushRunnable = new Runnable() {
+		public void run() {
+			synchronized (EventChannel.this) {
+				flushScheduled = false;
+				send(true);
+			}
+		}
+	};
+
+	public EventChannel(Handler handler) {
+		this.handler = handler;
+		for (int i = 0; i < POOL_SIZE; i++) {
+			pool.add(new Record());
+		}
+	}
+
+	/**
+	 * Directs events to a new callback. Anything still queued for the previous
+	 * callback is dropped.
+	 */
+	public synchronized void open(CallbackContext callbackContext, int interval) {
+		recycleAll();
+		this.callbackContext = callbackContext;
+		this.interval = Math.max(0, interval);
+		this.lastPlayState = null;
+	}
+
+	public synchronized boolean isOpen() {
+		return callbackContext != null;
+	}
+
+	public void post(String type) {
+		post(type, null, 0, null, 0, null, null, null, false, null);
+	}
+
+	public void post(String type, String key, int value) {
+		post(type, key, value, null, 0, null, null, null, false, null);
+	}
+
+	public void post(String type, String key1, int value1, String key2, int value2) {
+		post(type, key1, value1, key2, value2, null, null, null, false, null);
+	}
+
+	public void post(String type, String textKey, String text) {
+		post(type, null, 0, null, 0, textKey, text, null, false, null);
+	}
+
+	public void post(String type, String key1, int value1, String key2, int value2, String textKey, String text) {
+		post(type, key1, value1, key2, value2, textKey, text, null, false, null);
+	}
+
+	public void post(String type, String key1, int value1, String key2, int value2, String flagKey, boolean flag) {
+		post(type, key1, value1, key2, value2, null, null, flagKey, flag, null);
+	}
+
+	/**
+	 * Posts an event whose fields are already in a JSONObject. Used for rare,
+	 * structured events where pooling buys nothing. The object is not
+	 * changed, but must not be changed by the caller until it is sent.
+	 */
+	public void post(String type, JSONObject json) {
+		post(type, null, 0, null, 0, null, null, null, false, json);
+	}
+
+	/**
+	 * Sends everything queued plus a final event, then releases the callback.
+	 */
+	public synchronized void close(String type, String key1, int value1, String key2, int value2) {
+		if (callbackContext == null) {
+			return;
+		}
+		Record r = obtain();
+		set(r, type, key1, value1, key2, value2, null, null, null);
+		pending.add(r);
+		send(false);
+		callbackContext = null;
+	}
+
+	/**
+	 * Sends everything queued, then fails the callback with the given message.
+	 */
+	public synchronized void fail(String message) {
+		if (callbackContext == null) {
+			return;
+		}
+		send(true);
+		callbackContext.error(message);
+		callbackContext = null;
+	}
+
+	public synchronized void flush() {
+		send(true);
+	}
+
+	private synchronized void post(String type, String key1, int value1, String key2, int value2, String textKey,
+			String text, String flagKey, boolean flag, JSONObject json) {
+		if (callbackContext == null) {
+			return;
+		}
+
+		if (PAUSED.equals(type) || PLAYING.equals(type)) {
+			removePending(PAUSED);
+			removePending(PLAYING);
+			if (type.equals(lastPlayState)) {
+				// flapped back to what JS already knows
+				return;
+			}
+		} else if (QUEUE.equals(type) || PROGRESS.equals(type)) {
+			removePending(type);
+		} else if ((KEY.equals(type) || SWIPE.equals(type)) && !pending.isEmpty()) {
+			Record last = pending.get(pending.size() - 1);
+			if (last.sameAs(type, key1, value1, key2, value2, textKey, text)) {
+				last.count++;
+				return;
+			}
+		}
+
+		Record r = obtain();
+		set(r, type, key1, value1, key2, value2, textKey, text, json);
+		r.flagKey = flagKey;
+		r.flag = flag;
+		pending.add(r);
+
+		if (interval == 0 || pending.size() >= MAX_PENDING) {
+			send(true);
+		} else if (!flushScheduled) {
+			flushScheduled = true;
+			handler.postDelayed(flushRunnable, interval);
+		}
+	}
+
+	private void send(boolean keepCallback) {
+		if (pending.isEmpty() || callbackContext == null) {
+			recycleAll();
+			return;
+		}
+		batch.setLength(0);
+		batch.append('[');
+		for (int i = 0; i < pending.size(); i++) {
+			Record r = pending.get(i);
+			if (i > 0) {
+				batch.append(',');
+			}
+			r.appendTo(batch);
+			if (PAUSED.equals(r.type) || PLAYING.equals(r.type)) {
+				lastPlayState = r.type;
+			}
+		}
+		batch.append(']');
+		recycleAll();
+
+		PluginResult result = new PluginResult(PluginResult.Status.OK, batch.toString());
+		result.setKeepCallback(keepCallback);
+		callbackContext.sendPluginResult(result);
+	}
+
+	private void removePending(String type) {
+		Iterator<Record> it = pending.iterator();
+		while (it.hasNext()) {
+			Record r = it.next();
+			if (r.type.equals(type)) {
+				it.remove();
+				recycle(r);
+			}
+		}
+	}
+
+	private Record obtain() {
+		int n = pool.size();
+		return n > 0 ? pool.remove(n - 1) : new Record();
+	}
+
+	private void recycle(Record r) {
+		r.json = null;
+		r.text = null;
+		if (pool.size() < POOL_SIZE) {
+			pool.add(r);
+		}
+	}
+
+	private void recycleAll() {
+		for (Record r : pending) {
+			recycle(r);
+		}
+		pending.clear();
+	}
+
+	private static void set(Record r, String type, String key1, int value1, String key2, int value2, String textKey,
+			String text, JSONObject json) {
+		r.type = type;
+		r.key1 = key1;
+		r.value1 = value1;
+		r.key2 = key2;
+		r.value2 = value2;
+		r.textKey = textKey;
+		r.text = text;
+		r.json = json;
+		r.flagKey = null;
+		r.flag = false;
+		r.count = 1;
+	}
+}
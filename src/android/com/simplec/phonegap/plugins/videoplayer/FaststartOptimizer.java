@@ -0,0 +1,449 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Background maintenance that moves the moov box of MP4 files in front of
+ * their media data ("faststart"), so that preparing them no longer has to
+ * seek to the end of the file first.
+ *
+ * A file is rewritten next to itself: the boxes before the first mdat, then
+ * the moov with every stco/co64 chunk offset shifted by its size, then the
+ * rest of the file minus the old moov. Media data is streamed with
+ * FileChannel.transferTo in slices at a throttled rate so that playback from
+ * the same storage is not starved. The copy is verified (length, layout and
+ * the bytes at the first chunk of every track) before it atomically replaces
+ * the original. Files that are in use are left alone. A {@link Listener} is
+ * told before and after each rewrite, so that anything keyed by a file's
+ * bytes, like its digest, can follow it.
+ */
+public class FaststartOptimizer {
+
+	private static final String LOG_TAG = "FaststartOptimizer";
+
+	public static final long DEFAULT_RATE = 4L * 1024 * 1024;
+
+	private static final long SLICE = 256 * 1024;
+	private static final long MAX_MOOV = 64L * 1024 * 1024;
+	private static final int VERIFY_BYTES = 64;
+
+	public interface Guard {
+		/** True if the file must not be replaced right now, e.g. it is playing. */
+		boolean inUse(String path);
+	}
+
+	public interface Listener {
+		/**
+		 * Called on the worker thread before a file is rewritten, while it is
+		 * still as it was. Throwing leaves the file alone.
+		 */
+		void rewriting(File file) throws IOException;
+
+		/** Called on the worker thread once the rewritten copy replaced the file. */
+		void rewritten(File file);
+	}
+
+	private final Guard guard;
+	private final Listener listener;
+	private final ExecutorService executor;
+
+	// progress, guarded by this
+	private boolean running = false;
+	private volatile boolean cancelled = false;
+	private int total;
+	private int checked;
+	private int optimized;
+	private int failed;
+	private String current;
+	private long currentBytes;
+	private long currentLength;
+	private long bytesCopied;
+	private String lastError;
+
+	public FaststartOptimizer(Guard guard) {
+		this(guard, null);
+	}
+
+	public FaststartOptimizer(Guard guard, Listener listener) {
+		this.guard = guard;
+		this.listener = listener;
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(final Runnable r) {
+				return new Thread(new Runnable() {
+					public void run() {
+						Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+						r.run();
+					}
+				}, LOG_TAG);
+			}
+		});
+	}
+
+	/**
+	 * True if the file is an MP4 whose moov box comes after its first mdat.
+	 */
+	public static boolean needsFaststart(File file) throws IOException {
+		Mp4Reader reader = new Mp4Reader(file);
+		try {
+			return needsFaststart(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static boolean needsFaststart(Mp4Reader reader) throws IOException {
+		Mp4Reader.Box moov = reader.find(Mp4Reader.MOOV);
+		Mp4Reader.Box mdat = reader.find(Mp4Reader.MDAT);
+		return moov != null && mdat != null && moov.offset > mdat.offset;
+	}
+
+	/**
+	 * Starts a pass over the given files, copying at most bytesPerSecond.
+	 * Returns false if a pass is already running.
+	 */
+	public synchronized boolean start(final List<String> paths, final long bytesPerSecond) {
+		if (running) {
+			return false;
+		}
+		running = true;
+		cancelled = false;
+		total = paths.size();
+		checked = 0;
+		optimized = 0;
+		failed = 0;
+		bytesCopied = 0;
+		lastError = null;
+		executor.execute(new Runnable() {
+			public void run() {
+				long start = System.currentTimeMillis();
+				try {
+					for (String path : paths) {
+						if (cancelled) {
+							break;
+						}
+						synchronized (FaststartOptimizer.this) {
+							current = path;
+							currentBytes = 0;
+							currentLength = 0;
+						}
+						try {
+							if (optimize(new File(path), bytesPerSecond)) {
+								synchronized (FaststartOptimizer.this) {
+									optimized++;
+								}
+							}
+						} catch (IOException e) {
+							failed(path, e);
+						} catch (RuntimeException e) {
+							// a file malformed in a way the checks missed; the temp
+							// file is gone and the original untouched
+							failed(path, e);
+						}
+						synchronized (FaststartOptimizer.this) {
+							checked++;
+						}
+					}
+				} finally {
+					synchronized (FaststartOptimizer.this) {
+						Log.v(LOG_TAG, "checked " + checked + " files, optimized " + optimized + " in "
+								+ (System.currentTimeMillis() - start) + "ms");
+						running = false;
+						current = null;
+					}
+				}
+			}
+		});
+		return true;
+	}
+
+	private synchronized void failed(String path, Exception e) {
+		Log.w(LOG_TAG, "could not optimize " + path + ": " + e);
+		failed++;
+		lastError = path + ": " + e.getLocalizedMessage();
+	}
+
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public void shutdown() {
+		cancelled = true;
+		executor.shutdownNow();
+	}
+
+	public synchronized JSONObject status() throws JSONException {
+		JSONObject json = new JSONObject();
+		json.put("running", running);
+		json.put("total", total);
+		json.put("checked", checked);
+		json.put("optimized", optimized);
+		json.put("failed", failed);
+		json.put("bytesCopied", bytesCopied);
+		if (current != null) {
+			json.put("current", current);
+			json.put("currentProgress", currentLength > 0 ? (double) currentBytes / currentLength : 0);
+		}
+		if (lastError != null) {
+			json.put("lastError", lastError);
+		}
+		return json;
+	}
+
+	/**
+	 * Rewrites one file with moov first if it needs it.
+	 *
+	 * @return true if the file was rewritten
+	 */
+	boolean optimize(File file, long bytesPerSecond) throws IOException {
+		if (guard != null && guard.inUse(file.getPath())) {
+			return false;
+		}
+		Mp4Reader reader = new Mp4Reader(file);
+		File tmp = new File(file.getPath() + ".faststart.tmp");
+		try {
+			if (!needsFaststart(reader)) {
+				return false;
+			}
+			long length = reader.length();
+			File dir = file.getAbsoluteFile().getParentFile();
+			if (dir != null && dir.getUsableSpace() < length + SLICE) {
+				throw new IOException("not enough space to rewrite");
+			}
+
+			List<Mp4Reader.Box> boxes = reader.topLevel();
+			Mp4Reader.Box moov = reader.find(Mp4Reader.MOOV);
+			if (moov.size > MAX_MOOV) {
+				throw new IOException("moov too large");
+			}
+			for (Mp4Reader.Box box : boxes) {
+				if (box.type == Mp4Reader.MDAT && box.offset > moov.offset) {
+					// its chunks would not move with the others
+					throw new IOException("media data after moov");
+				}
+			}
+			ByteBuffer patched = reader.read(moov);
+			long[] firstChunks = shiftChunkOffsets(patched, moov.headerSize, moov.size);
+			if (listener != null) {
+				listener.rewriting(file);
+			}
+
+			synchronized (this) {
+				currentLength = length;
+			}
+			RandomAccessFile in = new RandomAccessFile(file, "r");
+			RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+			try {
+				FileChannel src = in.getChannel();
+				FileChannel dst = out.getChannel();
+				dst.truncate(0);
+				Throttle throttle = new Throttle(bytesPerSecond);
+				boolean moovWritten = false;
+				for (Mp4Reader.Box box : boxes) {
+					if (box == moov) {
+						continue;
+					}
+					if (!moovWritten && box.type == Mp4Reader.MDAT) {
+						while (patched.hasRemaining()) {
+							dst.write(patched);
+						}
+						moovWritten = true;
+					}
+					copy(src, box.offset, box.size, dst, throttle);
+				}
+				dst.force(true);
+			} finally {
+				out.close();
+				in.close();
+			}
+
+			verify(file, tmp, length, firstChunks, moov.size);
+			if (cancelled) {
+				throw new IOException("cancelled");
+			}
+			if (guard != null && guard.inUse(file.getPath())) {
+				// started playing while we were copying; try again next pass
+				return false;
+			}
+			if (!tmp.renameTo(file)) {
+				throw new IOException("could not replace " + file);
+			}
+			if (listener != null) {
+				listener.rewritten(file);
+			}
+			Log.v(LOG_TAG, "moved moov to the front of " + file);
+			return true;
+		} finally {
+			reader.close();
+			if (tmp.exists()) {
+				tmp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Adds delta to every chunk offset in the moov held in b, and returns the
+	 * original first chunk offset of each track that has one. Fails if a
+	 * table claims more entries than its box holds.
+	 */
+	private static long[] shiftChunkOffsets(ByteBuffer b, int start, long delta) throws IOException {
+		List<Long> firstChunks = new ArrayList<Long>();
+		int end = b.limit();
+		int trak = start;
+		while ((trak = Mp4Reader.child(b, trak, end, Mp4Reader.TRAK)) >= 0) {
+			int trakEnd = trak + Mp4Reader.boxSize(b, trak);
+			int stbl = descend(b, trak, trakEnd, Mp4Reader.MDIA, Mp4Reader.MINF, Mp4Reader.STBL);
+			if (stbl >= 0) {
+				int stblEnd = stbl + Mp4Reader.boxSize(b, stbl);
+				int stco = Mp4Reader.child(b, stbl + 8, stblEnd, Mp4Reader.STCO);
+				int co64 = Mp4Reader.child(b, stbl + 8, stblEnd, Mp4Reader.CO64);
+				if (stco >= 0) {
+					int count = Mp4Reader.entryCount(b, stco, 4);
+					for (int i = 0; i < count; i++) {
+						int at = stco + 16 + i * 4;
+						long offset = b.getInt(at) & 0xffffffffL;
+						if (i == 0) {
+							firstChunks.add(Long.valueOf(offset));
+						}
+						long shifted = offset + delta;
+						if (shifted > 0xffffffffL) {
+							throw new IOException("chunk offsets would overflow stco");
+						}
+						b.putInt(at, (int) shifted);
+					}
+				} else if (co64 >= 0) {
+					int count = Mp4Reader.entryCount(b, co64, 8);
+					for (int i = 0; i < count; i++) {
+						int at = co64 + 16 + i * 8;
+						long offset = b.getLong(at);
+						if (i == 0) {
+							firstChunks.add(Long.valueOf(offset));
+						}
+						b.putLong(at, offset + delta);
+					}
+				}
+			}
+			trak = trakEnd;
+		}
+		long[] result = new long[firstChunks.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = firstChunks.get(i).longValue();
+		}
+		return result;
+	}
+
+	private static int descend(ByteBuffer b, int box, int end, int... path) {
+		for (int type : path) {
+			box = Mp4Reader.child(b, box + 8, end, type);
+			if (box < 0) {
+				return -1;
+			}
+			end = box + Mp4Reader.boxSize(b, box);
+		}
+		return box;
+	}
+
+	/**
+	 * Checks that the rewritten file has the same length, starts its media
+	 * data after moov and has the same bytes at the start of every track's
+	 * first chunk as the original.
+	 */
+	private static void verify(File original, File rewritten, long length, long[] firstChunks, long delta)
+			throws IOException {
+		Mp4Reader check = new Mp4Reader(rewritten);
+		try {
+			if (check.length() != length) {
+				throw new IOException("rewritten file has the wrong length");
+			}
+			if (needsFaststart(check)) {
+				throw new IOException("rewritten file still has moov last");
+			}
+		} finally {
+			check.close();
+		}
+
+		RandomAccessFile a = new RandomAccessFile(original, "r");
+		RandomAccessFile b = new RandomAccessFile(rewritten, "r");
+		try {
+			ByteBuffer x = ByteBuffer.allocate(VERIFY_BYTES);
+			ByteBuffer y = ByteBuffer.allocate(VERIFY_BYTES);
+			for (long offset : firstChunks) {
+				x.clear();
+				y.clear();
+				a.getChannel().read(x, offset);
+				b.getChannel().read(y, offset + delta);
+				x.flip();
+				y.flip();
+				if (!x.equals(y)) {
+					throw new IOException("chunk at " + offset + " does not match after rewrite");
+				}
+			}
+		} finally {
+			a.close();
+			b.close();
+		}
+	}
+
+	private void copy(FileChannel src, long pos, long count, FileChannel dst, Throttle throttle) throws IOException {
+		while (count > 0) {
+			if (cancelled) {
+				throw new IOException("cancelled");
+			}
+			long n = src.transferTo(pos, Math.min(SLICE, count), dst);
+			if (n <= 0) {
+				throw new IOException("short copy at " + pos);
+			}
+			pos += n;
+			count -= n;
+			synchronized (this) {
+				currentBytes += n;
+				bytesCopied += n;
+			}
+			throttle.account(n);
+		}
+	}
+
+	/**
+	 * Sleeps as needed to keep the average rate at or below the limit.
+	 */
+	private static class Throttle {
+		private final long bytesPerSecond;
+		private final long start = System.currentTimeMillis();
+		private long bytes = 0;
+
+		Throttle(long bytesPerSecond) {
+			this.bytesPerSecond = bytesPerSecond;
+		}
+
+		void account(long n) throws IOException {
+			if (bytesPerSecond <= 0) {
+				return;
+			}
+			bytes += n;
+			long due = start + bytes * 1000 / bytesPerSecond;
+			long wait = due - System.currentTimeMillis();
+			if (wait > 0) {
+				try {
+					Thread.sleep(wait);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("interrupted");
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.util.Log;
+
+/**
+ * Size-bounded directory of generated files, evicted least-recently-used.
+ *
+ * Files are produced into a temp file from {@link #tempFile(String)} and
+ * published with {@link #commit(File, String)}, so readers never see a
+ * partial file. Eviction is kept by a {@link CacheIndex}, as for
+ * {@link ChunkCache}.
+ */
+public class FileCache {
+
+	private static final String LOG_TAG = "FileCache";
+
+	private final File dir;
+	private final CacheIndex index;
+	private boolean loaded = false;
+
+	public FileCache(File dir, long maxBytes) {
+		this.dir = dir;
+		this.index = new CacheIndex(dir, maxBytes);
+	}
+
+	public synchronized long getTotalBytes() {
+		ensureLoaded();
+		return index.getTotalBytes();
+	}
+
+	/**
+	 * Returns the cached file with the given name and marks it as most
+	 * recently used, or returns null if it is not cached.
+	 */
+	public File get(String name) {
+		File f;
+		synchronized (this) {
+			ensureLoaded();
+			if (!index.touch(name)) {
+				return null;
+			}
+			f = index.file(name);
+		}
+		if (!f.exists()) {
+			// deleted underneath us
+			synchronized (this) {
+				index.forget(name);
+			}
+			return null;
+		}
+		f.setLastModified(System.currentTimeMillis());
+		return f;
+	}
+
+	/**
+	 * Returns where the entry with the given name is kept, whether or not it
+	 * is cached.
+	 */
+	public File file(String name) {
+		return index.file(name);
+	}
+
+	/**
+	 * Returns a temp file in the cache directory to write a new entry to.
+	 */
+	public File tempFile(String name) {
+		dir.mkdirs();
+		return new File(dir, name + "." + Thread.currentThread().getId() + ".tmp");
+	}
+
+	/**
+	 * Publishes a temp file under the given name and evicts the least recently
+	 * used files if the cache is now over its size limit.
+	 *
+	 * @return the published file
+	 */
+	public synchronized File commit(File tmp, String name) throws IOException {
+		ensureLoaded();
+		File target = index.file(name);
+		if (!tmp.renameTo(target)) {
+			tmp.delete();
+			throw new IOException("could not rename " + tmp);
+		}
+		index.put(name, target.length());
+		return target;
+	}
+
+	public synchronized void remove(String name) {
+		ensureLoaded();
+		if (index.contains(name)) {
+			index.file(name).delete();
+			index.forget(name);
+		}
+	}
+
+	public synchronized void clear() {
+		ensureLoaded();
+		index.delete("");
+	}
+
+	private void ensureLoaded() {
+		if (loaded) {
+			return;
+		}
+		loaded = true;
+
+		File[] list = dir.listFiles();
+		if (list == null) {
+			return;
+		}
+		List<File> found = new ArrayList<File>();
+		for (File f : list) {
+			if (f.getName().endsWith(".tmp")) {
+				f.delete();
+			} else if (f.isFile()) {
+				found.add(f);
+			}
+		}
+		index.load(found);
+		Log.v(LOG_TAG, "found " + found.size() + " files, " + index.getTotalBytes() + " bytes in " + dir);
+	}
+}
@@ -0,0 +1,233 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An HLS (m3u8) playlist: either a master playlist listing variants or a
+ * media playlist listing segments.
+ *
+ * The playlist is parsed line by line as it is read, so a large live window
+ * is never held as text. Only what the loopback proxy needs is kept. Features
+ * that would need the segments to be decrypted or cut (keys, byte ranges,
+ * fMP4 init sections) are rejected so the caller can fall back to handing the
+ * original URL to MediaPlayer. Pure Java, so it can be exercised on a plain
+ * JVM.
+ */
+public class HlsPlaylist {
+
+	public static class Variant {
+		public final String url;
+		/** peak bits per second, from BANDWIDTH */
+		public final long bandwidth;
+		public final int width;
+		public final int height;
+
+		Variant(String url, long bandwidth, int width, int height) {
+			this.url = url;
+			this.bandwidth = bandwidth;
+			this.width = width;
+			this.height = height;
+		}
+	}
+
+	public static class Segment {
+		public final String url;
+		public final long sequence;
+		public final double duration;
+		public final boolean discontinuity;
+
+		Segment(String url, long sequence, double duration, boolean discontinuity) {
+			this.url = url;
+			this.sequence = sequence;
+			this.duration = duration;
+			this.discontinuity = discontinuity;
+		}
+	}
+
+	/** variants in ascending bandwidth; empty for a media playlist */
+	public final List<Variant> variants;
+	public final List<Segment> segments;
+	public final long mediaSequence;
+	public final int targetDuration;
+	/** true when no more segments will be added (video on demand) */
+	public final boolean endList;
+
+	private HlsPlaylist(List<Variant> variants, List<Segment> segments, long mediaSequence, int targetDuration,
+			boolean endList) {
+		this.variants = variants;
+		this.segments = segments;
+		this.mediaSequence = mediaSequence;
+		this.targetDuration = targetDuration;
+		this.endList = endList;
+	}
+
+	public boolean isMaster() {
+		return !variants.isEmpty();
+	}
+
+	/**
+	 * Returns the segment with the given media sequence number, or null if it
+	 * is outside this playlist.
+	 */
+	public Segment segment(long sequence) {
+		long i = sequence - mediaSequence;
+		return i >= 0 && i < segments.size() ? segments.get((int) i) : null;
+	}
+
+	public static HlsPlaylist parse(InputStream in, String baseUrl) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		String line = reader.readLine();
+		if (line != null && line.length() > 0 && line.charAt(0) == '\uFEFF') {
+			line = line.substring(1);
+		}
+		if (line == null || !line.trim().equals("#EXTM3U")) {
+			throw new IOException("not an m3u8 playlist");
+		}
+
+		List<Variant> variants = new ArrayList<Variant>();
+		List<Segment> segments = new ArrayList<Segment>();
+		long mediaSequence = 0;
+		int targetDuration = 0;
+		boolean endList = false;
+
+		Map<String, String> streamInf = null;
+		double duration = -1;
+		boolean discontinuity = false;
+		while ((line = reader.readLine()) != null) {
+			line = line.trim();
+			if (line.length() == 0) {
+				continue;
+			}
+			if (line.startsWith("#")) {
+				if (line.startsWith("#EXT-X-STREAM-INF:")) {
+					streamInf = attributes(line.substring("#EXT-X-STREAM-INF:".length()));
+				} else if (line.startsWith("#EXTINF:")) {
+					String value = line.substring("#EXTINF:".length());
+					int comma = value.indexOf(',');
+					duration = parseDouble(comma >= 0 ? value.substring(0, comma) : value);
+				} else if (line.startsWith("#EXT-X-TARGETDURATION:")) {
+					targetDuration = (int) parseLong(line.substring("#EXT-X-TARGETDURATION:".length()));
+				} else if (line.startsWith("#EXT-X-MEDIA-SEQUENCE:")) {
+					mediaSequence = parseLong(line.substring("#EXT-X-MEDIA-SEQUENCE:".length()));
+				} else if (line.equals("#EXT-X-ENDLIST")) {
+					endList = true;
+				} else if (line.equals("#EXT-X-DISCONTINUITY")) {
+					discontinuity = true;
+				} else if (line.startsWith("#EXT-X-KEY:")) {
+					String method = attributes(line.substring("#EXT-X-KEY:".length())).get("METHOD");
+					if (method != null && !method.equals("NONE")) {
+						throw new IOException("encrypted playlists are not supported");
+					}
+				} else if (line.startsWith("#EXT-X-BYTERANGE") || line.startsWith("#EXT-X-MAP")) {
+					throw new IOException("unsupported playlist feature: " + line);
+				}
+				// other tags and comments are not needed
+				continue;
+			}
+
+			String url = resolve(baseUrl, line);
+			if (streamInf != null) {
+				int[] resolution = resolution(streamInf.get("RESOLUTION"));
+				variants.add(new Variant(url, parseLong(streamInf.get("BANDWIDTH")), resolution[0], resolution[1]));
+				streamInf = null;
+			} else if (duration >= 0) {
+				segments.add(new Segment(url, mediaSequence + segments.size(), duration, discontinuity));
+				duration = -1;
+				discontinuity = false;
+			}
+		}
+
+		if (variants.isEmpty() && segments.isEmpty() && !endList) {
+			throw new IOException("playlist has neither variants nor segments");
+		}
+		Collections.sort(variants, new Comparator<Variant>() {
+			public int compare(Variant a, Variant b) {
+				return a.bandwidth < b.bandwidth ? -1 : a.bandwidth == b.bandwidth ? 0 : 1;
+			}
+		});
+		return new HlsPlaylist(variants, segments, mediaSequence, targetDuration, endList);
+	}
+
+	/**
+	 * Parses an attribute list such as BANDWIDTH=1280000,CODECS="a,b".
+	 */
+	static Map<String, String> attributes(String list) {
+		Map<String, String> result = new HashMap<String, String>();
+		int i = 0;
+		int n = list.length();
+		while (i < n) {
+			int eq = list.indexOf('=', i);
+			if (eq < 0) {
+				break;
+			}
+			String name = list.substring(i, eq).trim();
+			int start = eq + 1;
+			int end;
+			String value;
+			if (start < n && list.charAt(start) == '"') {
+				end = list.indexOf('"', start + 1);
+				if (end < 0) {
+					end = n;
+				}
+				value = list.substring(start + 1, end);
+				end = list.indexOf(',', end);
+			} else {
+				end = list.indexOf(',', start);
+				value = list.substring(start, end < 0 ? n : end).trim();
+			}
+			result.put(name, value);
+			if (end < 0) {
+				break;
+			}
+			i = end + 1;
+		}
+		return result;
+	}
+
+	static String resolve(String base, String reference) throws IOException {
+		try {
+			return new URL(new URL(base), reference).toString();
+		} catch (MalformedURLException e) {
+			throw new IOException("bad playlist URI: " + reference);
+		}
+	}
+
+	private static int[] resolution(String value) {
+		int[] size = new int[2];
+		if (value != null) {
+			int x = value.indexOf('x');
+			if (x > 0) {
+				size[0] = (int) parseLong(value.substring(0, x));
+				size[1] = (int) parseLong(value.substring(x + 1));
+			}
+		}
+		return size;
+	}
+
+	private static long parseLong(String value) {
+		try {
+			return value != null ? Long.parseLong(value.trim()) : 0;
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static double parseDouble(String value) {
+		try {
+			return Double.parseDouble(value.trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,633 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.util.Log;
+
+/**
+ * Loopback route that plays HLS streams through the plugin.
+ *
+ * MediaPlayer is given a single media playlist served from here, with its
+ * segments renamed by media sequence number. Each segment request is answered
+ * from the variant that the {@link BandwidthEstimator} currently picks, which
+ * assumes the variants' segments are aligned, as the HLS authoring guidelines
+ * require. Segments are downloaded whole into a size-bounded
+ * {@link FileCache}, and the next {@link #DEFAULT_PREFETCH} segments after
+ * each request are fetched ahead on a background thread. Every download feeds
+ * the estimator.
+ *
+ * Switching between variants of the same resolution is seamless, so it may
+ * happen at any segment. A change of resolution needs the player to reset its
+ * decoders, so it waits for a safe point: a segment the player was told
+ * starts a discontinuity, or one it asks for out of order after a seek. When
+ * the player reloads the playlist while a switch is waiting, the next
+ * segment it has not asked for yet is marked with EXT-X-DISCONTINUITY and
+ * the switch happens there. For video on demand, whose playlist is read
+ * once, that leaves seeks and the stream's own discontinuities.
+ *
+ * Nothing is fetched until the player asks for the playlist, so starting a
+ * stream costs the caller nothing. A stream the proxy cannot handle, e.g. an
+ * encrypted one, is redirected to its original URL for MediaPlayer to try on
+ * its own.
+ *
+ * Live playlists are reloaded when the player asks for them once they are
+ * half a target duration old.
+ */
+public class HlsProxy implements LoopbackServer.Handler {
+
+	private static final String LOG_TAG = "HlsProxy";
+
+	public static final String ROUTE = "hls";
+
+	static final int DEFAULT_PREFETCH = 3;
+	private static final int MAX_SESSIONS = 4;
+	private static final int PREFETCH_THREADS = 2;
+	private static final int CONNECT_TIMEOUT = 15000;
+	private static final int READ_TIMEOUT = 30000;
+	private static final String PLAYLIST = "index.m3u8";
+	private static final String SEGMENT_PREFIX = "seg/";
+
+	/**
+	 * One stream being played: its variants and their media playlists, loaded
+	 * when the player first asks for the stream.
+	 */
+	private class Session {
+		final String id;
+		final String url;
+		final int prefetch;
+		/** held while the top playlist loads, which the stats must not wait for */
+		private final Object loading = new Object();
+		HlsPlaylist.Variant[] variants;
+		long[] bandwidths;
+		HlsPlaylist[] playlists;
+		long[] loadedAt;
+		int current = -1;
+		int switches = 0;
+		/** the last segment served, -1 before the first */
+		long lastServed = -1;
+		/** segments the player was last told start a discontinuity */
+		final Set<Long> breaks = new HashSet<Long>();
+
+		Session(String id, String url, int prefetch) {
+			this.id = id;
+			this.url = url;
+			this.prefetch = prefetch;
+		}
+
+		/**
+		 * Loads the top playlist unless that has been done. Fails if it cannot
+		 * be loaded or uses features the proxy does not handle.
+		 */
+		void load() throws IOException {
+			synchronized (loading) {
+				synchronized (this) {
+					if (variants != null) {
+						return;
+					}
+				}
+				HlsPlaylist top = fetchPlaylist(url);
+				HlsPlaylist.Variant[] v;
+				if (top.isMaster()) {
+					v = top.variants.toArray(new HlsPlaylist.Variant[top.variants.size()]);
+				} else {
+					// a plain media playlist is its own only variant
+					v = new HlsPlaylist.Variant[] { new HlsPlaylist.Variant(url, 0, 0, 0) };
+				}
+				long[] b = new long[v.length];
+				for (int i = 0; i < v.length; i++) {
+					b[i] = v[i].bandwidth;
+				}
+				synchronized (this) {
+					variants = v;
+					bandwidths = b;
+					playlists = new HlsPlaylist[v.length];
+					loadedAt = new long[v.length];
+					if (!top.isMaster()) {
+						playlists[0] = top;
+						loadedAt[0] = System.currentTimeMillis();
+					}
+				}
+			}
+		}
+
+		/**
+		 * Returns the variant whose playlist is listed to the player. Before
+		 * the first segment that is whichever the estimator picks.
+		 */
+		synchronized int listed() {
+			if (current < 0 || lastServed < 0) {
+				current = bandwidth.choose(bandwidths);
+			}
+			return current;
+		}
+
+		/**
+		 * Notes the discontinuities in a playlist about to be listed and, if
+		 * the estimator wants a variant of another resolution, marks the next
+		 * segment not yet served as one too. Returns the sequence of that
+		 * segment, or -1.
+		 */
+		synchronized long planSwitch(HlsPlaylist p) {
+			breaks.clear();
+			for (HlsPlaylist.Segment s : p.segments) {
+				if (s.discontinuity) {
+					breaks.add(s.sequence);
+				}
+			}
+			if (lastServed < 0) {
+				return -1;
+			}
+			int wanted = bandwidth.choose(bandwidths);
+			if (wanted == current || sameResolution(wanted, current)) {
+				return -1;
+			}
+			HlsPlaylist.Segment next = p.segment(lastServed + 1);
+			if (next == null) {
+				return -1;
+			}
+			breaks.add(next.sequence);
+			return next.sequence;
+		}
+
+		/**
+		 * Returns the variant to serve a segment from, switching to the one the
+		 * estimator picks if this is a safe point for it.
+		 */
+		synchronized int serve(long sequence) {
+			if (current >= 0 && sequence == lastServed) {
+				// the same segment again, e.g. the rest of it by range
+				return current;
+			}
+			int chosen = bandwidth.choose(bandwidths);
+			if (current < 0 || lastServed < 0) {
+				current = chosen;
+			} else if (chosen != current && (sameResolution(chosen, current) || breaks.contains(sequence)
+					|| sequence != lastServed + 1)) {
+				switches++;
+				Log.v(LOG_TAG, id + ": switching to variant " + chosen + " (" + bandwidths[chosen] + " bps) at "
+						+ sequence);
+				current = chosen;
+			}
+			lastServed = sequence;
+			return current;
+		}
+
+		private boolean sameResolution(int a, int b) {
+			return variants[a].width == variants[b].width && variants[a].height == variants[b].height;
+		}
+
+		/**
+		 * Returns the media playlist of a variant, loading it if it has not
+		 * been loaded or is a live playlist gone stale.
+		 */
+		HlsPlaylist playlist(int variant) throws IOException {
+			HlsPlaylist p;
+			long age;
+			String variantUrl;
+			synchronized (this) {
+				p = playlists[variant];
+				age = System.currentTimeMillis() - loadedAt[variant];
+				variantUrl = variants[variant].url;
+			}
+			if (p != null && (p.endList || age < p.targetDuration * 500L)) {
+				return p;
+			}
+			p = fetchPlaylist(variantUrl);
+			if (p.isMaster()) {
+				throw new IOException("nested master playlist");
+			}
+			synchronized (this) {
+				playlists[variant] = p;
+				loadedAt[variant] = System.currentTimeMillis();
+			}
+			return p;
+		}
+
+		JSONObject toJSON() throws JSONException {
+			JSONObject o = new JSONObject();
+			o.put("url", url);
+			synchronized (this) {
+				o.put("variant", current);
+				o.put("bandwidth", current >= 0 ? bandwidths[current] : 0);
+				o.put("switches", switches);
+				o.put("variants", variants != null ? variants.length : 0);
+			}
+			return o;
+		}
+	}
+
+	private final LoopbackServer server;
+	private final FileCache segments;
+	private final BandwidthEstimator bandwidth;
+	private final ExecutorService prefetcher;
+	private final Map<String, FutureTask<File>> downloads = new HashMap<String, FutureTask<File>>();
+	private final LinkedHashMap<String, Session> sessions = new LinkedHashMap<String, Session>(8, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Session> eldest) {
+			return size() > MAX_SESSIONS;
+		}
+	};
+	private int nextSession = 0;
+
+	private int hits;
+	private int misses;
+	private int prefetched;
+
+	public HlsProxy(LoopbackServer server, FileCache segments) {
+		this(server, segments, new BandwidthEstimator());
+	}
+
+	HlsProxy(LoopbackServer server, FileCache segments, BandwidthEstimator bandwidth) {
+		this.server = server;
+		this.segments = segments;
+		this.bandwidth = bandwidth;
+		this.prefetcher = Executors.newFixedThreadPool(PREFETCH_THREADS, new ThreadFactory() {
+			private int count = 0;
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "VideoPlayer-hls-" + (++count));
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		});
+		server.register(ROUTE, this);
+	}
+
+	/**
+	 * True if the URL looks like an HLS playlist.
+	 */
+	public static boolean isPlaylist(String url) {
+		int q = url.indexOf('?');
+		String path = (q >= 0 ? url.substring(0, q) : url).toLowerCase();
+		return path.endsWith(".m3u8") || path.endsWith(".m3u");
+	}
+
+	/**
+	 * Returns the local playlist URL to hand to MediaPlayer for the playlist
+	 * at url, starting the server if needed. The playlist is loaded when
+	 * MediaPlayer asks for it, so this fails only if the server cannot start.
+	 *
+	 * @param prefetch
+	 *            number of segments to keep fetched ahead of the player
+	 */
+	public String proxyUrl(String url, int prefetch) throws IOException {
+		String id;
+		synchronized (this) {
+			id = Integer.toString(++nextSession);
+			sessions.put(id, new Session(id, url, Math.max(0, prefetch)));
+		}
+		server.start();
+		return server.url(ROUTE, id + "/" + PLAYLIST, null);
+	}
+
+	public void handle(LoopbackServer.Request request, OutputStream out) throws IOException {
+		String path = request.path;
+		int slash = path != null ? path.indexOf('/') : -1;
+		Session session = null;
+		if (slash > 0) {
+			synchronized (this) {
+				session = sessions.get(path.substring(0, slash));
+			}
+		}
+		if (session == null) {
+			LoopbackServer.writeHead(out, 404, "Not Found", null, 0);
+			return;
+		}
+		String rest = path.substring(slash + 1);
+		if (rest.equals(PLAYLIST)) {
+			servePlaylist(session, request, out);
+		} else if (rest.startsWith(SEGMENT_PREFIX)) {
+			String name = rest.substring(SEGMENT_PREFIX.length());
+			int dot = name.indexOf('.');
+			long sequence;
+			try {
+				sequence = Long.parseLong(dot >= 0 ? name.substring(0, dot) : name);
+			} catch (NumberFormatException e) {
+				LoopbackServer.writeHead(out, 404, "Not Found", null, 0);
+				return;
+			}
+			serveSegment(session, sequence, request, out);
+		} else {
+			LoopbackServer.writeHead(out, 404, "Not Found", null, 0);
+		}
+	}
+
+	public JSONObject toJSON() throws JSONException {
+		JSONObject o = new JSONObject();
+		o.put("estimate", bandwidth.estimate());
+		synchronized (this) {
+			o.put("hits", hits);
+			o.put("misses", misses);
+			o.put("prefetched", prefetched);
+			JSONArray list = new JSONArray();
+			for (Session s : sessions.values()) {
+				list.put(s.toJSON());
+			}
+			o.put("sessions", list);
+		}
+		return o;
+	}
+
+	public void shutdown() {
+		prefetcher.shutdownNow();
+	}
+
+	private void servePlaylist(Session session, LoopbackServer.Request request, OutputStream out) throws IOException {
+		try {
+			session.load();
+		} catch (IOException e) {
+			// e.g. an encrypted stream; MediaPlayer may still manage on its own
+			Log.w(LOG_TAG, session.id + ": not proxied, redirecting: " + e.getLocalizedMessage());
+			Map<String, String> headers = new LinkedHashMap<String, String>();
+			headers.put("Location", session.url);
+			LoopbackServer.writeHead(out, 302, "Found", headers, 0);
+			return;
+		}
+		HlsPlaylist p = session.playlist(session.listed());
+		long switchAt = session.planSwitch(p);
+		StringBuilder sb = new StringBuilder();
+		sb.append("#EXTM3U\n#EXT-X-VERSION:3\n");
+		sb.append("#EXT-X-TARGETDURATION:").append(p.targetDuration).append('\n');
+		sb.append("#EXT-X-MEDIA-SEQUENCE:").append(p.mediaSequence).append('\n');
+		for (HlsPlaylist.Segment s : p.segments) {
+			if (s.discontinuity || s.sequence == switchAt) {
+				sb.append("#EXT-X-DISCONTINUITY\n");
+			}
+			sb.append("#EXTINF:").append(s.duration).append(",\n");
+			sb.append(SEGMENT_PREFIX).append(s.sequence).append(extension(s.url)).append('\n');
+		}
+		if (p.endList) {
+			sb.append("#EXT-X-ENDLIST\n");
+		}
+		byte[] body = sb.toString().getBytes("UTF-8");
+		Map<String, String> headers = new LinkedHashMap<String, String>();
+		headers.put("Content-Type", "application/vnd.apple.mpegurl");
+		headers.put("Cache-Control", "no-cache");
+		LoopbackServer.writeHead(out, 200, "OK", headers, body.length);
+		if (!"HEAD".equals(request.method)) {
+			out.write(body);
+		}
+		if (!p.segments.isEmpty()) {
+			// have the first segments ready before the player asks
+			prefetch(session, p.segments.get(0).sequence - 1);
+		}
+	}
+
+	private void serveSegment(Session session, long sequence, LoopbackServer.Request request, OutputStream out)
+			throws IOException {
+		session.load();
+		HlsPlaylist p = session.playlist(session.serve(sequence));
+		HlsPlaylist.Segment segment = p.segment(sequence);
+		if (segment == null) {
+			LoopbackServer.writeHead(out, 404, "Not Found", null, 0);
+			return;
+		}
+		File f = fetchSegment(segment.url, false);
+		prefetch(session, sequence);
+
+		long length = f.length();
+		long[] range = request.range(length);
+		long start = range != null ? range[0] : 0;
+		long end = range != null ? range[1] : length - 1;
+		Map<String, String> headers = new LinkedHashMap<String, String>();
+		headers.put("Content-Type", extension(segment.url).equals(".ts") ? "video/mp2t" : "application/octet-stream");
+		headers.put("Accept-Ranges", "bytes");
+		if (range != null) {
+			headers.put("Content-Range", "bytes " + start + "-" + end + "/" + length);
+			LoopbackServer.writeHead(out, 206, "Partial Content", headers, end - start + 1);
+		} else {
+			LoopbackServer.writeHead(out, 200, "OK", headers, length);
+		}
+		if ("HEAD".equals(request.method)) {
+			return;
+		}
+		InputStream in = new FileInputStream(f);
+		try {
+			long skip = start;
+			while (skip > 0) {
+				long n = in.skip(skip);
+				if (n <= 0) {
+					throw new IOException("segment file is short");
+				}
+				skip -= n;
+			}
+			byte[] buffer = new byte[16 * 1024];
+			long remaining = end - start + 1;
+			while (remaining > 0) {
+				int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+				if (n < 0) {
+					break;
+				}
+				out.write(buffer, 0, n);
+				remaining -= n;
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Queues the segments after the given one, in the variant the player is
+	 * currently being served, that are not cached or downloading already.
+	 */
+	private void prefetch(Session session, long after) {
+		if (session.prefetch == 0) {
+			return;
+		}
+		HlsPlaylist p;
+		synchronized (session) {
+			p = session.current >= 0 ? session.playlists[session.current] : null;
+		}
+		if (p == null) {
+			return;
+		}
+		for (long seq = after + 1; seq <= after + session.prefetch; seq++) {
+			final HlsPlaylist.Segment s = p.segment(seq);
+			if (s == null) {
+				break;
+			}
+			String name = CacheIndex.keyFor(s.url);
+			synchronized (downloads) {
+				if (downloads.containsKey(name)) {
+					continue;
+				}
+			}
+			if (segments.get(name) != null) {
+				continue;
+			}
+			try {
+				prefetcher.execute(new Runnable() {
+					public void run() {
+						try {
+							fetchSegment(s.url, true);
+						} catch (IOException e) {
+							Log.v(LOG_TAG, "prefetch failed: " + e.getLocalizedMessage());
+						}
+					}
+				});
+			} catch (RuntimeException e) {
+				// shut down
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the cached file for a segment, downloading it if needed. A
+	 * segment already being downloaded, e.g. by the prefetcher, is waited
+	 * for rather than fetched twice.
+	 */
+	private File fetchSegment(final String url, boolean prefetch) throws IOException {
+		final String name = CacheIndex.keyFor(url);
+		File f = segments.get(name);
+		if (f != null) {
+			if (!prefetch) {
+				synchronized (this) {
+					hits++;
+				}
+			}
+			return f;
+		}
+
+		FutureTask<File> task;
+		boolean mine = false;
+		synchronized (downloads) {
+			task = downloads.get(name);
+			if (task == null) {
+				task = new FutureTask<File>(new Callable<File>() {
+					public File call() throws Exception {
+						try {
+							return download(url, name);
+						} finally {
+							synchronized (downloads) {
+								downloads.remove(name);
+							}
+						}
+					}
+				});
+				downloads.put(name, task);
+				mine = true;
+			}
+		}
+		synchronized (this) {
+			if (prefetch) {
+				prefetched++;
+			} else if (mine) {
+				misses++;
+			} else {
+				// the prefetcher got there first
+				hits++;
+			}
+		}
+		if (mine) {
+			task.run();
+		}
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			throw new IOException("interrupted");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(String.valueOf(cause));
+		}
+	}
+
+	private File download(String url, String name) throws IOException {
+		long start = System.nanoTime();
+		HttpURLConnection conn = open(url);
+		File tmp = segments.tempFile(name);
+		InputStream in = null;
+		OutputStream out = null;
+		long total = 0;
+		try {
+			int code = conn.getResponseCode();
+			if (code != 200) {
+				throw new IOException("origin returned " + code + " for " + url);
+			}
+			in = conn.getInputStream();
+			out = new FileOutputStream(tmp);
+			byte[] buffer = new byte[16 * 1024];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				out.write(buffer, 0, n);
+				total += n;
+			}
+			out.close();
+			out = null;
+			bandwidth.sample(total, System.nanoTime() - start);
+			return segments.commit(tmp, name);
+		} finally {
+			if (out != null) {
+				out.close();
+			}
+			if (in != null) {
+				in.close();
+			}
+			conn.disconnect();
+			tmp.delete();
+		}
+	}
+
+	private static HlsPlaylist fetchPlaylist(String url) throws IOException {
+		HttpURLConnection conn = open(url);
+		InputStream in = null;
+		try {
+			int code = conn.getResponseCode();
+			if (code != 200) {
+				throw new IOException("origin returned " + code + " for " + url);
+			}
+			in = conn.getInputStream();
+			// resolve against the final URL in case of a redirect
+			return HlsPlaylist.parse(in, conn.getURL().toString());
+		} finally {
+			if (in != null) {
+				in.close();
+			}
+			conn.disconnect();
+		}
+	}
+
+	private static String extension(String url) {
+		int q = url.indexOf('?');
+		String path = q >= 0 ? url.substring(0, q) : url;
+		int dot = path.lastIndexOf('.');
+		int slash = path.lastIndexOf('/');
+		return dot > slash && path.length() - dot <= 5 ? path.substring(dot) : ".ts";
+	}
+
+	private static HttpURLConnection open(String url) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+		conn.setConnectTimeout(CONNECT_TIMEOUT);
+		conn.setReadTimeout(READ_TIMEOUT);
+		conn.setInstanceFollowRedirects(true);
+		return conn;
+	}
+}
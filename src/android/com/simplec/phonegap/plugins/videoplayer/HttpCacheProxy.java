@@ -0,0 +1,350 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.util.Log;
+
+/**
+ * Loopback route that serves a remote video through a {@link ChunkCache}.
+ *
+ * MediaPlayer is given {@link #proxyUrl(String)} instead of the origin URL.
+ * Range requests are answered chunk by chunk: cached chunks are streamed from
+ * disk, and each run of missing chunks is fetched from the origin with a
+ * single ranged request, written to the cache and forwarded at the same time.
+ *
+ * Every origin fetch carries If-Range with the validator the cached chunks
+ * were fetched under, and its answer is compared against the cached length
+ * and validator. A resource that has changed is dropped from the cache and
+ * the response is cut off, so the player's next request starts over with
+ * the new version instead of mixing the two.
+ */
+public class HttpCacheProxy implements LoopbackServer.Handler {
+
+	private static final String LOG_TAG = "HttpCacheProxy";
+
+	public static final String ROUTE = "http";
+
+	private static final int CONNECT_TIMEOUT = 15000;
+	private static final int READ_TIMEOUT = 30000;
+
+	private final LoopbackServer server;
+	private final ChunkCache cache;
+
+	public HttpCacheProxy(LoopbackServer server, ChunkCache cache) {
+		this.server = server;
+		this.cache = cache;
+		server.register(ROUTE, this);
+	}
+
+	/**
+	 * Returns the local URL to hand to MediaPlayer for the given origin URL,
+	 * starting the server if needed.
+	 */
+	public String proxyUrl(String url) throws IOException {
+		server.start();
+		Map<String, String> params = new HashMap<String, String>();
+		params.put("url", url);
+		return server.url(ROUTE, null, params);
+	}
+
+	public void handle(LoopbackServer.Request request, OutputStream out) throws IOException {
+		String url = request.param("url");
+		if (url == null || !(url.startsWith("http:") || url.startsWith("https:"))) {
+			LoopbackServer.writeHead(out, 400, "Bad Request", null, 0);
+			return;
+		}
+		String key = CacheIndex.keyFor(url);
+
+		ChunkCache.Info info = cache.getInfo(key);
+		if (info == null) {
+			info = fetchInfo(url);
+			if (info == null) {
+				passThrough(url, request, out);
+				return;
+			}
+			cache.putInfo(key, info);
+		}
+
+		long[] range = request.range(info.length);
+		long start = range != null ? range[0] : 0;
+		long end = range != null ? range[1] : info.length - 1;
+
+		Map<String, String> headers = new LinkedHashMap<String, String>();
+		headers.put("Accept-Ranges", "bytes");
+		if (info.contentType != null) {
+			headers.put("Content-Type", info.contentType);
+		}
+		if (range != null) {
+			headers.put("Content-Range", "bytes " + start + "-" + end + "/" + info.length);
+			LoopbackServer.writeHead(out, 206, "Partial Content", headers, end - start + 1);
+		} else {
+			LoopbackServer.writeHead(out, 200, "OK", headers, info.length);
+		}
+		if ("HEAD".equals(request.method)) {
+			return;
+		}
+
+		byte[] buffer = new byte[ChunkCache.CHUNK_SIZE];
+		long pos = start;
+		while (pos <= end) {
+			long index = pos / ChunkCache.CHUNK_SIZE;
+			InputStream in = cache.open(key, index);
+			if (in != null) {
+				pos = copyFromChunk(in, index, pos, end, buffer, out);
+				continue;
+			}
+
+			// fetch the run of missing chunks up to the next cached one
+			long last = index;
+			long lastIndex = (info.length - 1) / ChunkCache.CHUNK_SIZE;
+			long endIndex = end / ChunkCache.CHUNK_SIZE;
+			while (last < endIndex && last < lastIndex && !cache.has(key, last + 1)) {
+				last++;
+			}
+			pos = fetchChunks(url, key, info, index, last, pos, end, buffer, out);
+		}
+	}
+
+	private long copyFromChunk(InputStream in, long index, long pos, long end, byte[] buffer, OutputStream out)
+			throws IOException {
+		try {
+			long chunkStart = index * ChunkCache.CHUNK_SIZE;
+			skipFully(in, pos - chunkStart);
+			long remaining = Math.min(end, chunkStart + ChunkCache.CHUNK_SIZE - 1) - pos + 1;
+			while (remaining > 0) {
+				int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+				if (n < 0) {
+					throw new IOException("cached chunk " + index + " is short");
+				}
+				out.write(buffer, 0, n);
+				remaining -= n;
+				pos += n;
+			}
+			return pos;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Downloads chunks first..last in one request, caching each complete chunk
+	 * and forwarding the part of it that falls in [pos, end].
+	 *
+	 * @return the new position
+	 */
+	private long fetchChunks(String url, String key, ChunkCache.Info info, long first, long last, long pos,
+			long end, byte[] buffer, OutputStream out) throws IOException {
+		long length = info.length;
+		long from = first * ChunkCache.CHUNK_SIZE;
+		long to = Math.min(length, (last + 1) * ChunkCache.CHUNK_SIZE) - 1;
+		Log.v(LOG_TAG, "fetching " + from + "-" + to + " of " + url);
+
+		HttpURLConnection conn = open(url);
+		conn.setRequestProperty("Range", "bytes=" + from + "-" + to);
+		if (info.validator != null) {
+			// the whole new version instead of a range of it if it changed
+			conn.setRequestProperty("If-Range", info.validator);
+		}
+		InputStream in = null;
+		try {
+			int code = conn.getResponseCode();
+			if ((code == 200 || code == 206) && changed(conn, code, info)) {
+				Log.i(LOG_TAG, url + " changed at the origin, dropping its cached chunks");
+				cache.remove(key);
+				throw new IOException(url + " changed at the origin");
+			}
+			in = conn.getInputStream();
+			if (code == 200) {
+				// origin ignored the range
+				skipFully(in, from);
+			} else if (code != 206) {
+				throw new IOException("origin returned " + code);
+			}
+
+			for (long index = first; index <= last; index++) {
+				long chunkStart = index * ChunkCache.CHUNK_SIZE;
+				int chunkLength = (int) Math.min(ChunkCache.CHUNK_SIZE, length - chunkStart);
+				int filled = 0;
+				while (filled < chunkLength) {
+					int n = in.read(buffer, filled, chunkLength - filled);
+					if (n < 0) {
+						throw new IOException("origin ended early");
+					}
+					// forward as it arrives so playback can start before the chunk is complete
+					long bufStart = chunkStart + filled;
+					long sendFrom = Math.max(pos, bufStart);
+					long sendTo = Math.min(end, bufStart + n - 1);
+					if (sendFrom <= sendTo) {
+						out.write(buffer, (int) (sendFrom - chunkStart), (int) (sendTo - sendFrom + 1));
+						pos = sendTo + 1;
+					}
+					filled += n;
+				}
+				cache.put(key, index, buffer, chunkLength);
+				if (pos > end) {
+					break;
+				}
+			}
+			return pos;
+		} finally {
+			if (in != null) {
+				in.close();
+			}
+			conn.disconnect();
+		}
+	}
+
+	/**
+	 * True if an origin response is for another version of the resource than
+	 * the cached one: its total length or validator differ. A 200 answering
+	 * If-Range says so too, unless it carries the same validator, as from an
+	 * origin that ignores ranges altogether.
+	 */
+	private static boolean changed(HttpURLConnection conn, int code, ChunkCache.Info info) {
+		long length = code == 206 ? totalLength(conn.getHeaderField("Content-Range")) : contentLength(conn);
+		if (length >= 0 && length != info.length) {
+			return true;
+		}
+		if (info.validator == null) {
+			return false;
+		}
+		String validator = validatorOf(conn);
+		if (validator != null) {
+			return !validator.equals(info.validator);
+		}
+		// nothing to compare: a 200 means If-Range did not match
+		return code == 200;
+	}
+
+	/**
+	 * The origin's strong ETag, which If-Range accepts, or else its
+	 * Last-Modified date; null if it sent neither.
+	 */
+	private static String validatorOf(HttpURLConnection conn) {
+		String etag = conn.getHeaderField("ETag");
+		if (etag != null && !etag.startsWith("W/")) {
+			return etag;
+		}
+		return conn.getHeaderField("Last-Modified");
+	}
+
+	/**
+	 * The total length from a Content-Range header, or -1.
+	 */
+	private static long totalLength(String contentRange) {
+		int slash = contentRange != null ? contentRange.lastIndexOf('/') : -1;
+		if (slash < 0 || contentRange.endsWith("*")) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(contentRange.substring(slash + 1).trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static long contentLength(HttpURLConnection conn) {
+		String contentLength = conn.getHeaderField("Content-Length");
+		if (contentLength == null) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(contentLength.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Learns the length, type and validator of the resource with a one-byte
+	 * ranged request. Returns null if the origin does not report a length.
+	 */
+	private ChunkCache.Info fetchInfo(String url) throws IOException {
+		HttpURLConnection conn = open(url);
+		conn.setRequestProperty("Range", "bytes=0-0");
+		try {
+			int code = conn.getResponseCode();
+			long length;
+			if (code == 206) {
+				length = totalLength(conn.getHeaderField("Content-Range"));
+			} else if (code == 200) {
+				length = contentLength(conn);
+			} else {
+				throw new IOException("origin returned " + code);
+			}
+			if (length <= 0) {
+				return null;
+			}
+			return new ChunkCache.Info(length, conn.getContentType(), validatorOf(conn));
+		} finally {
+			conn.disconnect();
+		}
+	}
+
+	/**
+	 * Forwards a request for a resource of unknown length without caching it.
+	 */
+	private void passThrough(String url, LoopbackServer.Request request, OutputStream out) throws IOException {
+		HttpURLConnection conn = open(url);
+		String range = request.header("range");
+		if (range != null) {
+			conn.setRequestProperty("Range", range);
+		}
+		InputStream in = null;
+		try {
+			int code = conn.getResponseCode();
+			Map<String, String> headers = new LinkedHashMap<String, String>();
+			if (conn.getContentType() != null) {
+				headers.put("Content-Type", conn.getContentType());
+			}
+			if (conn.getHeaderField("Content-Range") != null) {
+				headers.put("Content-Range", conn.getHeaderField("Content-Range"));
+			}
+			LoopbackServer.writeHead(out, code, conn.getResponseMessage(), headers, -1);
+			in = code >= 400 ? conn.getErrorStream() : conn.getInputStream();
+			if (in == null) {
+				return;
+			}
+			byte[] buffer = new byte[16 * 1024];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				out.write(buffer, 0, n);
+			}
+		} finally {
+			if (in != null) {
+				in.close();
+			}
+			conn.disconnect();
+		}
+	}
+
+	private static HttpURLConnection open(String url) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+		conn.setConnectTimeout(CONNECT_TIMEOUT);
+		conn.setReadTimeout(READ_TIMEOUT);
+		conn.setInstanceFollowRedirects(true);
+		// keep byte offsets meaningful
+		conn.setRequestProperty("Accept-Encoding", "identity");
+		return conn;
+	}
+
+	private static void skipFully(InputStream in, long n) throws IOException {
+		while (n > 0) {
+			long skipped = in.skip(n);
+			if (skipped <= 0) {
+				if (in.read() < 0) {
+					throw new IOException("unexpected end of stream");
+				}
+				skipped = 1;
+			}
+			n -= skipped;
+		}
+	}
+}
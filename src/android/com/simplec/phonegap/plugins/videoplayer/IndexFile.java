@@ -0,0 +1,204 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+import android.util.Log;
+
+/**
+ * The on-disk half of a small persistent store, shared by
+ * {@link MetadataCache}, {@link IntegrityVerifier} and {@link ResumeStore}:
+ * a magic number followed by records in the store's own format.
+ *
+ * The file is read lazily, once, by {@link #ensureLoaded()}. Changes are
+ * written back on the supplied executor: {@link #scheduleSave()} coalesces
+ * requests until the save runs, which takes a snapshot under the store's
+ * lock and writes it outside of it to a temporary file that then replaces
+ * the old one. A store that appends to its file instead overrides
+ * {@link #save()}. A null file keeps the store in memory only.
+ *
+ * Not synchronized: the store calls it under its own lock, which it also
+ * passes in for the save to take.
+ */
+abstract class IndexFile<T> {
+
+	private final File file;
+	private final int magic;
+	private final Executor executor;
+	private final Object lock;
+	private final String logTag;
+
+	private boolean loaded = false;
+	private boolean saveScheduled = false;
+
+	IndexFile(File file, int magic, Executor executor, Object lock, String logTag) {
+		this.file = file;
+		this.magic = magic;
+		this.executor = executor;
+		this.lock = lock;
+		this.logTag = logTag;
+	}
+
+	/**
+	 * Reads the records that follow the magic number.
+	 */
+	protected abstract void read(DataInputStream in) throws IOException;
+
+	/**
+	 * Copies what a save writes. Called under the store's lock.
+	 */
+	protected abstract T snapshot();
+
+	/**
+	 * Writes the records of a snapshot, after the magic number.
+	 */
+	protected abstract void write(DataOutputStream out, T snapshot) throws IOException;
+
+	File getFile() {
+		return file;
+	}
+
+	boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Reads the file if that has not happened yet. Returns false if it was
+	 * there but could not be read to its end; whatever was read before the
+	 * problem is kept.
+	 */
+	boolean ensureLoaded() {
+		if (loaded) {
+			return true;
+		}
+		loaded = true;
+		if (file == null || !file.exists()) {
+			return true;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (in.readInt() != magic) {
+				Log.w(logTag, "ignoring " + file + " with bad magic");
+				return false;
+			}
+			read(in);
+			return true;
+		} catch (IOException e) {
+			Log.w(logTag, "could not read " + file + ": " + e.getLocalizedMessage());
+			return false;
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	void scheduleSave() {
+		if (saveScheduled || file == null) {
+			return;
+		}
+		saveScheduled = true;
+		executor.execute(new Runnable() {
+			public void run() {
+				save();
+			}
+		});
+	}
+
+	/**
+	 * Lets the next change schedule another save. Called under the store's
+	 * lock as a save begins.
+	 */
+	void saveStarted() {
+		saveScheduled = false;
+	}
+
+	/**
+	 * Runs on the executor for each scheduled save.
+	 */
+	protected void save() {
+		T snapshot;
+		synchronized (lock) {
+			saveStarted();
+			snapshot = snapshot();
+		}
+		replace(snapshot);
+	}
+
+	/**
+	 * Writes the snapshot to a temporary file and renames it over the file.
+	 * Returns false, leaving the file as it was, if that failed.
+	 */
+	boolean replace(T snapshot) {
+		File dir = file.getParentFile();
+		if (dir != null && !dir.exists()) {
+			dir.mkdirs();
+		}
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeInt(magic);
+			write(out, snapshot);
+			out.close();
+			out = null;
+			if (!tmp.renameTo(file)) {
+				throw new IOException("could not replace " + file);
+			}
+			return true;
+		} catch (IOException e) {
+			Log.w(logTag, "could not write " + file + ": " + e.getLocalizedMessage());
+			tmp.delete();
+			return false;
+		} finally {
+			closeQuietly(out);
+		}
+	}
+
+	/**
+	 * Appends records to the file, starting it if there is none yet. Returns
+	 * false if that failed, in which case the end of the file may be torn.
+	 */
+	boolean append(T records) {
+		boolean fresh = !file.exists();
+		if (fresh) {
+			File dir = file.getParentFile();
+			if (dir != null && !dir.exists()) {
+				dir.mkdirs();
+			}
+		}
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+			if (fresh) {
+				out.writeInt(magic);
+			}
+			write(out, records);
+			out.close();
+			out = null;
+			return true;
+		} catch (IOException e) {
+			Log.w(logTag, "could not append to " + file + ": " + e.getLocalizedMessage());
+			return false;
+		} finally {
+			closeQuietly(out);
+		}
+	}
+
+	static void closeQuietly(Closeable c) {
+		if (c != null) {
+			try {
+				c.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+}
@@ -0,0 +1,446 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.util.Log;
+
+/**
+ * Checks offline files against the SHA-256 digests of a manifest, so a
+ * corrupt or truncated file is found before it is played.
+ *
+ * Files are hashed in parallel, one per core, each read through a reused
+ * direct buffer so the bytes go from the channel to the digest without
+ * passing through the Java heap. Digests are remembered by path together
+ * with the file's size and modification time and persisted to a small
+ * index, so a file that has not changed is never hashed again, even after a
+ * restart. The last verdict is kept with the digest, which lets
+ * {@link #isKnownBad(String)} answer without any I/O beyond a stat.
+ *
+ * {@link FaststartOptimizer} rewrites files in place, which changes their
+ * digest but not their media. It tells the verifier through
+ * {@link #rewriting(File)} and {@link #rewritten(File)}, and the record of
+ * the new bytes keeps the digest of the old ones, which is what the manifest
+ * still lists.
+ */
+public class IntegrityVerifier {
+
+	private static final String LOG_TAG = "IntegrityVerifier";
+
+	private static final int MAGIC = 0x56495632; // "VIV2"
+	private static final int CAPACITY = 8192;
+	static final int BUFFER_SIZE = 1024 * 1024;
+
+	public interface Listener {
+		void progress(int done, int total, int bad);
+
+		void finished(Report report);
+	}
+
+	public static class Report {
+		public int total;
+		public int hashed;
+		public int cached;
+		public final List<String> bad = new ArrayList<String>();
+		public final List<String> missing = new ArrayList<String>();
+		public long elapsedMs;
+
+		public JSONObject toJSON() throws JSONException {
+			JSONObject o = new JSONObject();
+			o.put("total", total);
+			o.put("hashed", hashed);
+			o.put("cached", cached);
+			o.put("bad", new JSONArray(bad));
+			o.put("missing", new JSONArray(missing));
+			o.put("ms", elapsedMs);
+			return o;
+		}
+	}
+
+	private static class Record {
+		final long size;
+		final long mtime;
+		final String digest;
+		/** digest the manifest expected when last verified, or null */
+		final String expected;
+		/** digest of the file before faststart rewrote it, or null */
+		final String original;
+
+		Record(long size, long mtime, String digest, String expected, String original) {
+			this.size = size;
+			this.mtime = mtime;
+			this.digest = digest;
+			this.expected = expected;
+			this.original = original;
+		}
+
+		boolean matches(String expected) {
+			return expected.equals(digest) || expected.equals(original);
+		}
+
+		boolean bad() {
+			return expected != null && !matches(expected);
+		}
+	}
+
+	private static final int OK = 0;
+	private static final int BAD = 1;
+	private static final int MISSING = 2;
+
+	private static class Outcome {
+		final String path;
+		final int verdict;
+		final boolean hashed;
+
+		Outcome(String path, int verdict, boolean hashed) {
+			this.path = path;
+			this.verdict = verdict;
+			this.hashed = hashed;
+		}
+	}
+
+	private final int threads;
+	private final LinkedHashMap<String, Record> records = new LinkedHashMap<String, Record>(64, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Record> eldest) {
+			return size() > CAPACITY;
+		}
+	};
+	private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+	};
+
+	private final IndexFile<Map<String, Record>> index;
+
+	private ExecutorService hashers;
+	private boolean running = false;
+
+	public IntegrityVerifier(File indexFile, Executor saver) {
+		this.threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+		this.index = new IndexFile<Map<String, Record>>(indexFile, MAGIC, saver, this, LOG_TAG) {
+			@Override
+			protected void read(DataInputStream in) throws IOException {
+				int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					String path = in.readUTF();
+					long size = in.readLong();
+					long mtime = in.readLong();
+					String digest = in.readUTF();
+					String expected = in.readBoolean() ? in.readUTF() : null;
+					String original = in.readBoolean() ? in.readUTF() : null;
+					records.put(path, new Record(size, mtime, digest, expected, original));
+				}
+			}
+
+			@Override
+			protected Map<String, Record> snapshot() {
+				return new LinkedHashMap<String, Record>(records);
+			}
+
+			@Override
+			protected void write(DataOutputStream out, Map<String, Record> snapshot) throws IOException {
+				out.writeInt(snapshot.size());
+				for (Map.Entry<String, Record> e : snapshot.entrySet()) {
+					Record r = e.getValue();
+					out.writeUTF(e.getKey());
+					out.writeLong(r.size);
+					out.writeLong(r.mtime);
+					out.writeUTF(r.digest);
+					out.writeBoolean(r.expected != null);
+					if (r.expected != null) {
+						out.writeUTF(r.expected);
+					}
+					out.writeBoolean(r.original != null);
+					if (r.original != null) {
+						out.writeUTF(r.original);
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * True if the file was found not to match its manifest digest and has not
+	 * changed since.
+	 */
+	public boolean isKnownBad(String path) {
+		File f = new File(path);
+		synchronized (this) {
+			index.ensureLoaded();
+			Record r = records.get(path);
+			return r != null && r.bad() && r.size == f.length() && r.mtime == f.lastModified();
+		}
+	}
+
+	/**
+	 * Verifies the files of a manifest (path to lowercase hex SHA-256) in the
+	 * background. Returns false without doing anything if a run is already in
+	 * progress.
+	 */
+	public boolean verify(final Map<String, String> manifest, final Listener listener) {
+		synchronized (this) {
+			if (running) {
+				return false;
+			}
+			running = true;
+			if (hashers == null) {
+				hashers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+					private int count = 0;
+
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "VideoPlayer-verify-" + (++count));
+						t.setDaemon(true);
+						t.setPriority(Thread.MIN_PRIORITY);
+						return t;
+					}
+				});
+			}
+		}
+		final ExecutorService pool = hashers;
+		Thread coordinator = new Thread(new Runnable() {
+			public void run() {
+				Report report;
+				try {
+					report = check(pool, manifest, listener);
+				} finally {
+					synchronized (IntegrityVerifier.this) {
+						running = false;
+					}
+				}
+				// done before the listener hears of it, so it may start the next run
+				listener.finished(report);
+			}
+		}, "VideoPlayer-verify");
+		coordinator.setDaemon(true);
+		coordinator.start();
+		return true;
+	}
+
+	/**
+	 * Makes sure the digest of a file about to be rewritten is known, hashing
+	 * it now if it is not, so that {@link #rewritten(File)} can carry it over.
+	 */
+	public void rewriting(File f) throws IOException {
+		String path = f.getPath();
+		long size = f.length();
+		long mtime = f.lastModified();
+		Record r;
+		synchronized (this) {
+			index.ensureLoaded();
+			r = records.get(path);
+			if (r != null && r.size == size && r.mtime == mtime) {
+				return;
+			}
+		}
+		String digest = sha256(f);
+		synchronized (this) {
+			records.put(path, new Record(size, mtime, digest, r != null ? r.expected : null, null));
+			index.scheduleSave();
+		}
+	}
+
+	/**
+	 * Records the digest of a file that was just rewritten, keeping the
+	 * digest it had before so that it still matches its manifest.
+	 */
+	public void rewritten(File f) {
+		String path = f.getPath();
+		Record r;
+		synchronized (this) {
+			index.ensureLoaded();
+			r = records.get(path);
+		}
+		if (r == null) {
+			return;
+		}
+		long size = f.length();
+		long mtime = f.lastModified();
+		String digest;
+		try {
+			digest = sha256(f);
+		} catch (IOException e) {
+			Log.w(LOG_TAG, "could not read " + path + ": " + e.getLocalizedMessage());
+			synchronized (this) {
+				records.remove(path);
+				index.scheduleSave();
+			}
+			return;
+		}
+		synchronized (this) {
+			records.put(path, new Record(size, mtime, digest, r.expected, r.original != null ? r.original : r.digest));
+			index.scheduleSave();
+		}
+	}
+
+	public synchronized void shutdown() {
+		if (hashers != null) {
+			hashers.shutdownNow();
+			hashers = null;
+		}
+	}
+
+	private Report check(ExecutorService pool, Map<String, String> manifest, Listener listener) {
+		long start = System.currentTimeMillis();
+		Report report = new Report();
+		report.total = manifest.size();
+		CompletionService<Outcome> done = new ExecutorCompletionService<Outcome>(pool);
+		int submitted = 0;
+		for (final Map.Entry<String, String> e : manifest.entrySet()) {
+			try {
+				done.submit(new Callable<Outcome>() {
+					public Outcome call() throws Exception {
+						return check(e.getKey(), e.getValue().toLowerCase());
+					}
+				});
+				submitted++;
+			} catch (RuntimeException ex) {
+				// shut down
+				break;
+			}
+		}
+
+		for (int i = 0; i < submitted; i++) {
+			Outcome o;
+			try {
+				o = done.take().get();
+			} catch (InterruptedException ex) {
+				break;
+			} catch (ExecutionException ex) {
+				Log.w(LOG_TAG, "hashing failed", ex.getCause());
+				continue;
+			}
+			if (o.hashed) {
+				report.hashed++;
+			} else if (o.verdict != MISSING) {
+				report.cached++;
+			}
+			if (o.verdict == BAD) {
+				report.bad.add(o.path);
+			} else if (o.verdict == MISSING) {
+				report.missing.add(o.path);
+			}
+			listener.progress(i + 1, report.total, report.bad.size());
+		}
+		report.elapsedMs = System.currentTimeMillis() - start;
+		Log.v(LOG_TAG, "verified " + report.total + " files (" + report.hashed + " hashed) in " + report.elapsedMs
+				+ "ms, " + report.bad.size() + " bad");
+		return report;
+	}
+
+	private Outcome check(String path, String expected) throws IOException {
+		File f = new File(path);
+		long size = f.length();
+		long mtime = f.lastModified();
+		if (!f.isFile()) {
+			return new Outcome(path, MISSING, false);
+		}
+
+		Record r;
+		synchronized (this) {
+			index.ensureLoaded();
+			r = records.get(path);
+			if (r != null && r.size == size && r.mtime == mtime) {
+				if (!expected.equals(r.expected)) {
+					records.put(path, new Record(size, mtime, r.digest, expected, r.original));
+					index.scheduleSave();
+				}
+				return new Outcome(path, r.matches(expected) ? OK : BAD, false);
+			}
+		}
+
+		String actual;
+		try {
+			actual = sha256(f);
+		} catch (IOException e) {
+			Log.v(LOG_TAG, "could not read " + path + ": " + e.getLocalizedMessage());
+			return new Outcome(path, BAD, true);
+		}
+		// only touched, e.g. copied back: still the rewrite of the same original
+		String original = r != null && actual.equals(r.digest) ? r.original : null;
+		Record checked = new Record(size, mtime, actual, expected, original);
+		if (f.length() == size && f.lastModified() == mtime) {
+			// only remember digests of files that did not change while being read
+			synchronized (this) {
+				records.put(path, checked);
+				index.scheduleSave();
+			}
+		}
+		return new Outcome(path, checked.matches(expected) ? OK : BAD, true);
+	}
+
+	private String sha256(File f) throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		ByteBuffer buffer = buffers.get();
+		FileInputStream in = new FileInputStream(f);
+		try {
+			FileChannel channel = in.getChannel();
+			buffer.clear();
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				md.update(buffer);
+				buffer.clear();
+				if (Thread.currentThread().isInterrupted()) {
+					throw new IOException("interrupted");
+				}
+			}
+		} finally {
+			in.close();
+		}
+		byte[] digest = md.digest();
+		StringBuilder sb = new StringBuilder(digest.length * 2);
+		for (byte b : digest) {
+			sb.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Reads a manifest file: a JSON object mapping files to hex digests.
+	 */
+	public static JSONObject readManifest(File file) throws IOException, JSONException {
+		if (file.length() > Integer.MAX_VALUE) {
+			throw new IOException("manifest too large");
+		}
+		byte[] data = new byte[(int) file.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			in.readFully(data);
+		} finally {
+			in.close();
+		}
+		return new JSONObject(new String(data, "UTF-8"));
+	}
+}
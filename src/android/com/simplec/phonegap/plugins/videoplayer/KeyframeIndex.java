@@ -0,0 +1,140 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Presentation times of the keyframes (sync samples) of a video track, used
+ * to snap seeks to a keyframe when MediaPlayer cannot be told how to seek.
+ */
+public class KeyframeIndex {
+
+	/** Seek modes; the values match MediaPlayer.SEEK_* so they can be passed through. */
+	public static final int PREVIOUS = 0;
+	public static final int NEXT = 1;
+	public static final int CLOSEST = 2;
+	public static final int EXACT = 3;
+
+	/** Index of a file without usable keyframe information; snaps nothing. */
+	public static final KeyframeIndex NONE = new KeyframeIndex(new long[0], 0);
+
+	private final long[] timesMs;
+	private final long durationMs;
+
+	/**
+	 * @param timesMs
+	 *            ascending keyframe times, or null if every frame is a
+	 *            keyframe
+	 */
+	public KeyframeIndex(long[] timesMs, long durationMs) {
+		this.timesMs = timesMs;
+		this.durationMs = durationMs;
+	}
+
+	/**
+	 * Parses a seek mode name: "previous", "next", "closest" or "exact".
+	 * Returns -1 for null or an unknown name.
+	 */
+	public static int parseMode(String name) {
+		if ("previous".equals(name)) {
+			return PREVIOUS;
+		}
+		if ("next".equals(name)) {
+			return NEXT;
+		}
+		if ("closest".equals(name)) {
+			return CLOSEST;
+		}
+		if ("exact".equals(name)) {
+			return EXACT;
+		}
+		return -1;
+	}
+
+	/** Number of keyframes, or -1 if every frame is one. */
+	public int size() {
+		return timesMs == null ? -1 : timesMs.length;
+	}
+
+	public long getDurationMs() {
+		return durationMs;
+	}
+
+	/**
+	 * Moves a position to a keyframe according to the mode. Positions are
+	 * returned unchanged for EXACT, when every frame is a keyframe or when
+	 * nothing is known.
+	 */
+	public long snap(long ms, int mode) {
+		if (mode == EXACT || timesMs == null || timesMs.length == 0) {
+			return ms;
+		}
+		int i = Arrays.binarySearch(timesMs, ms);
+		if (i >= 0) {
+			return ms;
+		}
+		int after = -i - 1;
+		long previous = after > 0 ? timesMs[after - 1] : timesMs[0];
+		long next = after < timesMs.length ? timesMs[after] : timesMs[timesMs.length - 1];
+		switch (mode) {
+		case PREVIOUS:
+			return previous;
+		case NEXT:
+			return next;
+		default:
+			return ms - previous <= next - ms ? previous : next;
+		}
+	}
+
+	/**
+	 * Small LRU of indexes by path, invalidated when the file's size or
+	 * modification time changes.
+	 */
+	public static class Cache {
+
+		private static class Record {
+			final long size;
+			final long mtime;
+			final KeyframeIndex index;
+
+			Record(long size, long mtime, KeyframeIndex index) {
+				this.size = size;
+				this.mtime = mtime;
+				this.index = index;
+			}
+		}
+
+		private final LinkedHashMap<String, Record> records;
+
+		public Cache(final int capacity) {
+			records = new LinkedHashMap<String, Record>(capacity, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Record> eldest) {
+					return size() > capacity;
+				}
+			};
+		}
+
+		public synchronized KeyframeIndex get(String path, long size, long mtime) {
+			Record r = records.get(path);
+			return r != null && r.size == size && r.mtime == mtime ? r.index : null;
+		}
+
+		/**
+		 * Returns the index last put for the path without looking at the
+		 * file, or null. For the file being played, whose index was built
+		 * when it was opened.
+		 */
+		public synchronized KeyframeIndex peek(String path) {
+			Record r = records.get(path);
+			return r != null ? r.index : null;
+		}
+
+		public synchronized void put(String path, long size, long mtime, KeyframeIndex index) {
+			records.put(path, new Record(size, mtime, index));
+		}
+	}
+}
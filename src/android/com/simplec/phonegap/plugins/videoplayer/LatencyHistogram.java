@@ -0,0 +1,110 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Fixed-memory latency histogram with power-of-two buckets over nanoseconds.
+ * Recording never allocates; percentiles are reported as the upper bound of
+ * the bucket they fall in, which is plenty to compare devices.
+ */
+public class LatencyHistogram {
+
+	private static final int BUCKETS = 64;
+
+	private final long[] counts = new long[BUCKETS];
+	private long count;
+	private long sum;
+	private long min = Long.MAX_VALUE;
+	private long max;
+
+	public synchronized void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts[bucket(nanos)]++;
+		count++;
+		sum += nanos;
+		if (nanos < min) {
+			min = nanos;
+		}
+		if (nanos > max) {
+			max = nanos;
+		}
+	}
+
+	public synchronized long getCount() {
+		return count;
+	}
+
+	public synchronized void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = 0;
+		}
+		count = 0;
+		sum = 0;
+		min = Long.MAX_VALUE;
+		max = 0;
+	}
+
+	/**
+	 * Returns the upper bound in nanoseconds of the bucket holding the given
+	 * percentile (0-100), capped at the largest recorded value.
+	 */
+	public synchronized long percentile(double p) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(count * p / 100.0);
+		if (rank < 1) {
+			rank = 1;
+		}
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(upperBound(i), max);
+			}
+		}
+		return max;
+	}
+
+	public synchronized JSONObject toJSON() throws JSONException {
+		JSONObject json = new JSONObject();
+		json.put("count", count);
+		if (count > 0) {
+			json.put("minMs", toMs(min));
+			json.put("meanMs", toMs(sum / count));
+			json.put("p50Ms", toMs(percentile(50)));
+			json.put("p90Ms", toMs(percentile(90)));
+			json.put("p99Ms", toMs(percentile(99)));
+			json.put("maxMs", toMs(max));
+
+			// [upper bound ms, count] for each non-empty bucket
+			JSONArray buckets = new JSONArray();
+			for (int i = 0; i < BUCKETS; i++) {
+				if (counts[i] > 0) {
+					JSONArray bucket = new JSONArray();
+					bucket.put(toMs(upperBound(i)));
+					bucket.put(counts[i]);
+					buckets.put(bucket);
+				}
+			}
+			json.put("buckets", buckets);
+		}
+		return json;
+	}
+
+	static int bucket(long nanos) {
+		return nanos == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+	}
+
+	static long upperBound(int bucket) {
+		return bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+	}
+
+	private static double toMs(long nanos) {
+		return Math.round(nanos / 1000.0) / 1000.0;
+	}
+}
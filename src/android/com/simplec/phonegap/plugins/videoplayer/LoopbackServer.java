@@ -0,0 +1,346 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.util.Log;
+
+/**
+ * Minimal HTTP/1.1 server bound to 127.0.0.1 that lets the plugin hand
+ * MediaPlayer a local URL while it controls where the bytes come from.
+ *
+ * Requests are dispatched by the first path segment to a registered
+ * {@link Handler}. Every URL carries a random token so other apps on the
+ * device cannot use the server. One connection is served per request
+ * (Connection: close), which is all MediaPlayer needs.
+ */
+public class LoopbackServer {
+
+	private static final String LOG_TAG = "LoopbackServer";
+
+	public interface Handler {
+		void handle(Request request, OutputStream out) throws IOException;
+	}
+
+	public static class Request {
+		public final String method;
+		public final String route;
+		public final String path;
+		public final Map<String, String> params;
+		public final Map<String, String> headers;
+
+		Request(String method, String route, String path, Map<String, String> params, Map<String, String> headers) {
+			this.method = method;
+			this.route = route;
+			this.path = path;
+			this.params = params;
+			this.headers = headers;
+		}
+
+		public String param(String name) {
+			return params.get(name);
+		}
+
+		public String header(String name) {
+			return headers.get(name.toLowerCase());
+		}
+
+		/**
+		 * Parses a single "bytes=start-end" Range header against a resource of
+		 * the given length.
+		 *
+		 * @return {start, end} inclusive, or null if there is no usable range
+		 */
+		public long[] range(long length) {
+			String range = header("range");
+			if (range == null || !range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+				return null;
+			}
+			String spec = range.substring("bytes=".length()).trim();
+			int dash = spec.indexOf('-');
+			if (dash < 0) {
+				return null;
+			}
+			try {
+				long start;
+				long end;
+				if (dash == 0) {
+					// suffix range: the last N bytes
+					long n = Long.parseLong(spec.substring(1));
+					start = Math.max(0, length - n);
+					end = length - 1;
+				} else {
+					start = Long.parseLong(spec.substring(0, dash));
+					end = dash == spec.length() - 1 ? length - 1 : Long.parseLong(spec.substring(dash + 1));
+				}
+				if (length >= 0) {
+					end = Math.min(end, length - 1);
+				}
+				if (start > end) {
+					return null;
+				}
+				return new long[] { start, end };
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+	}
+
+	private final Map<String, Handler> handlers = new HashMap<String, Handler>();
+	private final String token;
+
+	private ServerSocket serverSocket;
+	private ExecutorService workers;
+	private Thread acceptThread;
+
+	public LoopbackServer() {
+		byte[] bytes = new byte[8];
+		new SecureRandom().nextBytes(bytes);
+		StringBuilder sb = new StringBuilder();
+		for (byte b : bytes) {
+			sb.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+		}
+		this.token = sb.toString();
+	}
+
+	public synchronized void register(String route, Handler handler) {
+		handlers.put(route, handler);
+	}
+
+	public synchronized boolean isRunning() {
+		return serverSocket != null;
+	}
+
+	public synchronized void start() throws IOException {
+		if (serverSocket != null) {
+			return;
+		}
+		serverSocket = new ServerSocket(0, 16, InetAddress.getByName("127.0.0.1"));
+		workers = Executors.newCachedThreadPool(new ThreadFactory() {
+			private int count = 0;
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "VideoPlayer-loopback-" + (++count));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		final ServerSocket socket = serverSocket;
+		acceptThread = new Thread(new Runnable() {
+			public void run() {
+				acceptLoop(socket);
+			}
+		}, "VideoPlayer-loopback");
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+		Log.v(LOG_TAG, "listening on " + getBaseUrl());
+	}
+
+	public synchronized void stop() {
+		if (serverSocket == null) {
+			return;
+		}
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			// ignore
+		}
+		workers.shutdownNow();
+		serverSocket = null;
+		workers = null;
+		acceptThread = null;
+	}
+
+	public synchronized String getBaseUrl() {
+		if (serverSocket == null) {
+			return null;
+		}
+		return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/" + token;
+	}
+
+	/**
+	 * Builds a URL for the given route with the given query parameters.
+	 */
+	public String url(String route, String path, Map<String, String> params) {
+		StringBuilder sb = new StringBuilder(getBaseUrl());
+		sb.append('/').append(route);
+		if (path != null) {
+			sb.append('/').append(path);
+		}
+		if (params != null) {
+			char sep = '?';
+			for (Map.Entry<String, String> e : params.entrySet()) {
+				sb.append(sep).append(encode(e.getKey())).append('=').append(encode(e.getValue()));
+				sep = '&';
+			}
+		}
+		return sb.toString();
+	}
+
+	private void acceptLoop(ServerSocket socket) {
+		while (!socket.isClosed()) {
+			try {
+				final Socket client = socket.accept();
+				workers.execute(new Runnable() {
+					public void run() {
+						serve(client);
+					}
+				});
+			} catch (SocketException e) {
+				// closed
+				break;
+			} catch (Exception e) {
+				Log.w(LOG_TAG, "accept failed: " + e.getLocalizedMessage());
+			}
+		}
+	}
+
+	private void serve(Socket client) {
+		OutputStream out = null;
+		try {
+			client.setSoTimeout(30000);
+			InputStream in = client.getInputStream();
+			out = new BufferedOutputStream(client.getOutputStream(), 16 * 1024);
+
+			String requestLine = readLine(in);
+			if (requestLine == null) {
+				return;
+			}
+			String[] parts = requestLine.split(" ");
+			if (parts.length < 2) {
+				writeHead(out, 400, "Bad Request", null, 0);
+				return;
+			}
+			Map<String, String> headers = new HashMap<String, String>();
+			String line;
+			while ((line = readLine(in)) != null && line.length() > 0) {
+				int colon = line.indexOf(':');
+				if (colon > 0) {
+					headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+				}
+			}
+
+			String target = parts[1];
+			Map<String, String> params = new LinkedHashMap<String, String>();
+			int q = target.indexOf('?');
+			if (q >= 0) {
+				for (String pair : target.substring(q + 1).split("&")) {
+					int eq = pair.indexOf('=');
+					if (eq > 0) {
+						params.put(decode(pair.substring(0, eq)), decode(pair.substring(eq + 1)));
+					}
+				}
+				target = target.substring(0, q);
+			}
+
+			// "/<token>/<route>[/<path>]"
+			String[] segments = target.split("/", 4);
+			if (segments.length < 3 || !token.equals(segments[1])) {
+				writeHead(out, 403, "Forbidden", null, 0);
+				return;
+			}
+			Handler handler;
+			synchronized (this) {
+				handler = handlers.get(segments[2]);
+			}
+			if (handler == null) {
+				writeHead(out, 404, "Not Found", null, 0);
+				return;
+			}
+			String path = segments.length > 3 ? decode(segments[3]) : null;
+			handler.handle(new Request(parts[0], segments[2], path, params, headers), out);
+		} catch (IOException e) {
+			// usually MediaPlayer closing the connection after it has enough
+			Log.v(LOG_TAG, "connection ended: " + e.getLocalizedMessage());
+		} catch (RuntimeException e) {
+			Log.w(LOG_TAG, "handler failed", e);
+		} finally {
+			try {
+				if (out != null) {
+					out.flush();
+				}
+			} catch (IOException e) {
+				// ignore
+			}
+			try {
+				client.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	/**
+	 * Writes a status line and headers. A negative content length omits the
+	 * Content-Length header.
+	 */
+	public static void writeHead(OutputStream out, int status, String reason, Map<String, String> headers, long contentLength)
+			throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n");
+		if (headers != null) {
+			for (Map.Entry<String, String> e : headers.entrySet()) {
+				sb.append(e.getKey()).append(": ").append(e.getValue()).append("\r\n");
+			}
+		}
+		if (contentLength >= 0) {
+			sb.append("Content-Length: ").append(contentLength).append("\r\n");
+		}
+		sb.append("Connection: close\r\n\r\n");
+		out.write(sb.toString().getBytes("ISO-8859-1"));
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		int c;
+		while ((c = in.read()) != -1) {
+			if (c == '\n') {
+				int len = sb.length();
+				if (len > 0 && sb.charAt(len - 1) == '\r') {
+					sb.setLength(len - 1);
+				}
+				return sb.toString();
+			}
+			if (sb.length() > 8192) {
+				throw new IOException("header line too long");
+			}
+			sb.append((char) c);
+		}
+		return sb.length() > 0 ? sb.toString() : null;
+	}
+
+	static String encode(String s) {
+		try {
+			return URLEncoder.encode(s, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	static String decode(String s) {
+		try {
+			return URLDecoder.decode(s, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		} catch (IllegalArgumentException e) {
+			return s;
+		}
+	}
+}
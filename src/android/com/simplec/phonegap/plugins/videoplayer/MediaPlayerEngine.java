@@ -0,0 +1,198 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.lang.reflect.Method;
+
+import android.annotation.TargetApi;
+import android.media.MediaPlayer;
+import android.media.MediaPlayer.OnBufferingUpdateListener;
+import android.media.MediaPlayer.OnCompletionListener;
+import android.media.MediaPlayer.OnErrorListener;
+import android.media.MediaPlayer.OnInfoListener;
+import android.media.MediaPlayer.OnPreparedListener;
+import android.os.Build;
+import android.util.Log;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+/**
+ * {@link PlayerEngine} on android.media.MediaPlayer, the default.
+ *
+ * The players themselves come from and go back to the
+ * {@link PlayerRegistry}, which counts them against the decoder budget and
+ * pools them; see {@link Pooled}.
+ */
+public class MediaPlayerEngine implements PlayerEngine, OnPreparedListener, OnCompletionListener, OnErrorListener,
+		OnBufferingUpdateListener, OnInfoListener {
+
+	private static final String LOG_TAG = "MediaPlayerEngine";
+
+	/** Build.VERSION_CODES.O, where seekTo(long, int) appeared */
+	private static final int SEEK_MODE_API = 26;
+	private static Method seekToWithMode;
+
+	/**
+	 * Engines around the registry's players.
+	 */
+	public static class Pooled implements PlayerEngine.Factory {
+		private final PlayerRegistry registry;
+
+		public Pooled(PlayerRegistry registry) {
+			this.registry = registry;
+		}
+
+		public PlayerEngine create() {
+			return new MediaPlayerEngine(registry.obtain());
+		}
+
+		public void recycle(PlayerEngine engine) {
+			MediaPlayerEngine e = (MediaPlayerEngine) engine;
+			e.listener = null;
+			registry.recycle(e.mp);
+		}
+	}
+
+	private final MediaPlayer mp;
+	private Listener listener;
+
+	public MediaPlayerEngine(MediaPlayer mp) {
+		this.mp = mp;
+	}
+
+	public MediaPlayer getMediaPlayer() {
+		return mp;
+	}
+
+	public void setListener(Listener listener) {
+		this.listener = listener;
+		mp.setOnPreparedListener(listener != null ? this : null);
+		mp.setOnCompletionListener(listener != null ? this : null);
+		mp.setOnErrorListener(listener != null ? this : null);
+		mp.setOnBufferingUpdateListener(listener != null ? this : null);
+		mp.setOnInfoListener(listener != null ? this : null);
+	}
+
+	public void setDataSource(String path) throws IOException {
+		mp.setDataSource(path);
+	}
+
+	public void setDataSource(FileDescriptor fd, long offset, long length) throws IOException {
+		mp.setDataSource(fd, offset, length);
+	}
+
+	public void setDisplay(SurfaceHolder holder) {
+		mp.setDisplay(holder);
+	}
+
+	public void setSurface(Surface surface) {
+		mp.setSurface(surface);
+	}
+
+	public void setVolume(float volume) {
+		mp.setVolume(volume, volume);
+	}
+
+	public void setLooping(boolean looping) {
+		mp.setLooping(looping);
+	}
+
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	public void setVideoScalingMode(int mode) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+			mp.setVideoScalingMode(mode == SCALE_TO_FIT ? MediaPlayer.VIDEO_SCALING_MODE_SCALE_TO_FIT
+					: MediaPlayer.VIDEO_SCALING_MODE_SCALE_TO_FIT_WITH_CROPPING);
+		}
+	}
+
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	public void setNext(PlayerEngine next) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+			mp.setNextMediaPlayer(next != null ? ((MediaPlayerEngine) next).mp : null);
+		}
+	}
+
+	public void prepareAsync() {
+		mp.prepareAsync();
+	}
+
+	public void start() {
+		mp.start();
+	}
+
+	public void pause() {
+		mp.pause();
+	}
+
+	public void stop() {
+		mp.stop();
+	}
+
+	public void seekTo(int msec) {
+		mp.seekTo(msec);
+	}
+
+	public boolean seekTo(long msec, int mode) {
+		if (Build.VERSION.SDK_INT < SEEK_MODE_API) {
+			return false;
+		}
+		try {
+			if (seekToWithMode == null) {
+				seekToWithMode = MediaPlayer.class.getMethod("seekTo", long.class, int.class);
+			}
+			// the KeyframeIndex modes have MediaPlayer's SEEK_* values
+			seekToWithMode.invoke(mp, msec, mode);
+			return true;
+		} catch (Exception e) {
+			Log.w(LOG_TAG, "seekTo(long, int) failed: " + e);
+			return false;
+		}
+	}
+
+	public int getCurrentPosition() {
+		return mp.getCurrentPosition();
+	}
+
+	public int getDuration() {
+		return mp.getDuration();
+	}
+
+	public int getVideoWidth() {
+		return mp.getVideoWidth();
+	}
+
+	public int getVideoHeight() {
+		return mp.getVideoHeight();
+	}
+
+	@Override
+	public void onPrepared(MediaPlayer player) {
+		if (listener != null) {
+			listener.onPrepared(this);
+		}
+	}
+
+	@Override
+	public void onCompletion(MediaPlayer player) {
+		if (listener != null) {
+			listener.onCompletion(this);
+		}
+	}
+
+	@Override
+	public boolean onError(MediaPlayer player, int what, int extra) {
+		return listener == null || listener.onError(this, what, extra);
+	}
+
+	@Override
+	public void onBufferingUpdate(MediaPlayer player, int percent) {
+		if (listener != null) {
+			listener.onBufferingUpdate(this, percent);
+		}
+	}
+
+	@Override
+	public boolean onInfo(MediaPlayer player, int what, int extra) {
+		return listener != null && listener.onInfo(this, what, extra);
+	}
+}
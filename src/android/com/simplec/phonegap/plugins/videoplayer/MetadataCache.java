@@ -0,0 +1,171 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import android.util.Log;
+
+/**
+ * LRU cache of {@link VideoMetadata} keyed by path, validated against the
+ * file's size and modification time so a replaced file is re-read.
+ *
+ * Entries are persisted to a small binary index so the cache survives process
+ * restarts. The index is read lazily on first use and written back on the
+ * supplied executor whenever the cache changes. Entries with a modification
+ * time of 0 (assets, URLs) cannot be validated later and are kept in memory
+ * only.
+ */
+public class MetadataCache {
+
+	private static final String LOG_TAG = "MetadataCache";
+
+	private static final int MAGIC = 0x564d4331; // "VMC1"
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	private static class Record {
+		final long size;
+		final long mtime;
+		final VideoMetadata metadata;
+
+		Record(long size, long mtime, VideoMetadata metadata) {
+			this.size = size;
+			this.mtime = mtime;
+			this.metadata = metadata;
+		}
+	}
+
+	private final int capacity;
+	private final LinkedHashMap<String, Record> entries;
+	private final IndexFile<Map<String, Record>> index;
+
+	private int hits;
+	private int misses;
+
+	public MetadataCache(File indexFile, Executor executor) {
+		this(indexFile, executor, DEFAULT_CAPACITY);
+	}
+
+	public MetadataCache(File indexFile, Executor executor, final int capacity) {
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<String, Record>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Record> eldest) {
+				return size() > capacity;
+			}
+		};
+		this.index = new IndexFile<Map<String, Record>>(indexFile, MAGIC, executor, this, LOG_TAG) {
+			@Override
+			protected void read(DataInputStream in) throws IOException {
+				int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					String path = in.readUTF();
+					long size = in.readLong();
+					long mtime = in.readLong();
+					int width = in.readInt();
+					int height = in.readInt();
+					long duration = in.readLong();
+					int rotation = in.readInt();
+					int bitrate = in.readInt();
+					entries.put(path, new Record(size, mtime, new VideoMetadata(width, height, duration, rotation,
+							bitrate)));
+				}
+				Log.v(LOG_TAG, "loaded " + count + " entries");
+			}
+
+			@Override
+			protected Map<String, Record> snapshot() {
+				// oldest first so that reloading rebuilds the same LRU order
+				Map<String, Record> snapshot = new LinkedHashMap<String, Record>();
+				for (Map.Entry<String, Record> e : entries.entrySet()) {
+					if (e.getValue().mtime != 0) {
+						snapshot.put(e.getKey(), e.getValue());
+					}
+				}
+				return snapshot;
+			}
+
+			@Override
+			protected void write(DataOutputStream out, Map<String, Record> snapshot) throws IOException {
+				out.writeInt(snapshot.size());
+				for (Map.Entry<String, Record> entry : snapshot.entrySet()) {
+					Record e = entry.getValue();
+					out.writeUTF(entry.getKey());
+					out.writeLong(e.size);
+					out.writeLong(e.mtime);
+					out.writeInt(e.metadata.width);
+					out.writeInt(e.metadata.height);
+					out.writeLong(e.metadata.durationMs);
+					out.writeInt(e.metadata.rotation);
+					out.writeInt(e.metadata.bitrate);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Returns the cached metadata for path if it was recorded for the same size
+	 * and modification time, or null.
+	 */
+	public synchronized VideoMetadata get(String path, long size, long mtime) {
+		index.ensureLoaded();
+		Record e = entries.get(path);
+		if (e != null && e.size == size && e.mtime == mtime) {
+			hits++;
+			return e.metadata;
+		}
+		misses++;
+		return null;
+	}
+
+	/**
+	 * Returns whatever is cached for path without validating it. Used where a
+	 * slightly stale answer is better than none, e.g. reporting the duration of
+	 * an item that is still preparing. Never reads the index, so it is safe
+	 * on the UI thread; until {@link #ensureLoaded()} has run it returns null.
+	 */
+	public synchronized VideoMetadata peek(String path) {
+		if (!index.isLoaded()) {
+			return null;
+		}
+		Record e = entries.get(path);
+		return e != null ? e.metadata : null;
+	}
+
+	public synchronized void put(String path, long size, long mtime, VideoMetadata metadata) {
+		index.ensureLoaded();
+		entries.put(path, new Record(size, mtime, metadata));
+		if (mtime != 0) {
+			index.scheduleSave();
+		}
+	}
+
+	public synchronized void remove(String path) {
+		index.ensureLoaded();
+		if (entries.remove(path) != null) {
+			index.scheduleSave();
+		}
+	}
+
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Reads the on-disk index if that has not happened yet. Safe to call from a
+	 * background thread to warm the cache ahead of the first play.
+	 */
+	public synchronized void ensureLoaded() {
+		index.ensureLoaded();
+	}
+}
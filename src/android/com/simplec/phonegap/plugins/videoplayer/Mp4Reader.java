@@ -0,0 +1,390 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal reader for MP4 / ISO base media files.
+ *
+ * Only the top-level box headers are read through the channel; a box whose
+ * contents are needed (in practice moov) is memory-mapped and walked in
+ * place, so even large sample tables are parsed without copying. Media data
+ * is never touched. Pure Java, so it can be exercised on a plain JVM.
+ */
+public class Mp4Reader implements Closeable {
+
+	public static final int FTYP = fourcc("ftyp");
+	public static final int MOOV = fourcc("moov");
+	public static final int MDAT = fourcc("mdat");
+	public static final int MVHD = fourcc("mvhd");
+	public static final int TRAK = fourcc("trak");
+	public static final int TKHD = fourcc("tkhd");
+	public static final int EDTS = fourcc("edts");
+	public static final int ELST = fourcc("elst");
+	public static final int MDIA = fourcc("mdia");
+	public static final int MDHD = fourcc("mdhd");
+	public static final int HDLR = fourcc("hdlr");
+	public static final int MINF = fourcc("minf");
+	public static final int STBL = fourcc("stbl");
+	public static final int STTS = fourcc("stts");
+	public static final int STSS = fourcc("stss");
+	public static final int STCO = fourcc("stco");
+	public static final int CO64 = fourcc("co64");
+	public static final int VIDE = fourcc("vide");
+	public static final int SOUN = fourcc("soun");
+
+	/**
+	 * A box header: its type, where it starts and how long it is, header
+	 * included.
+	 */
+	public static class Box {
+		public final int type;
+		public final long offset;
+		public final long size;
+		public final int headerSize;
+
+		Box(int type, long offset, long size, int headerSize) {
+			this.type = type;
+			this.offset = offset;
+			this.size = size;
+			this.headerSize = headerSize;
+		}
+
+		public long end() {
+			return offset + size;
+		}
+
+		public String typeName() {
+			return fourccName(type);
+		}
+	}
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long length;
+	private List<Box> boxes;
+
+	public Mp4Reader(File f) throws IOException {
+		this.file = new RandomAccessFile(f, "r");
+		this.channel = file.getChannel();
+		this.length = channel.size();
+	}
+
+	public long length() {
+		return length;
+	}
+
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * Lists the top-level boxes. Fails if the file does not start with a
+	 * plausible box structure.
+	 */
+	public List<Box> topLevel() throws IOException {
+		if (boxes != null) {
+			return boxes;
+		}
+		List<Box> result = new ArrayList<Box>();
+		ByteBuffer header = ByteBuffer.allocate(16);
+		long pos = 0;
+		while (pos + 8 <= length) {
+			header.clear();
+			if (readFully(header, pos) < 8) {
+				break;
+			}
+			long size = header.getInt(0) & 0xffffffffL;
+			int type = header.getInt(4);
+			int headerSize = 8;
+			if (size == 1) {
+				if (header.position() < 16) {
+					throw new IOException("truncated box header at " + pos);
+				}
+				size = header.getLong(8);
+				headerSize = 16;
+			} else if (size == 0) {
+				size = length - pos;
+			}
+			if (size < headerSize || !isPrintable(type)) {
+				throw new IOException("not an ISO media file (bad box at " + pos + ")");
+			}
+			result.add(new Box(type, pos, size, headerSize));
+			pos += size;
+		}
+		if (result.isEmpty()) {
+			throw new IOException("not an ISO media file");
+		}
+		boxes = result;
+		return result;
+	}
+
+	/**
+	 * Returns the first top-level box of the given type, or null.
+	 */
+	public Box find(int type) throws IOException {
+		for (Box box : topLevel()) {
+			if (box.type == type) {
+				return box;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Maps a whole box read-only. Position 0 of the buffer is the start of the
+	 * box header.
+	 */
+	public ByteBuffer map(Box box) throws IOException {
+		if (box.end() > length || box.size > Integer.MAX_VALUE) {
+			throw new IOException(box.typeName() + " box is truncated or too large");
+		}
+		ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, box.offset, box.size);
+		buffer.order(ByteOrder.BIG_ENDIAN);
+		return buffer;
+	}
+
+	/**
+	 * Reads a whole box into a writable heap buffer, for boxes that are to be
+	 * patched and written elsewhere.
+	 */
+	public ByteBuffer read(Box box) throws IOException {
+		if (box.end() > length || box.size > Integer.MAX_VALUE) {
+			throw new IOException(box.typeName() + " box is truncated or too large");
+		}
+		ByteBuffer buffer = ByteBuffer.allocate((int) box.size);
+		if (readFully(buffer, box.offset) < box.size) {
+			throw new IOException("short read of " + box.typeName());
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Builds the keyframe index of the first video track. Returns
+	 * {@link KeyframeIndex#NONE} if the file has no video track.
+	 */
+	public KeyframeIndex readKeyframes() throws IOException {
+		Box moovBox = find(MOOV);
+		if (moovBox == null) {
+			throw new IOException("no moov box");
+		}
+		ByteBuffer moov = map(moovBox);
+		int movieTimescale = 0;
+		int mvhd = child(moov, moovBox.headerSize, moov.limit(), MVHD);
+		if (mvhd >= 0) {
+			int body = mvhd + 8;
+			boolean v1 = moov.get(body) == 1;
+			requireSize(moov, mvhd, v1 ? 32 : 24);
+			movieTimescale = moov.getInt(body + (v1 ? 20 : 12));
+		}
+
+		int trak = moovBox.headerSize;
+		while ((trak = child(moov, trak, moov.limit(), TRAK)) >= 0) {
+			int trakEnd = trak + boxSize(moov, trak);
+			int mdia = child(moov, trak + 8, trakEnd, MDIA);
+			if (mdia >= 0 && handlerType(moov, mdia) == VIDE) {
+				return readTrackKeyframes(moov, trak, trakEnd, mdia, movieTimescale);
+			}
+			trak = trakEnd;
+		}
+		return KeyframeIndex.NONE;
+	}
+
+	private static KeyframeIndex readTrackKeyframes(ByteBuffer b, int trak, int trakEnd, int mdia,
+			int movieTimescale) throws IOException {
+		int mdiaEnd = mdia + boxSize(b, mdia);
+		int mdhd = require(b, mdia + 8, mdiaEnd, MDHD);
+		int mdhdBody = mdhd + 8;
+		boolean v1 = b.get(mdhdBody) == 1;
+		requireSize(b, mdhd, v1 ? 40 : 28);
+		int timescale = b.getInt(mdhdBody + (v1 ? 20 : 12));
+		long mediaDuration = v1 ? b.getLong(mdhdBody + 24) : b.getInt(mdhdBody + 16) & 0xffffffffL;
+		if (timescale <= 0) {
+			throw new IOException("bad media timescale");
+		}
+
+		int minf = require(b, mdia + 8, mdiaEnd, MINF);
+		int minfEnd = minf + boxSize(b, minf);
+		int stbl = require(b, minf + 8, minfEnd, STBL);
+		int stblEnd = stbl + boxSize(b, stbl);
+		int stts = require(b, stbl + 8, stblEnd, STTS);
+		int stss = child(b, stbl + 8, stblEnd, STSS);
+
+		long shift = editShift(b, trak, trakEnd, timescale, movieTimescale);
+		long durationMs = toMs(mediaDuration, timescale);
+
+		if (stss < 0) {
+			// every sample is a sync sample
+			return new KeyframeIndex(null, durationMs);
+		}
+
+		int syncCount = entryCount(b, stss, 4);
+		int runs = entryCount(b, stts, 8);
+		long[] times = new long[syncCount];
+		int found = 0;
+		long sample = 1;
+		long time = 0;
+		int run = 0;
+		int runPos = stts + 16;
+		long runCount = runs > 0 ? b.getInt(runPos) & 0xffffffffL : 0;
+		long runDelta = runs > 0 ? b.getInt(runPos + 4) & 0xffffffffL : 0;
+		long runFirst = 1;
+		for (int i = 0; i < syncCount; i++) {
+			long sync = b.getInt(stss + 16 + i * 4) & 0xffffffffL;
+			if (sync < sample) {
+				throw new IOException("stss is not ascending");
+			}
+			// advance through the stts runs to the run holding the sync sample
+			while (run < runs && sync >= runFirst + runCount) {
+				time += runCount * runDelta;
+				runFirst += runCount;
+				run++;
+				if (run < runs) {
+					runPos += 8;
+					runCount = b.getInt(runPos) & 0xffffffffL;
+					runDelta = b.getInt(runPos + 4) & 0xffffffffL;
+				}
+			}
+			sample = sync;
+			long decodeTime = time + (run < runs ? (sync - runFirst) * runDelta : 0);
+			times[found++] = Math.max(0, toMs(decodeTime - shift, timescale));
+		}
+		return new KeyframeIndex(times, durationMs);
+	}
+
+	/**
+	 * Offset between decode time and presentation time from the first
+	 * non-empty edit, in media timescale units. Leading empty edits delay
+	 * presentation and so count negatively.
+	 */
+	private static long editShift(ByteBuffer b, int trak, int trakEnd, int timescale, int movieTimescale)
+			throws IOException {
+		int edts = child(b, trak + 8, trakEnd, EDTS);
+		if (edts < 0) {
+			return 0;
+		}
+		int elst = child(b, edts + 8, edts + boxSize(b, edts), ELST);
+		if (elst < 0) {
+			return 0;
+		}
+		boolean v1 = b.get(elst + 8) == 1;
+		int count = entryCount(b, elst, v1 ? 20 : 12);
+		int pos = elst + 16;
+		long delay = 0;
+		for (int i = 0; i < count; i++) {
+			long segmentDuration = v1 ? b.getLong(pos) : b.getInt(pos) & 0xffffffffL;
+			long mediaTime = v1 ? b.getLong(pos + 8) : b.getInt(pos + 4);
+			pos += v1 ? 20 : 12;
+			if (mediaTime == -1) {
+				if (movieTimescale > 0) {
+					delay += segmentDuration * timescale / movieTimescale;
+				}
+				continue;
+			}
+			return mediaTime - delay;
+		}
+		return -delay;
+	}
+
+	private static int handlerType(ByteBuffer b, int mdia) {
+		int hdlr = child(b, mdia + 8, mdia + boxSize(b, mdia), HDLR);
+		// version/flags, pre_defined, then the handler type
+		return hdlr >= 0 && boxSize(b, hdlr) >= 20 ? b.getInt(hdlr + 16) : 0;
+	}
+
+	/**
+	 * Returns the offset of the first box of the given type among the boxes
+	 * laid out between start and end, or -1. Only 32-bit box sizes are
+	 * supported, which is all that occurs inside moov.
+	 */
+	public static int child(ByteBuffer b, int start, int end, int type) {
+		int pos = start;
+		while (pos + 8 <= end) {
+			int size = boxSize(b, pos);
+			if (size < 8 || pos + size > end) {
+				return -1;
+			}
+			if (b.getInt(pos + 4) == type) {
+				return pos;
+			}
+			pos += size;
+		}
+		return -1;
+	}
+
+	public static int boxSize(ByteBuffer b, int pos) {
+		return b.getInt(pos);
+	}
+
+	private static int require(ByteBuffer b, int start, int end, int type) throws IOException {
+		int pos = child(b, start, end, type);
+		if (pos < 0) {
+			throw new IOException("missing " + fourccName(type) + " box");
+		}
+		return pos;
+	}
+
+	/**
+	 * Reads the entry count of a full box holding a table of fixed-size
+	 * entries, failing if the table would run past the end of the box.
+	 */
+	static int entryCount(ByteBuffer b, int box, int entrySize) throws IOException {
+		requireSize(b, box, 16);
+		int count = b.getInt(box + 12);
+		if (count < 0 || count > (boxSize(b, box) - 16) / entrySize) {
+			throw new IOException(fourccName(b.getInt(box + 4)) + " claims " + (count & 0xffffffffL)
+					+ " entries, more than the box holds");
+		}
+		return count;
+	}
+
+	private static void requireSize(ByteBuffer b, int box, int size) throws IOException {
+		if (boxSize(b, box) < size) {
+			throw new IOException(fourccName(b.getInt(box + 4)) + " box is too short");
+		}
+	}
+
+	private static long toMs(long units, int timescale) {
+		return units * 1000 / timescale;
+	}
+
+	private int readFully(ByteBuffer buffer, long pos) throws IOException {
+		int total = 0;
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, pos + total);
+			if (n < 0) {
+				break;
+			}
+			total += n;
+		}
+		return total;
+	}
+
+	private static boolean isPrintable(int type) {
+		for (int shift = 24; shift >= 0; shift -= 8) {
+			int c = (type >>> shift) & 0xff;
+			if (c < 0x20 || c > 0x7e) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public static int fourcc(String s) {
+		return (s.charAt(0) << 24) | (s.charAt(1) << 16) | (s.charAt(2) << 8) | s.charAt(3);
+	}
+
+	public static String fourccName(int type) {
+		char[] c = { (char) ((type >>> 24) & 0xff), (char) ((type >>> 16) & 0xff), (char) ((type >>> 8) & 0xff),
+				(char) (type & 0xff) };
+		return new String(c);
+	}
+}
@@ -0,0 +1,96 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Ordered list of items to play back to back, with a cursor on the item that
+ * is currently playing. The cursor starts before the first item, so the first
+ * call to {@link #next()} returns item 0.
+ */
+public class PlayQueue {
+
+	public static class Item {
+		/** the target as passed from JS, reported back in queue events */
+		public final String target;
+		/** the resolved local path or URL handed to MediaPlayer */
+		public final String path;
+		public final JSONObject options;
+
+		public Item(String target, String path, JSONObject options) {
+			this.target = target;
+			this.path = path;
+			this.options = options != null ? options : new JSONObject();
+		}
+	}
+
+	private final List<Item> items = new ArrayList<Item>();
+	private int index = -1;
+
+	public synchronized void add(Item item) {
+		items.add(item);
+	}
+
+	public synchronized void clear() {
+		items.clear();
+		index = -1;
+	}
+
+	public synchronized int size() {
+		return items.size();
+	}
+
+	public synchronized int index() {
+		return index;
+	}
+
+	public synchronized Item current() {
+		return (index >= 0 && index < items.size()) ? items.get(index) : null;
+	}
+
+	/**
+	 * Returns the item after the current one without moving the cursor.
+	 */
+	public synchronized Item peekNext() {
+		return index + 1 < items.size() ? items.get(index + 1) : null;
+	}
+
+	/**
+	 * Moves the cursor forward and returns the new current item, or null
+	 * (leaving the cursor alone) at the end of the queue.
+	 */
+	public synchronized Item next() {
+		if (index + 1 >= items.size()) {
+			return null;
+		}
+		return items.get(++index);
+	}
+
+	/**
+	 * Moves the cursor back and returns the new current item, or null at the
+	 * start of the queue.
+	 */
+	public synchronized Item previous() {
+		if (index <= 0 || items.isEmpty()) {
+			return null;
+		}
+		index = Math.min(index, items.size()) - 1;
+		return items.get(index);
+	}
+
+	public synchronized JSONObject toJSON() throws JSONException {
+		JSONObject json = new JSONObject();
+		JSONArray targets = new JSONArray();
+		for (Item item : items) {
+			targets.put(item.target);
+		}
+		json.put("index", index);
+		json.put("size", items.size());
+		json.put("items", targets);
+		return json;
+	}
+}
@@ -0,0 +1,209 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import android.R.color;
+import android.app.Activity;
+import android.app.Dialog;
+import android.graphics.SurfaceTexture;
+import android.view.Gravity;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import android.view.TextureView;
+import android.view.View;
+import android.view.Window;
+import android.view.WindowManager;
+import android.widget.LinearLayout;
+
+/**
+ * The full-screen dialog the main player draws into, built once and then
+ * shown and hidden across plays instead of being rebuilt for each.
+ *
+ * The video goes to a SurfaceView by default. Its surface still goes away
+ * while the dialog is hidden (and while the activity is paused); the views
+ * around it are kept. In TextureView mode the surface itself lives as long
+ * as the host, so a player can be attached the moment the dialog is shown;
+ * the view stays transparent until the new video's first frame so the last
+ * frame of the previous one does not flash.
+ *
+ * Must only be used on the UI thread.
+ */
+public class PlaybackHost {
+
+	public interface Listener {
+		/**
+		 * The surface was created, or created again, and the player has to be
+		 * attached to it.
+		 */
+		void onSurfaceReady();
+
+		/**
+		 * The surface is going away; the player must stop drawing into it.
+		 */
+		void onSurfaceLost();
+	}
+
+	private final boolean textureMode;
+	private final Listener listener;
+	private final Dialog dialog;
+	private final LinearLayout container;
+	private final View view;
+
+	private SurfaceHolder holder;
+	private Surface surface;
+	private boolean shown = false;
+	private boolean everShown = false;
+
+	public PlaybackHost(Activity activity, boolean textureMode, Listener listener) {
+		this.textureMode = textureMode;
+		this.listener = listener;
+
+		dialog = new Dialog(activity, android.R.style.Theme_NoTitleBar);
+		dialog.getWindow().getAttributes().windowAnimations = android.R.style.Animation_Dialog;
+		dialog.requestWindowFeature(Window.FEATURE_NO_TITLE);
+		dialog.setCancelable(false);
+
+		container = new LinearLayout(activity);
+		container.setBackgroundColor(color.black);
+		container.setHorizontalGravity(Gravity.CENTER_HORIZONTAL);
+		container.setVerticalGravity(Gravity.CENTER_VERTICAL);
+		container.setLayerType(View.LAYER_TYPE_NONE, null);
+
+		if (textureMode) {
+			TextureView textureView = new TextureView(activity);
+			textureView.setSurfaceTextureListener(new TextureView.SurfaceTextureListener() {
+				public void onSurfaceTextureAvailable(SurfaceTexture texture, int width, int height) {
+					surface = new Surface(texture);
+					PlaybackHost.this.listener.onSurfaceReady();
+				}
+
+				public void onSurfaceTextureSizeChanged(SurfaceTexture texture, int width, int height) {
+				}
+
+				public boolean onSurfaceTextureDestroyed(SurfaceTexture texture) {
+					PlaybackHost.this.listener.onSurfaceLost();
+					if (surface != null) {
+						surface.release();
+						surface = null;
+					}
+					return true;
+				}
+
+				public void onSurfaceTextureUpdated(SurfaceTexture texture) {
+				}
+			});
+			view = textureView;
+		} else {
+			SurfaceView surfaceView = new SurfaceView(activity);
+			surfaceView.getHolder().addCallback(new SurfaceHolder.Callback() {
+				public void surfaceCreated(SurfaceHolder h) {
+					holder = h;
+					PlaybackHost.this.listener.onSurfaceReady();
+				}
+
+				public void surfaceChanged(SurfaceHolder h, int format, int width, int height) {
+				}
+
+				public void surfaceDestroyed(SurfaceHolder h) {
+					PlaybackHost.this.listener.onSurfaceLost();
+					holder = null;
+				}
+			});
+			view = surfaceView;
+		}
+		view.setBackgroundColor(color.black);
+		view.setKeepScreenOn(true);
+		// VideoView did this for us; key events need a focused view
+		view.setFocusable(true);
+		view.setFocusableInTouchMode(true);
+		container.addView(view);
+		dialog.setContentView(container);
+	}
+
+	public boolean isTextureMode() {
+		return textureMode;
+	}
+
+	/**
+	 * The view showing the video, for touch and key listeners.
+	 */
+	public View getView() {
+		return view;
+	}
+
+	public boolean isShown() {
+		return shown;
+	}
+
+	/**
+	 * True if a player can be attached right now.
+	 */
+	public boolean isReady() {
+		return textureMode ? surface != null : holder != null;
+	}
+
+	/**
+	 * Points the player's video output at the surface, or does nothing if
+	 * there is none yet; {@link Listener#onSurfaceReady()} follows when there
+	 * is.
+	 */
+	public void attach(PlayerEngine mp) {
+		if (textureMode) {
+			if (surface != null) {
+				mp.setSurface(surface);
+			}
+		} else if (holder != null) {
+			mp.setDisplay(holder);
+		}
+	}
+
+	/**
+	 * Shows the dialog with the video view at the given size.
+	 */
+	public void show(int width, int height) {
+		resize(width, height);
+		if (textureMode) {
+			// until the first frame of the new video
+			view.setAlpha(0);
+		}
+		view.requestFocus();
+		if (shown) {
+			return;
+		}
+		shown = true;
+		dialog.show();
+		if (!everShown) {
+			everShown = true;
+			WindowManager.LayoutParams lp = new WindowManager.LayoutParams();
+			lp.copyFrom(dialog.getWindow().getAttributes());
+			lp.width = WindowManager.LayoutParams.MATCH_PARENT;
+			lp.height = WindowManager.LayoutParams.MATCH_PARENT;
+			dialog.getWindow().setAttributes(lp);
+		}
+	}
+
+	public void resize(int width, int height) {
+		container.setLayoutParams(new LinearLayout.LayoutParams(width, height));
+		view.setLayoutParams(new LinearLayout.LayoutParams(width, height));
+	}
+
+	/**
+	 * Called when the video's first frame has been rendered.
+	 */
+	public void onFirstFrame() {
+		if (textureMode) {
+			view.setAlpha(1);
+		}
+	}
+
+	public void hide() {
+		if (shown) {
+			shown = false;
+			dialog.hide();
+		}
+	}
+
+	public void destroy() {
+		shown = false;
+		dialog.dismiss();
+	}
+}
@@ -0,0 +1,256 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.os.SystemClock;
+
+/**
+ * Timing of the play pipeline, command latency, the command queue and
+ * buffering stalls.
+ *
+ * Each play is timestamped as it passes through the stages below; the time
+ * spent reaching each stage from the previous one, plus the overall time to
+ * first frame, goes into a {@link LatencyHistogram}. Every stage is recorded
+ * at most once per play, so a surface recreated after onResume does not skew
+ * the numbers. Prepare times of local files are also kept apart by how much
+ * of the file {@link ReadAhead} had warmed when prepare was issued, to show
+ * what the warmup buys.
+ */
+public class PlaybackMetrics {
+
+	public enum Stage {
+		/** play() received */
+		PLAY("play"),
+		/** dialog built on the UI thread */
+		DIALOG("dialog"),
+		/** surface ready */
+		SURFACE("surface"),
+		/** prepareAsync() issued */
+		PREPARE("prepareStart"),
+		/** onPrepared */
+		PREPARED("prepare"),
+		/** MEDIA_INFO_VIDEO_RENDERING_START */
+		FIRST_FRAME("firstFrame");
+
+		final String label;
+
+		Stage(String label) {
+			this.label = label;
+		}
+	}
+
+	private final long[] marks = new long[Stage.values().length];
+	private final LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+	private final LatencyHistogram timeToFirstFrame = new LatencyHistogram();
+	private final Map<String, LatencyHistogram> commands = new TreeMap<String, LatencyHistogram>();
+	private final LatencyHistogram stalls = new LatencyHistogram();
+	private final Map<String, LatencyHistogram> queued = new TreeMap<String, LatencyHistogram>();
+	private final LatencyHistogram queueWait = new LatencyHistogram();
+	private static final String[] WARMTH_LABELS = { "cold", "warming", "warm" };
+	private final LatencyHistogram[] prepareByWarmth = new LatencyHistogram[WARMTH_LABELS.length];
+	private int warmth = -1;
+	private int maxQueueDepth;
+	private long coalesced;
+
+	private long plays;
+	private long gapless;
+	private long stallStart;
+
+	public PlaybackMetrics() {
+		for (int i = 0; i < stages.length; i++) {
+			stages[i] = new LatencyHistogram();
+		}
+		for (int i = 0; i < prepareByWarmth.length; i++) {
+			prepareByWarmth[i] = new LatencyHistogram();
+		}
+	}
+
+	public static long now() {
+		return SystemClock.elapsedRealtimeNanos();
+	}
+
+	/**
+	 * Starts timing a new play, abandoning any stages of the previous one that
+	 * were never reached.
+	 */
+	public synchronized void beginPlay() {
+		for (int i = 0; i < marks.length; i++) {
+			marks[i] = 0;
+		}
+		marks[Stage.PLAY.ordinal()] = now();
+		warmth = -1;
+		stallStart = 0;
+		plays++;
+	}
+
+	/**
+	 * Counts a switch to a queue item already prepared in the background.
+	 * Nothing of it is timed, as its stages all happened before it was asked
+	 * for; any stages of the previous play not yet reached are abandoned.
+	 */
+	public synchronized void gapless() {
+		for (int i = 0; i < marks.length; i++) {
+			marks[i] = 0;
+		}
+		warmth = -1;
+		stallStart = 0;
+		gapless++;
+	}
+
+	/**
+	 * Records that the current play reached the given stage.
+	 */
+	public synchronized void mark(Stage stage) {
+		int i = stage.ordinal();
+		if (marks[Stage.PLAY.ordinal()] == 0 || marks[i] != 0) {
+			return;
+		}
+		long t = now();
+		marks[i] = t;
+		for (int prev = i - 1; prev >= 0; prev--) {
+			if (marks[prev] != 0) {
+				stages[i].record(t - marks[prev]);
+				break;
+			}
+		}
+		if (stage == Stage.PREPARED && warmth >= 0 && marks[Stage.PREPARE.ordinal()] != 0) {
+			prepareByWarmth[warmth].record(t - marks[Stage.PREPARE.ordinal()]);
+		}
+		if (stage == Stage.FIRST_FRAME) {
+			timeToFirstFrame.record(t - marks[Stage.PLAY.ordinal()]);
+		}
+	}
+
+	/**
+	 * Records how warm the current play's file was as prepare was issued, one
+	 * of {@link ReadAhead#COLD}, {@link ReadAhead#WARMING} or
+	 * {@link ReadAhead#WARM}; -1 (streams) leaves it out of the comparison.
+	 */
+	public synchronized void warmth(int warmth) {
+		if (marks[Stage.PREPARE.ordinal()] == 0) {
+			this.warmth = warmth;
+		}
+	}
+
+	/**
+	 * Nanoseconds since the current play reached the given stage, or -1.
+	 */
+	public synchronized long since(Stage stage) {
+		long mark = marks[stage.ordinal()];
+		return mark == 0 ? -1 : now() - mark;
+	}
+
+	public synchronized void command(String action, long nanos) {
+		LatencyHistogram h = commands.get(action);
+		if (h == null) {
+			h = new LatencyHistogram();
+			commands.put(action, h);
+		}
+		h.record(nanos);
+	}
+
+	/**
+	 * Records a command that went through the {@link CommandQueue}: how long
+	 * it waited to run and how long it took from submission to completion.
+	 */
+	public synchronized void queued(String name, long waitNanos, long totalNanos) {
+		queueWait.record(waitNanos);
+		LatencyHistogram h = queued.get(name);
+		if (h == null) {
+			h = new LatencyHistogram();
+			queued.put(name, h);
+		}
+		h.record(totalNanos);
+	}
+
+	public synchronized void queueDepth(int depth) {
+		if (depth > maxQueueDepth) {
+			maxQueueDepth = depth;
+		}
+	}
+
+	public synchronized void coalesced() {
+		coalesced++;
+	}
+
+	public synchronized void stallStarted() {
+		if (stallStart == 0) {
+			stallStart = now();
+		}
+	}
+
+	/**
+	 * @return the stall duration in nanoseconds, or -1 if no stall was open
+	 */
+	public synchronized long stallEnded() {
+		if (stallStart == 0) {
+			return -1;
+		}
+		long duration = now() - stallStart;
+		stalls.record(duration);
+		stallStart = 0;
+		return duration;
+	}
+
+	public synchronized void reset() {
+		for (LatencyHistogram h : stages) {
+			h.reset();
+		}
+		timeToFirstFrame.reset();
+		for (LatencyHistogram h : prepareByWarmth) {
+			h.reset();
+		}
+		commands.clear();
+		stalls.reset();
+		queued.clear();
+		queueWait.reset();
+		maxQueueDepth = 0;
+		coalesced = 0;
+		plays = 0;
+		gapless = 0;
+	}
+
+	public synchronized JSONObject toJSON() throws JSONException {
+		JSONObject json = new JSONObject();
+		json.put("plays", plays);
+		json.put("gapless", gapless);
+
+		JSONObject stageJson = new JSONObject();
+		for (Stage stage : Stage.values()) {
+			if (stage != Stage.PLAY) {
+				stageJson.put(stage.label, stages[stage.ordinal()].toJSON());
+			}
+		}
+		stageJson.put("timeToFirstFrame", timeToFirstFrame.toJSON());
+		json.put("stages", stageJson);
+
+		JSONObject warmthJson = new JSONObject();
+		for (int i = 0; i < prepareByWarmth.length; i++) {
+			warmthJson.put(WARMTH_LABELS[i], prepareByWarmth[i].toJSON());
+		}
+		json.put("prepareByWarmth", warmthJson);
+
+		JSONObject commandJson = new JSONObject();
+		for (Map.Entry<String, LatencyHistogram> e : commands.entrySet()) {
+			commandJson.put(e.getKey(), e.getValue().toJSON());
+		}
+		json.put("commands", commandJson);
+		json.put("stalls", stalls.toJSON());
+
+		JSONObject queueJson = new JSONObject();
+		queueJson.put("wait", queueWait.toJSON());
+		queueJson.put("maxDepth", maxQueueDepth);
+		queueJson.put("coalesced", coalesced);
+		JSONObject queuedJson = new JSONObject();
+		for (Map.Entry<String, LatencyHistogram> e : queued.entrySet()) {
+			queuedJson.put(e.getKey(), e.getValue().toJSON());
+		}
+		queueJson.put("commands", queuedJson);
+		json.put("queue", queueJson);
+		return json;
+	}
+}
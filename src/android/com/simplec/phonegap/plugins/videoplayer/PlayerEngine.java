@@ -0,0 +1,99 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+/**
+ * What the players need from a decoder: the part of MediaPlayer's interface
+ * {@link VideoPlayer} and {@link PlayerInstance} use, with the listeners
+ * folded into one.
+ * {@link MediaPlayerEngine} is the implementation; another one can be
+ * supplied by overriding {@link VideoPlayer#createEngineFactory()}.
+ *
+ * Calls follow MediaPlayer's state rules, which {@link PlayerStateMachine}
+ * tracks on the caller's side, and listeners are called on the UI thread.
+ */
+public interface PlayerEngine {
+
+	/** the first video frame was rendered */
+	int INFO_RENDERING_START = 3;
+	/** playback stopped to buffer */
+	int INFO_BUFFERING_START = 701;
+	/** playback resumed after buffering */
+	int INFO_BUFFERING_END = 702;
+
+	int SCALE_TO_FIT = 1;
+	int SCALE_TO_FIT_WITH_CROPPING = 2;
+
+	interface Listener {
+		void onPrepared(PlayerEngine engine);
+
+		void onCompletion(PlayerEngine engine);
+
+		boolean onError(PlayerEngine engine, int what, int extra);
+
+		void onBufferingUpdate(PlayerEngine engine, int percent);
+
+		boolean onInfo(PlayerEngine engine, int what, int extra);
+	}
+
+	/**
+	 * Where engines come from and go back to, so that they can be pooled.
+	 */
+	interface Factory {
+		PlayerEngine create();
+
+		/** takes back an engine that is no longer used, in any state */
+		void recycle(PlayerEngine engine);
+	}
+
+	void setListener(Listener listener);
+
+	void setDataSource(String path) throws IOException;
+
+	void setDataSource(FileDescriptor fd, long offset, long length) throws IOException;
+
+	void setDisplay(SurfaceHolder holder);
+
+	void setSurface(Surface surface);
+
+	void setVolume(float volume);
+
+	void setLooping(boolean looping);
+
+	/** one of {@link #SCALE_TO_FIT} and {@link #SCALE_TO_FIT_WITH_CROPPING} */
+	void setVideoScalingMode(int mode);
+
+	/**
+	 * Chains a prepared engine to start when this one completes, or unchains
+	 * with null. Does nothing where that is not supported.
+	 */
+	void setNext(PlayerEngine next);
+
+	void prepareAsync();
+
+	void start();
+
+	void pause();
+
+	void stop();
+
+	void seekTo(int msec);
+
+	/**
+	 * Seeks with a {@link KeyframeIndex} mode if the engine can, returning
+	 * false if it cannot so the caller snaps the position itself.
+	 */
+	boolean seekTo(long msec, int mode);
+
+	int getCurrentPosition();
+
+	int getDuration();
+
+	int getVideoWidth();
+
+	int getVideoHeight();
+}
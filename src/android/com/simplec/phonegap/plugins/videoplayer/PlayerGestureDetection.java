@@ -58,34 +58,64 @@ public class PlayerGestureDetection extends SimpleOnGestureListener {
 
 	@Override
 	public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
+		int direction = classifyFling(e1.getX(), e1.getY(), e2.getX(), e2.getY(), velocityX, velocityY,
+				this.swipe_Min_Distance, this.swipe_Max_Distance, this.swipe_Min_Velocity);
+		if (direction == 0)
+			return false;
 
-		final float xDistance = Math.abs(e1.getX() - e2.getX());
-		final float yDistance = Math.abs(e1.getY() - e2.getY());
+		this.listener.onSwipe(direction);
+		return true;
+	}
 
-		if (swipe_Max_Distance>0 && (xDistance > this.swipe_Max_Distance || yDistance > this.swipe_Max_Distance))
-			return false;
+	/**
+	 * Classifies a fling from (x1, y1) to (x2, y2) as one of the SWIPE_
+	 * constants, or 0 if it is too short, too slow or (when maxDistance is
+	 * positive) too long. Horizontal swipes win over vertical ones.
+	 */
+	public static int classifyFling(float x1, float y1, float x2, float y2, float velocityX, float velocityY,
+			int minDistance, int maxDistance, int minVelocity) {
+
+		final float xDistance = Math.abs(x1 - x2);
+		final float yDistance = Math.abs(y1 - y2);
+
+		if (maxDistance>0 && (xDistance > maxDistance || yDistance > maxDistance))
+			return 0;
 
 		velocityX = Math.abs(velocityX);
 		velocityY = Math.abs(velocityY);
-		boolean result = false;
 
-		if (velocityX > this.swipe_Min_Velocity && xDistance > this.swipe_Min_Distance) {
-			if (e1.getX() > e2.getX()) // right to left
-				this.listener.onSwipe(SWIPE_RIGHT);
+		if (velocityX > minVelocity && xDistance > minDistance) {
+			if (x1 > x2) // right to left
+				return SWIPE_RIGHT;
 			else
-				this.listener.onSwipe(SWIPE_LEFT);
-
-			result = true;
-		} else if (velocityY > this.swipe_Min_Velocity && yDistance > this.swipe_Min_Distance) {
-			if (e1.getY() > e2.getY()) // bottom to up
-				this.listener.onSwipe(SWIPE_UP);
+				return SWIPE_LEFT;
+		} else if (velocityY > minVelocity && yDistance > minDistance) {
+			if (y1 > y2) // bottom to up
+				return SWIPE_UP;
 			else
-				this.listener.onSwipe(SWIPE_DOWN);
-
-			result = true;
+				return SWIPE_DOWN;
 		}
 
-		return result;
+		return 0;
+	}
+
+	/**
+	 * Name reported to JS for a SWIPE_ constant. Left and right are named
+	 * after the direction the content moves, so they are swapped.
+	 */
+	public static String swipeName(int direction) {
+		switch (direction) {
+		case SWIPE_LEFT:
+			return "right";
+		case SWIPE_RIGHT:
+			return "left";
+		case SWIPE_UP:
+			return "up";
+		case SWIPE_DOWN:
+			return "down";
+		default:
+			return null;
+		}
 	}
 
 	@Override
@@ -0,0 +1,324 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.io.IOException;
+
+import org.apache.cordova.CallbackContext;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.app.Activity;
+import android.content.res.AssetFileDescriptor;
+import android.os.Handler;
+import android.util.Log;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+/**
+ * A player with its own surface laid over the web view, e.g. a preview tile,
+ * addressed by an ID from JS and running alongside the main player. Each
+ * instance has its own state and event callback.
+ *
+ * The decoder comes from the same {@link PlayerEngine.Factory} as the main
+ * player's, within the budget kept by the {@link PlayerRegistry}, which may
+ * take it back while the instance is idle. The instance then keeps its
+ * position and prepares again when it is resumed.
+ *
+ * Must only be used on the UI thread.
+ */
+public class PlayerInstance implements PlayerEngine.Listener, SurfaceHolder.Callback {
+
+	private static final String LOG_TAG = "PlayerInstance";
+
+	private static final String ASSETS = "/android_asset/";
+	private static final int DEFAULT_WIDTH = 320;
+	private static final int DEFAULT_HEIGHT = 180;
+
+	final String id;
+	private final Activity activity;
+	private final PlayerRegistry registry;
+	private final PlayerEngine.Factory engines;
+	private final PlayerStateMachine state = new PlayerStateMachine();
+	private final EventChannel events;
+
+	private SurfaceView view;
+	private SurfaceHolder surface;
+	private PlayerEngine player;
+	private String path;
+	private JSONObject options;
+	private int resumeAt;
+
+	public PlayerInstance(String id, Activity activity, Handler handler, PlayerRegistry registry,
+			PlayerEngine.Factory engines) {
+		this.id = id;
+		this.activity = activity;
+		this.registry = registry;
+		this.engines = engines;
+		this.events = new EventChannel(handler);
+	}
+
+	/**
+	 * Plays path in a surface placed by the x, y, width and height options (in
+	 * CSS pixels). Replaces whatever this instance was playing; the previous
+	 * callback gets a completed event.
+	 */
+	public void open(String path, JSONObject options, CallbackContext callbackContext) {
+		if (player != null) {
+			engines.recycle(player);
+			player = null;
+		}
+		events.close(EventChannel.COMPLETED, null, 0, null, 0);
+		events.open(callbackContext, options.optInt("eventInterval", EventChannel.DEFAULT_INTERVAL));
+
+		this.path = path;
+		this.options = options;
+		this.resumeAt = 0;
+		layout(options);
+		registry.put(this);
+
+		state.reset();
+		state.setPlayWhenReady(options.optBoolean("autoplay", true));
+		prepare();
+	}
+
+	public boolean pause() {
+		if (state.canPause()) {
+			player.pause();
+			state.moveTo(PlayerStateMachine.State.PAUSED);
+		} else if (state.is(PlayerStateMachine.State.PREPARING) || player == null) {
+			state.setPlayWhenReady(false);
+		} else {
+			return false;
+		}
+		events.post(EventChannel.PAUSED);
+		return true;
+	}
+
+	public boolean resume() {
+		if (player == null) {
+			// evicted; prepare again and start from where it was
+			state.setPlayWhenReady(true);
+			if (!prepare()) {
+				return false;
+			}
+		} else if (state.canStart()) {
+			player.start();
+			state.moveTo(PlayerStateMachine.State.STARTED);
+		} else if (state.is(PlayerStateMachine.State.PREPARING)) {
+			state.setPlayWhenReady(true);
+		} else {
+			return false;
+		}
+		events.post(EventChannel.PLAYING);
+		return true;
+	}
+
+	/**
+	 * Seeks to msec, or remembers it for when an evicted instance prepares
+	 * again. Returns -1 if there is nothing to seek.
+	 */
+	public int seek(int msec) {
+		if (state.isPrepared()) {
+			player.seekTo(msec);
+			return msec;
+		}
+		if (player == null && path != null) {
+			resumeAt = msec;
+			return msec;
+		}
+		return -1;
+	}
+
+	/**
+	 * Ends playback, removes the surface and leaves the registry.
+	 */
+	public void stop() {
+		events.close(EventChannel.COMPLETED, null, 0, null, 0);
+		finish();
+	}
+
+	boolean holdsDecoder() {
+		return player != null;
+	}
+
+	/**
+	 * True if the decoder could be taken away without interrupting playback.
+	 */
+	boolean isIdle() {
+		return player != null && !state.isPlaying() && !state.is(PlayerStateMachine.State.PREPARING);
+	}
+
+	/**
+	 * Gives up the decoder, remembering the position. Called by the registry.
+	 */
+	void evict() {
+		if (state.isPrepared()) {
+			resumeAt = player.getCurrentPosition();
+		}
+		engines.recycle(player);
+		player = null;
+		state.reset();
+		state.setPlayWhenReady(false);
+		events.post(EventChannel.EVICTED, "position", resumeAt / 1000);
+	}
+
+	public JSONObject toJSON() throws JSONException {
+		JSONObject o = new JSONObject();
+		o.put("id", id);
+		o.put("state", player == null ? "evicted" : state.get().name().toLowerCase());
+		o.put("path", path);
+		o.put("position", (state.isPrepared() ? player.getCurrentPosition() : resumeAt) / 1000);
+		return o;
+	}
+
+	private boolean prepare() {
+		if (!registry.reserve(this)) {
+			fail("decoder budget exhausted");
+			return false;
+		}
+		PlayerEngine mp = engines.create();
+		player = mp;
+		mp.setListener(this);
+		try {
+			if (path.startsWith(ASSETS)) {
+				AssetFileDescriptor fd = activity.getAssets().openFd(path.substring(ASSETS.length()));
+				try {
+					mp.setDataSource(fd.getFileDescriptor(), fd.getStartOffset(), fd.getLength());
+				} finally {
+					fd.close();
+				}
+			} else {
+				mp.setDataSource(path);
+			}
+		} catch (IOException e) {
+			fail(e.getLocalizedMessage());
+			return false;
+		} catch (RuntimeException e) {
+			fail(e.getLocalizedMessage());
+			return false;
+		}
+
+		mp.setLooping(options.optBoolean("loop", false));
+		mp.setVolume((float) options.optDouble("volume", 1));
+		if (surface != null) {
+			mp.setDisplay(surface);
+		}
+		state.moveTo(PlayerStateMachine.State.PREPARING);
+		mp.prepareAsync();
+		return true;
+	}
+
+	@Override
+	public void onPrepared(PlayerEngine mp) {
+		if (mp != player || !state.moveTo(PlayerStateMachine.State.PREPARED)) {
+			return;
+		}
+		if (resumeAt > 0) {
+			mp.seekTo(resumeAt);
+			resumeAt = 0;
+		}
+		if (state.isPlayWhenReady()) {
+			mp.start();
+			state.moveTo(PlayerStateMachine.State.STARTED);
+		} else {
+			state.moveTo(PlayerStateMachine.State.PAUSED);
+		}
+		events.post(EventChannel.PREPARED, "duration", mp.getDuration() / 1000);
+	}
+
+	@Override
+	public void onCompletion(PlayerEngine mp) {
+		if (mp != player) {
+			return;
+		}
+		stop();
+	}
+
+	@Override
+	public boolean onError(PlayerEngine mp, int what, int extra) {
+		Log.e(LOG_TAG, id + ".onError(" + what + ", " + extra + ")");
+		if (mp != player) {
+			return true;
+		}
+		events.close(EventChannel.ERROR, "what", what, "extra", extra);
+		state.moveTo(PlayerStateMachine.State.ERROR);
+		finish();
+		return true;
+	}
+
+	@Override
+	public void onBufferingUpdate(PlayerEngine mp, int percent) {
+	}
+
+	@Override
+	public boolean onInfo(PlayerEngine mp, int what, int extra) {
+		return false;
+	}
+
+	@Override
+	public void surfaceCreated(SurfaceHolder holder) {
+		surface = holder;
+		if (player != null) {
+			player.setDisplay(holder);
+		}
+	}
+
+	@Override
+	public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+	}
+
+	@Override
+	public void surfaceDestroyed(SurfaceHolder holder) {
+		surface = null;
+		if (player != null) {
+			// nothing to draw into; don't keep decoding
+			pause();
+			player.setDisplay(null);
+		}
+	}
+
+	private void fail(String message) {
+		Log.v(LOG_TAG, id + ": " + message);
+		events.fail(message);
+		finish();
+	}
+
+	private void finish() {
+		if (player != null) {
+			if (state.isPrepared()) {
+				player.stop();
+			}
+			engines.recycle(player);
+			player = null;
+		}
+		state.reset();
+		if (view != null) {
+			ViewGroup parent = (ViewGroup) view.getParent();
+			if (parent != null) {
+				parent.removeView(view);
+			}
+			view = null;
+			surface = null;
+		}
+		registry.remove(this);
+	}
+
+	private void layout(JSONObject options) {
+		float density = activity.getResources().getDisplayMetrics().density;
+		int width = (int) (options.optDouble("width", DEFAULT_WIDTH) * density);
+		int height = (int) (options.optDouble("height", DEFAULT_HEIGHT) * density);
+		FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(width, height);
+		if (view == null) {
+			view = new SurfaceView(activity);
+			// above the web view but below the main player's dialog
+			view.setZOrderMediaOverlay(true);
+			view.getHolder().addCallback(this);
+			activity.addContentView(view, params);
+		} else {
+			view.setLayoutParams(params);
+		}
+		view.setX((float) (options.optDouble("x", 0) * density));
+		view.setY((float) (options.optDouble("y", 0) * density));
+	}
+}
@@ -0,0 +1,203 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.media.MediaPlayer;
+import android.util.Log;
+
+/**
+ * The {@link PlayerInstance}s addressed by ID from JS, the decoder budget
+ * they share with the main player, and the pool of MediaPlayers behind
+ * {@link MediaPlayerEngine.Pooled}.
+ *
+ * At most {@link #getBudget()} players may hold a decoder at once, counting
+ * those of the main player as reported by the {@link Host}. When another one
+ * is needed and the budget is used up, the least recently used idle instance
+ * gives its decoder back; it prepares again when it is resumed. The main
+ * player is never refused, but an instance is when no idle one can be
+ * evicted.
+ *
+ * Players given back are reset() and pooled rather than released, so the next
+ * one skips native setup.
+ *
+ * Must only be used on the UI thread.
+ */
+public class PlayerRegistry {
+
+	private static final String LOG_TAG = "PlayerRegistry";
+
+	public static final int DEFAULT_BUDGET = 3;
+	private static final int POOL_SIZE = 2;
+
+	public interface Host {
+		/** players the main dialog currently holds, prepared or preparing */
+		int decodersInUse();
+	}
+
+	private final Host host;
+	// access order, so iteration starts at the least recently used instance
+	private final LinkedHashMap<String, PlayerInstance> instances = new LinkedHashMap<String, PlayerInstance>(16,
+			0.75f, true);
+	private final ArrayDeque<MediaPlayer> pool = new ArrayDeque<MediaPlayer>(POOL_SIZE);
+	private int budget = DEFAULT_BUDGET;
+
+	private int created;
+	private int reused;
+	private int evictions;
+
+	public PlayerRegistry(Host host) {
+		this.host = host;
+	}
+
+	public int getBudget() {
+		return budget;
+	}
+
+	public void setBudget(int budget) {
+		this.budget = Math.max(1, budget);
+	}
+
+	/**
+	 * Returns the instance with the given ID, marking it as used, or null.
+	 */
+	public PlayerInstance get(String id) {
+		return instances.get(id);
+	}
+
+	public void put(PlayerInstance instance) {
+		instances.put(instance.id, instance);
+	}
+
+	public void remove(PlayerInstance instance) {
+		if (instances.get(instance.id) == instance) {
+			instances.remove(instance.id);
+		}
+	}
+
+	/**
+	 * Decoders held right now by the main player and all instances.
+	 */
+	public int inUse() {
+		int n = host.decodersInUse();
+		for (PlayerInstance instance : instances.values()) {
+			if (instance.holdsDecoder()) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Makes room within the budget for an instance about to take a decoder,
+	 * evicting idle instances. Returns false if that is not possible.
+	 */
+	public boolean reserve(PlayerInstance requester) {
+		return makeRoom(requester);
+	}
+
+	/**
+	 * Hands out a player, evicting idle instances if the budget is used up.
+	 * The main player is never refused; instances {@link #reserve} first.
+	 */
+	public MediaPlayer obtain() {
+		makeRoom(null);
+		return take();
+	}
+
+	/**
+	 * Takes a player back. It is reset and pooled if there is room, released
+	 * otherwise.
+	 */
+	public void recycle(MediaPlayer mp) {
+		mp.setOnPreparedListener(null);
+		mp.setOnCompletionListener(null);
+		mp.setOnErrorListener(null);
+		mp.setOnBufferingUpdateListener(null);
+		mp.setOnInfoListener(null);
+		try {
+			mp.setDisplay(null);
+			mp.reset();
+		} catch (RuntimeException e) {
+			Log.v(LOG_TAG, "could not reset player: " + e.getLocalizedMessage());
+			mp.release();
+			return;
+		}
+		if (pool.size() < POOL_SIZE) {
+			pool.add(mp);
+		} else {
+			mp.release();
+		}
+	}
+
+	/**
+	 * Stops every instance and releases the pooled players.
+	 */
+	public void shutdown() {
+		for (PlayerInstance instance : new ArrayList<PlayerInstance>(instances.values())) {
+			instance.stop();
+		}
+		instances.clear();
+		MediaPlayer mp;
+		while ((mp = pool.poll()) != null) {
+			mp.release();
+		}
+	}
+
+	public JSONObject toJSON() throws JSONException {
+		JSONObject o = new JSONObject();
+		o.put("budget", budget);
+		o.put("inUse", inUse());
+		o.put("pooled", pool.size());
+		o.put("created", created);
+		o.put("reused", reused);
+		o.put("evictions", evictions);
+		JSONArray list = new JSONArray();
+		for (PlayerInstance instance : instances.values()) {
+			list.put(instance.toJSON());
+		}
+		o.put("instances", list);
+		return o;
+	}
+
+	private boolean makeRoom(PlayerInstance requester) {
+		int used = inUse();
+		if (used < budget) {
+			return true;
+		}
+		List<PlayerInstance> victims = new ArrayList<PlayerInstance>();
+		Iterator<PlayerInstance> it = instances.values().iterator();
+		while (used - victims.size() >= budget && it.hasNext()) {
+			PlayerInstance instance = it.next();
+			if (instance != requester && instance.isIdle()) {
+				victims.add(instance);
+			}
+		}
+		if (used - victims.size() >= budget) {
+			return false;
+		}
+		for (PlayerInstance victim : victims) {
+			Log.v(LOG_TAG, "evicting idle player " + victim.id);
+			evictions++;
+			victim.evict();
+		}
+		return true;
+	}
+
+	private MediaPlayer take() {
+		MediaPlayer mp = pool.poll();
+		if (mp != null) {
+			reused++;
+			return mp;
+		}
+		created++;
+		return new MediaPlayer();
+	}
+}
@@ -0,0 +1,119 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+/**
+ * Lifecycle of the plugin's MediaPlayer. Every command issued from
+ * {@link VideoPlayer#execute} is checked against the current state instead of
+ * poking the player directly, so calls made while the player is still
+ * preparing (or already torn down) never reach MediaPlayer in an illegal
+ * state.
+ *
+ * This class deliberately has no Android dependencies so that the transition
+ * rules can be exercised on a plain JVM.
+ */
+public class PlayerStateMachine {
+
+	public enum State {
+		IDLE, PREPARING, PREPARED, STARTED, PAUSED, STOPPED, ERROR
+	}
+
+	private State state = State.IDLE;
+	private boolean playWhenReady = true;
+
+	public synchronized State get() {
+		return state;
+	}
+
+	public synchronized boolean is(State s) {
+		return state == s;
+	}
+
+	/**
+	 * Moves to the given state if the transition is legal.
+	 *
+	 * @return true if the state changed
+	 */
+	public synchronized boolean moveTo(State next) {
+		if (!canMove(state, next)) {
+			return false;
+		}
+		state = next;
+		return true;
+	}
+
+	/**
+	 * Returns to IDLE from any state, e.g. after the player has been released.
+	 */
+	public synchronized void reset() {
+		state = State.IDLE;
+		playWhenReady = true;
+	}
+
+	public static boolean canMove(State from, State to) {
+		if (to == State.ERROR) {
+			return from != State.IDLE && from != State.ERROR;
+		}
+		switch (from) {
+		case IDLE:
+			return to == State.PREPARING;
+		case PREPARING:
+			return to == State.PREPARED || to == State.STOPPED;
+		case PREPARED:
+			return to == State.STARTED || to == State.PAUSED || to == State.STOPPED;
+		case STARTED:
+			return to == State.PAUSED || to == State.STOPPED;
+		case PAUSED:
+			return to == State.STARTED || to == State.STOPPED;
+		case STOPPED:
+		case ERROR:
+			return to == State.IDLE;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * True while a MediaPlayer exists for the current item, whether or not it
+	 * has finished preparing.
+	 */
+	public synchronized boolean isActive() {
+		return state == State.PREPARING || isPrepared();
+	}
+
+	/**
+	 * True once the player has prepared and until it is stopped; duration and
+	 * seek are only valid here.
+	 */
+	public synchronized boolean isPrepared() {
+		return state == State.PREPARED || state == State.STARTED || state == State.PAUSED;
+	}
+
+	public synchronized boolean isPlaying() {
+		return state == State.STARTED;
+	}
+
+	public synchronized boolean canStart() {
+		return state == State.PREPARED || state == State.PAUSED;
+	}
+
+	public synchronized boolean canPause() {
+		return state == State.STARTED;
+	}
+
+	/**
+	 * Whether playback should begin as soon as preparation completes. Pausing
+	 * while the player is still preparing clears this so the video opens
+	 * paused.
+	 */
+	public synchronized boolean isPlayWhenReady() {
+		return playWhenReady;
+	}
+
+	public synchronized void setPlayWhenReady(boolean playWhenReady) {
+		this.playWhenReady = playWhenReady;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return state.name().toLowerCase();
+	}
+}
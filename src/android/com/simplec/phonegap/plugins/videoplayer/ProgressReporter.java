@@ -0,0 +1,99 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import android.os.Handler;
+
+/**
+ * Opt-in "progress" events (position, buffered percentage, playing) at a
+ * fixed rate over the event channel, so JS does not have to poll.
+ *
+ * The reporter only ticks while the source is playing and the activity is in
+ * the foreground. When playback pauses it sends one last event with
+ * playing=false and stops rescheduling itself; {@link #kick()} restarts it
+ * once playback resumes.
+ */
+public class ProgressReporter implements Runnable {
+
+	public interface Source {
+		boolean isPlaying();
+
+		/** current position in milliseconds */
+		int getPosition();
+
+		int getBufferedPercent();
+	}
+
+	private final Handler handler;
+	private final EventChannel events;
+	private final Source source;
+
+	private int interval = 0;
+	private boolean backgrounded = false;
+	private boolean scheduled = false;
+
+	public ProgressReporter(Handler handler, EventChannel events, Source source) {
+		this.handler = handler;
+		this.events = events;
+		this.source = source;
+	}
+
+	/**
+	 * Sets the reporting rate in events per second; 0 turns reporting off.
+	 */
+	public synchronized void setRate(double hz) {
+		interval = hz > 0 ? (int) Math.max(1, 1000 / hz) : 0;
+		if (interval == 0) {
+			stop();
+		} else {
+			kick();
+		}
+	}
+
+	public synchronized boolean isEnabled() {
+		return interval > 0;
+	}
+
+	public synchronized void setBackgrounded(boolean backgrounded) {
+		this.backgrounded = backgrounded;
+		if (backgrounded) {
+			stop();
+		} else {
+			kick();
+		}
+	}
+
+	/**
+	 * Starts ticking if reporting is enabled and not already running. Call
+	 * whenever playback (re)starts.
+	 */
+	public synchronized void kick() {
+		if (interval > 0 && !backgrounded && !scheduled) {
+			scheduled = true;
+			handler.post(this);
+		}
+	}
+
+	public synchronized void stop() {
+		handler.removeCallbacks(this);
+		scheduled = false;
+	}
+
+	public void run() {
+		synchronized (this) {
+			scheduled = false;
+			if (interval == 0 || backgrounded) {
+				return;
+			}
+		}
+
+		boolean playing = source.isPlaying();
+		events.post(EventChannel.PROGRESS, "position", source.getPosition(), "buffered", source.getBufferedPercent(),
+				"playing", playing);
+
+		synchronized (this) {
+			if (playing && !scheduled && interval > 0 && !backgrounded) {
+				scheduled = true;
+				handler.postDelayed(this, interval);
+			}
+		}
+	}
+}
@@ -0,0 +1,291 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.util.Log;
+
+/**
+ * Pulls the parts of a local file that prepare() reads first into the page
+ * cache, so it does not pay for cold random reads on slow storage.
+ *
+ * That is the head of the file, and for an MP4 whose moov box sits at the
+ * tail, the moov as well, since the extractor reads it before any media
+ * data. The bytes are read sequentially through a reused direct buffer and
+ * thrown away; only the kernel's cached copy matters. A warmup for a file
+ * that is already being warmed joins the running one, and one completed
+ * recently (with the file unchanged) is not repeated.
+ */
+public class ReadAhead {
+
+	private static final String LOG_TAG = "ReadAhead";
+
+	/** nothing was read ahead */
+	public static final int COLD = 0;
+	/** a warmup was still running */
+	public static final int WARMING = 1;
+	/** the warmup had completed */
+	public static final int WARM = 2;
+
+	public static final long DEFAULT_BYTES = 8L * 1024 * 1024;
+	/** a moov larger than this is left to the extractor */
+	static final long MAX_MOOV = 16L * 1024 * 1024;
+	/** how long a completed warmup is trusted to still be in the page cache */
+	static final long WARM_TTL_MS = 5 * 60 * 1000;
+	static final int BUFFER_SIZE = 256 * 1024;
+	private static final int THREADS = 2;
+	private static final int CAPACITY = 32;
+
+	public static class Result {
+		public final String path;
+		public final long bytes;
+		public final long elapsedMs;
+		public final boolean moov;
+
+		Result(String path, long bytes, long elapsedMs, boolean moov) {
+			this.path = path;
+			this.bytes = bytes;
+			this.elapsedMs = elapsedMs;
+			this.moov = moov;
+		}
+
+		public JSONObject toJSON() throws JSONException {
+			JSONObject o = new JSONObject();
+			o.put("path", path);
+			o.put("bytes", bytes);
+			o.put("ms", elapsedMs);
+			o.put("moov", moov);
+			return o;
+		}
+	}
+
+	private static class Warmup {
+		FutureTask<Result> task;
+		final long size;
+		final long mtime;
+		final long limit;
+		long finishedAt;
+
+		Warmup(long size, long mtime, long limit) {
+			this.size = size;
+			this.mtime = mtime;
+			this.limit = limit;
+		}
+	}
+
+	private final ExecutorService executor;
+	private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+	};
+	private final LinkedHashMap<String, Warmup> warmups = new LinkedHashMap<String, Warmup>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Warmup> eldest) {
+			return size() > CAPACITY;
+		}
+	};
+
+	private long started;
+	private long joined;
+	private long skipped;
+	private long bytesRead;
+	private long millis;
+
+	public ReadAhead() {
+		executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+			private int count = 0;
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "VideoPlayer-readahead-" + (++count));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Starts warming the first bytes of the file (and a trailing moov) unless
+	 * that is running or was done recently. Returns the warmup to wait on if
+	 * needed; a failed warmup only logs.
+	 */
+	public Future<Result> warm(final String path, final long bytes) {
+		final File file = new File(path);
+		long size = file.length();
+		long mtime = file.lastModified();
+		long limit = Math.min(bytes, size);
+		synchronized (this) {
+			Warmup w = warmups.get(path);
+			if (w != null && w.size == size && w.mtime == mtime && w.limit >= limit) {
+				if (!w.task.isDone()) {
+					joined++;
+					return w.task;
+				}
+				if (System.currentTimeMillis() - w.finishedAt < WARM_TTL_MS) {
+					skipped++;
+					return w.task;
+				}
+			}
+			final Warmup warmup = new Warmup(size, mtime, limit);
+			warmup.task = new FutureTask<Result>(new Callable<Result>() {
+				public Result call() throws Exception {
+					Result result;
+					try {
+						result = read(file, warmup.limit);
+					} catch (IOException e) {
+						// left unfinished, so it neither counts as warm nor blocks a retry
+						Log.v(LOG_TAG, "could not read ahead " + path + ": " + e.getLocalizedMessage());
+						return new Result(path, 0, 0, false);
+					}
+					synchronized (ReadAhead.this) {
+						warmup.finishedAt = System.currentTimeMillis();
+						bytesRead += result.bytes;
+						millis += result.elapsedMs;
+					}
+					return result;
+				}
+			});
+			warmups.put(path, warmup);
+			started++;
+			executor.execute(warmup.task);
+			return warmup.task;
+		}
+	}
+
+	/**
+	 * How warm the file is right now: {@link #COLD}, {@link #WARMING} or
+	 * {@link #WARM}.
+	 */
+	public synchronized int warmth(String path) {
+		Warmup w = warmups.get(path);
+		if (w == null) {
+			return COLD;
+		}
+		if (!w.task.isDone()) {
+			return WARMING;
+		}
+		return System.currentTimeMillis() - w.finishedAt < WARM_TTL_MS ? WARM : COLD;
+	}
+
+	/**
+	 * Waits for a warmup, returning null if it failed or was interrupted.
+	 */
+	public static Result await(Future<Result> warmup) {
+		try {
+			return warmup.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			return null;
+		}
+	}
+
+	public synchronized JSONObject toJSON() throws JSONException {
+		JSONObject o = new JSONObject();
+		o.put("started", started);
+		o.put("joined", joined);
+		o.put("skipped", skipped);
+		o.put("bytes", bytesRead);
+		o.put("ms", millis);
+		return o;
+	}
+
+	public synchronized void reset() {
+		started = 0;
+		joined = 0;
+		skipped = 0;
+		bytesRead = 0;
+		millis = 0;
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	private Result read(File file, long limit) throws IOException {
+		long start = System.currentTimeMillis();
+		long total = 0;
+		boolean moov = false;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			// the extractor wants the moov before anything else
+			Mp4Reader.Box box = trailingMoov(file);
+			if (box != null && box.size <= MAX_MOOV && box.end() > limit) {
+				long from = Math.max(box.offset, limit);
+				total += readRange(channel, from, box.end() - from);
+				moov = true;
+			}
+			total += readRange(channel, 0, limit);
+		} finally {
+			raf.close();
+		}
+		Result result = new Result(file.getPath(), total, System.currentTimeMillis() - start, moov);
+		Log.v(LOG_TAG, "read ahead " + total + " bytes of " + file + " in " + result.elapsedMs + "ms"
+				+ (moov ? " (with trailing moov)" : ""));
+		return result;
+	}
+
+	private long readRange(FileChannel channel, long position, long length) throws IOException {
+		ByteBuffer buffer = buffers.get();
+		long done = 0;
+		while (done < length) {
+			if (Thread.currentThread().isInterrupted()) {
+				throw new IOException("interrupted");
+			}
+			buffer.clear();
+			if (length - done < buffer.capacity()) {
+				buffer.limit((int) (length - done));
+			}
+			int n = channel.read(buffer, position + done);
+			if (n < 0) {
+				break;
+			}
+			done += n;
+		}
+		return done;
+	}
+
+	/**
+	 * The moov box of an MP4 whose moov comes after its media data, or null.
+	 */
+	private static Mp4Reader.Box trailingMoov(File file) {
+		Mp4Reader reader = null;
+		try {
+			reader = new Mp4Reader(file);
+			Mp4Reader.Box moov = reader.find(Mp4Reader.MOOV);
+			Mp4Reader.Box mdat = reader.find(Mp4Reader.MDAT);
+			return moov != null && mdat != null && moov.offset > mdat.offset ? moov : null;
+		} catch (IOException e) {
+			// not an MP4, or not one we can read
+			return null;
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
+}
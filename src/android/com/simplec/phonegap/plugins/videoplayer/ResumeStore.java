@@ -0,0 +1,332 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.util.Log;
+
+/**
+ * Last playback position per content key, so long videos can be resumed
+ * where they were left after a stop, an error or the process being killed.
+ *
+ * Positions are updated in memory as often as the caller likes, but only
+ * written when they have moved by {@link #JOURNAL_DELTA_MS} or when the
+ * caller commits them (pause, stop). Writes are appended to a journal on the
+ * supplied executor, in order; once the journal holds many more records than
+ * there are live entries it is rewritten from memory. The journal is read
+ * lazily on first use. A record torn by a crash ends the replay and causes a
+ * rewrite before anything else is appended.
+ *
+ * A position within {@link #FINISHED_MARGIN_MS} of the end counts as watched
+ * to the end and removes the entry.
+ */
+public class ResumeStore {
+
+	private static final String LOG_TAG = "ResumeStore";
+
+	private static final int MAGIC = 0x56524a31; // "VRJ1"
+	private static final byte PUT = 1;
+	private static final byte REMOVE = 2;
+
+	static final int DEFAULT_CAPACITY = 1000;
+	static final long JOURNAL_DELTA_MS = 15000;
+	static final long FINISHED_MARGIN_MS = 5000;
+	private static final int COMPACT_FACTOR = 4;
+	private static final int COMPACT_SLACK = 64;
+
+	public static class Position {
+		public final long positionMs;
+		public final long durationMs;
+		/** wall clock time of the update */
+		public final long updatedAt;
+
+		Position(long positionMs, long durationMs, long updatedAt) {
+			this.positionMs = positionMs;
+			this.durationMs = durationMs;
+			this.updatedAt = updatedAt;
+		}
+
+		public JSONObject toJSON() throws JSONException {
+			JSONObject o = new JSONObject();
+			o.put("position", positionMs);
+			o.put("duration", durationMs);
+			o.put("updated", updatedAt);
+			return o;
+		}
+	}
+
+	private static class Slot {
+		Position current;
+		/** position last handed to the journal, or null */
+		Position journaled;
+	}
+
+	private static class Record {
+		final String key;
+		final Position position;
+
+		Record(String key, Position position) {
+			this.key = key;
+			this.position = position;
+		}
+	}
+
+	private final LinkedHashMap<String, Slot> entries;
+	private final IndexFile<List<Record>> journal;
+
+	private List<Record> pending = new ArrayList<Record>();
+	/** records in the journal file, to decide when to compact */
+	private int journalRecords = 0;
+	private boolean compactNeeded = false;
+
+	/** serializes file access so appends land in the order they were made */
+	private final Object ioLock = new Object();
+
+	public ResumeStore(File journal, Executor executor) {
+		this(journal, executor, DEFAULT_CAPACITY);
+	}
+
+	public ResumeStore(File journal, Executor executor, final int capacity) {
+		this.entries = new LinkedHashMap<String, Slot>(16, 0.75f, false) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Slot> eldest) {
+				return size() > capacity;
+			}
+		};
+		this.journal = new IndexFile<List<Record>>(journal, MAGIC, executor, this, LOG_TAG) {
+			@Override
+			protected void read(DataInputStream in) throws IOException {
+				replay(in);
+			}
+
+			@Override
+			protected List<Record> snapshot() {
+				List<Record> snapshot = new ArrayList<Record>(entries.size());
+				for (Map.Entry<String, Slot> e : entries.entrySet()) {
+					snapshot.add(new Record(e.getKey(), e.getValue().current));
+					e.getValue().journaled = e.getValue().current;
+				}
+				return snapshot;
+			}
+
+			@Override
+			protected void write(DataOutputStream out, List<Record> records) throws IOException {
+				for (Record r : records) {
+					writeRecord(out, r);
+				}
+			}
+
+			@Override
+			protected void save() {
+				flush();
+			}
+		};
+	}
+
+	/**
+	 * Returns the stored position for key in milliseconds, or 0.
+	 */
+	public synchronized long get(String key) {
+		ensureLoaded();
+		Slot e = entries.get(key);
+		return e != null ? e.current.positionMs : 0;
+	}
+
+	/**
+	 * Returns the stored positions of the given keys, or of every key if keys
+	 * is null. Keys without a position are left out.
+	 */
+	public synchronized Map<String, Position> positions(List<String> keys) {
+		ensureLoaded();
+		Map<String, Position> result = new LinkedHashMap<String, Position>();
+		if (keys == null) {
+			for (Map.Entry<String, Slot> e : entries.entrySet()) {
+				result.put(e.getKey(), e.getValue().current);
+			}
+		} else {
+			for (String key : keys) {
+				Slot e = entries.get(key);
+				if (e != null) {
+					result.put(key, e.current);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Records the position for key in memory, journaling it if it has moved
+	 * far enough since it was last journaled.
+	 */
+	public synchronized void update(String key, long positionMs, long durationMs) {
+		ensureLoaded();
+		if (durationMs > 0 && positionMs >= durationMs - FINISHED_MARGIN_MS) {
+			remove(key);
+			return;
+		}
+		Slot e = entries.remove(key);
+		if (e == null) {
+			e = new Slot();
+		}
+		// re-inserted so the most recently played keys are evicted last
+		entries.put(key, e);
+		e.current = new Position(positionMs, durationMs, System.currentTimeMillis());
+		if (e.journaled == null || Math.abs(positionMs - e.journaled.positionMs) >= JOURNAL_DELTA_MS) {
+			journal(key, e);
+		}
+	}
+
+	/**
+	 * Journals the in-memory position for key if it has not been yet.
+	 */
+	public synchronized void commit(String key) {
+		ensureLoaded();
+		Slot e = entries.get(key);
+		if (e != null && e.journaled != e.current) {
+			journal(key, e);
+		}
+	}
+
+	public synchronized void remove(String key) {
+		ensureLoaded();
+		if (entries.remove(key) != null) {
+			append(new Record(key, null));
+		}
+	}
+
+	/**
+	 * Reads the journal if that has not happened yet. Safe to call from a
+	 * background thread to warm the store ahead of the first play.
+	 */
+	public synchronized void ensureLoaded() {
+		if (journal.isLoaded()) {
+			return;
+		}
+		if (!journal.ensureLoaded()) {
+			compactNeeded = true;
+		}
+		if (compactNeeded) {
+			journal.scheduleSave();
+		}
+	}
+
+	/**
+	 * Applies the records of the journal, counting them. A torn last record
+	 * ends the replay.
+	 */
+	private void replay(DataInputStream in) throws IOException {
+		try {
+			while (true) {
+				int op = in.read();
+				if (op < 0) {
+					break;
+				}
+				String key = in.readUTF();
+				if (op == PUT) {
+					long position = in.readLong();
+					long duration = in.readLong();
+					long updated = in.readLong();
+					Slot e = entries.remove(key);
+					if (e == null) {
+						e = new Slot();
+					}
+					entries.put(key, e);
+					e.current = new Position(position, duration, updated);
+					e.journaled = e.current;
+				} else if (op == REMOVE) {
+					entries.remove(key);
+				} else {
+					throw new IOException("bad record type " + op);
+				}
+				journalRecords++;
+			}
+			Log.v(LOG_TAG, "replayed " + journalRecords + " records into " + entries.size() + " positions");
+		} catch (EOFException e) {
+			Log.w(LOG_TAG, "journal ends in a torn record after " + journalRecords + " records");
+			compactNeeded = true;
+		}
+	}
+
+	private void journal(String key, Slot e) {
+		e.journaled = e.current;
+		append(new Record(key, e.current));
+	}
+
+	private void append(Record record) {
+		if (journal.getFile() == null) {
+			return;
+		}
+		pending.add(record);
+		journal.scheduleSave();
+	}
+
+	/**
+	 * Appends the pending records, or rewrites the journal from memory once
+	 * it holds many more records than there are entries or may be torn.
+	 */
+	private void flush() {
+		synchronized (ioLock) {
+			List<Record> records;
+			List<Record> snapshot = null;
+			synchronized (this) {
+				journal.saveStarted();
+				records = pending;
+				pending = new ArrayList<Record>();
+				int live = entries.size();
+				if (compactNeeded || journalRecords + records.size() > live * COMPACT_FACTOR + COMPACT_SLACK) {
+					compactNeeded = false;
+					snapshot = journal.snapshot();
+				}
+			}
+			if (snapshot != null) {
+				boolean replaced = journal.replace(snapshot);
+				synchronized (this) {
+					if (replaced) {
+						journalRecords = snapshot.size();
+					} else {
+						compactNeeded = true;
+					}
+				}
+				if (replaced) {
+					Log.v(LOG_TAG, "compacted journal to " + snapshot.size() + " records");
+				}
+			} else if (!records.isEmpty()) {
+				boolean appended = journal.append(records);
+				synchronized (this) {
+					if (appended) {
+						journalRecords += records.size();
+					} else {
+						// the tail may be torn; start over from memory next time
+						compactNeeded = true;
+					}
+				}
+			}
+		}
+	}
+
+	private static void writeRecord(DataOutputStream out, Record r) throws IOException {
+		if (r.position == null) {
+			out.writeByte(REMOVE);
+			out.writeUTF(r.key);
+		} else {
+			out.writeByte(PUT);
+			out.writeUTF(r.key);
+			out.writeLong(r.position.positionMs);
+			out.writeLong(r.position.durationMs);
+			out.writeLong(r.position.updatedAt);
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import org.json.JSONObject;
+
+/**
+ * When a prepared network stream may start: once enough of it is buffered,
+ * or once the timeout has passed, whichever comes first. Starting on a thin
+ * buffer is what makes congested connections stall again and again.
+ *
+ * Configured from the play options, either directly with startPercent,
+ * startSeconds and startTimeout (ms), or per network type with
+ * startPolicy: {wifi: {percent, seconds, timeout}, cellular: {...},
+ * ethernet: {...}, default: {...}}. With neither, playback starts as soon as
+ * it is prepared.
+ */
+public class StartPolicy {
+
+	static final long DEFAULT_TIMEOUT_MS = 15000;
+
+	/** share of the whole stream to buffer, 0 for no requirement */
+	public final int percent;
+	/** media time to buffer ahead of the start position, 0 for no requirement */
+	public final long bufferMs;
+	/** start anyway after this long */
+	public final long timeoutMs;
+
+	public StartPolicy(int percent, long bufferMs, long timeoutMs) {
+		this.percent = percent;
+		this.bufferMs = bufferMs;
+		this.timeoutMs = timeoutMs;
+	}
+
+	/**
+	 * Reads the policy for the given network type from the play options, or
+	 * returns null if there is none.
+	 */
+	public static StartPolicy from(JSONObject options, String network) {
+		if (options == null) {
+			return null;
+		}
+		JSONObject perNetwork = options.optJSONObject("startPolicy");
+		if (perNetwork != null) {
+			JSONObject o = perNetwork.optJSONObject(network);
+			if (o == null) {
+				o = perNetwork.optJSONObject("default");
+			}
+			return o != null ? create(o.optInt("percent", 0), o.optDouble("seconds", 0), o.optLong("timeout",
+					DEFAULT_TIMEOUT_MS)) : null;
+		}
+		return create(options.optInt("startPercent", 0), options.optDouble("startSeconds", 0), options.optLong(
+				"startTimeout", DEFAULT_TIMEOUT_MS));
+	}
+
+	private static StartPolicy create(int percent, double seconds, long timeoutMs) {
+		if (percent <= 0 && seconds <= 0) {
+			return null;
+		}
+		return new StartPolicy(Math.min(100, percent), (long) (seconds * 1000), timeoutMs);
+	}
+
+	/**
+	 * True once the buffer satisfies the policy.
+	 *
+	 * @param bufferedPercent
+	 *            as reported by OnBufferingUpdateListener
+	 * @param durationMs
+	 *            the stream's duration, or 0 or less if unknown (live)
+	 * @param positionMs
+	 *            where playback will start
+	 */
+	public boolean ready(int bufferedPercent, long durationMs, long positionMs) {
+		if (bufferedPercent >= 100) {
+			return true;
+		}
+		if (percent > 0 && bufferedPercent >= percent) {
+			return true;
+		}
+		if (bufferMs > 0 && durationMs > 0) {
+			long bufferedMs = bufferedPercent * durationMs / 100 - positionMs;
+			return bufferedMs >= Math.min(bufferMs, durationMs - positionMs);
+		}
+		return false;
+	}
+}
@@ -0,0 +1,409 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Builds seek-preview storyboards: frames sampled at a fixed interval over
+ * the whole video, tiled into JPEG sprite sheets, plus a small binary index.
+ *
+ * Storyboards are kept in a size-bounded {@link FileCache}, their files named
+ * after a key made of the path, mtime and layout. Sheets are the unit of
+ * progress: a sheet is committed to the cache and only then counted in the
+ * index, so an interrupted pass resumes at the first missing sheet and a
+ * finished storyboard is never regenerated. Reading a storyboard touches its
+ * sheets, and one whose sheets were evicted counts only those before the
+ * first missing one, so the next pass fills the gap. Passes run one at a time
+ * on a background thread with a single retriever per video.
+ *
+ * Index layout (big-endian): magic, version, intervalMs, tileWidth,
+ * tileHeight, columns, rows, durationMs, tileCount, sheetsDone, complete
+ * (byte), then the time in ms of each tile.
+ */
+public class StoryboardGenerator {
+
+	private static final String LOG_TAG = "StoryboardGenerator";
+
+	private static final int MAGIC = 0x53424431;
+	private static final int VERSION = 1;
+	private static final String INDEX = ".index";
+	private static final int QUALITY = 70;
+
+	public interface Callback {
+		void onStoryboard(Storyboard storyboard);
+
+		void onError(String message);
+	}
+
+	public static class Storyboard {
+		final FileCache cache;
+		final String key;
+		public final int intervalMs;
+		public final int tileWidth;
+		public final int tileHeight;
+		public final int columns;
+		public final int rows;
+		public final int durationMs;
+		public final int[] tileTimes;
+		int sheetsDone;
+		boolean complete;
+
+		Storyboard(FileCache cache, String key, int intervalMs, int tileWidth, int tileHeight, int columns, int rows,
+				int durationMs, int[] tileTimes) {
+			this.cache = cache;
+			this.key = key;
+			this.intervalMs = intervalMs;
+			this.tileWidth = tileWidth;
+			this.tileHeight = tileHeight;
+			this.columns = columns;
+			this.rows = rows;
+			this.durationMs = durationMs;
+			this.tileTimes = tileTimes;
+		}
+
+		public boolean isComplete() {
+			return complete;
+		}
+
+		public int tilesPerSheet() {
+			return columns * rows;
+		}
+
+		public int sheetCount() {
+			return (tileTimes.length + tilesPerSheet() - 1) / tilesPerSheet();
+		}
+
+		public File sheet(int n) {
+			return cache.file(sheetName(n));
+		}
+
+		String sheetName(int n) {
+			return key + "-" + n + ".jpg";
+		}
+
+		/**
+		 * Index of the last tile at or before the given time.
+		 */
+		public int tileAt(long ms) {
+			int lo = 0;
+			int hi = tileTimes.length - 1;
+			while (lo < hi) {
+				int mid = (lo + hi + 1) >>> 1;
+				if (tileTimes[mid] <= ms) {
+					lo = mid;
+				} else {
+					hi = mid - 1;
+				}
+			}
+			return lo;
+		}
+
+		public JSONObject toJSON() throws JSONException {
+			JSONObject json = new JSONObject();
+			json.put("complete", complete);
+			json.put("duration", durationMs / 1000.0);
+			json.put("interval", intervalMs / 1000.0);
+			json.put("tileWidth", tileWidth);
+			json.put("tileHeight", tileHeight);
+			json.put("columns", columns);
+			json.put("rows", rows);
+			json.put("tiles", tileTimes.length);
+			json.put("index", Uri.fromFile(cache.file(key + INDEX)).toString());
+			JSONArray sheets = new JSONArray();
+			for (int i = 0; i < sheetsDone; i++) {
+				sheets.put(Uri.fromFile(sheet(i)).toString());
+			}
+			json.put("sheets", sheets);
+			return json;
+		}
+	}
+
+	private final FileCache cache;
+	private final ExecutorService executor;
+	private final Map<String, List<Callback>> pending = new HashMap<String, List<Callback>>();
+
+	public StoryboardGenerator(FileCache cache) {
+		this.cache = cache;
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(final Runnable r) {
+				return new Thread(new Runnable() {
+					public void run() {
+						Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+						r.run();
+					}
+				}, LOG_TAG);
+			}
+		});
+	}
+
+	/**
+	 * Returns the storyboard as far as it has been generated, or null if no
+	 * pass has started yet.
+	 */
+	public Storyboard peek(String path, long mtime, int intervalMs, int tileWidth, int columns, int rows) {
+		try {
+			return readIndex(cache, keyFor(path, mtime, intervalMs, tileWidth, columns, rows));
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Delivers the complete storyboard, generating or resuming it first if
+	 * needed. Concurrent requests for the same storyboard share one pass.
+	 */
+	public void generate(final String path, long mtime, final int intervalMs, final int tileWidth, final int columns,
+			final int rows, Callback callback) {
+		final String key = keyFor(path, mtime, intervalMs, tileWidth, columns, rows);
+
+		synchronized (pending) {
+			List<Callback> waiting = pending.get(key);
+			if (waiting != null) {
+				waiting.add(callback);
+				return;
+			}
+			waiting = new ArrayList<Callback>();
+			waiting.add(callback);
+			pending.put(key, waiting);
+		}
+
+		executor.execute(new Runnable() {
+			public void run() {
+				Storyboard storyboard = null;
+				String error = null;
+				try {
+					storyboard = build(path, key, intervalMs, tileWidth, columns, rows);
+				} catch (Exception e) {
+					error = e.getLocalizedMessage() != null ? e.getLocalizedMessage() : e.toString();
+					Log.v(LOG_TAG, "storyboard for " + path + " failed: " + error);
+				}
+
+				List<Callback> waiting;
+				synchronized (pending) {
+					waiting = pending.remove(key);
+				}
+				for (Callback cb : waiting) {
+					if (storyboard != null) {
+						cb.onStoryboard(storyboard);
+					} else {
+						cb.onError(error);
+					}
+				}
+			}
+		});
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	private static String keyFor(String path, long mtime, int intervalMs, int tileWidth, int columns, int rows) {
+		return CacheIndex.keyFor(path + "|" + mtime + "|" + intervalMs + "|" + tileWidth + "|" + columns + "x" + rows);
+	}
+
+	private Storyboard build(String path, String key, int intervalMs, int tileWidth, int columns, int rows)
+			throws IOException {
+		Storyboard storyboard = readIndex(cache, key);
+		if (storyboard != null && storyboard.complete) {
+			return storyboard;
+		}
+
+		MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+		try {
+			retriever.setDataSource(path);
+			if (storyboard == null) {
+				storyboard = create(retriever, cache, key, intervalMs, tileWidth, columns, rows);
+				writeIndex(storyboard);
+			}
+
+			long start = System.currentTimeMillis();
+			int resumedAt = storyboard.sheetsDone;
+			Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+			Rect dst = new Rect();
+			int perSheet = storyboard.tilesPerSheet();
+			int sheets = storyboard.sheetCount();
+			for (int s = storyboard.sheetsDone; s < sheets; s++) {
+				if (Thread.currentThread().isInterrupted()) {
+					throw new IOException("interrupted");
+				}
+				int first = s * perSheet;
+				int count = Math.min(perSheet, storyboard.tileTimes.length - first);
+				int usedRows = (count + columns - 1) / columns;
+				Bitmap sheet = Bitmap.createBitmap(columns * storyboard.tileWidth, usedRows * storyboard.tileHeight,
+						Bitmap.Config.RGB_565);
+				try {
+					Canvas canvas = new Canvas(sheet);
+					canvas.drawColor(Color.BLACK);
+					for (int i = 0; i < count; i++) {
+						long timeUs = storyboard.tileTimes[first + i] * 1000L;
+						Bitmap frame = ThumbnailService.frameAt(retriever, timeUs, storyboard.tileWidth,
+								storyboard.tileHeight);
+						if (frame == null) {
+							continue;
+						}
+						int x = (i % columns) * storyboard.tileWidth;
+						int y = (i / columns) * storyboard.tileHeight;
+						dst.set(x, y, x + storyboard.tileWidth, y + storyboard.tileHeight);
+						canvas.drawBitmap(frame, null, dst, paint);
+						frame.recycle();
+					}
+					writeSheet(sheet, cache, storyboard.sheetName(s));
+				} finally {
+					sheet.recycle();
+				}
+				storyboard.sheetsDone = s + 1;
+				storyboard.complete = storyboard.sheetsDone == sheets;
+				writeIndex(storyboard);
+			}
+			Log.v(LOG_TAG, "storyboard for " + path + ": sheets " + resumedAt + "-" + sheets + " in "
+					+ (System.currentTimeMillis() - start) + "ms");
+			return storyboard;
+		} finally {
+			retriever.release();
+		}
+	}
+
+	private static Storyboard create(MediaMetadataRetriever retriever, FileCache cache, String key, int intervalMs,
+			int tileWidth, int columns, int rows) throws IOException {
+		int durationMs = parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION));
+		VideoMetadata metadata = new VideoMetadata(
+				parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH)),
+				parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT)), durationMs,
+				parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION)), 0);
+		if (durationMs <= 0) {
+			throw new IOException("unknown duration");
+		}
+		int tileHeight = metadata.hasSize() ? Math.max(1, tileWidth * metadata.displayHeight()
+				/ metadata.displayWidth()) : tileWidth * 9 / 16;
+
+		int tiles = Math.max(1, (durationMs + intervalMs - 1) / intervalMs);
+		int[] tileTimes = new int[tiles];
+		for (int i = 0; i < tiles; i++) {
+			tileTimes[i] = i * intervalMs;
+		}
+		return new Storyboard(cache, key, intervalMs, tileWidth, tileHeight, columns, rows, durationMs, tileTimes);
+	}
+
+	/**
+	 * Reads a storyboard's index, counting only the sheets still cached.
+	 */
+	private static Storyboard readIndex(FileCache cache, String key) throws IOException {
+		File f = cache.get(key + INDEX);
+		if (f == null) {
+			return null;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return null;
+			}
+			int intervalMs = in.readInt();
+			int tileWidth = in.readInt();
+			int tileHeight = in.readInt();
+			int columns = in.readInt();
+			int rows = in.readInt();
+			int durationMs = in.readInt();
+			int tiles = in.readInt();
+			int sheetsDone = in.readInt();
+			boolean complete = in.readBoolean();
+			int[] tileTimes = new int[tiles];
+			for (int i = 0; i < tiles; i++) {
+				tileTimes[i] = in.readInt();
+			}
+			Storyboard storyboard = new Storyboard(cache, key, intervalMs, tileWidth, tileHeight, columns, rows,
+					durationMs, tileTimes);
+			storyboard.sheetsDone = sheetsDone;
+			storyboard.complete = complete;
+			for (int i = 0; i < sheetsDone; i++) {
+				if (cache.get(storyboard.sheetName(i)) == null) {
+					storyboard.sheetsDone = i;
+					storyboard.complete = false;
+					break;
+				}
+			}
+			return storyboard;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void writeIndex(Storyboard storyboard) throws IOException {
+		String name = storyboard.key + INDEX;
+		File tmp = storyboard.cache.tempFile(name);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(storyboard.intervalMs);
+			out.writeInt(storyboard.tileWidth);
+			out.writeInt(storyboard.tileHeight);
+			out.writeInt(storyboard.columns);
+			out.writeInt(storyboard.rows);
+			out.writeInt(storyboard.durationMs);
+			out.writeInt(storyboard.tileTimes.length);
+			out.writeInt(storyboard.sheetsDone);
+			out.writeBoolean(storyboard.complete);
+			for (int t : storyboard.tileTimes) {
+				out.writeInt(t);
+			}
+		} finally {
+			out.close();
+		}
+		storyboard.cache.commit(tmp, name);
+	}
+
+	private static void writeSheet(Bitmap sheet, FileCache cache, String name) throws IOException {
+		File tmp = cache.tempFile(name);
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp));
+		boolean written = false;
+		try {
+			written = sheet.compress(Bitmap.CompressFormat.JPEG, QUALITY, out);
+		} finally {
+			out.close();
+		}
+		if (!written) {
+			tmp.delete();
+			throw new IOException("could not write " + name);
+		}
+		cache.commit(tmp, name);
+	}
+
+	private static int parseInt(String value) {
+		if (value == null) {
+			return 0;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+}
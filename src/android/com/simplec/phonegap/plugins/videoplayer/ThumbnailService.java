@@ -0,0 +1,197 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.graphics.Bitmap;
+import android.media.MediaMetadataRetriever;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Extracts poster frames from local videos into a {@link FileCache}.
+ *
+ * Extraction runs on a small pool of background threads of its own, so that
+ * a page full of thumbnails cannot occupy every hardware decoder or starve
+ * the Cordova thread pool. Concurrent requests for the same thumbnail share
+ * one extraction. Thumbnails are keyed by path, modification time, frame time
+ * and requested size, so a changed file never serves a stale frame.
+ */
+public class ThumbnailService {
+
+	private static final String LOG_TAG = "ThumbnailService";
+
+	/** Build.VERSION_CODES.O_MR1, where getScaledFrameAtTime appeared */
+	private static final int SCALED_FRAME_API = 27;
+
+	public static final int DEFAULT_QUALITY = 80;
+
+	public interface Callback {
+		void onThumbnail(File file);
+
+		void onError(String message);
+	}
+
+	private final FileCache cache;
+	private final ThreadPoolExecutor executor;
+	private final Map<String, List<Callback>> pending = new HashMap<String, List<Callback>>();
+
+	public ThumbnailService(FileCache cache, int maxConcurrent) {
+		this.cache = cache;
+		this.executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					public Thread newThread(final Runnable r) {
+						return new Thread(new Runnable() {
+							public void run() {
+								Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+								r.run();
+							}
+						}, LOG_TAG);
+					}
+				});
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Delivers the thumbnail of the frame nearest timeUs, scaled to fit within
+	 * width x height (0 for either keeps the aspect ratio, both 0 keeps the
+	 * original size). Answered immediately when cached, otherwise on a
+	 * background thread.
+	 */
+	public void request(final String path, long mtime, final long timeUs, final int width, final int height,
+			final int quality, Callback callback) {
+		final String name = CacheIndex.keyFor(path + "|" + mtime + "|" + timeUs + "|" + width + "x" + height) + ".jpg";
+
+		File cached = cache.get(name);
+		if (cached != null) {
+			callback.onThumbnail(cached);
+			return;
+		}
+
+		synchronized (pending) {
+			List<Callback> waiting = pending.get(name);
+			if (waiting != null) {
+				waiting.add(callback);
+				return;
+			}
+			waiting = new ArrayList<Callback>();
+			waiting.add(callback);
+			pending.put(name, waiting);
+		}
+
+		executor.execute(new Runnable() {
+			public void run() {
+				File file = null;
+				String error = null;
+				try {
+					file = cache.get(name);
+					if (file == null) {
+						file = extract(path, timeUs, width, height, quality, name);
+					}
+				} catch (Exception e) {
+					error = e.getLocalizedMessage() != null ? e.getLocalizedMessage() : e.toString();
+					Log.v(LOG_TAG, "could not extract frame from " + path + ": " + error);
+				}
+
+				List<Callback> waiting;
+				synchronized (pending) {
+					waiting = pending.remove(name);
+				}
+				for (Callback cb : waiting) {
+					if (file != null) {
+						cb.onThumbnail(file);
+					} else {
+						cb.onError(error);
+					}
+				}
+			}
+		});
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	private File extract(String path, long timeUs, int width, int height, int quality, String name)
+			throws IOException {
+		MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+		Bitmap frame = null;
+		try {
+			retriever.setDataSource(path);
+			frame = frameAt(retriever, timeUs, width, height);
+			if (frame == null) {
+				throw new IOException("no frame at " + timeUs + "us");
+			}
+			return store(frame, quality, name);
+		} finally {
+			if (frame != null) {
+				frame.recycle();
+			}
+			retriever.release();
+		}
+	}
+
+	private File store(Bitmap frame, int quality, String name) throws IOException {
+		File tmp = cache.tempFile(name);
+		OutputStream out = new FileOutputStream(tmp);
+		boolean written = false;
+		try {
+			written = frame.compress(Bitmap.CompressFormat.JPEG, quality, out);
+		} finally {
+			out.close();
+			if (!written) {
+				tmp.delete();
+			}
+		}
+		if (!written) {
+			throw new IOException("could not compress frame");
+		}
+		return cache.commit(tmp, name);
+	}
+
+	/**
+	 * Returns the sync frame nearest timeUs scaled to fit within width x
+	 * height, or null. On API 27+ the decoder scales; before that the full
+	 * frame is decoded and scaled afterwards.
+	 */
+	static Bitmap frameAt(MediaMetadataRetriever retriever, long timeUs, int width, int height) {
+		if ((width > 0 || height > 0) && Build.VERSION.SDK_INT >= SCALED_FRAME_API) {
+			try {
+				Method scaled = MediaMetadataRetriever.class.getMethod("getScaledFrameAtTime", long.class, int.class,
+						int.class, int.class);
+				return (Bitmap) scaled.invoke(retriever, timeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC,
+						width > 0 ? width : Integer.MAX_VALUE, height > 0 ? height : Integer.MAX_VALUE);
+			} catch (Exception e) {
+				Log.v(LOG_TAG, "getScaledFrameAtTime unavailable: " + e);
+			}
+		}
+
+		Bitmap frame = retriever.getFrameAtTime(timeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+		if (frame == null || (width <= 0 && height <= 0)) {
+			return frame;
+		}
+		double scale = Math.min(width > 0 ? (double) width / frame.getWidth() : Double.MAX_VALUE,
+				height > 0 ? (double) height / frame.getHeight() : Double.MAX_VALUE);
+		if (scale >= 1) {
+			return frame;
+		}
+		Bitmap scaled = Bitmap.createScaledBitmap(frame, Math.max(1, (int) (frame.getWidth() * scale)),
+				Math.max(1, (int) (frame.getHeight() * scale)), true);
+		if (scaled != frame) {
+			frame.recycle();
+		}
+		return scaled;
+	}
+}
@@ -0,0 +1,223 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.os.SystemClock;
+
+/**
+ * Always-on diagnostics without per-event garbage.
+ *
+ * Each trace is a fixed-size record (timestamp, event id and three int
+ * arguments) written into preallocated parallel arrays used as a ring
+ * buffer, so recording never allocates and the oldest records are simply
+ * overwritten. Strings such as action names are interned once into a symbol
+ * table and recorded by index. Records above the current level are rejected
+ * with a single comparison. The buffer is only turned into text or JSON when
+ * it is dumped.
+ */
+public class TraceLog {
+
+	public static final int OFF = 0;
+	public static final int ERROR = 1;
+	public static final int INFO = 2;
+	public static final int DEBUG = 3;
+	public static final int VERBOSE = 4;
+
+	private static final String[] LEVEL_NAMES = { "off", "error", "info", "debug", "verbose" };
+
+	/** args: action, x, y */
+	public static final int TOUCH = 1;
+	/** args: keyCode, action, flags */
+	public static final int KEY = 2;
+	/** args: action symbol */
+	public static final int COMMAND = 3;
+	/** args: action symbol, microseconds, handled */
+	public static final int COMMAND_DONE = 4;
+	/** args: duration in seconds */
+	public static final int PREPARED = 5;
+	public static final int COMPLETED = 6;
+	/** args: what, extra */
+	public static final int MEDIA_ERROR = 7;
+	/** args: what, extra */
+	public static final int MEDIA_INFO = 8;
+	/** args: direction */
+	public static final int SWIPE = 9;
+	/** args: TAP_PAUSED, TAP_RESUMED or 0 if the tap did nothing */
+	public static final int TAP = 10;
+
+	public static final int TAP_PAUSED = 1;
+	public static final int TAP_RESUMED = 2;
+
+	private static final String[] EVENT_NAMES = { null, "touch", "key", "command", "commandDone", "prepared",
+			"completed", "mediaError", "mediaInfo", "swipe", "tap" };
+
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	private final int capacity;
+	private final long[] times;
+	private final int[] events;
+	private final int[] args;
+	private final Map<String, Integer> symbolIds = new HashMap<String, Integer>();
+	private final ArrayList<String> symbols = new ArrayList<String>();
+
+	private volatile int level = DEBUG;
+	private long written = 0;
+
+	public TraceLog(int capacity) {
+		this.capacity = capacity;
+		this.times = new long[capacity];
+		this.events = new int[capacity];
+		this.args = new int[capacity * 3];
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	public void setLevel(int level) {
+		this.level = Math.max(OFF, Math.min(VERBOSE, level));
+	}
+
+	/**
+	 * Parses a level name as used by the trace action; returns -1 if unknown.
+	 */
+	public static int parseLevel(String name) {
+		for (int i = 0; i < LEVEL_NAMES.length; i++) {
+			if (LEVEL_NAMES[i].equalsIgnoreCase(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public boolean isEnabled(int level) {
+		return level <= this.level;
+	}
+
+	/**
+	 * Returns the id of the given string, adding it to the symbol table the
+	 * first time it is seen. Meant for small, fixed sets such as action names.
+	 */
+	public synchronized int symbol(String s) {
+		Integer id = symbolIds.get(s);
+		if (id == null) {
+			id = Integer.valueOf(symbols.size());
+			symbols.add(s);
+			symbolIds.put(s, id);
+		}
+		return id.intValue();
+	}
+
+	public void trace(int level, int event) {
+		trace(level, event, 0, 0, 0);
+	}
+
+	public void trace(int level, int event, int a) {
+		trace(level, event, a, 0, 0);
+	}
+
+	public void trace(int level, int event, int a, int b) {
+		trace(level, event, a, b, 0);
+	}
+
+	public void trace(int level, int event, int a, int b, int c) {
+		if (level > this.level) {
+			return;
+		}
+		long now = SystemClock.elapsedRealtimeNanos();
+		synchronized (this) {
+			int i = (int) (written % capacity);
+			times[i] = now;
+			events[i] = event;
+			args[i * 3] = a;
+			args[i * 3 + 1] = b;
+			args[i * 3 + 2] = c;
+			written++;
+		}
+	}
+
+	public synchronized void clear() {
+		written = 0;
+	}
+
+	/**
+	 * Returns the buffered records, oldest first, with event names and
+	 * command symbols resolved.
+	 */
+	public synchronized JSONObject toJSON() throws JSONException {
+		JSONObject json = new JSONObject();
+		json.put("level", LEVEL_NAMES[level]);
+		json.put("capacity", capacity);
+		json.put("written", written);
+		JSONArray records = new JSONArray();
+		long first = Math.max(0, written - capacity);
+		for (long n = first; n < written; n++) {
+			int i = (int) (n % capacity);
+			JSONObject record = new JSONObject();
+			record.put("t", times[i] / 1000);
+			record.put("event", eventName(events[i]));
+			if (events[i] == COMMAND || events[i] == COMMAND_DONE) {
+				record.put("action", symbolName(args[i * 3]));
+				record.put("args", new JSONArray().put(args[i * 3 + 1]).put(args[i * 3 + 2]));
+			} else {
+				record.put("args", new JSONArray().put(args[i * 3]).put(args[i * 3 + 1]).put(args[i * 3 + 2]));
+			}
+			records.put(record);
+		}
+		json.put("records", records);
+		return json;
+	}
+
+	/**
+	 * Writes the buffered records to a file, one tab-separated line each:
+	 * microseconds, event, args.
+	 */
+	public void dump(File file) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		synchronized (this) {
+			long first = Math.max(0, written - capacity);
+			for (long n = first; n < written; n++) {
+				int i = (int) (n % capacity);
+				sb.append(times[i] / 1000).append('\t').append(eventName(events[i]));
+				int from = 0;
+				if (events[i] == COMMAND || events[i] == COMMAND_DONE) {
+					sb.append('\t').append(symbolName(args[i * 3]));
+					from = 1;
+				}
+				for (int k = from; k < 3; k++) {
+					sb.append('\t').append(args[i * 3 + k]);
+				}
+				sb.append('\n');
+			}
+		}
+		File parent = file.getParentFile();
+		if (parent != null) {
+			parent.mkdirs();
+		}
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			out.write(sb.toString());
+		} finally {
+			out.close();
+		}
+	}
+
+	private static String eventName(int event) {
+		return event > 0 && event < EVENT_NAMES.length ? EVENT_NAMES[event] : String.valueOf(event);
+	}
+
+	private String symbolName(int id) {
+		return id >= 0 && id < symbols.size() ? symbols.get(id) : String.valueOf(id);
+	}
+}
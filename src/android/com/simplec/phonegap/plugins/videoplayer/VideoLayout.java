@@ -0,0 +1,39 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+/**
+ * Sizing of the video view. Kept free of Android types so it can run, and be
+ * measured, on a plain JVM.
+ */
+public final class VideoLayout {
+
+	/** share of the display the view may take, in tenths */
+	public static final int DISPLAY_SHARE = 9;
+
+	private VideoLayout() {
+	}
+
+	/**
+	 * Fits a video of the given dimensions into 90% of a display of the given
+	 * size, keeping the video's aspect ratio: the view takes the full height
+	 * of that area for a video narrower than it, and the full width
+	 * otherwise. The result is written to out[0] (width) and out[1] (height)
+	 * so that no objects are allocated.
+	 */
+	public static void fit(int displayWidth, int displayHeight, double videoWidth, double videoHeight, int[] out) {
+		int maxWidth = displayWidth * DISPLAY_SHARE / 10;
+		int maxHeight = displayHeight * DISPLAY_SHARE / 10;
+
+		double displayAspect = ((double) maxWidth) / ((double) maxHeight);
+		double videoAspect = videoWidth / videoHeight;
+
+		if (displayAspect > videoAspect) {
+			videoHeight = maxHeight;
+			videoWidth = videoHeight * videoAspect;
+		} else {
+			videoWidth = maxWidth;
+			videoHeight = videoWidth / videoAspect;
+		}
+		out[0] = (int) videoWidth;
+		out[1] = (int) videoHeight;
+	}
+}
@@ -0,0 +1,56 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The handful of container fields the plugin needs to lay out and describe a
+ * video. Values that could not be determined are 0.
+ */
+public class VideoMetadata {
+
+	public final int width;
+	public final int height;
+	public final long durationMs;
+	public final int rotation;
+	public final int bitrate;
+
+	public VideoMetadata(int width, int height, long durationMs, int rotation, int bitrate) {
+		this.width = width;
+		this.height = height;
+		this.durationMs = durationMs;
+		this.rotation = rotation;
+		this.bitrate = bitrate;
+	}
+
+	public boolean hasSize() {
+		return width > 0 && height > 0;
+	}
+
+	/**
+	 * Width as shown on screen, i.e. with the rotation hint applied.
+	 */
+	public int displayWidth() {
+		return (rotation == 90 || rotation == 270) ? height : width;
+	}
+
+	public int displayHeight() {
+		return (rotation == 90 || rotation == 270) ? width : height;
+	}
+
+	public JSONObject toJSON() throws JSONException {
+		JSONObject json = new JSONObject();
+		json.put("width", width);
+		json.put("height", height);
+		json.put("duration", durationMs / 1000);
+		json.put("durationMs", durationMs);
+		json.put("rotation", rotation);
+		json.put("bitrate", bitrate);
+		return json;
+	}
+
+	@Override
+	public String toString() {
+		return width + "x" + height + " " + durationMs + "ms rot=" + rotation + " br=" + bitrate;
+	}
+}
@@ -7,53 +7,110 @@
 package com.simplec.phonegap.plugins.videoplayer;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.CordovaArgs;
+import org.apache.cordova.CordovaInterface;
 import org.apache.cordova.CordovaPlugin;
-import org.apache.cordova.CordovaResourceApi;
+import org.apache.cordova.CordovaWebView;
 import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import android.R.color;
 import android.annotation.TargetApi;
-import android.app.Dialog;
+import android.content.Context;
 import android.content.res.AssetFileDescriptor;
 import android.graphics.Point;
 import android.media.MediaMetadataRetriever;
-import android.media.MediaPlayer;
-import android.media.MediaPlayer.OnCompletionListener;
-import android.media.MediaPlayer.OnErrorListener;
-import android.media.MediaPlayer.OnPreparedListener;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.Display;
 import android.view.GestureDetector;
-import android.view.Gravity;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
-import android.view.SurfaceHolder;
 import android.view.View;
-import android.view.Window;
-import android.view.WindowManager;
-import android.widget.LinearLayout;
-import android.widget.VideoView;
 
-public class VideoPlayer extends CordovaPlugin implements OnCompletionListener, OnPreparedListener, OnErrorListener {
+public class VideoPlayer extends CordovaPlugin implements PlayerEngine.Listener {
 
 	protected static final String LOG_TAG = "VideoPlayer";
 
 	protected static final String ASSETS = "/android_asset/";
 	protected static final String FILE = "file://";
 
-	private boolean prepared = false;
-	private Dialog dialog;
-	private VideoView videoView;
-	private MediaPlayer player;
+	protected static final int TARGET_UNKNOWN = 0;
+	protected static final int TARGET_FILE = 1;
+	protected static final int TARGET_HTTP = 2;
+
+	protected static final long HTTP_CACHE_BYTES = 512L * 1024 * 1024;
+	protected static final long THUMBNAIL_CACHE_BYTES = 64L * 1024 * 1024;
+	protected static final long HLS_CACHE_BYTES = 128L * 1024 * 1024;
+	protected static final long STORYBOARD_CACHE_BYTES = 64L * 1024 * 1024;
+	protected static final int THUMBNAIL_THREADS = 2;
+	protected static final int PROBE_THREADS = 4;
+	protected static final long RESUME_TICK_MS = 5000;
+	protected static final long VERIFY_PROGRESS_MS = 250;
+
+	/** Build.VERSION_CODES.O, where seekTo(long, int) appeared */
+	private static final int SEEK_MODE_API = 26;
+
+	private final PlayerStateMachine state = new PlayerStateMachine();
+	private PlaybackHost host;
+	private PlayerEngine player;
 	private PlayerGestureDetection detector;
-	private CallbackContext callbackContext;
+	private EventChannel events;
+	private ProgressReporter progress;
+	private int bufferedPercent;
+	private String currentPath;
+	private String currentKey;
+	private long resumeAt;
+	private StartPolicy startPolicy;
+	private String network;
+	private boolean waitingForBuffer = false;
+	private long holdPosition;
+	private long holdSince;
+	private MetadataCache metadataCache;
+	private ResumeStore resumePositions;
+	private LoopbackServer loopbackServer;
+	private HttpCacheProxy httpCache;
+	private HlsProxy hls;
+	private ContentCatalog catalog;
+	private ThumbnailService thumbnails;
+	private StoryboardGenerator storyboards;
+	private FaststartOptimizer faststart;
+	private IntegrityVerifier integrity;
+	private ReadAhead readAhead;
+	private PlayerRegistry players;
+	private PlayerEngine.Factory engines;
+	private final ExecutorService probeExecutor = Executors.newFixedThreadPool(PROBE_THREADS);
+	private final KeyframeIndex.Cache keyframes = new KeyframeIndex.Cache(16);
+	private final PlaybackMetrics metrics = new PlaybackMetrics();
+	private final TraceLog trace = new TraceLog(TraceLog.DEFAULT_CAPACITY);
+	private CommandQueue commands;
+	private Handler mainHandler;
+	/** bumped on the UI thread to cancel an open still reading its file */
+	private int openGeneration = 0;
+
+	private final PlayQueue queue = new PlayQueue();
+	private boolean playingFromQueue = false;
+	private PlayerEngine nextPlayer;
+	private PlayQueue.Item nextItem;
+	private boolean nextPrepared = false;
 
 	public final static String PAUSE = "pause";
 	public final static String PLAY = "play";
@@ -61,12 +118,160 @@ public class VideoPlayer extends CordovaPlugin implements OnCompletionListener,
 	public final static String DURATION = "duration";
 	public final static String SEEK = "seek";
 	public final static String PLAYING = "playing";
+	public final static String ENQUEUE = "enqueue";
+	public final static String NEXT = "next";
+	public final static String PREVIOUS = "previous";
+	public final static String CLEAR = "clear";
+	public final static String CATALOG = "catalog";
+	public final static String LOOKUP = "lookup";
+	public final static String PROGRESS = "progress";
+	public final static String STATS = "stats";
+	public final static String RESET_STATS = "resetStats";
+	public final static String TRACE = "trace";
+	public final static String THUMBNAIL = "thumbnail";
+	public final static String STORYBOARD = "storyboard";
+	public final static String PROBE = "probe";
+	public final static String FASTSTART = "faststart";
+	public final static String POSITIONS = "positions";
+	public final static String INSTANCE = "instance";
+	public final static String PLAYERS = "players";
+	public final static String VERIFY = "verify";
+	public final static String PRELOAD = "preload";
+	public final static String STATE = "state";
+	public final static String BATCH = "batch";
+
+	/** Queue-only command names, for coalescing and metrics */
+	private final static String RESUME = "resume";
+	private final static String PREPARE_NEXT = "prepareNext";
+	private final static String VOLUME = "volume";
 
-	public boolean execute(String action, CordovaArgs args, final CallbackContext callbackContext)
+	@Override
+	public void initialize(CordovaInterface cordova, CordovaWebView webView) {
+		super.initialize(cordova, webView);
+
+		mainHandler = new Handler(Looper.getMainLooper());
+		events = new EventChannel(mainHandler);
+		commands = new CommandQueue(mainHandler, metrics);
+		progress = new ProgressReporter(mainHandler, events, new ProgressReporter.Source() {
+			public boolean isPlaying() {
+				return player != null && state.isPlaying();
+			}
+
+			public int getPosition() {
+				return player != null && state.isPrepared() ? player.getCurrentPosition() : 0;
+			}
+
+			public int getBufferedPercent() {
+				return bufferedPercent;
+			}
+		});
+
+		File cacheDir = new File(cordova.getActivity().getCacheDir(), "videoplayer");
+		metadataCache = new MetadataCache(new File(cacheDir, "metadata.idx"), cordova.getThreadPool());
+		resumePositions = new ResumeStore(new File(cordova.getActivity().getFilesDir(), "videoplayer/positions.journal"),
+				cordova.getThreadPool());
+		cordova.getThreadPool().execute(new Runnable() {
+			public void run() {
+				metadataCache.ensureLoaded();
+				resumePositions.ensureLoaded();
+			}
+		});
+
+		readAhead = new ReadAhead();
+		loopbackServer = new LoopbackServer();
+		httpCache = new HttpCacheProxy(loopbackServer, new ChunkCache(new File(cacheDir, "http"), HTTP_CACHE_BYTES));
+		hls = new HlsProxy(loopbackServer, new FileCache(new File(cacheDir, "hls"), HLS_CACHE_BYTES));
+
+		thumbnails = new ThumbnailService(new FileCache(new File(cacheDir, "thumbnails"), THUMBNAIL_CACHE_BYTES),
+				THUMBNAIL_THREADS);
+		storyboards = new StoryboardGenerator(new FileCache(new File(cacheDir, "storyboards"), STORYBOARD_CACHE_BYTES));
+		integrity = new IntegrityVerifier(new File(cordova.getActivity().getFilesDir(), "videoplayer/digests.idx"),
+				cordova.getThreadPool());
+		faststart = new FaststartOptimizer(new FaststartOptimizer.Guard() {
+			public boolean inUse(String path) {
+				PlayQueue.Item next = nextItem;
+				return path.equals(currentPath) || (next != null && path.equals(next.path));
+			}
+		}, new FaststartOptimizer.Listener() {
+			public void rewriting(File file) throws IOException {
+				integrity.rewriting(file);
+			}
+
+			public void rewritten(File file) {
+				integrity.rewritten(file);
+			}
+		});
+
+		players = new PlayerRegistry(new PlayerRegistry.Host() {
+			public int decodersInUse() {
+				return (player != null ? 1 : 0) + (nextPlayer != null ? 1 : 0);
+			}
+		});
+		engines = createEngineFactory();
+
+		catalog = new ContentCatalog(cordova.getThreadPool(), new ContentCatalog.Prober() {
+			public VideoMetadata probe(String path, long size, long mtime) {
+				return getMetadata(path, size, mtime);
+			}
+		});
+		final File filesDir = cordova.getActivity().getExternalFilesDir(null);
+		if (filesDir != null) {
+			cordova.getThreadPool().execute(new Runnable() {
+				public void run() {
+					File offline = new File(filesDir, "offline-content");
+					if (offline.isDirectory()) {
+						catalog.scan(offline.getPath());
+					}
+				}
+			});
+		}
+	}
+
+	@Override
+	public void onDestroy() {
+		super.onDestroy();
+		loopbackServer.stop();
+		hls.shutdown();
+		catalog.close();
+		thumbnails.shutdown();
+		storyboards.shutdown();
+		faststart.shutdown();
+		integrity.shutdown();
+		readAhead.shutdown();
+		probeExecutor.shutdownNow();
+		// hand both players back before the registry releases its pool; an
+		// open still reading its file is dropped when it posts back
+		openGeneration++;
+		teardown();
+		mainHandler.removeCallbacksAndMessages(null);
+		players.shutdown();
+		if (host != null) {
+			host.destroy();
+			host = null;
+		}
+	}
+
+	public boolean execute(String action, CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+		int symbol = trace.isEnabled(TraceLog.DEBUG) ? trace.symbol(action) : -1;
+		trace.trace(TraceLog.DEBUG, TraceLog.COMMAND, symbol);
+		long start = PlaybackMetrics.now();
+		boolean handled = dispatch(action, args, callbackContext);
+		long elapsed = PlaybackMetrics.now() - start;
+		if (handled) {
+			metrics.command(action, elapsed);
+		}
+		trace.trace(TraceLog.DEBUG, TraceLog.COMMAND_DONE, symbol, (int) (elapsed / 1000), handled ? 1 : 0);
+		return handled;
+	}
+
+	private boolean dispatch(String action, CordovaArgs args, final CallbackContext callbackContext)
 			throws JSONException {
-		Log.v(LOG_TAG, "got command: " + action);
-		if (action.equals("pause")) {
-			pause();
+		if (action.equals(PAUSE)) {
+			commands.submit(new CommandQueue.Command(PAUSE, PAUSE, RESUME) {
+				public void run() {
+					pause();
+				}
+			});
 			return true;
 		}
 		if (action.equals(PLAY)) {
@@ -78,57 +283,447 @@ public class VideoPlayer extends CordovaPlugin implements OnCompletionListener,
 				target = null;
 			}
 
-			if (target == null && this.player != null) {
-				Log.v(LOG_TAG, "resuming");
-				resume();
+			if (target == null) {
+				commands.submit(new CommandQueue.Command(RESUME, PAUSE, RESUME) {
+					public void run() {
+						if (state.isActive()) {
+							resume();
+							callbackContext.success();
+						} else {
+							callbackContext.error("no player");
+						}
+					}
+
+					@Override
+					protected void superseded() {
+						callbackContext.error("superseded");
+					}
+				});
 				return true;
 			}
 
-			Log.v(LOG_TAG, "playing file: "+target);
-			
 			play(args, callbackContext);
 
 			return true;
 		}
 		if (action.equals(STOP)) {
-			Log.v(LOG_TAG, "stopping");
-			stop();
+			// a stop makes any queued play, seek or pause pointless; a play
+			// dropped here is never prepared
+			commands.submit(new CommandQueue.Command(STOP, PLAY, RESUME, PAUSE, SEEK, BATCH) {
+				public void run() {
+					stop();
+					callbackContext.success();
+				}
+
+				@Override
+				protected void superseded() {
+					callbackContext.error("superseded");
+				}
+			});
 			return true;
 		}
 		if (action.equals(PLAYING)) {
-			if (player != null) {
-				callbackContext.success(player.isPlaying() ? 1 : 0);
-			} else {
-				callbackContext.error("no player");
-			}
+			commands.submit(new CommandQueue.Command(PLAYING) {
+				public void run() {
+					if (state.isActive()) {
+						callbackContext.success(state.isPlaying() ? 1 : 0);
+					} else {
+						callbackContext.error("no player");
+					}
+				}
+			});
 			return true;
 		}
 		if (action.equals(DURATION)) {
-			if (player != null) {
-				callbackContext.success(player.getDuration() / 1000);
-			} else {
-				callbackContext.error("no player");
+			if (!args.isNull(0)) {
+				duration(args.getString(0), callbackContext);
+				return true;
 			}
+			commands.submit(new CommandQueue.Command(DURATION) {
+				public void run() {
+					VideoMetadata metadata = currentPath != null ? metadataCache.peek(currentPath) : null;
+					if (state.isPrepared()) {
+						callbackContext.success(player.getDuration() / 1000);
+					} else if (state.isActive() && metadata != null && metadata.durationMs > 0) {
+						callbackContext.success((int) (metadata.durationMs / 1000));
+					} else if (state.isActive()) {
+						callbackContext.error("player not prepared");
+					} else {
+						callbackContext.error("no player");
+					}
+				}
+			});
 			return true;
 		}
 		if (action.equals(SEEK)) {
-			if (player != null) {
-				int sec = args.getInt(0);
-				int msec = sec * 1000;
-				if (msec < 0) {
-					msec = player.getDuration() - 1;
+			JSONObject options = args.optJSONObject(1);
+			final long requested = options != null && options.has("ms") ? options.getLong("ms") : args.getInt(0) * 1000L;
+			final int mode = KeyframeIndex.parseMode(options != null ? options.optString("mode", null) : null);
+			// only the last of a burst of seeks is performed
+			commands.submit(new CommandQueue.Command(SEEK, SEEK) {
+				public void run() {
+					if (state.isPrepared()) {
+						long msec = requested < 0 ? player.getDuration() - 1 : requested;
+						callbackContext.success((int) seek(msec, mode));
+					} else if (state.isActive()) {
+						callbackContext.error("player not prepared");
+					} else {
+						callbackContext.error("no player");
+					}
 				}
 
-				player.seekTo(msec);
-				callbackContext.success();
-			} else {
-				callbackContext.error("no player");
+				@Override
+				protected void superseded() {
+					callbackContext.error("superseded");
+				}
+			});
+			return true;
+		}
+		if (action.equals(STATE)) {
+			commands.submit(new CommandQueue.Command(STATE) {
+				public void run() {
+					try {
+						callbackContext.success(stateJSON());
+					} catch (JSONException e) {
+						callbackContext.error(e.getMessage());
+					}
+				}
+			});
+			return true;
+		}
+		if (action.equals(BATCH)) {
+			batch(args.getJSONArray(0), callbackContext);
+			return true;
+		}
+		if (action.equals(ENQUEUE)) {
+			enqueue(args, callbackContext);
+			return true;
+		}
+		if (action.equals(NEXT)) {
+			skip(true, callbackContext);
+			return true;
+		}
+		if (action.equals(PREVIOUS)) {
+			skip(false, callbackContext);
+			return true;
+		}
+		if (action.equals(PROGRESS)) {
+			progress.setRate(args.optDouble(0));
+			callbackContext.success();
+			return true;
+		}
+		if (action.equals(STATS)) {
+			JSONObject stats = metrics.toJSON();
+			stats.put("hls", hls.toJSON());
+			stats.put("readAhead", readAhead.toJSON());
+			callbackContext.success(stats);
+			return true;
+		}
+		if (action.equals(RESET_STATS)) {
+			metrics.reset();
+			readAhead.reset();
+			callbackContext.success();
+			return true;
+		}
+		if (action.equals(TRACE)) {
+			trace(args.optJSONObject(0), callbackContext);
+			return true;
+		}
+		if (action.equals(THUMBNAIL)) {
+			thumbnail(args.getString(0), args.optJSONObject(1), callbackContext);
+			return true;
+		}
+		if (action.equals(STORYBOARD)) {
+			storyboard(args.getString(0), args.optJSONObject(1), callbackContext);
+			return true;
+		}
+		if (action.equals(PROBE)) {
+			JSONArray targets = args.optJSONArray(0);
+			if (targets == null) {
+				targets = new JSONArray();
+				targets.put(args.getString(0));
 			}
+			probe(targets, callbackContext);
+			return true;
+		}
+		if (action.equals(POSITIONS)) {
+			positions(args.optJSONArray(0), callbackContext);
+			return true;
+		}
+		if (action.equals(INSTANCE)) {
+			instance(args, callbackContext);
+			return true;
+		}
+		if (action.equals(PLAYERS)) {
+			final JSONObject options = args.optJSONObject(0);
+			commands.submit(new CommandQueue.Command(PLAYERS) {
+				public void run() {
+					if (options != null && options.has("budget")) {
+						players.setBudget(options.optInt("budget", PlayerRegistry.DEFAULT_BUDGET));
+					}
+					try {
+						callbackContext.success(players.toJSON());
+					} catch (JSONException e) {
+						callbackContext.error(e.getMessage());
+					}
+				}
+			});
+			return true;
+		}
+		if (action.equals(FASTSTART)) {
+			faststart(args.optJSONObject(0), callbackContext);
+			return true;
+		}
+		if (action.equals(PRELOAD)) {
+			preload(args, callbackContext);
+			return true;
+		}
+		if (action.equals(VERIFY)) {
+			verify(args.optJSONObject(0), callbackContext);
+			return true;
+		}
+		if (action.equals(CATALOG)) {
+			catalog(args.optJSONObject(0), callbackContext);
+			return true;
+		}
+		if (action.equals(LOOKUP)) {
+			final JSONArray targets = args.optJSONArray(0);
+			final String target = targets == null ? args.getString(0) : null;
+			cordova.getThreadPool().execute(new Runnable() {
+				public void run() {
+					try {
+						if (targets == null) {
+							callbackContext.success(lookup(target));
+						} else {
+							JSONArray result = new JSONArray();
+							for (int i = 0; i < targets.length(); i++) {
+								result.put(lookup(targets.getString(i)));
+							}
+							callbackContext.success(result);
+						}
+					} catch (JSONException e) {
+						callbackContext.error(e.getMessage());
+					}
+				}
+			});
+			return true;
+		}
+		if (action.equals(CLEAR)) {
+			// on the UI thread, where onCompletion advances the queue
+			commands.submit(new CommandQueue.Command(CLEAR, PREPARE_NEXT) {
+				public void run() {
+					queue.clear();
+					releaseNextPlayer();
+					sendQueueEvent();
+					try {
+						callbackContext.success(queue.toJSON());
+					} catch (JSONException e) {
+						callbackContext.error(e.getMessage());
+					}
+				}
+			});
 			return true;
 		}
 		return false;
 	}
 
+	/**
+	 * Everything the UI shows about the main player in one object: state,
+	 * playing, position and duration in seconds, buffered percent, video
+	 * size and the source being played.
+	 */
+	private JSONObject stateJSON() throws JSONException {
+		JSONObject result = new JSONObject();
+		result.put("state", state.toString());
+		result.put("active", state.isActive());
+		result.put("playing", state.isPlaying());
+		result.put("waitingForBuffer", waitingForBuffer);
+		if (!state.isActive()) {
+			return result;
+		}
+		result.put("source", currentPath);
+		result.put("buffered", bufferedPercent);
+		VideoMetadata metadata = currentPath != null ? metadataCache.peek(currentPath) : null;
+		if (state.isPrepared()) {
+			result.put("position", player.getCurrentPosition() / 1000.0);
+			result.put("duration", player.getDuration() / 1000.0);
+			result.put("width", player.getVideoWidth());
+			result.put("height", player.getVideoHeight());
+		} else if (metadata != null) {
+			result.put("position", resumeAt / 1000.0);
+			result.put("duration", metadata.durationMs / 1000.0);
+			if (metadata.hasSize()) {
+				result.put("width", metadata.displayWidth());
+				result.put("height", metadata.displayHeight());
+			}
+		}
+		if (playingFromQueue) {
+			result.put("queueIndex", queue.index());
+		}
+		return result;
+	}
+
+	/**
+	 * Applies several commands to the main player as one: {cmd: "seek",
+	 * seconds or ms, mode}, {cmd: "pause"}, {cmd: "resume"} (or "play"),
+	 * {cmd: "volume", value: 0..1}, {cmd: "stop"} (last only) and
+	 * {cmd: "state"}. The whole batch is checked before anything is applied,
+	 * and then runs as one queued command, so nothing else interleaves. The
+	 * callback receives each command's result and the state afterwards.
+	 */
+	protected void batch(JSONArray list, final CallbackContext callbackContext) throws JSONException {
+		final int n = list.length();
+		final String[] names = new String[n];
+		final long[] values = new long[n];
+		final int[] modes = new int[n];
+		boolean needsPlayer = false;
+		boolean needsPrepared = false;
+		for (int i = 0; i < n; i++) {
+			JSONObject c = list.getJSONObject(i);
+			String name = c.getString("cmd");
+			if (name.equals(PLAY)) {
+				name = RESUME;
+			}
+			if (name.equals(SEEK)) {
+				values[i] = c.has("ms") ? c.getLong("ms") : (long) (c.getDouble("seconds") * 1000);
+				modes[i] = KeyframeIndex.parseMode(c.optString("mode", null));
+				needsPrepared = true;
+			} else if (name.equals(VOLUME)) {
+				double volume = c.getDouble("value");
+				if (volume < 0 || volume > 1) {
+					callbackContext.error("volume out of range: " + volume);
+					return;
+				}
+				values[i] = (long) (volume * 1000);
+			} else if (name.equals(STOP)) {
+				if (i != n - 1) {
+					callbackContext.error("stop must be the last command");
+					return;
+				}
+			} else if (!name.equals(PAUSE) && !name.equals(RESUME) && !name.equals(STATE)) {
+				callbackContext.error("unknown command: " + name);
+				return;
+			}
+			needsPlayer |= !name.equals(STATE);
+			names[i] = name;
+		}
+
+		final boolean checkActive = needsPlayer;
+		final boolean checkPrepared = needsPrepared;
+		commands.submit(new CommandQueue.Command(BATCH) {
+			public void run() {
+				if (checkActive && !state.isActive()) {
+					callbackContext.error("no player");
+					return;
+				}
+				if (checkPrepared && !state.isPrepared()) {
+					callbackContext.error("player not prepared");
+					return;
+				}
+				try {
+					JSONArray results = new JSONArray();
+					for (int i = 0; i < n; i++) {
+						String name = names[i];
+						if (name.equals(SEEK)) {
+							long msec = values[i] < 0 ? player.getDuration() - 1 : values[i];
+							results.put(seek(msec, modes[i]) / 1000.0);
+						} else if (name.equals(PAUSE)) {
+							results.put(pause());
+						} else if (name.equals(RESUME)) {
+							results.put(resume());
+						} else if (name.equals(VOLUME)) {
+							float volume = values[i] / 1000f;
+							player.setVolume(volume);
+							results.put(true);
+						} else if (name.equals(STOP)) {
+							results.put(stop());
+						} else {
+							results.put(stateJSON());
+						}
+					}
+					JSONObject result = new JSONObject();
+					result.put("results", results);
+					result.put("state", stateJSON());
+					callbackContext.success(result);
+				} catch (JSONException e) {
+					callbackContext.error(e.getMessage());
+				}
+			}
+
+			@Override
+			protected void superseded() {
+				callbackContext.error("superseded");
+			}
+		});
+	}
+
+	/**
+	 * Seeks the current player. With a mode, seekTo(long, int) is used where
+	 * the platform has it; before that the position is snapped to a keyframe
+	 * from the file's index if onPrepared has had it built by now, as this
+	 * runs on the UI thread. Without a mode the platform default applies.
+	 *
+	 * @return the position sought to, in milliseconds
+	 */
+	private long seek(long msec, int mode) {
+		if (mode >= 0 && player.seekTo(msec, mode)) {
+			return msec;
+		}
+		if (mode >= 0 && mode != KeyframeIndex.EXACT && currentPath != null) {
+			KeyframeIndex index = keyframes.peek(currentPath);
+			if (index != null) {
+				msec = index.snap(msec, mode);
+			}
+		}
+		player.seekTo((int) msec);
+		return msec;
+	}
+
+	/**
+	 * Returns the keyframe index of a local MP4 file, building and caching it
+	 * on first use. Returns {@link KeyframeIndex#NONE} for anything that
+	 * cannot be indexed. Reads the file, so never call it on the UI thread.
+	 */
+	protected KeyframeIndex keyframes(String path) {
+		if (isRemote(path) || path.startsWith(ASSETS)) {
+			return KeyframeIndex.NONE;
+		}
+		ContentCatalog.Entry e = catalog.find(path);
+		if (e == null || e.directory) {
+			return KeyframeIndex.NONE;
+		}
+		KeyframeIndex index = keyframes.get(path, e.size, e.mtime);
+		if (index != null) {
+			return index;
+		}
+
+		long start = System.currentTimeMillis();
+		Mp4Reader reader = null;
+		try {
+			reader = new Mp4Reader(new File(path));
+			index = reader.readKeyframes();
+			Log.v(LOG_TAG, "indexed " + index.size() + " keyframes of " + path + " in "
+					+ (System.currentTimeMillis() - start) + "ms");
+		} catch (IOException ex) {
+			Log.v(LOG_TAG, "no keyframe index for " + path + ": " + ex.getLocalizedMessage());
+			index = KeyframeIndex.NONE;
+		} catch (RuntimeException ex) {
+			// a malformed file the checks did not catch
+			Log.v(LOG_TAG, "no keyframe index for " + path + ": " + ex);
+			index = KeyframeIndex.NONE;
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException ex) {
+					// ignore
+				}
+			}
+		}
+		keyframes.put(path, e.size, e.mtime, index);
+		return index;
+	}
+
 	/**
 	 * Removes the "file://" prefix from the given URI string, if applicable. If
 	 * the given URI string doesn't have a "file://" prefix, it is returned
@@ -142,460 +737,1567 @@ public class VideoPlayer extends CordovaPlugin implements OnCompletionListener,
 		if (uriString.startsWith("file://")) {
 			return Uri.parse(uriString).getPath();
 		}
-		return uriString;
+		return uriString;
+	}
+
+	/**
+	 * Maps a target passed from JS through the resource API, falling back to
+	 * the raw string if it cannot be remapped.
+	 */
+	protected String resolveTarget(String target) {
+		try {
+			Uri targetUri = webView.getResourceApi().remapUri(Uri.parse(target));
+			return targetUri.toString();
+		} catch (IllegalArgumentException e) {
+			return target;
+		}
+	}
+
+	/**
+	 * Classifies a resolved target URI as TARGET_FILE, TARGET_HTTP or
+	 * TARGET_UNKNOWN.
+	 */
+	public static int targetType(String uri) {
+		if (uri.startsWith("file:")) {
+			return TARGET_FILE;
+		}
+		return isRemote(uri) ? TARGET_HTTP : TARGET_UNKNOWN;
+	}
+
+	public static boolean isRemote(String path) {
+		return path.startsWith("http:") || path.startsWith("https:");
+	}
+
+	/**
+	 * Returns the URL MediaPlayer should open for a remote target: the local
+	 * caching proxy unless the "cache" option is false or the proxy cannot be
+	 * started. HLS playlists go through the HLS proxy instead unless the "hls"
+	 * option is false.
+	 */
+	protected String streamUrl(String url, JSONObject options) {
+		if (HlsProxy.isPlaylist(url)) {
+			if (options != null && !options.optBoolean("hls", true)) {
+				return url;
+			}
+			try {
+				return hls.proxyUrl(url, options != null ? options.optInt("prefetch", HlsProxy.DEFAULT_PREFETCH)
+						: HlsProxy.DEFAULT_PREFETCH);
+			} catch (IOException e) {
+				Log.w(LOG_TAG, "HLS proxy unavailable, streaming directly: " + e.getLocalizedMessage());
+				return url;
+			}
+		}
+		if (options != null && !options.optBoolean("cache", true)) {
+			return url;
+		}
+		try {
+			return httpCache.proxyUrl(url);
+		} catch (IOException e) {
+			Log.w(LOG_TAG, "caching proxy unavailable, streaming directly: " + e.getLocalizedMessage());
+			return url;
+		}
+	}
+
+	/**
+	 * Reports the duration in seconds of any file without playing it. Served
+	 * from the metadata cache when possible, otherwise read on the thread pool.
+	 */
+	protected void duration(String target, final CallbackContext callbackContext) {
+		String fileUriStr = resolveTarget(target);
+		if (!fileUriStr.startsWith("file:")) {
+			callbackContext.error("video unknown protocol");
+			return;
+		}
+		final String path = stripFileProtocol(fileUriStr);
+		cordova.getThreadPool().execute(new Runnable() {
+			public void run() {
+				VideoMetadata metadata = getMetadata(path);
+				if (metadata != null) {
+					callbackContext.success((int) (metadata.durationMs / 1000));
+				} else {
+					callbackContext.error("could not read metadata");
+				}
+			}
+		});
+	}
+
+	/**
+	 * Adjusts and dumps the trace log. Options: "level" (off, error, info,
+	 * debug or verbose), "clear" to empty the buffer after dumping, and
+	 * "file" to write the dump to a file instead of returning it.
+	 */
+	protected void trace(JSONObject options, final CallbackContext callbackContext) throws JSONException {
+		if (options == null) {
+			options = new JSONObject();
+		}
+		String levelName = options.optString("level", null);
+		if (levelName != null) {
+			int level = TraceLog.parseLevel(levelName);
+			if (level < 0) {
+				callbackContext.error("unknown trace level: " + levelName);
+				return;
+			}
+			trace.setLevel(level);
+		}
+
+		String file = options.optString("file", null);
+		final boolean clear = options.optBoolean("clear", false);
+		if (file == null) {
+			JSONObject dump = trace.toJSON();
+			if (clear) {
+				trace.clear();
+			}
+			callbackContext.success(dump);
+			return;
+		}
+
+		final File target = new File(stripFileProtocol(resolveTarget(file)));
+		cordova.getThreadPool().execute(new Runnable() {
+			public void run() {
+				try {
+					trace.dump(target);
+					if (clear) {
+						trace.clear();
+					}
+					callbackContext.success(target.getPath());
+				} catch (IOException e) {
+					callbackContext.error("could not write trace: " + e.getLocalizedMessage());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Extracts a poster frame from a local file and reports the file URI of
+	 * the cached JPEG. Options: "time" in seconds (default 0), "width" and
+	 * "height" to fit the frame within, and "quality" (0-100).
+	 */
+	protected void thumbnail(final String target, JSONObject options, final CallbackContext callbackContext) {
+		if (options == null) {
+			options = new JSONObject();
+		}
+		final long timeUs = (long) (options.optDouble("time", 0) * 1000000);
+		final int width = options.optInt("width", 0);
+		final int height = options.optInt("height", 0);
+		final int quality = Math.max(0, Math.min(100, options.optInt("quality", ThumbnailService.DEFAULT_QUALITY)));
+
+		String fileUriStr = resolveTarget(target);
+		if (targetType(fileUriStr) != TARGET_FILE) {
+			callbackContext.error("thumbnails need a local file");
+			return;
+		}
+		final String path = stripFileProtocol(fileUriStr);
+		cordova.getThreadPool().execute(new Runnable() {
+			public void run() {
+				ContentCatalog.Entry e = catalog.find(path);
+				if (e == null || e.directory) {
+					callbackContext.error("video does not exist");
+					return;
+				}
+				thumbnails.request(path, e.mtime, timeUs, width, height, quality, new ThumbnailService.Callback() {
+					public void onThumbnail(File file) {
+						callbackContext.success(Uri.fromFile(file).toString());
+					}
+
+					public void onError(String message) {
+						callbackContext.error("could not extract frame: " + message);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Reports the seek-preview storyboard of a local file, generating it in
+	 * the background first. Options: "interval" between tiles in seconds
+	 * (default 10), "width" of a tile (default 160), "columns" and "rows" per
+	 * sheet (default 5x5), and "wait": false to get what exists so far
+	 * straight away instead of waiting for the pass to finish.
+	 */
+	protected void storyboard(String target, JSONObject options, final CallbackContext callbackContext) {
+		if (options == null) {
+			options = new JSONObject();
+		}
+		final int intervalMs = Math.max(100, (int) (options.optDouble("interval", 10) * 1000));
+		final int tileWidth = Math.max(16, options.optInt("width", 160));
+		final int columns = Math.max(1, options.optInt("columns", 5));
+		final int rows = Math.max(1, options.optInt("rows", 5));
+		final boolean wait = options.optBoolean("wait", true);
+
+		String fileUriStr = resolveTarget(target);
+		if (targetType(fileUriStr) != TARGET_FILE) {
+			callbackContext.error("storyboards need a local file");
+			return;
+		}
+		final String path = stripFileProtocol(fileUriStr);
+		cordova.getThreadPool().execute(new Runnable() {
+			public void run() {
+				ContentCatalog.Entry e = catalog.find(path);
+				if (e == null || e.directory) {
+					callbackContext.error("video does not exist");
+					return;
+				}
+				StoryboardGenerator.Storyboard current = storyboards.peek(path, e.mtime, intervalMs, tileWidth, columns,
+						rows);
+				if (current != null && current.isComplete()) {
+					sendStoryboard(current, callbackContext);
+					return;
+				}
+				if (!wait) {
+					try {
+						JSONObject partial = current != null ? current.toJSON() : new JSONObject();
+						partial.put("complete", false);
+						callbackContext.success(partial);
+					} catch (JSONException je) {
+						callbackContext.error(je.getMessage());
+					}
+				}
+				storyboards.generate(path, e.mtime, intervalMs, tileWidth, columns, rows,
+						new StoryboardGenerator.Callback() {
+							public void onStoryboard(StoryboardGenerator.Storyboard storyboard) {
+								if (wait) {
+									sendStoryboard(storyboard, callbackContext);
+								}
+							}
+
+							public void onError(String message) {
+								if (wait) {
+									callbackContext.error("could not build storyboard: " + message);
+								}
+							}
+						});
+			}
+		});
+	}
+
+	private static void sendStoryboard(StoryboardGenerator.Storyboard storyboard, CallbackContext callbackContext) {
+		try {
+			callbackContext.success(storyboard.toJSON());
+		} catch (JSONException e) {
+			callbackContext.error(e.getMessage());
+		}
+	}
+
+	/**
+	 * Controls and reports the faststart pass over offline MP4s. Options:
+	 * "start" to begin a pass over "paths" (default: every video in the
+	 * catalog) at "rate" bytes per second, or "cancel" to stop one. Always
+	 * answers with the current progress.
+	 */
+	protected void faststart(JSONObject options, CallbackContext callbackContext) throws JSONException {
+		if (options == null) {
+			options = new JSONObject();
+		}
+		if (options.optBoolean("cancel", false)) {
+			faststart.cancel();
+		}
+		boolean started = false;
+		if (options.optBoolean("start", false)) {
+			List<String> paths = new ArrayList<String>();
+			JSONArray targets = options.optJSONArray("paths");
+			if (targets != null) {
+				for (int i = 0; i < targets.length(); i++) {
+					paths.add(stripFileProtocol(resolveTarget(targets.getString(i))));
+				}
+			} else if (catalog.isReady()) {
+				for (ContentCatalog.Entry e : catalog.videos()) {
+					paths.add(e.path);
+				}
+			} else {
+				callbackContext.error("catalog not ready");
+				return;
+			}
+			started = faststart.start(paths, options.optLong("rate", FaststartOptimizer.DEFAULT_RATE));
+		}
+		JSONObject status = faststart.status();
+		status.put("started", started);
+		callbackContext.success(status);
+	}
+
+	/**
+	 * Reads the head of local files (and a trailing MP4 moov) into the page
+	 * cache ahead of playing them, e.g. for the likely next item. Takes a
+	 * target or an array of targets and options with "bytes" (default 8 MB);
+	 * answers once the reads are done with what was read for each.
+	 */
+	protected void preload(CordovaArgs args, final CallbackContext callbackContext) throws JSONException {
+		JSONArray targets = args.optJSONArray(0);
+		final boolean single = targets == null;
+		if (single) {
+			targets = new JSONArray();
+			targets.put(args.getString(0));
+		}
+		JSONObject options = args.optJSONObject(1);
+		long bytes = options != null ? options.optLong("bytes", ReadAhead.DEFAULT_BYTES) : ReadAhead.DEFAULT_BYTES;
+
+		final List<Future<ReadAhead.Result>> warmups = new ArrayList<Future<ReadAhead.Result>>();
+		for (int i = 0; i < targets.length(); i++) {
+			String fileUriStr = resolveTarget(targets.getString(i));
+			if (targetType(fileUriStr) != TARGET_FILE) {
+				callbackContext.error("not a local file: " + targets.getString(i));
+				return;
+			}
+			String path = stripFileProtocol(fileUriStr);
+			if (!exists(path)) {
+				callbackContext.error("video does not exist: " + targets.getString(i));
+				return;
+			}
+			warmups.add(readAhead.warm(path, bytes));
+		}
+		cordova.getThreadPool().execute(new Runnable() {
+			public void run() {
+				try {
+					JSONArray results = new JSONArray();
+					for (Future<ReadAhead.Result> warmup : warmups) {
+						ReadAhead.Result result = ReadAhead.await(warmup);
+						results.put(result != null ? result.toJSON() : JSONObject.NULL);
+					}
+					if (single) {
+						callbackContext.success(results.optJSONObject(0));
+					} else {
+						callbackContext.success(results);
+					}
+				} catch (JSONException e) {
+					callbackContext.error(e.getMessage());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Starts reading ahead a local file about to be played, unless the
+	 * "readAhead" option (bytes) is 0.
+	 */
+	private void warmUp(String path, JSONObject options) {
+		long bytes = options != null ? options.optLong("readAhead", ReadAhead.DEFAULT_BYTES) : ReadAhead.DEFAULT_BYTES;
+		if (bytes > 0) {
+			readAhead.warm(path, bytes);
+		}
+	}
+
+	/**
+	 * Marks the prepare stage, noting how warm a local file was for the
+	 * prepare-time comparison.
+	 */
+	private void markPrepare(String path) {
+		metrics.warmth(path == null || isRemote(path) ? -1 : readAhead.warmth(path));
+		metrics.mark(PlaybackMetrics.Stage.PREPARE);
+	}
+
+	/**
+	 * Checks offline files against SHA-256 digests, given as a "manifest"
+	 * object mapping targets to hex digests or as a "manifestFile" holding
+	 * one (relative paths in it are taken from its directory). The callback is
+	 * kept open for {type: "progress", done, total, bad} events and finally
+	 * receives {type: "done"} with the lists of bad and missing files. Files
+	 * unchanged since they were last hashed are not read again.
+	 */
+	protected void verify(final JSONObject options, final CallbackContext callbackContext) {
+		if (options == null) {
+			callbackContext.error("no manifest");
+			return;
+		}
+		cordova.getThreadPool().execute(new Runnable() {
+			public void run() {
+				Map<String, String> manifest;
+				try {
+					manifest = manifest(options);
+				} catch (IOException e) {
+					callbackContext.error("could not read manifest: " + e.getLocalizedMessage());
+					return;
+				} catch (JSONException e) {
+					callbackContext.error("bad manifest: " + e.getMessage());
+					return;
+				}
+				boolean started = integrity.verify(manifest, new IntegrityVerifier.Listener() {
+					private long lastProgress = 0;
+
+					public void progress(int done, int total, int bad) {
+						long now = System.currentTimeMillis();
+						if (done < total && now - lastProgress < VERIFY_PROGRESS_MS) {
+							return;
+						}
+						lastProgress = now;
+						try {
+							JSONObject event = new JSONObject();
+							event.put("type", "progress");
+							event.put("done", done);
+							event.put("total", total);
+							event.put("bad", bad);
+							PluginResult result = new PluginResult(PluginResult.Status.OK, event);
+							result.setKeepCallback(true);
+							callbackContext.sendPluginResult(result);
+						} catch (JSONException e) {
+							// progress is best effort
+						}
+					}
+
+					public void finished(IntegrityVerifier.Report report) {
+						try {
+							JSONObject result = report.toJSON();
+							result.put("type", "done");
+							callbackContext.success(result);
+						} catch (JSONException e) {
+							callbackContext.error(e.getMessage());
+						}
+					}
+				});
+				if (!started) {
+					callbackContext.error("verification already running");
+				}
+			}
+		});
+	}
+
+	private Map<String, String> manifest(JSONObject options) throws IOException, JSONException {
+		JSONObject digests = options.optJSONObject("manifest");
+		File base = null;
+		if (digests == null) {
+			String file = options.optString("manifestFile", null);
+			if (file == null) {
+				throw new JSONException("neither manifest nor manifestFile given");
+			}
+			File manifestFile = new File(stripFileProtocol(resolveTarget(file)));
+			digests = IntegrityVerifier.readManifest(manifestFile);
+			base = manifestFile.getParentFile();
+		}
+		Map<String, String> manifest = new LinkedHashMap<String, String>();
+		Iterator<?> it = digests.keys();
+		while (it.hasNext()) {
+			String target = (String) it.next();
+			String path;
+			if (base != null && !target.startsWith("/") && target.indexOf(':') < 0) {
+				path = new File(base, target).getPath();
+			} else {
+				path = stripFileProtocol(resolveTarget(target));
+			}
+			manifest.put(path, digests.getString(target));
+		}
+		return manifest;
+	}
+
+	/**
+	 * Reports the state of the content catalog, optionally (re)indexing a new
+	 * root and listing one directory from the index.
+	 */
+	protected void catalog(JSONObject options, CallbackContext callbackContext) throws JSONException {
+		if (options == null) {
+			options = new JSONObject();
+		}
+		String root = options.optString("root", null);
+		if (root != null) {
+			catalog.scan(stripFileProtocol(resolveTarget(root)));
+		}
+
+		JSONObject result = new JSONObject();
+		result.put("root", catalog.getRoot());
+		result.put("ready", catalog.isReady());
+		result.put("count", catalog.size());
+
+		String dir = options.optString("dir", null);
+		if (dir != null) {
+			dir = stripFileProtocol(resolveTarget(dir));
+			if (!catalog.covers(dir)) {
+				callbackContext.error(catalog.isReady() ? "not in catalog" : "catalog not ready");
+				return;
+			}
+			JSONArray entries = new JSONArray();
+			for (ContentCatalog.Entry e : catalog.list(dir, options.optInt("limit", 0))) {
+				entries.put(e.toJSON());
+			}
+			result.put("entries", entries);
+		}
+		callbackContext.success(result);
+	}
+
+	/**
+	 * Reads the metadata of a batch of local files in parallel and reports
+	 * one {@link #lookup(String)} style result per target, in order.
+	 */
+	protected void probe(final JSONArray targets, final CallbackContext callbackContext) {
+		cordova.getThreadPool().execute(new Runnable() {
+			public void run() {
+				int n = targets.length();
+				List<Future<JSONObject>> results = new ArrayList<Future<JSONObject>>(n);
+				for (int i = 0; i < n; i++) {
+					final String target = targets.optString(i);
+					results.add(probeExecutor.submit(new Callable<JSONObject>() {
+						public JSONObject call() throws JSONException {
+							String path = stripFileProtocol(resolveTarget(target));
+							VideoMetadata metadata = getMetadata(path);
+							JSONObject result = new JSONObject();
+							result.put("target", target);
+							result.put("path", path);
+							if (metadata != null) {
+								result.put("metadata", metadata.toJSON());
+							} else {
+								result.put("error", exists(path) ? "could not read metadata" : "does not exist");
+							}
+							return result;
+						}
+					}));
+				}
+				JSONArray array = new JSONArray();
+				try {
+					for (Future<JSONObject> result : results) {
+						array.put(result.get());
+					}
+					callbackContext.success(array);
+				} catch (Exception e) {
+					callbackContext.error("probe failed: " + e.getLocalizedMessage());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Describes one target: whether it exists, its size and mtime and any
+	 * metadata known for it. Answered from the catalog when it covers the path.
+	 */
+	protected JSONObject lookup(String target) throws JSONException {
+		String path = stripFileProtocol(resolveTarget(target));
+		ContentCatalog.Entry e = catalog.find(path);
+
+		JSONObject result = e != null ? e.toJSON() : new JSONObject();
+		result.put("target", target);
+		result.put("path", path);
+		result.put("exists", e != null);
+		result.put("indexed", catalog.covers(path));
+		if (e != null && !e.directory && !result.has("metadata")) {
+			VideoMetadata metadata = metadataCache.get(path, e.size, e.mtime);
+			if (metadata != null) {
+				result.put("metadata", metadata.toJSON());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * True if the file exists, answered from the catalog when possible.
+	 */
+	protected boolean exists(String path) {
+		return catalog.find(path) != null;
+	}
+
+	/**
+	 * Returns the metadata for a local file or asset, using the cache when the
+	 * file is unchanged. Returns null for URLs or unreadable files. May block,
+	 * so never call this on the UI thread.
+	 */
+	protected VideoMetadata getMetadata(String path) {
+		if (isRemote(path)) {
+			return null;
+		}
+
+		long size = 0;
+		long mtime = 0;
+		if (!path.startsWith(ASSETS)) {
+			ContentCatalog.Entry e = catalog.find(path);
+			if (e == null) {
+				return null;
+			}
+			if (e.getMetadata() != null) {
+				return e.getMetadata();
+			}
+			size = e.size;
+			mtime = e.mtime;
+		}
+		return getMetadata(path, size, mtime);
+	}
+
+	private VideoMetadata getMetadata(String path, long size, long mtime) {
+		VideoMetadata metadata = metadataCache.get(path, size, mtime);
+		if (metadata == null && !path.startsWith(ASSETS)) {
+			metadata = ContainerProbe.probe(new File(path));
+			if (metadata != null && !metadata.hasSize()) {
+				// audio only or no usable track header; let the retriever decide
+				metadata = null;
+			}
+			if (metadata != null) {
+				metadataCache.put(path, size, mtime, metadata);
+			}
+		}
+		if (metadata == null) {
+			metadata = retrieveMetadata(path);
+			if (metadata != null) {
+				metadataCache.put(path, size, mtime, metadata);
+			}
+		}
+		return metadata;
+	}
+
+	private VideoMetadata retrieveMetadata(String path) {
+		MediaMetadataRetriever metaRetriever = new MediaMetadataRetriever();
+		AssetFileDescriptor fd = null;
+		try {
+			if (path.startsWith(ASSETS)) {
+				String f = path.substring(ASSETS.length());
+				fd = cordova.getActivity().getAssets().openFd(f);
+				metaRetriever.setDataSource(fd.getFileDescriptor(), fd.getStartOffset(), fd.getLength());
+			} else {
+				Log.v(LOG_TAG, "setDataSource file");
+				metaRetriever.setDataSource(path);
+			}
+
+			return new VideoMetadata(
+					parseInt(metaRetriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH)),
+					parseInt(metaRetriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT)),
+					parseInt(metaRetriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION)),
+					parseInt(metaRetriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION)),
+					parseInt(metaRetriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_BITRATE)));
+		} catch (Exception e) {
+			Log.v(LOG_TAG, "error reading metadata: " + e.getLocalizedMessage());
+			return null;
+		} finally {
+			try {
+				// declares IOException on newer platforms
+				metaRetriever.release();
+			} catch (Exception e) {
+				// ignore
+			}
+			if (fd != null) {
+				try {
+					fd.close();
+				} catch (Exception e) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	private static int parseInt(String value) {
+		if (value == null) {
+			return 0;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	public boolean play(CordovaArgs args, final CallbackContext callbackContext) {
+		metrics.beginPlay();
+
+		try {
+			String target = args.getString(0);
+			JSONObject optionsTmp = new JSONObject();
+
+			try {
+				optionsTmp = args.getJSONObject(1);
+			} catch (Exception e) {
+				// gobble. no options sent
+			}
+			final JSONObject options = optionsTmp;
+			String key = resumeKey(target, options);
+
+			String fileUriStr = resolveTarget(target);
+
+			int type = targetType(fileUriStr);
+			if (type == TARGET_FILE) {
+				final String path = stripFileProtocol(fileUriStr);
+				submitOpen(path, key, options, callbackContext);
+			} else if (type == TARGET_HTTP) {
+				final String path = streamUrl(fileUriStr, options);
+				submitOpen(path, key, options, callbackContext);
+			} else {
+				Log.v(LOG_TAG, "unknown protocol: " + fileUriStr);
+				callbackContext.error("video unknown protocol");
+			}
+
+
+			return true;
+		} catch (JSONException je) {
+			Log.v(LOG_TAG, "error2: " + je.getMessage());
+			callbackContext.error(je.getMessage());
+			je.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Queues the switch to a new video: whatever is playing is stopped and the
+	 * dialog opened on the UI thread. A later play or stop arriving before
+	 * this runs replaces it, and the caller is told it was cancelled.
+	 */
+	private void submitOpen(final String path, final String key, final JSONObject options,
+			final CallbackContext callbackContext) {
+		commands.submit(new CommandQueue.Command(PLAY, PLAY, RESUME, PAUSE, SEEK, STOP, BATCH) {
+			public void run() {
+				open(path, key, false, options, callbackContext);
+			}
+
+			@Override
+			protected void superseded() {
+				callbackContext.error("cancelled");
+			}
+		});
+	}
+
+	/**
+	 * Opens the dialog on path in place of whatever is playing. A local file
+	 * is first looked up (a played one must exist and, with "refuseBad", must
+	 * not have failed verification) and its metadata read on a background
+	 * thread; the switch then happens back on the UI thread, unless a later
+	 * play, skip or stop came in the meantime. Must run on the UI thread.
+	 */
+	private void open(final String path, final String key, final boolean fromQueue, final JSONObject options,
+			final CallbackContext callbackContext) {
+		final int generation = ++openGeneration;
+		if (isRemote(path)) {
+			show(path, key, fromQueue, null, options, callbackContext);
+			return;
+		}
+		cordova.getThreadPool().execute(new Runnable() {
+			public void run() {
+				if (!fromQueue) {
+					if (!exists(path)) {
+						callbackContext.error("video does not exist");
+						return;
+					}
+					if (options.optBoolean("refuseBad", false) && integrity.isKnownBad(path)) {
+						callbackContext.error("video failed verification");
+						return;
+					}
+					// warm the file while the dialog is built and metadata read
+					warmUp(path, options);
+				}
+				final VideoMetadata metadata = getMetadata(path);
+				mainHandler.post(new Runnable() {
+					public void run() {
+						if (generation != openGeneration) {
+							callbackContext.error("cancelled");
+							return;
+						}
+						show(path, key, fromQueue, metadata, options, callbackContext);
+					}
+				});
+			}
+		});
+	}
+
+	private void show(String path, String key, boolean fromQueue, VideoMetadata metadata, JSONObject options,
+			CallbackContext callbackContext) {
+		stop();
+		if (fromQueue) {
+			// stop() and openVideoDialog() leave the metrics alone, so this is
+			// the only play begun for the skip
+			metrics.beginPlay();
+		}
+		playingFromQueue = fromQueue;
+		beginItem(key, options);
+		openVideoDialog(path, metadata, options, callbackContext);
+	}
+
+	/**
+	 * The key positions are stored under: the "resumeKey" option if given,
+	 * otherwise the target as passed from JS, which unlike the resolved path
+	 * or proxy URL stays the same across runs.
+	 */
+	protected static String resumeKey(String target, JSONObject options) {
+		String key = options != null ? options.optString("resumeKey", null) : null;
+		return key != null ? key : target;
+	}
+
+	/**
+	 * Makes key the item whose position is recorded and, with the "resume"
+	 * option, picks up its stored position to seek to once prepared. Must run
+	 * on the UI thread.
+	 */
+	private void beginItem(String key, JSONObject options) {
+		currentKey = key;
+		resumeAt = options.optBoolean("resume", false) ? resumePositions.get(key) : 0;
+		cancelHold();
+		network = networkType();
+		startPolicy = StartPolicy.from(options, network);
+	}
+
+	/**
+	 * Keeps a prepared network stream from starting until its start policy is
+	 * met, telling JS it is buffering. Returns false if it may start now.
+	 */
+	private boolean holdForBuffer(PlayerEngine mp, long position) {
+		if (startPolicy == null || !isRemote(currentPath)
+				|| startPolicy.ready(bufferedPercent, mp.getDuration(), position)) {
+			return false;
+		}
+		Log.v(LOG_TAG, "holding start until buffered (" + bufferedPercent + "%)");
+		waitingForBuffer = true;
+		holdPosition = position;
+		holdSince = PlaybackMetrics.now();
+		events.post(EventChannel.BUFFERING, "percent", bufferedPercent);
+		mainHandler.postDelayed(holdTimeout, startPolicy.timeoutMs);
+		return true;
+	}
+
+	/**
+	 * Ends a hold, reporting how long it lasted, and starts playback unless it
+	 * was paused in the meantime.
+	 */
+	private void endHold() {
+		if (!waitingForBuffer) {
+			return;
+		}
+		cancelHold();
+		int waited = (int) ((PlaybackMetrics.now() - holdSince) / 1000000);
+		events.post(EventChannel.BUFFERED, "duration", waited, "percent", bufferedPercent, "network", network);
+		if (!state.canStart()) {
+			return;
+		}
+		if (state.isPlayWhenReady()) {
+			player.start();
+			state.moveTo(PlayerStateMachine.State.STARTED);
+			progress.kick();
+		} else {
+			state.moveTo(PlayerStateMachine.State.PAUSED);
+		}
+	}
+
+	private void cancelHold() {
+		waitingForBuffer = false;
+		mainHandler.removeCallbacks(holdTimeout);
+	}
+
+	private final Runnable holdTimeout = new Runnable() {
+		public void run() {
+			Log.v(LOG_TAG, "start buffer not reached in time, starting anyway");
+			endHold();
+		}
+	};
+
+	/**
+	 * The active network as "wifi", "cellular", "ethernet", "other" or "none",
+	 * for per-network start policies and buffering events.
+	 */
+	protected String networkType() {
+		ConnectivityManager cm = (ConnectivityManager) cordova.getActivity().getSystemService(
+				Context.CONNECTIVITY_SERVICE);
+		NetworkInfo info = cm != null ? cm.getActiveNetworkInfo() : null;
+		if (info == null || !info.isConnected()) {
+			return "none";
+		}
+		switch (info.getType()) {
+		case ConnectivityManager.TYPE_WIFI:
+			return "wifi";
+		case ConnectivityManager.TYPE_MOBILE:
+			return "cellular";
+		case ConnectivityManager.TYPE_ETHERNET:
+			return "ethernet";
+		default:
+			return "other";
+		}
+	}
+
+	/**
+	 * Records the current position. Forced saves are journaled right away;
+	 * periodic ones only once the position has moved enough. Must run on the
+	 * UI thread.
+	 */
+	private void savePosition(boolean force) {
+		if (currentKey == null || player == null || !state.isPrepared()) {
+			return;
+		}
+		resumePositions.update(currentKey, player.getCurrentPosition(), player.getDuration());
+		if (force) {
+			resumePositions.commit(currentKey);
+		}
+	}
+
+	private final Runnable positionTicker = new Runnable() {
+		public void run() {
+			if (player == null) {
+				return;
+			}
+			if (state.isPlaying()) {
+				savePosition(false);
+			}
+			mainHandler.postDelayed(this, RESUME_TICK_MS);
+		}
+	};
+
+	/**
+	 * Answers stored resume positions for the given keys, or for every key if
+	 * keys is null, as an object of key to {position, duration, updated}.
+	 */
+	protected void positions(final JSONArray keys, final CallbackContext callbackContext) {
+		cordova.getThreadPool().execute(new Runnable() {
+			public void run() {
+				try {
+					List<String> wanted = null;
+					if (keys != null) {
+						wanted = new ArrayList<String>(keys.length());
+						for (int i = 0; i < keys.length(); i++) {
+							wanted.add(keys.getString(i));
+						}
+					}
+					JSONObject result = new JSONObject();
+					for (Map.Entry<String, ResumeStore.Position> e : resumePositions.positions(wanted).entrySet()) {
+						result.put(e.getKey(), e.getValue().toJSON());
+					}
+					callbackContext.success(result);
+				} catch (JSONException e) {
+					callbackContext.error(e.getMessage());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Commands for the players addressed by ID, which run alongside the main
+	 * one: args are the ID, the command ("play", "pause", "resume", "seek" or
+	 * "stop") and its arguments. play takes a target and options as for the
+	 * main player plus x, y, width, height, autoplay and loop, and its callback
+	 * receives that instance's events.
+	 */
+	protected void instance(CordovaArgs args, final CallbackContext callbackContext) throws JSONException {
+		final String id = args.getString(0);
+		final String command = args.getString(1);
+		if (command.equals(PLAY)) {
+			String target = args.getString(2);
+			JSONObject opts = args.optJSONObject(3);
+			final JSONObject options = opts != null ? opts : new JSONObject();
+			String fileUriStr = resolveTarget(target);
+			int type = targetType(fileUriStr);
+			final String path;
+			if (type == TARGET_FILE) {
+				path = stripFileProtocol(fileUriStr);
+				if (!exists(path)) {
+					callbackContext.error("video does not exist");
+					return;
+				}
+				warmUp(path, options);
+			} else if (type == TARGET_HTTP) {
+				path = streamUrl(fileUriStr, options);
+			} else {
+				callbackContext.error("video unknown protocol");
+				return;
+			}
+			commands.submit(new CommandQueue.Command(INSTANCE) {
+				public void run() {
+					PlayerInstance instance = players.get(id);
+					if (instance == null) {
+						instance = new PlayerInstance(id, cordova.getActivity(), mainHandler, players, engines);
+					}
+					instance.open(path, options, callbackContext);
+				}
+			});
+			return;
+		}
+
+		final int msec = command.equals(SEEK) ? (int) (args.getDouble(2) * 1000) : 0;
+		commands.submit(new CommandQueue.Command(INSTANCE) {
+			public void run() {
+				PlayerInstance instance = players.get(id);
+				if (instance == null) {
+					callbackContext.error("no player " + id);
+				} else if (command.equals(PAUSE)) {
+					callbackContext.success(instance.pause() ? 1 : 0);
+				} else if (command.equals(RESUME)) {
+					callbackContext.success(instance.resume() ? 1 : 0);
+				} else if (command.equals(SEEK)) {
+					int at = instance.seek(msec);
+					if (at >= 0) {
+						callbackContext.success(at / 1000);
+					} else {
+						callbackContext.error("player not prepared");
+					}
+				} else if (command.equals(STOP)) {
+					instance.stop();
+					callbackContext.success();
+				} else {
+					callbackContext.error("unknown command: " + command);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Adds one target or an array of targets to the play queue. Targets are
+	 * validated up front so a bad entry is reported to the caller rather than
+	 * when playback reaches it.
+	 */
+	protected void enqueue(CordovaArgs args, final CallbackContext callbackContext) throws JSONException {
+		JSONArray targets = args.optJSONArray(0);
+		if (targets == null) {
+			targets = new JSONArray();
+			targets.put(args.getString(0));
+		}
+		JSONObject options = args.optJSONObject(1);
+
+		final PlayQueue.Item[] items = new PlayQueue.Item[targets.length()];
+		for (int i = 0; i < items.length; i++) {
+			String target = targets.getString(i);
+			String fileUriStr = resolveTarget(target);
+			int type = targetType(fileUriStr);
+			if (type == TARGET_FILE) {
+				String path = stripFileProtocol(fileUriStr);
+				if (!exists(path)) {
+					callbackContext.error("video does not exist: " + target);
+					return;
+				}
+				if (options != null && options.optBoolean("refuseBad", false) && integrity.isKnownBad(path)) {
+					callbackContext.error("video failed verification: " + target);
+					return;
+				}
+				items[i] = new PlayQueue.Item(target, path, options);
+			} else if (type == TARGET_HTTP) {
+				items[i] = new PlayQueue.Item(target, streamUrl(fileUriStr, options), options);
+			} else {
+				callbackContext.error("video unknown protocol: " + target);
+				return;
+			}
+		}
+		// added on the UI thread, where onCompletion advances the queue
+		commands.submit(new CommandQueue.Command(ENQUEUE, PREPARE_NEXT) {
+			public void run() {
+				for (PlayQueue.Item item : items) {
+					queue.add(item);
+				}
+				sendQueueEvent();
+				try {
+					callbackContext.success(queue.toJSON());
+				} catch (JSONException e) {
+					callbackContext.error(e.getMessage());
+				}
+			}
+		});
+		// a burst of enqueues prepares the next item once, after the last
+		commands.submit(new CommandQueue.Command(PREPARE_NEXT) {
+			public void run() {
+				if (state.isActive()) {
+					prepareNext();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Moves the queue cursor and plays the new current item. If nothing is
+	 * playing, the caller's callback becomes the event callback as for play;
+	 * otherwise events keep flowing to the existing one and the playing dialog
+	 * is reused.
+	 */
+	protected void skip(final boolean forward, final CallbackContext callbackContext) throws JSONException {
+		// the cursor only moves on the UI thread, where onCompletion moves it
+		// too
+		commands.submit(new CommandQueue.Command(forward ? NEXT : PREVIOUS, SEEK) {
+			public void run() {
+				PlayQueue.Item item = forward ? queue.next() : queue.previous();
+				if (item == null) {
+					callbackContext.error(forward ? "end of queue" : "start of queue");
+					return;
+				}
+				if (state.isActive()) {
+					advanceTo(item);
+					try {
+						callbackContext.success(queue.toJSON());
+					} catch (JSONException e) {
+						callbackContext.error(e.getMessage());
+					}
+					return;
+				}
+				// a player may still be waiting for its surface
+				open(item.path, resumeKey(item.target, item.options), true, item.options, callbackContext);
+			}
+		});
+	}
+
+	/**
+	 * Switches the open dialog to the given queue item. When the item was
+	 * already prepared in the background the prepared player simply takes over
+	 * the surface; otherwise a new player is prepared on the existing surface.
+	 * Must run on the UI thread.
+	 */
+	private void advanceTo(PlayQueue.Item item) {
+		if (host == null || !host.isShown()) {
+			return;
+		}
+		PlayerEngine previous = player;
+		savePosition(true);
+		beginItem(resumeKey(item.target, item.options), item.options);
+		currentPath = item.path;
+		bufferedPercent = isRemote(item.path) ? 0 : 100;
+
+		if (nextPlayer != null && nextPrepared && nextItem == item) {
+			Log.v(LOG_TAG, "gapless switch to " + item.path);
+			metrics.gapless();
+			// chained players start on their own; there is nothing to hold
+			startPolicy = null;
+			player = nextPlayer;
+			nextPlayer = null;
+			nextItem = null;
+			nextPrepared = false;
+			if (previous != null) {
+				engines.recycle(previous);
+			}
+			player.setListener(this);
+			host.attach(player);
+
+			sendQueueEvent();
+			state.reset();
+			state.moveTo(PlayerStateMachine.State.PREPARING);
+			onPrepared(player);
+			return;
+		}
+
+		metrics.beginPlay();
+		releaseNextPlayer();
+		if (previous != null) {
+			engines.recycle(previous);
+		}
+		player = null;
+		state.reset();
+		sendQueueEvent();
+		try {
+			player = createPlayer(item.path, item.options);
+			host.attach(player);
+			state.moveTo(PlayerStateMachine.State.PREPARING);
+			markPrepare(item.path);
+			player.prepareAsync();
+		} catch (Exception e) {
+			Log.v(LOG_TAG, "error switching item: " + e.getLocalizedMessage());
+			events.fail(e.getLocalizedMessage());
+			teardown();
+		}
 	}
 
-	public boolean play(CordovaArgs args, final CallbackContext callbackContext) {
-		Log.v(LOG_TAG, "stopping if necessary");
-		stop();
+	/**
+	 * Prepares the item after the current one on a second player and chains it
+	 * with setNextMediaPlayer, so that it starts without a gap when the current
+	 * item completes. Must run on the UI thread.
+	 */
+	private void prepareNext() {
+		if (!playingFromQueue || player == null || nextPlayer != null) {
+			return;
+		}
+		final PlayQueue.Item item = queue.peekNext();
+		if (item == null) {
+			return;
+		}
 
-		Log.v(LOG_TAG, "playing");
 		try {
-			CordovaResourceApi resourceApi = webView.getResourceApi();
-			String target = args.getString(0);
-			JSONObject optionsTmp = new JSONObject();
-
-			try {
-				optionsTmp = args.getJSONObject(1);
-			} catch (Exception e) {
-				// gobble. no options sent
+			nextPlayer = createPlayer(item.path, item.options);
+		} catch (Exception e) {
+			Log.v(LOG_TAG, "could not prepare next item: " + e.getLocalizedMessage());
+			nextPlayer = null;
+			return;
+		}
+		nextItem = item;
+		nextPrepared = false;
+		nextPlayer.setListener(new PlayerEngine.Listener() {
+			public void onPrepared(PlayerEngine mp) {
+				if (mp != nextPlayer) {
+					return;
+				}
+				Log.v(LOG_TAG, "next item prepared");
+				nextPrepared = true;
+				if (player != null) {
+					player.setNext(mp);
+				}
 			}
-			final JSONObject options = optionsTmp;
 
-			String fileUriStr;
-			try {
-				Uri targetUri = resourceApi.remapUri(Uri.parse(target));
-				fileUriStr = targetUri.toString();
-			} catch (IllegalArgumentException e) {
-				fileUriStr = target;
+			public boolean onError(PlayerEngine mp, int what, int extra) {
+				Log.v(LOG_TAG, "next item failed to prepare (" + what + ", " + extra + ")");
+				if (mp == nextPlayer) {
+					releaseNextPlayer();
+				}
+				return true;
 			}
 
-			Log.v(LOG_TAG, fileUriStr);
-
-			Log.v(LOG_TAG, "playing file: " + fileUriStr);
-
-			if (fileUriStr.startsWith("file:")) {
-				final String path = stripFileProtocol(fileUriStr);
-	
-				File f = new File(path);
-				if (!f.exists()) {
-					Log.v(LOG_TAG, "does not exist: " + fileUriStr);
-					callbackContext.error("video does not exist");
-					return true;
-				}
+			public void onCompletion(PlayerEngine mp) {
+			}
 
-				Log.v(LOG_TAG, "playing path: " + path);
-				// Create dialog in new thread
-				cordova.getActivity().runOnUiThread(new Runnable() {
-					public void run() {
-						Log.v(LOG_TAG, "openVideoDialog");
-						openVideoDialog(path, options, callbackContext);
-					}
-				});
-			} else if (fileUriStr.startsWith("http:") || fileUriStr.startsWith("https:")) {
-				final String path = fileUriStr;
+			public void onBufferingUpdate(PlayerEngine mp, int percent) {
+			}
 
-				Log.v(LOG_TAG, "playing URL: " + path);
-				// Create dialog in new thread
-				cordova.getActivity().runOnUiThread(new Runnable() {
-					public void run() {
-						Log.v(LOG_TAG, "openVideoDialog");
-						openVideoDialog(path, options, callbackContext);
-					}
-				});
-			} else {
-				Log.v(LOG_TAG, "unknown protocol: " + fileUriStr);
-				callbackContext.error("video unknown protocol");
+			public boolean onInfo(PlayerEngine mp, int what, int extra) {
+				return false;
 			}
+		});
+		nextPlayer.prepareAsync();
+	}
 
+	private void releaseNextPlayer() {
+		if (nextPlayer != null) {
+			if (player != null && nextPrepared) {
+				player.setNext(null);
+			}
+			engines.recycle(nextPlayer);
+			nextPlayer = null;
+		}
+		nextItem = null;
+		nextPrepared = false;
+	}
 
-			return true;
-		} catch (JSONException je) {
-			Log.v(LOG_TAG, "error2: " + je.getMessage());
-			callbackContext.error(je.getMessage());
-			je.printStackTrace();
-			return false;
+	private void sendQueueEvent() {
+		if (!events.isOpen()) {
+			return;
+		}
+		try {
+			events.post(EventChannel.QUEUE, queue.toJSON());
+		} catch (JSONException e) {
+			e.printStackTrace();
 		}
 	}
 
-	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
-	protected void openVideoDialog(String path, JSONObject options, final CallbackContext callbackContext) {
-		this.callbackContext = callbackContext;
+	/**
+	 * The source of the engines of the main player and the instances:
+	 * MediaPlayers from the {@link PlayerRegistry}. Override to play through
+	 * another engine.
+	 */
+	protected PlayerEngine.Factory createEngineFactory() {
+		return new MediaPlayerEngine.Pooled(players);
+	}
 
-		MediaMetadataRetriever metaRetriever = new MediaMetadataRetriever();
-		if (path.startsWith(ASSETS)) {
-			String f = path.substring(ASSETS.length());
-			AssetFileDescriptor fd = null;
-			try {
-				fd = cordova.getActivity().getAssets().openFd(f);
-				metaRetriever.setDataSource(fd.getFileDescriptor(), fd.getStartOffset(), fd.getLength());
-			} catch (Exception e) {
-				callbackContext.error(e.getLocalizedMessage());
-				Log.v(LOG_TAG, "error: " + e.getLocalizedMessage());
-				e.printStackTrace();
-			}
-		} else {
-			try {
+	/**
+	 * Creates a player for the given path with the plugin's listeners and the
+	 * per-item options applied. The caller prepares it.
+	 */
+	private PlayerEngine createPlayer(String path, JSONObject options) throws IOException {
+		PlayerEngine mp = engines.create();
+		mp.setListener(this);
+
+		try {
+			if (path.startsWith(ASSETS)) {
+				String f = path.substring(ASSETS.length());
+				AssetFileDescriptor fd = cordova.getActivity().getAssets().openFd(f);
+				try {
+					mp.setDataSource(fd.getFileDescriptor(), fd.getStartOffset(), fd.getLength());
+				} finally {
+					fd.close();
+				}
+			} else {
 				Log.v(LOG_TAG, "setDataSource file");
-				metaRetriever.setDataSource(path);
-			} catch (Exception e) {
-				callbackContext.error(e.getLocalizedMessage());
-				Log.v(LOG_TAG, "error: " + e.getLocalizedMessage());
-				e.printStackTrace();
+				mp.setDataSource(path);
 			}
+		} catch (IOException e) {
+			engines.recycle(mp);
+			throw e;
+		} catch (RuntimeException e) {
+			engines.recycle(mp);
+			throw e;
 		}
 
-		double mVideoHeight = 0;
-		double mVideoWidth = 0;
 		try {
-			String height = metaRetriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT);
-			String width = metaRetriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH);
-			mVideoHeight = Float.parseFloat(height);
-			mVideoWidth = Float.parseFloat(width);
-		} catch (NumberFormatException e) {
-			mVideoHeight = 900;
-			mVideoWidth = 1600;
-			Log.d(LOG_TAG, e.getMessage());
+			float volume = Float.valueOf(options.getString("volume"));
+			mp.setVolume(volume);
+		} catch (Exception e) {
+			Log.v(LOG_TAG, "error: " + e.getLocalizedMessage());
 		}
 
+		int scalingMode = options.optInt("scalingMode", 0);
+		Log.v(LOG_TAG, "Scaling: " + scalingMode);
+		mp.setVideoScalingMode(scalingMode == PlayerEngine.SCALE_TO_FIT ? PlayerEngine.SCALE_TO_FIT
+				: PlayerEngine.SCALE_TO_FIT_WITH_CROPPING);
+		return mp;
+	}
+
+	/**
+	 * Size of the video view for a video of the given dimensions, fitted to 90%
+	 * of the display.
+	 */
+	protected Point videoViewSize(double mVideoWidth, double mVideoHeight) {
 		Display display = this.cordova.getActivity().getWindowManager().getDefaultDisplay();
 		Point size = new Point();
 		display.getSize(size);
-		size.x = size.x * 9 / 10;
-		size.y = size.y * 9 / 10;
 
-		double displayAspect = ((double) size.x) / ((double) size.y);
-		double videoAspect = ((double) mVideoWidth) / ((double) mVideoHeight);
+		int[] fitted = new int[2];
+		VideoLayout.fit(size.x, size.y, mVideoWidth, mVideoHeight, fitted);
+		size.set(fitted[0], fitted[1]);
+		return size;
+	}
+
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	protected void openVideoDialog(String path, VideoMetadata metadata, JSONObject options, final CallbackContext callbackContext) {
+		events.open(callbackContext, options.optInt("eventInterval", EventChannel.DEFAULT_INTERVAL));
+		progress.setRate(options.optDouble("progress", 0));
+		metrics.mark(PlaybackMetrics.Stage.DIALOG);
+		this.currentPath = path;
+		this.bufferedPercent = isRemote(path) ? 0 : 100;
 
-		if (displayAspect > videoAspect) {
-			mVideoHeight = size.y;
-			mVideoWidth = mVideoHeight * videoAspect;
+		double mVideoHeight = 0;
+		double mVideoWidth = 0;
+		if (metadata != null && metadata.hasSize()) {
+			mVideoHeight = metadata.displayHeight();
+			mVideoWidth = metadata.displayWidth();
 		} else {
-			mVideoWidth = mVideoHeight * displayAspect;
-		}
-
-		// Let's create the main dialog
-		dialog = new Dialog(cordova.getActivity(), android.R.style.Theme_NoTitleBar);
-		dialog.getWindow().getAttributes().windowAnimations = android.R.style.Animation_Dialog;
-		dialog.requestWindowFeature(Window.FEATURE_NO_TITLE);
-		dialog.setCancelable(false);
-
-		Log.v(LOG_TAG, "getting dimensions");
-		int h = (int) mVideoHeight;
-		int w = (int) mVideoWidth;
-		Log.v(LOG_TAG, "width: " + w);
-		Log.v(LOG_TAG, "height: " + h);
-
-		// Main container layout
-		LinearLayout main = new LinearLayout(cordova.getActivity());
-		main.setBackgroundColor(color.black);
-		main.setLayoutParams(new LinearLayout.LayoutParams(w, h));
-		// main.setOrientation(LinearLayout.VERTICAL);
-		main.setHorizontalGravity(Gravity.CENTER_HORIZONTAL);
-		main.setVerticalGravity(Gravity.CENTER_VERTICAL);
-		main.setLayerType(View.LAYER_TYPE_NONE, null);
-
-		videoView = new VideoView(cordova.getActivity());
-		videoView.setBackgroundColor(color.black);
-		videoView.setLayoutParams(new LinearLayout.LayoutParams(w, h));
-		//videoView.setZOrderOnTop(true);
-		// videoView.setVideoURI(uri);
-		// videoView.setVideoPath(path);
-		main.addView(videoView);
-		
-		detector = new PlayerGestureDetection(cordova.getActivity(), new PlayerGestureDetection.SimpleGestureListener() {
-			
-			@Override
-			public void onSwipe(int direction) {
-				// TODO Auto-generated method stub
-				Log.v(LOG_TAG, "  onSwipe "+direction);
-				JSONObject event = new JSONObject();
-				try {
-					event.put("type", "swipe");
-					if (direction==PlayerGestureDetection.SWIPE_LEFT) {
-						event.put("direction", "right");
-					}
-					if (direction==PlayerGestureDetection.SWIPE_RIGHT) {
-						event.put("direction", "left");
-					}
-					if (direction==PlayerGestureDetection.SWIPE_UP) {
-						event.put("direction", "up");
-					}
-					if (direction==PlayerGestureDetection.SWIPE_DOWN) {
-						event.put("direction", "down");
-					}
-				} catch (JSONException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
+			mVideoHeight = 900;
+			mVideoWidth = 1600;
+			Log.d(LOG_TAG, "no video size for " + path);
+		}
+
+		Point viewSize = videoViewSize(mVideoWidth, mVideoHeight);
+		Log.v(LOG_TAG, "width: " + viewSize.x);
+		Log.v(LOG_TAG, "height: " + viewSize.y);
 
-			PluginResult errorResult = new PluginResult(PluginResult.Status.OK, event);
-			errorResult.setKeepCallback(true);
-			callbackContext.sendPluginResult(errorResult);
+		boolean textureMode = options.optBoolean("textureView", false);
+		if (host != null && host.isTextureMode() != textureMode) {
+			host.destroy();
+			host = null;
+		}
+		if (host == null) {
+			host = createHost(textureMode);
+		}
+
+		try {
+			player = createPlayer(path, options);
+		} catch (Exception e) {
+			events.fail(e.getLocalizedMessage());
+			Log.v(LOG_TAG, "error3: " + e.getLocalizedMessage());
+			e.printStackTrace();
+			teardown();
+			return;
+		}
+
+		host.show(viewSize.x, viewSize.y);
+		if (host.isReady()) {
+			// the surface outlived the last play
+			surfaceReady();
+		}
+	}
+
+	/**
+	 * Builds the playback dialog, which is then kept for later plays, and
+	 * wires the touch and key handling of its video view.
+	 */
+	private PlaybackHost createHost(boolean textureMode) {
+		PlaybackHost host = new PlaybackHost(cordova.getActivity(), textureMode, new PlaybackHost.Listener() {
+			public void onSurfaceReady() {
+				Log.v(LOG_TAG, "surfaceCreated");
+				surfaceReady();
 			}
-			
-			@Override
-			public void onSingleTap() {
-				Log.v(LOG_TAG, "  onSingleTapUp ");
-				if (player.isPlaying()) {
-					Log.v(LOG_TAG, "  pausing ");
-					player.pause();
-					videoView.pause();
-				} else {
-					Log.v(LOG_TAG, "  resuming ");
-					videoView.start();
-					player.start();
-				}
+
+			public void onSurfaceLost() {
+				// the player is kept and attached again when the surface returns
+				Log.v(LOG_TAG, "surfaceDestroyed");
 			}
 		});
 
-		player = new MediaPlayer();
-		player.setOnPreparedListener(this);
-		player.setOnCompletionListener(this);
-		player.setOnErrorListener(this);
+		if (detector == null) {
+			detector = new PlayerGestureDetection(cordova.getActivity(), new PlayerGestureDetection.SimpleGestureListener() {
 
-		if (path.startsWith(ASSETS)) {
-			String f = path.substring(ASSETS.length());
-			AssetFileDescriptor fd = null;
-			try {
-				fd = cordova.getActivity().getAssets().openFd(f);
-				player.setDataSource(fd.getFileDescriptor(), fd.getStartOffset(), fd.getLength());
-			} catch (Exception e) {
-				callbackContext.error(e.getLocalizedMessage());
-				Log.v(LOG_TAG, "error3: " + e.getLocalizedMessage());
-				e.printStackTrace();
-				stop();
-				return;
-			}
-		} else {
-			try {
-				Log.v(LOG_TAG, "setDataSource file");
-				player.setDataSource(path);
-			} catch (Exception e) {
-				callbackContext.error(e.getLocalizedMessage());
-				Log.v(LOG_TAG, "error4: " + e.getLocalizedMessage());
-				e.printStackTrace();
-				stop();
-				return;
-			}
+				@Override
+				public void onSwipe(int direction) {
+					trace.trace(TraceLog.DEBUG, TraceLog.SWIPE, direction);
+					events.post(EventChannel.SWIPE, "direction", PlayerGestureDetection.swipeName(direction));
+				}
+
+				@Override
+				public void onSingleTap() {
+					if (state.canPause()) {
+						trace.trace(TraceLog.DEBUG, TraceLog.TAP, TraceLog.TAP_PAUSED);
+						player.pause();
+						state.moveTo(PlayerStateMachine.State.PAUSED);
+					} else if (state.canStart()) {
+						trace.trace(TraceLog.DEBUG, TraceLog.TAP, TraceLog.TAP_RESUMED);
+						player.start();
+						state.moveTo(PlayerStateMachine.State.STARTED);
+						progress.kick();
+					} else {
+						trace.trace(TraceLog.DEBUG, TraceLog.TAP, 0);
+					}
+				}
+			});
 		}
 
-		videoView.setOnSystemUiVisibilityChangeListener(new View.OnSystemUiVisibilityChangeListener() {
-			
-			@Override
-			public void onSystemUiVisibilityChange(int visibility) {
-				// TODO Auto-generated method stub
-				
-			}
-		});
-		videoView.setOnTouchListener(new View.OnTouchListener() {
+		View view = host.getView();
+		view.setOnTouchListener(new View.OnTouchListener() {
 			@Override
 			public boolean onTouch(View v, MotionEvent event) {
-				Log.v(LOG_TAG, "onTouch ");
-				if (detector!=null) {
+				trace.trace(TraceLog.VERBOSE, TraceLog.TOUCH, event.getAction(), (int) event.getX(), (int) event.getY());
+				if (player != null) {
 					detector.onTouchEvent(event);
 				}
 				return true;
 			}
 		});
-		videoView.setOnKeyListener(new View.OnKeyListener() {
+		view.setOnKeyListener(new View.OnKeyListener() {
 			@Override
 			public boolean onKey(View v, int keyCode, KeyEvent keyEvent) {
-				Log.v(LOG_TAG, "onKey keyCode="+keyCode+"  evt.keycode"+keyEvent.getKeyCode()+"  evt.flags"+keyEvent.getFlags());
-
-				JSONObject event = new JSONObject();
-					try {
-						event.put("type", "key");
-						event.put("keyCode", keyCode);
-						event.put("flags", keyEvent.getFlags());
-					} catch (JSONException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
+				trace.trace(TraceLog.DEBUG, TraceLog.KEY, keyCode, keyEvent.getAction(), keyEvent.getFlags());
 
-				PluginResult errorResult = new PluginResult(PluginResult.Status.OK, event);
-				errorResult.setKeepCallback(true);
-				callbackContext.sendPluginResult(errorResult);
+				// the action keeps a down and its up from being merged as a repeat
+				events.post(EventChannel.KEY, "keyCode", keyCode, "flags", keyEvent.getFlags(), "action",
+						keyEvent.getAction() == KeyEvent.ACTION_UP ? "up" : "down");
 				
 				return true;
 			}
 		});
+		return host;
+	}
 
-		try {
-			float volume = Float.valueOf(options.getString("volume"));
-			player.setVolume(volume, volume);
-		} catch (Exception e) {
-			Log.v(LOG_TAG, "error: " + e.getLocalizedMessage());
+	/**
+	 * Attaches the player to the host's surface, preparing it the first time
+	 * round; the surface is recreated after onPause/onResume and then only
+	 * needs attaching.
+	 */
+	private void surfaceReady() {
+		metrics.mark(PlaybackMetrics.Stage.SURFACE);
+		if (player == null) {
+			return;
 		}
-
-		if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.JELLY_BEAN) {
-			int scalingMode = 0;
+		host.attach(player);
+		if (state.moveTo(PlayerStateMachine.State.PREPARING)) {
 			try {
-				scalingMode = options.getInt("scalingMode");
-			} catch (Exception e) {
-				scalingMode = 0;
-			}
-			Log.v(LOG_TAG, "Scaling: " + scalingMode);
-
-			switch (scalingMode) {
-			case MediaPlayer.VIDEO_SCALING_MODE_SCALE_TO_FIT_WITH_CROPPING:
-				player.setVideoScalingMode(MediaPlayer.VIDEO_SCALING_MODE_SCALE_TO_FIT_WITH_CROPPING);
-				break;
-			case MediaPlayer.VIDEO_SCALING_MODE_SCALE_TO_FIT:
-				player.setVideoScalingMode(MediaPlayer.VIDEO_SCALING_MODE_SCALE_TO_FIT);
-				break;
-			default:
-				player.setVideoScalingMode(MediaPlayer.VIDEO_SCALING_MODE_SCALE_TO_FIT_WITH_CROPPING);
+				Log.v(LOG_TAG, "preparing player");
+				markPrepare(currentPath);
+				player.prepareAsync();
+			} catch (IllegalStateException e) {
+				state.moveTo(PlayerStateMachine.State.ERROR);
+				events.fail(e.getLocalizedMessage());
+				teardown();
 			}
 		}
-
-		final SurfaceHolder mHolder = videoView.getHolder();
-		mHolder.setKeepScreenOn(true);
-		//mHolder.setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
-		mHolder.addCallback(new SurfaceHolder.Callback() {
-			@Override
-			public void surfaceCreated(SurfaceHolder holder) {
-				Log.v(LOG_TAG, "surfaceCreated");
-				if (player != null) {
-					player.setDisplay(holder);
-					try {
-						Log.v(LOG_TAG, "preparing player");
-						if (!prepared) {
-							player.prepare();
-							prepared = true;
-						}
-
-					} catch (Exception e) {
-						callbackContext.error(e.getLocalizedMessage());
-					}
-				}
-			}
-
-			@Override
-			public void surfaceDestroyed(SurfaceHolder holder) {
-				Log.v(LOG_TAG, "surfaceDestroyed");
-				if (player != null) {
-					// don't destroy the player
-				}
-			}
-
-			@Override
-			public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
-			}
-		});
-		
-		WindowManager.LayoutParams lp = new WindowManager.LayoutParams();
-		lp.copyFrom(dialog.getWindow().getAttributes());
-		lp.width = WindowManager.LayoutParams.MATCH_PARENT;
-		lp.height = WindowManager.LayoutParams.MATCH_PARENT;
-
-		dialog.setContentView(main);
-		dialog.show();
-		dialog.getWindow().setAttributes(lp);
 	}
 
 	@Override
-	public boolean onError(MediaPlayer mp, int what, int extra) {
+	public boolean onError(PlayerEngine mp, int what, int extra) {
 		Log.e(LOG_TAG, "VideoPlayer.onError(" + what + ", " + extra + ")");
-
-		JSONObject event = new JSONObject();
-		try {
-			event.put("type", "error");
-			event.put("what", what);
-			event.put("extra", extra);
-		} catch (JSONException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		trace.trace(TraceLog.ERROR, TraceLog.MEDIA_ERROR, what, extra);
+		if (mp != player) {
+			return true;
 		}
 
-		PluginResult errorResult = new PluginResult(PluginResult.Status.OK, event);
-		errorResult.setKeepCallback(false);
-		callbackContext.sendPluginResult(errorResult);
-
-		mp.stop();
-		mp.release();
-		dialog.dismiss();
+		events.close(EventChannel.ERROR, "what", what, "extra", extra);
 
-		prepared = false;
-		dialog = null;
-		player = null;
-		videoView = null;
-		detector = null;
-		callbackContext = null;
+		// the player cannot report a position any more; keep the last one seen
+		if (currentKey != null) {
+			resumePositions.commit(currentKey);
+		}
+		state.moveTo(PlayerStateMachine.State.ERROR);
+		teardown();
 
-		return false;
+		return true;
 	}
 
 	@Override
-	public void onPrepared(MediaPlayer mp) {
+	public void onPrepared(PlayerEngine mp) {
 		Log.v(LOG_TAG, "onPrepared");
-		JSONObject event = new JSONObject();
-		try {
-			event.put("type", "prepared");
-			event.put("duration", player.getDuration() / 1000);
-		} catch (JSONException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		if (mp != player || !state.moveTo(PlayerStateMachine.State.PREPARED)) {
+			// stopped while preparing
+			return;
+		}
+		metrics.mark(PlaybackMetrics.Stage.PREPARED);
+		trace.trace(TraceLog.INFO, TraceLog.PREPARED, mp.getDuration() / 1000);
+
+		long startAt = 0;
+		if (resumeAt > 0 && resumeAt < mp.getDuration()) {
+			Log.v(LOG_TAG, "resuming at " + resumeAt + "ms");
+			mp.seekTo((int) resumeAt);
+			startAt = resumeAt;
+		}
+		resumeAt = 0;
+		mainHandler.removeCallbacks(positionTicker);
+		mainHandler.postDelayed(positionTicker, RESUME_TICK_MS);
+
+		if (!state.isPlayWhenReady()) {
+			Log.v(LOG_TAG, "paused before prepared, not starting");
+			state.moveTo(PlayerStateMachine.State.PAUSED);
+		} else if (!holdForBuffer(mp, startAt)) {
+			// otherwise started by endHold() once buffered
+			Log.v(LOG_TAG, "starting video");
+			mp.start();
+			state.moveTo(PlayerStateMachine.State.STARTED);
+			progress.kick();
 		}
 		
-		Log.v(LOG_TAG, "starting video");
-		mp.start();
-		
-		PluginResult errorResult = new PluginResult(PluginResult.Status.OK, event);
-		errorResult.setKeepCallback(true);
-		callbackContext.sendPluginResult(errorResult);
+		events.post(EventChannel.PREPARED, "duration", mp.getDuration() / 1000);
 
-		/*MediaController mc = new MediaController(cordova.getActivity());
-		mc.setAnchorView(videoView);
-		mc.setMediaPlayer(videoView);
-		videoView.setMediaController(mc);
-		mc.setVisibility(View.VISIBLE);
-		//((ViewGroup)videoView.getParent()).addView(mc);*/
+		if (host != null && mp.getVideoWidth() > 0 && mp.getVideoHeight() > 0) {
+			Point viewSize = videoViewSize(mp.getVideoWidth(), mp.getVideoHeight());
+			host.resize(viewSize.x, viewSize.y);
+		}
+		prepareNext();
+
+		if (Build.VERSION.SDK_INT < SEEK_MODE_API && !isRemote(currentPath)) {
+			// build the keyframe index before the first seek needs it
+			final String path = currentPath;
+			cordova.getThreadPool().execute(new Runnable() {
+				public void run() {
+					keyframes(path);
+				}
+			});
+		}
 
 	}
 
 	@Override
-	public void onCompletion(MediaPlayer mp) {
+	public void onCompletion(PlayerEngine mp) {
 		Log.v(LOG_TAG, "onCompletion");
-		JSONObject event = new JSONObject();
-		try {
-			event.put("type", "completed");
-		} catch (JSONException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		if (mp != player) {
+			return;
+		}
+		trace.trace(TraceLog.INFO, TraceLog.COMPLETED);
+		if (currentKey != null) {
+			resumePositions.remove(currentKey);
+			currentKey = null;
+		}
+		if (playingFromQueue) {
+			PlayQueue.Item item = queue.next();
+			if (item != null) {
+				advanceTo(item);
+				return;
+			}
 		}
 
-		PluginResult errorResult = new PluginResult(PluginResult.Status.OK, event);
-		errorResult.setKeepCallback(false);
-		callbackContext.sendPluginResult(errorResult);
+		events.close(EventChannel.COMPLETED, null, 0, null, 0);
 
-		mp.stop();
-		mp.release();
-		dialog.dismiss();
+		teardown();
+	}
 
-		prepared = false;
-		dialog = null;
-		player = null;
-		videoView = null;
-		detector = null;
-		callbackContext = null;
+	@Override
+	public void onBufferingUpdate(PlayerEngine mp, int percent) {
+		if (mp == player) {
+			bufferedPercent = percent;
+			if (waitingForBuffer && startPolicy.ready(percent, mp.getDuration(), holdPosition)) {
+				endHold();
+			}
+		}
 	}
 
-	public boolean pause() {
-		if (this.player != null) {
-			this.player.pause();
+	@Override
+	public boolean onInfo(PlayerEngine mp, int what, int extra) {
+		if (mp != player) {
+			return false;
+		}
+		trace.trace(TraceLog.DEBUG, TraceLog.MEDIA_INFO, what, extra);
+		switch (what) {
+		case PlayerEngine.INFO_RENDERING_START:
+			metrics.mark(PlaybackMetrics.Stage.FIRST_FRAME);
+			if (host != null) {
+				host.onFirstFrame();
+			}
+			break;
+		case PlayerEngine.INFO_BUFFERING_START:
+			// buffering before the first start is part of prepare, not a stall
+			if (state.isPrepared() && !waitingForBuffer) {
+				metrics.stallStarted();
+				events.post(EventChannel.REBUFFERING, "percent", bufferedPercent);
+			}
+			break;
+		case PlayerEngine.INFO_BUFFERING_END:
+			long stall = metrics.stallEnded();
+			if (stall >= 0) {
+				Log.v(LOG_TAG, "stalled for " + stall / 1000000 + "ms");
+				events.post(EventChannel.REBUFFERED, "duration", (int) (stall / 1000000), "percent", bufferedPercent,
+						"network", network);
+			}
+			break;
+		}
+		return false;
+	}
 
-			JSONObject event = new JSONObject();
-			try {
-				event.put("type", "paused");
-			} catch (JSONException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+	public boolean pause() {
+		if (state.canPause() || state.is(PlayerStateMachine.State.PREPARING) || waitingForBuffer) {
+			if (state.canPause()) {
+				this.player.pause();
+				state.moveTo(PlayerStateMachine.State.PAUSED);
+				savePosition(true);
+			} else {
+				state.setPlayWhenReady(false);
 			}
 
-			PluginResult eventResult = new PluginResult(PluginResult.Status.OK, event);
-			eventResult.setKeepCallback(true);
-			callbackContext.sendPluginResult(eventResult);
+			events.post(EventChannel.PAUSED);
 
 			return true;
 		}
@@ -603,21 +2305,16 @@ public class VideoPlayer extends CordovaPlugin implements OnCompletionListener,
 	}
 
 	public boolean resume() {
-		if (this.player != null) {
-			videoView.resume();
-			this.player.start();
-
-			JSONObject event = new JSONObject();
-			try {
-				event.put("type", "playing");
-			} catch (JSONException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+		if (state.canStart() || state.is(PlayerStateMachine.State.PREPARING)) {
+			if (state.canStart() && !waitingForBuffer) {
+				this.player.start();
+				state.moveTo(PlayerStateMachine.State.STARTED);
+				progress.kick();
+			} else {
+				state.setPlayWhenReady(true);
 			}
 
-			PluginResult eventResult = new PluginResult(PluginResult.Status.OK, event);
-			eventResult.setKeepCallback(true);
-			callbackContext.sendPluginResult(eventResult);
+			events.post(EventChannel.PLAYING);
 
 			return true;
 		}
@@ -625,49 +2322,58 @@ public class VideoPlayer extends CordovaPlugin implements OnCompletionListener,
 	}
 
 	public boolean stop() {
+		// an open still reading its file is dropped too
+		openGeneration++;
 		if (player != null) {
-			JSONObject event = new JSONObject();
-			try {
-				event.put("type", "completed");
-			} catch (JSONException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-
-			PluginResult errorResult = new PluginResult(PluginResult.Status.OK, event);
-			errorResult.setKeepCallback(false);
-			callbackContext.sendPluginResult(errorResult);
-
-			if (player != null) {
-				player.stop();
-				player.release();
-				player = null;
-			}
-			if (dialog != null) {
-				dialog.dismiss();
-				dialog = null;
-			}
+			events.close(EventChannel.COMPLETED, null, 0, null, 0);
 
-			prepared = false;
-			videoView = null;
-			detector = null;
-			callbackContext = null;
+			teardown();
 
 			return true;
 		}
 		return false;
 	}
 
+	/**
+	 * Releases the players and hides the dialog without notifying JS.
+	 */
+	private void teardown() {
+		progress.stop();
+		mainHandler.removeCallbacks(positionTicker);
+		cancelHold();
+		savePosition(true);
+		currentKey = null;
+		resumeAt = 0;
+		releaseNextPlayer();
+		if (player != null) {
+			if (state.isPrepared()) {
+				player.stop();
+			}
+			state.moveTo(PlayerStateMachine.State.STOPPED);
+			engines.recycle(player);
+			player = null;
+		}
+		if (host != null) {
+			host.hide();
+		}
+
+		state.reset();
+		playingFromQueue = false;
+	}
+
 	@Override
 	public void onPause(boolean multitasking) {
 		Log.v(LOG_TAG, "ON PAUSE");
 
 		super.onPause(multitasking);
 
-		if (videoView != null) {
-			player.pause();
-			videoView.pause();
-			videoView.suspend();
+		progress.setBackgrounded(true);
+		if (player != null) {
+			savePosition(true);
+			if (state.canPause()) {
+				player.pause();
+				state.moveTo(PlayerStateMachine.State.PAUSED);
+			}
 		}
 	}
 
@@ -676,11 +2382,13 @@ public class VideoPlayer extends CordovaPlugin implements OnCompletionListener,
 		Log.v(LOG_TAG, "ON RESUME");
 
 		super.onResume(multitasking);
-		if (videoView != null) {
-			videoView.resume();
-			videoView.start();
-			player.start();
+		if (player != null) {
+			if (state.canStart()) {
+				player.start();
+				state.moveTo(PlayerStateMachine.State.STARTED);
+			}
 		}
+		progress.setBackgrounded(false);
 	}
 
 }
@@ -0,0 +1,12 @@
+package android;
+
+public final class R {
+	public static final class color {
+		public static final int black = 0x0106000c;
+	}
+
+	public static final class style {
+		public static final int Animation_Dialog = 0x01030002;
+		public static final int Theme_NoTitleBar = 0x01030006;
+	}
+}
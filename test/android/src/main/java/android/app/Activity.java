@@ -0,0 +1,98 @@
+package android.app;
+
+import java.io.File;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.content.res.Resources;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Display;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.WindowManager;
+import android.widget.FrameLayout;
+
+/**
+ * A resumed activity. Views added with addContentView() see a visible
+ * window once the main looper has run.
+ */
+public class Activity extends Context {
+	private final File dataDir;
+	private final FrameLayout content = new FrameLayout(this);
+	private final WindowManager windowManager = new WindowManager() {
+		public Display getDefaultDisplay() {
+			return new Display();
+		}
+	};
+
+	public Activity() {
+		this(null);
+	}
+
+	/**
+	 * @param dataDir
+	 *            where the cache, files and external files directories are
+	 *            made, or null for none
+	 */
+	public Activity(File dataDir) {
+		this.dataDir = dataDir;
+	}
+
+	public File getCacheDir() {
+		return dir("cache");
+	}
+
+	public File getFilesDir() {
+		return dir("files");
+	}
+
+	public File getExternalFilesDir(String type) {
+		return dir("external");
+	}
+
+	public AssetManager getAssets() {
+		return null;
+	}
+
+	public Resources getResources() {
+		return new Resources();
+	}
+
+	public Object getSystemService(String name) {
+		return null;
+	}
+
+	public WindowManager getWindowManager() {
+		return windowManager;
+	}
+
+	/** the parent of views added with addContentView() */
+	public FrameLayout getContentView() {
+		return content;
+	}
+
+	public void addContentView(final View view, ViewGroup.LayoutParams params) {
+		content.addView(view, params);
+		new Handler(Looper.getMainLooper()).post(new Runnable() {
+			public void run() {
+				if (view.getParent() == content) {
+					view.dispatchWindowVisibilityChanged(View.VISIBLE);
+				}
+			}
+		});
+	}
+
+	public void runOnUiThread(Runnable action) {
+		action.run();
+	}
+
+	private File dir(String name) {
+		if (dataDir == null) {
+			return null;
+		}
+		File dir = new File(dataDir, name);
+		dir.mkdirs();
+		return dir;
+	}
+}
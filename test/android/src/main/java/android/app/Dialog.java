@@ -0,0 +1,98 @@
+package android.app;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
+import android.view.Window;
+import android.view.WindowManager;
+import android.widget.FrameLayout;
+
+/**
+ * Tells its content view about window visibility on the main looper, the
+ * way the view traversal after show() and hide() does: surfaces appear
+ * once the looper has run after show(), not during it.
+ */
+public class Dialog {
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	private final Window window = new Window() {
+		private WindowManager.LayoutParams attributes = new WindowManager.LayoutParams();
+
+		public WindowManager.LayoutParams getAttributes() {
+			return attributes;
+		}
+
+		public void setAttributes(WindowManager.LayoutParams a) {
+			attributes = a;
+		}
+	};
+
+	private final FrameLayout decor;
+	private boolean showing;
+	private boolean dismissed;
+
+	public Dialog(Context context, int theme) {
+		decor = new FrameLayout(context);
+	}
+
+	public Window getWindow() {
+		return window;
+	}
+
+	public boolean requestWindowFeature(int featureId) {
+		return true;
+	}
+
+	public void setCancelable(boolean flag) {
+	}
+
+	public void setContentView(View view) {
+		while (decor.getChildCount() > 0) {
+			decor.removeView(decor.getChildAt(0));
+		}
+		decor.addView(view);
+	}
+
+	public boolean isShowing() {
+		return showing;
+	}
+
+	public void show() {
+		if (showing || dismissed) {
+			return;
+		}
+		showing = true;
+		post(View.VISIBLE);
+	}
+
+	public void hide() {
+		if (!showing) {
+			return;
+		}
+		showing = false;
+		post(View.GONE);
+	}
+
+	public void dismiss() {
+		hide();
+		if (dismissed) {
+			return;
+		}
+		dismissed = true;
+		handler.post(new Runnable() {
+			public void run() {
+				while (decor.getChildCount() > 0) {
+					decor.removeView(decor.getChildAt(0));
+				}
+			}
+		});
+	}
+
+	private void post(final int visibility) {
+		handler.post(new Runnable() {
+			public void run() {
+				decor.dispatchWindowVisibilityChanged(visibility);
+			}
+		});
+	}
+}
@@ -0,0 +1,19 @@
+package android.content;
+
+import java.io.File;
+
+import android.content.res.AssetManager;
+
+public abstract class Context {
+	public static final String CONNECTIVITY_SERVICE = "connectivity";
+
+	public abstract File getCacheDir();
+
+	public abstract File getFilesDir();
+
+	public abstract File getExternalFilesDir(String type);
+
+	public abstract AssetManager getAssets();
+
+	public abstract Object getSystemService(String name);
+}
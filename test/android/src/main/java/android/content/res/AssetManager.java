@@ -0,0 +1,9 @@
+package android.content.res;
+
+import java.io.IOException;
+
+public class AssetManager {
+	public AssetFileDescriptor openFd(String fileName) throws IOException {
+		throw new IOException("no assets");
+	}
+}
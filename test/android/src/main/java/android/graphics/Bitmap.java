@@ -0,0 +1,36 @@
+package android.graphics;
+
+import java.io.OutputStream;
+
+public class Bitmap {
+	public enum CompressFormat {
+		JPEG, PNG, WEBP
+	}
+
+	public enum Config {
+		ALPHA_8, RGB_565, ARGB_4444, ARGB_8888
+	}
+
+	public static Bitmap createBitmap(int width, int height, Config config) {
+		return new Bitmap();
+	}
+
+	public static Bitmap createScaledBitmap(Bitmap src, int dstWidth, int dstHeight, boolean filter) {
+		return new Bitmap();
+	}
+
+	public int getWidth() {
+		return 0;
+	}
+
+	public int getHeight() {
+		return 0;
+	}
+
+	public boolean compress(CompressFormat format, int quality, OutputStream stream) {
+		return false;
+	}
+
+	public void recycle() {
+	}
+}
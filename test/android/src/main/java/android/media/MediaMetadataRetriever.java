@@ -0,0 +1,37 @@
+package android.media;
+
+import java.io.FileDescriptor;
+
+import android.graphics.Bitmap;
+
+public class MediaMetadataRetriever {
+	public static final int OPTION_PREVIOUS_SYNC = 0;
+	public static final int OPTION_NEXT_SYNC = 1;
+	public static final int OPTION_CLOSEST_SYNC = 2;
+	public static final int OPTION_CLOSEST = 3;
+
+	public static final int METADATA_KEY_DURATION = 9;
+	public static final int METADATA_KEY_VIDEO_WIDTH = 18;
+	public static final int METADATA_KEY_VIDEO_HEIGHT = 19;
+	public static final int METADATA_KEY_BITRATE = 20;
+	public static final int METADATA_KEY_VIDEO_ROTATION = 24;
+
+	public void setDataSource(String path) {
+		throw new IllegalArgumentException("no decoder");
+	}
+
+	public void setDataSource(FileDescriptor fd, long offset, long length) {
+		throw new IllegalArgumentException("no decoder");
+	}
+
+	public String extractMetadata(int keyCode) {
+		return null;
+	}
+
+	public Bitmap getFrameAtTime(long timeUs, int option) {
+		return null;
+	}
+
+	public void release() {
+	}
+}
@@ -0,0 +1,112 @@
+package android.media;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+public class MediaPlayer {
+	public static final int VIDEO_SCALING_MODE_SCALE_TO_FIT = 1;
+	public static final int VIDEO_SCALING_MODE_SCALE_TO_FIT_WITH_CROPPING = 2;
+
+	public interface OnPreparedListener {
+		void onPrepared(MediaPlayer mp);
+	}
+
+	public interface OnCompletionListener {
+		void onCompletion(MediaPlayer mp);
+	}
+
+	public interface OnErrorListener {
+		boolean onError(MediaPlayer mp, int what, int extra);
+	}
+
+	public interface OnBufferingUpdateListener {
+		void onBufferingUpdate(MediaPlayer mp, int percent);
+	}
+
+	public interface OnInfoListener {
+		boolean onInfo(MediaPlayer mp, int what, int extra);
+	}
+
+	public void setOnPreparedListener(OnPreparedListener listener) {
+	}
+
+	public void setOnCompletionListener(OnCompletionListener listener) {
+	}
+
+	public void setOnErrorListener(OnErrorListener listener) {
+	}
+
+	public void setOnBufferingUpdateListener(OnBufferingUpdateListener listener) {
+	}
+
+	public void setOnInfoListener(OnInfoListener listener) {
+	}
+
+	public void setDataSource(String path) throws IOException {
+	}
+
+	public void setDataSource(FileDescriptor fd, long offset, long length) throws IOException {
+	}
+
+	public void setDisplay(SurfaceHolder sh) {
+	}
+
+	public void setSurface(Surface surface) {
+	}
+
+	public void setVolume(float leftVolume, float rightVolume) {
+	}
+
+	public void setLooping(boolean looping) {
+	}
+
+	public void setVideoScalingMode(int mode) {
+	}
+
+	public void setNextMediaPlayer(MediaPlayer next) {
+	}
+
+	public void prepareAsync() {
+	}
+
+	public void start() {
+	}
+
+	public void pause() {
+	}
+
+	public void stop() {
+	}
+
+	public void reset() {
+	}
+
+	public void release() {
+	}
+
+	public void seekTo(int msec) {
+	}
+
+	public boolean isPlaying() {
+		return false;
+	}
+
+	public int getCurrentPosition() {
+		return 0;
+	}
+
+	public int getDuration() {
+		return 0;
+	}
+
+	public int getVideoWidth() {
+		return 0;
+	}
+
+	public int getVideoHeight() {
+		return 0;
+	}
+}
@@ -0,0 +1,64 @@
+package android.net;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+
+/**
+ * Parses as leniently as the framework's string URIs: the scheme is what
+ * precedes the first colon, and the path runs from after the authority to a
+ * query or fragment.
+ */
+public class Uri {
+	private final String uriString;
+
+	private Uri(String uriString) {
+		this.uriString = uriString;
+	}
+
+	public static Uri parse(String uriString) {
+		return new Uri(uriString);
+	}
+
+	public static Uri fromFile(File file) {
+		return new Uri("file://" + file.getAbsolutePath());
+	}
+
+	public String getScheme() {
+		int colon = uriString.indexOf(':');
+		return colon > 0 ? uriString.substring(0, colon) : null;
+	}
+
+	public String getPath() {
+		int start = uriString.indexOf(':') + 1;
+		if (uriString.startsWith("//", start)) {
+			start = uriString.indexOf('/', start + 2);
+			if (start < 0) {
+				return null;
+			}
+		}
+		int end = uriString.length();
+		int query = uriString.indexOf('?', start);
+		int fragment = uriString.indexOf('#', start);
+		if (query >= 0) {
+			end = query;
+		}
+		if (fragment >= 0 && fragment < end) {
+			end = fragment;
+		}
+		String path = uriString.substring(start, end);
+		if (path.indexOf('%') < 0) {
+			return path;
+		}
+		try {
+			return URLDecoder.decode(path.replace("+", "%2B"), "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return uriString;
+	}
+}
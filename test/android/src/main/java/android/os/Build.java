@@ -0,0 +1,14 @@
+package android.os;
+
+public class Build {
+	public static class VERSION {
+		public static final int SDK_INT = VERSION_CODES.KITKAT;
+	}
+
+	public static class VERSION_CODES {
+		public static final int JELLY_BEAN = 16;
+		public static final int KITKAT = 19;
+		public static final int O = 26;
+		public static final int O_MR1 = 27;
+	}
+}
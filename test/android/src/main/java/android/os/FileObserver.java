@@ -0,0 +1,22 @@
+package android.os;
+
+public abstract class FileObserver {
+	public static final int MODIFY = 0x2;
+	public static final int CLOSE_WRITE = 0x8;
+	public static final int MOVED_FROM = 0x40;
+	public static final int MOVED_TO = 0x80;
+	public static final int CREATE = 0x100;
+	public static final int DELETE = 0x200;
+	public static final int DELETE_SELF = 0x400;
+
+	public FileObserver(String path, int mask) {
+	}
+
+	public abstract void onEvent(int event, String path);
+
+	public void startWatching() {
+	}
+
+	public void stopWatching() {
+	}
+}
@@ -0,0 +1,45 @@
+package android.os;
+
+/**
+ * Posts to a {@link Looper}, which runs the work when it is pumped.
+ */
+public class Handler {
+	private final Looper looper;
+
+	public Handler() {
+		this(Looper.myLooper());
+	}
+
+	public Handler(Looper looper) {
+		if (looper == null) {
+			throw new RuntimeException("Can't create handler inside thread that has not called Looper.prepare()");
+		}
+		this.looper = looper;
+	}
+
+	public final Looper getLooper() {
+		return looper;
+	}
+
+	public final boolean post(Runnable r) {
+		looper.enqueue(this, r, 0);
+		return true;
+	}
+
+	public final boolean postDelayed(Runnable r, long delayMillis) {
+		looper.enqueue(this, r, delayMillis);
+		return true;
+	}
+
+	public final void removeCallbacks(Runnable r) {
+		looper.remove(this, r);
+	}
+
+	/** Only a null token is supported: removes everything this handler posted. */
+	public final void removeCallbacksAndMessages(Object token) {
+		if (token != null) {
+			throw new UnsupportedOperationException("tokens are not supported");
+		}
+		looper.remove(this, null);
+	}
+}
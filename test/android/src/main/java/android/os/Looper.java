@@ -0,0 +1,162 @@
+package android.os;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * The main looper, run by hand. Work posted through a {@link Handler} waits
+ * in a queue ordered by due time on a virtual clock and runs only when the
+ * thread that prepared the looper calls {@link #runUntilIdle()},
+ * {@link #runNext()} or {@link #advanceBy(long)}, so that a test decides
+ * exactly when the UI thread gets to run. Other threads may post at any
+ * time.
+ */
+public final class Looper {
+	private static final Looper MAIN = new Looper();
+
+	private static class Entry implements Comparable<Entry> {
+		final Handler handler;
+		final Runnable callback;
+		final long when;
+		final long seq;
+
+		Entry(Handler handler, Runnable callback, long when, long seq) {
+			this.handler = handler;
+			this.callback = callback;
+			this.when = when;
+			this.seq = seq;
+		}
+
+		public int compareTo(Entry o) {
+			if (when != o.when) {
+				return when < o.when ? -1 : 1;
+			}
+			return seq < o.seq ? -1 : seq == o.seq ? 0 : 1;
+		}
+	}
+
+	private final PriorityQueue<Entry> queue = new PriorityQueue<Entry>();
+	private Thread thread;
+	private long now;
+	private long seq;
+
+	private Looper() {
+	}
+
+	/**
+	 * Makes the calling thread the main thread, dropping anything queued and
+	 * rewinding the clock.
+	 */
+	public static void prepareMainLooper() {
+		synchronized (MAIN) {
+			MAIN.thread = Thread.currentThread();
+			MAIN.queue.clear();
+			MAIN.now = 0;
+		}
+	}
+
+	public static Looper getMainLooper() {
+		return MAIN;
+	}
+
+	public static Looper myLooper() {
+		synchronized (MAIN) {
+			return MAIN.thread == Thread.currentThread() ? MAIN : null;
+		}
+	}
+
+	public synchronized Thread getThread() {
+		return thread;
+	}
+
+	/** the virtual uptime in milliseconds */
+	public synchronized long now() {
+		return now;
+	}
+
+	/** messages waiting, due or not */
+	public synchronized int pending() {
+		return queue.size();
+	}
+
+	/**
+	 * Runs everything due now, including what that posts for now. Returns
+	 * the number of messages run.
+	 */
+	public int runUntilIdle() {
+		int n = 0;
+		Entry e;
+		while ((e = poll(false)) != null) {
+			e.callback.run();
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Moves the clock to the next message that is not due yet and runs
+	 * everything due then. Returns false if nothing is queued.
+	 */
+	public boolean runNext() {
+		Entry e = poll(true);
+		if (e == null) {
+			return false;
+		}
+		e.callback.run();
+		runUntilIdle();
+		return true;
+	}
+
+	/**
+	 * Moves the clock forward by the given time, running every message that
+	 * becomes due on the way, in order.
+	 */
+	public int advanceBy(long millis) {
+		long target;
+		synchronized (this) {
+			target = now + millis;
+		}
+		int n = 0;
+		while (true) {
+			Entry e;
+			synchronized (this) {
+				e = queue.peek();
+				if (e == null || e.when > target) {
+					now = target;
+					break;
+				}
+				queue.poll();
+				now = Math.max(now, e.when);
+			}
+			e.callback.run();
+			n++;
+		}
+		return n + runUntilIdle();
+	}
+
+	synchronized void enqueue(Handler handler, Runnable callback, long delayMillis) {
+		queue.add(new Entry(handler, callback, now + Math.max(0, delayMillis), seq++));
+	}
+
+	synchronized boolean remove(Handler handler, Runnable callback) {
+		boolean removed = false;
+		Iterator<Entry> it = queue.iterator();
+		while (it.hasNext()) {
+			Entry e = it.next();
+			if (e.handler == handler && (callback == null || e.callback == callback)) {
+				it.remove();
+				removed = true;
+			}
+		}
+		return removed;
+	}
+
+	private synchronized Entry poll(boolean advance) {
+		Entry e = queue.peek();
+		if (e == null || (e.when > now && !advance)) {
+			return null;
+		}
+		now = Math.max(now, e.when);
+		return queue.poll();
+	}
+}
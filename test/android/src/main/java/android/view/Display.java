@@ -0,0 +1,9 @@
+package android.view;
+
+import android.graphics.Point;
+
+public class Display {
+	public void getSize(Point outSize) {
+		outSize.set(1920, 1080);
+	}
+}
@@ -0,0 +1,26 @@
+package android.view;
+
+import android.content.Context;
+
+public class GestureDetector {
+	public interface OnGestureListener {
+		boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY);
+	}
+
+	public static class SimpleOnGestureListener implements OnGestureListener {
+		public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
+			return false;
+		}
+
+		public boolean onSingleTapConfirmed(MotionEvent e) {
+			return false;
+		}
+	}
+
+	public GestureDetector(Context context, OnGestureListener listener) {
+	}
+
+	public boolean onTouchEvent(MotionEvent ev) {
+		return false;
+	}
+}
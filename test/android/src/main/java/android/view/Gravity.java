@@ -0,0 +1,9 @@
+package android.view;
+
+public class Gravity {
+	public static final int TOP = 0x30;
+	public static final int LEFT = 0x03;
+	public static final int CENTER_VERTICAL = 0x10;
+	public static final int CENTER_HORIZONTAL = 0x01;
+	public static final int CENTER = CENTER_VERTICAL | CENTER_HORIZONTAL;
+}
@@ -0,0 +1,22 @@
+package android.view;
+
+public class KeyEvent {
+	public static final int ACTION_DOWN = 0;
+	public static final int ACTION_UP = 1;
+
+	private final int action;
+	private final int flags;
+
+	public KeyEvent(int action, int flags) {
+		this.action = action;
+		this.flags = flags;
+	}
+
+	public final int getAction() {
+		return action;
+	}
+
+	public final int getFlags() {
+		return flags;
+	}
+}
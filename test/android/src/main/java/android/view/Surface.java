@@ -0,0 +1,11 @@
+package android.view;
+
+import android.graphics.SurfaceTexture;
+
+public class Surface {
+	public Surface(SurfaceTexture surfaceTexture) {
+	}
+
+	public void release() {
+	}
+}
@@ -0,0 +1,80 @@
+package android.view;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+
+/**
+ * Has a surface while its window is visible: created when the window shows
+ * and destroyed when it is hidden or the view is detached.
+ */
+public class SurfaceView extends View {
+	private final List<SurfaceHolder.Callback> callbacks = new ArrayList<SurfaceHolder.Callback>();
+	private boolean created;
+
+	private final SurfaceHolder holder = new SurfaceHolder() {
+		public void addCallback(Callback callback) {
+			if (!callbacks.contains(callback)) {
+				callbacks.add(callback);
+			}
+		}
+
+		public void removeCallback(Callback callback) {
+			callbacks.remove(callback);
+		}
+	};
+
+	public SurfaceView(Context context) {
+		super(context);
+	}
+
+	public SurfaceHolder getHolder() {
+		return holder;
+	}
+
+	public void setZOrderMediaOverlay(boolean isMediaOverlay) {
+	}
+
+	/** true while there is a surface */
+	public boolean hasSurface() {
+		return created;
+	}
+
+	@Override
+	protected void onWindowVisibilityChanged(int visibility) {
+		if (visibility == VISIBLE) {
+			create();
+		} else {
+			destroy();
+		}
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		destroy();
+	}
+
+	private void create() {
+		if (created) {
+			return;
+		}
+		created = true;
+		for (SurfaceHolder.Callback c : new ArrayList<SurfaceHolder.Callback>(callbacks)) {
+			c.surfaceCreated(holder);
+		}
+		for (SurfaceHolder.Callback c : new ArrayList<SurfaceHolder.Callback>(callbacks)) {
+			c.surfaceChanged(holder, 0, 0, 0);
+		}
+	}
+
+	private void destroy() {
+		if (!created) {
+			return;
+		}
+		created = false;
+		for (SurfaceHolder.Callback c : new ArrayList<SurfaceHolder.Callback>(callbacks)) {
+			c.surfaceDestroyed(holder);
+		}
+	}
+}
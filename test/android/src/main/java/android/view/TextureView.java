@@ -0,0 +1,56 @@
+package android.view;
+
+import android.content.Context;
+import android.graphics.SurfaceTexture;
+
+/**
+ * Gets its surface texture the first time its window is visible and keeps
+ * it, through the window being hidden, until it is detached.
+ */
+public class TextureView extends View {
+	public interface SurfaceTextureListener {
+		void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height);
+
+		void onSurfaceTextureSizeChanged(SurfaceTexture surface, int width, int height);
+
+		boolean onSurfaceTextureDestroyed(SurfaceTexture surface);
+
+		void onSurfaceTextureUpdated(SurfaceTexture surface);
+	}
+
+	private SurfaceTextureListener listener;
+	private SurfaceTexture texture;
+
+	public TextureView(Context context) {
+		super(context);
+	}
+
+	public void setSurfaceTextureListener(SurfaceTextureListener listener) {
+		this.listener = listener;
+	}
+
+	public boolean isAvailable() {
+		return texture != null;
+	}
+
+	@Override
+	protected void onWindowVisibilityChanged(int visibility) {
+		if (visibility == VISIBLE && texture == null) {
+			texture = new SurfaceTexture(0);
+			if (listener != null) {
+				listener.onSurfaceTextureAvailable(texture, 0, 0);
+			}
+		}
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		if (texture != null) {
+			SurfaceTexture t = texture;
+			texture = null;
+			if (listener == null || listener.onSurfaceTextureDestroyed(t)) {
+				t.release();
+			}
+		}
+	}
+}
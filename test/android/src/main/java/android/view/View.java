@@ -0,0 +1,103 @@
+package android.view;
+
+import android.content.Context;
+import android.graphics.Paint;
+
+/**
+ * Keeps layout params and its parent, and passes window visibility and
+ * detaching on to subclasses so that surfaces come and go with the dialog
+ * or activity showing them.
+ */
+public class View {
+	public static final int LAYER_TYPE_NONE = 0;
+
+	public static final int VISIBLE = 0;
+	public static final int INVISIBLE = 4;
+	public static final int GONE = 8;
+
+	public interface OnTouchListener {
+		boolean onTouch(View v, MotionEvent event);
+	}
+
+	public interface OnKeyListener {
+		boolean onKey(View v, int keyCode, KeyEvent event);
+	}
+
+	private ViewGroup.LayoutParams layoutParams;
+	ViewParent parent;
+	private OnTouchListener onTouchListener;
+	private float alpha = 1;
+
+	public View(Context context) {
+	}
+
+	public void setBackgroundColor(int color) {
+	}
+
+	public void setLayerType(int layerType, Paint paint) {
+	}
+
+	public void setLayoutParams(ViewGroup.LayoutParams params) {
+		layoutParams = params;
+	}
+
+	public ViewGroup.LayoutParams getLayoutParams() {
+		return layoutParams;
+	}
+
+	public void setOnTouchListener(OnTouchListener l) {
+		onTouchListener = l;
+	}
+
+	public void setOnKeyListener(OnKeyListener l) {
+	}
+
+	public boolean dispatchTouchEvent(MotionEvent event) {
+		return onTouchListener != null && onTouchListener.onTouch(this, event);
+	}
+
+	public void setKeepScreenOn(boolean keepScreenOn) {
+	}
+
+	public void setFocusable(boolean focusable) {
+	}
+
+	public void setFocusableInTouchMode(boolean focusableInTouchMode) {
+	}
+
+	public final boolean requestFocus() {
+		return true;
+	}
+
+	public void setAlpha(float alpha) {
+		this.alpha = alpha;
+	}
+
+	public float getAlpha() {
+		return alpha;
+	}
+
+	public void setX(float x) {
+	}
+
+	public void setY(float y) {
+	}
+
+	public final ViewParent getParent() {
+		return parent;
+	}
+
+	public void dispatchWindowVisibilityChanged(int visibility) {
+		onWindowVisibilityChanged(visibility);
+	}
+
+	protected void onWindowVisibilityChanged(int visibility) {
+	}
+
+	void dispatchDetachedFromWindow() {
+		onDetachedFromWindow();
+	}
+
+	protected void onDetachedFromWindow() {
+	}
+}
@@ -0,0 +1,67 @@
+package android.view;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+
+public abstract class ViewGroup extends View implements ViewParent {
+	public static class LayoutParams {
+		public static final int MATCH_PARENT = -1;
+
+		public int width;
+		public int height;
+
+		public LayoutParams(int width, int height) {
+			this.width = width;
+			this.height = height;
+		}
+	}
+
+	private final List<View> children = new ArrayList<View>();
+
+	public ViewGroup(Context context) {
+		super(context);
+	}
+
+	public void addView(View child) {
+		children.add(child);
+		child.parent = this;
+	}
+
+	public void addView(View child, LayoutParams params) {
+		child.setLayoutParams(params);
+		addView(child);
+	}
+
+	public void removeView(View view) {
+		if (children.remove(view)) {
+			view.parent = null;
+			view.dispatchDetachedFromWindow();
+		}
+	}
+
+	public int getChildCount() {
+		return children.size();
+	}
+
+	public View getChildAt(int index) {
+		return children.get(index);
+	}
+
+	@Override
+	public void dispatchWindowVisibilityChanged(int visibility) {
+		super.dispatchWindowVisibilityChanged(visibility);
+		for (View child : new ArrayList<View>(children)) {
+			child.dispatchWindowVisibilityChanged(visibility);
+		}
+	}
+
+	@Override
+	void dispatchDetachedFromWindow() {
+		for (View child : new ArrayList<View>(children)) {
+			child.dispatchDetachedFromWindow();
+		}
+		super.dispatchDetachedFromWindow();
+	}
+}
@@ -0,0 +1,9 @@
+package android.view;
+
+public abstract class Window {
+	public static final int FEATURE_NO_TITLE = 1;
+
+	public abstract WindowManager.LayoutParams getAttributes();
+
+	public abstract void setAttributes(WindowManager.LayoutParams a);
+}
@@ -0,0 +1,22 @@
+package android.view;
+
+public interface WindowManager {
+	Display getDefaultDisplay();
+
+	class LayoutParams extends ViewGroup.LayoutParams {
+		public int x;
+		public int y;
+		public int gravity;
+		public int windowAnimations;
+
+		public LayoutParams() {
+			super(MATCH_PARENT, MATCH_PARENT);
+		}
+
+		public final int copyFrom(LayoutParams o) {
+			width = o.width;
+			height = o.height;
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package org.apache.cordova;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Stand-in for a call's callback. As in Cordova, a result without keep
+ * callback finishes it, and results sent after that are dropped.
+ */
+public class CallbackContext {
+	private final String callbackId;
+	private final CordovaWebView webView;
+	private boolean finished;
+
+	public CallbackContext(String callbackId, CordovaWebView webView) {
+		this.callbackId = callbackId;
+		this.webView = webView;
+	}
+
+	public String getCallbackId() {
+		return callbackId;
+	}
+
+	public boolean isFinished() {
+		return finished;
+	}
+
+	public void sendPluginResult(PluginResult pluginResult) {
+		synchronized (this) {
+			if (finished) {
+				return;
+			}
+			finished = !pluginResult.getKeepCallback();
+		}
+		webView.sendPluginResult(pluginResult, callbackId);
+	}
+
+	public void success(JSONObject message) {
+		sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+	}
+
+	public void success(JSONArray message) {
+		sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+	}
+
+	public void success(String message) {
+		sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+	}
+
+	public void success(int message) {
+		sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+	}
+
+	public void success() {
+		sendPluginResult(new PluginResult(PluginResult.Status.OK));
+	}
+
+	public void error(JSONObject message) {
+		sendPluginResult(new PluginResult(PluginResult.Status.ERROR, message));
+	}
+
+	public void error(String message) {
+		sendPluginResult(new PluginResult(PluginResult.Status.ERROR, message));
+	}
+
+	public void error(int message) {
+		sendPluginResult(new PluginResult(PluginResult.Status.ERROR, message));
+	}
+}
@@ -0,0 +1,14 @@
+package org.apache.cordova;
+
+import java.util.concurrent.ExecutorService;
+
+import android.app.Activity;
+
+/**
+ * Stand-in for what Cordova hands a plugin about its host activity.
+ */
+public interface CordovaInterface {
+	Activity getActivity();
+
+	ExecutorService getThreadPool();
+}
@@ -0,0 +1,45 @@
+package org.apache.cordova;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+/**
+ * Stand-in for Cordova's plugin base class.
+ */
+public class CordovaPlugin {
+	public CordovaWebView webView;
+	public CordovaInterface cordova;
+
+	public void initialize(CordovaInterface cordova, CordovaWebView webView) {
+		this.cordova = cordova;
+		this.webView = webView;
+		pluginInitialize();
+	}
+
+	protected void pluginInitialize() {
+	}
+
+	public boolean execute(String action, String rawArgs, CallbackContext callbackContext) throws JSONException {
+		return execute(action, new JSONArray(rawArgs), callbackContext);
+	}
+
+	public boolean execute(String action, JSONArray args, CallbackContext callbackContext) throws JSONException {
+		return execute(action, new CordovaArgs(args), callbackContext);
+	}
+
+	public boolean execute(String action, CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+		return false;
+	}
+
+	public void onPause(boolean multitasking) {
+	}
+
+	public void onResume(boolean multitasking) {
+	}
+
+	public void onReset() {
+	}
+
+	public void onDestroy() {
+	}
+}
@@ -0,0 +1,13 @@
+package org.apache.cordova;
+
+import android.net.Uri;
+
+/**
+ * Stand-in for Cordova's URI remapping; no plugin remaps anything here.
+ */
+public class CordovaResourceApi {
+
+	public Uri remapUri(Uri uri) {
+		return uri;
+	}
+}
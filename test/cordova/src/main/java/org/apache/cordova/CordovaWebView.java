@@ -0,0 +1,10 @@
+package org.apache.cordova;
+
+/**
+ * Stand-in for the web view side of the bridge: where plugin results go.
+ */
+public interface CordovaWebView {
+	CordovaResourceApi getResourceApi();
+
+	void sendPluginResult(PluginResult result, String callbackId);
+}
@@ -0,0 +1,89 @@
+package org.apache.cordova;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Stand-in for a result sent over the bridge. The message is kept encoded
+ * as it would reach JS.
+ */
+public class PluginResult {
+	public static final int MESSAGE_TYPE_STRING = 1;
+	public static final int MESSAGE_TYPE_JSON = 2;
+	public static final int MESSAGE_TYPE_NUMBER = 3;
+	public static final int MESSAGE_TYPE_BOOLEAN = 4;
+	public static final int MESSAGE_TYPE_NULL = 5;
+
+	public enum Status {
+		NO_RESULT, OK, CLASS_NOT_FOUND_EXCEPTION, ILLEGAL_ACCESS_EXCEPTION, INSTANTIATION_EXCEPTION,
+		MALFORMED_URL_EXCEPTION, IO_EXCEPTION, INVALID_ACTION, JSON_EXCEPTION, ERROR
+	}
+
+	private final int status;
+	private final int messageType;
+	private final String encodedMessage;
+	private final String strMessage;
+	private boolean keepCallback = false;
+
+	public PluginResult(Status status) {
+		this(status, MESSAGE_TYPE_NULL, "null", null);
+	}
+
+	public PluginResult(Status status, String message) {
+		this(status, message == null ? MESSAGE_TYPE_NULL : MESSAGE_TYPE_STRING,
+				message == null ? "null" : JSONObject.quote(message), message);
+	}
+
+	public PluginResult(Status status, JSONArray message) {
+		this(status, MESSAGE_TYPE_JSON, message.toString(), null);
+	}
+
+	public PluginResult(Status status, JSONObject message) {
+		this(status, MESSAGE_TYPE_JSON, message.toString(), null);
+	}
+
+	public PluginResult(Status status, int i) {
+		this(status, MESSAGE_TYPE_NUMBER, Integer.toString(i), null);
+	}
+
+	public PluginResult(Status status, float f) {
+		this(status, MESSAGE_TYPE_NUMBER, Float.toString(f), null);
+	}
+
+	public PluginResult(Status status, boolean b) {
+		this(status, MESSAGE_TYPE_BOOLEAN, Boolean.toString(b), null);
+	}
+
+	private PluginResult(Status status, int messageType, String encodedMessage, String strMessage) {
+		this.status = status.ordinal();
+		this.messageType = messageType;
+		this.encodedMessage = encodedMessage;
+		this.strMessage = strMessage;
+	}
+
+	public void setKeepCallback(boolean b) {
+		this.keepCallback = b;
+	}
+
+	public boolean getKeepCallback() {
+		return keepCallback;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public int getMessageType() {
+		return messageType;
+	}
+
+	/** the message as JSON text */
+	public String getMessage() {
+		return encodedMessage;
+	}
+
+	/** the message of a string result, unencoded */
+	public String getStrMessage() {
+		return strMessage;
+	}
+}
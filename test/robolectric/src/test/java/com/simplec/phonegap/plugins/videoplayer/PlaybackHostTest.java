@@ -0,0 +1,252 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowDialog;
+import org.robolectric.shadows.ShadowSurfaceView;
+
+import android.app.Activity;
+import android.app.Dialog;
+import android.graphics.SurfaceTexture;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import android.view.TextureView;
+import android.view.View;
+
+/**
+ * The dialog is built once and shown and hidden across plays; the player is
+ * attached with setDisplay to a SurfaceView, whose surface goes away while
+ * hidden, or with setSurface to a TextureView, whose surface stays.
+ *
+ * Robolectric creates no surfaces, so their callbacks are made here the way
+ * the platform makes them.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 19)
+public class PlaybackHostTest {
+
+	private Activity activity;
+	private int ready;
+	private int lost;
+
+	private final PlaybackHost.Listener listener = new PlaybackHost.Listener() {
+		public void onSurfaceReady() {
+			ready++;
+		}
+
+		public void onSurfaceLost() {
+			lost++;
+		}
+	};
+
+	@Before
+	public void setUp() {
+		activity = Robolectric.setupActivity(Activity.class);
+	}
+
+	@Test
+	public void reusesOneDialogAcrossPlays() {
+		PlaybackHost host = new PlaybackHost(activity, false, listener);
+		assertFalse(host.isShown());
+
+		host.show(640, 360);
+		Dialog dialog = ShadowDialog.getLatestDialog();
+		assertTrue(host.isShown());
+		assertTrue(dialog.isShowing());
+		assertEquals(View.VISIBLE, dialog.getWindow().getDecorView().getVisibility());
+		assertEquals(640, host.getView().getLayoutParams().width);
+		assertEquals(360, host.getView().getLayoutParams().height);
+
+		host.hide();
+		assertFalse(host.isShown());
+		assertEquals(View.GONE, dialog.getWindow().getDecorView().getVisibility());
+
+		host.show(320, 180);
+		assertSame(dialog, ShadowDialog.getLatestDialog());
+		assertTrue(host.isShown());
+		assertEquals(View.VISIBLE, dialog.getWindow().getDecorView().getVisibility());
+		assertEquals(320, host.getView().getLayoutParams().width);
+
+		host.destroy();
+		assertFalse(host.isShown());
+		assertFalse(dialog.isShowing());
+	}
+
+	@Test
+	public void surfaceViewAttachesWithSetDisplay() {
+		PlaybackHost host = new PlaybackHost(activity, false, listener);
+		host.show(640, 360);
+		RecordingEngine engine = new RecordingEngine();
+		host.attach(engine);
+		assertFalse(host.isReady());
+		assertNull(engine.display);
+
+		ShadowSurfaceView.FakeSurfaceHolder holder = shadowOf((SurfaceView) host.getView()).getFakeSurfaceHolder();
+		created(holder);
+		assertEquals(1, ready);
+		assertTrue(host.isReady());
+		host.attach(engine);
+		assertSame(holder, engine.display);
+		assertNull(engine.surface);
+	}
+
+	@Test
+	public void surfaceViewSurfaceComesBackForTheNextPlay() {
+		PlaybackHost host = new PlaybackHost(activity, false, listener);
+		ShadowSurfaceView.FakeSurfaceHolder holder = shadowOf((SurfaceView) host.getView()).getFakeSurfaceHolder();
+		host.show(640, 360);
+		created(holder);
+
+		host.hide();
+		destroyed(holder);
+		assertEquals(1, lost);
+		assertFalse(host.isReady());
+
+		host.show(640, 360);
+		created(holder);
+		assertEquals(2, ready);
+		RecordingEngine next = new RecordingEngine();
+		host.attach(next);
+		assertSame(holder, next.display);
+	}
+
+	@Test
+	public void textureViewAttachesWithSetSurface() {
+		PlaybackHost host = new PlaybackHost(activity, true, listener);
+		host.show(640, 360);
+		TextureView view = (TextureView) host.getView();
+		// transparent until the first frame
+		assertEquals(0f, view.getAlpha(), 0);
+
+		available(view);
+		assertEquals(1, ready);
+		RecordingEngine engine = new RecordingEngine();
+		host.attach(engine);
+		assertNotNull(engine.surface);
+		assertNull(engine.display);
+
+		host.onFirstFrame();
+		assertEquals(1f, view.getAlpha(), 0);
+	}
+
+	@Test
+	public void textureSurfaceSurvivesAcrossPlays() {
+		PlaybackHost host = new PlaybackHost(activity, true, listener);
+		TextureView view = (TextureView) host.getView();
+		host.show(640, 360);
+		available(view);
+		RecordingEngine first = new RecordingEngine();
+		host.attach(first);
+		host.onFirstFrame();
+
+		host.hide();
+		host.show(640, 360);
+		assertTrue(host.isReady());
+		assertEquals(0f, view.getAlpha(), 0);
+		RecordingEngine second = new RecordingEngine();
+		host.attach(second);
+		assertSame(first.surface, second.surface);
+		assertEquals(1, ready);
+		assertEquals(0, lost);
+	}
+
+	private static void created(ShadowSurfaceView.FakeSurfaceHolder holder) {
+		for (SurfaceHolder.Callback c : holder.getCallbacks()) {
+			c.surfaceCreated(holder);
+			c.surfaceChanged(holder, 0, 640, 360);
+		}
+	}
+
+	private static void destroyed(ShadowSurfaceView.FakeSurfaceHolder holder) {
+		for (SurfaceHolder.Callback c : holder.getCallbacks()) {
+			c.surfaceDestroyed(holder);
+		}
+	}
+
+	private static void available(TextureView view) {
+		view.getSurfaceTextureListener().onSurfaceTextureAvailable(new SurfaceTexture(0), 640, 360);
+	}
+
+	/** remembers where the video was sent */
+	private static class RecordingEngine implements PlayerEngine {
+		SurfaceHolder display;
+		Surface surface;
+
+		public void setListener(Listener listener) {
+		}
+
+		public void setDataSource(String path) {
+		}
+
+		public void setDataSource(java.io.FileDescriptor fd, long offset, long length) {
+		}
+
+		public void setDisplay(SurfaceHolder holder) {
+			display = holder;
+		}
+
+		public void setSurface(Surface surface) {
+			this.surface = surface;
+		}
+
+		public void setVolume(float volume) {
+		}
+
+		public void setLooping(boolean looping) {
+		}
+
+		public void setVideoScalingMode(int mode) {
+		}
+
+		public void setNext(PlayerEngine next) {
+		}
+
+		public void prepareAsync() {
+		}
+
+		public void start() {
+		}
+
+		public void pause() {
+		}
+
+		public void stop() {
+		}
+
+		public void seekTo(int msec) {
+		}
+
+		public boolean seekTo(long msec, int mode) {
+			return false;
+		}
+
+		public int getCurrentPosition() {
+			return 0;
+		}
+
+		public int getDuration() {
+			return 0;
+		}
+
+		public int getVideoWidth() {
+			return 0;
+		}
+
+		public int getVideoHeight() {
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The stub FileObserver never reports anything, so every change made after
+ * the scan is one whose event has not arrived yet.
+ */
+public class ContentCatalogTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private ExecutorService executor;
+	private ContentCatalog catalog;
+	private String root;
+
+	@Before
+	public void setUp() throws Exception {
+		tmp.newFile("a.mp4");
+		executor = Executors.newSingleThreadExecutor();
+		catalog = new ContentCatalog(executor, null);
+		root = tmp.getRoot().getPath();
+		catalog.scan(root + "/");
+		idle();
+		assertTrue(catalog.isReady());
+	}
+
+	@After
+	public void tearDown() {
+		catalog.close();
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void findsAFileTheIndexHasNotHeardOfYet() throws Exception {
+		assertNull(catalog.lookup(root + "/b.mp4"));
+		assertNull(catalog.find(root + "/b.mp4"));
+
+		tmp.newFile("b.mp4");
+		ContentCatalog.Entry e = catalog.find(root + "/b.mp4");
+		assertNotNull(e);
+		assertEquals(root + "/b.mp4", e.path);
+		assertTrue(catalog.lookup(root + "/b.mp4") == e);
+		assertEquals(2, catalog.videos().size());
+	}
+
+	@Test
+	public void indexesTheContentsOfADirectoryFoundThatWay() throws Exception {
+		File dir = tmp.newFolder("new");
+		assertTrue(new File(dir, "c.mp4").createNewFile());
+
+		assertTrue(catalog.find(root + "/new").directory);
+		idle();
+		assertNotNull(catalog.lookup(root + "/new/c.mp4"));
+	}
+
+	@Test
+	public void normalizesPathsBeforeTheLookup() throws IOException {
+		ContentCatalog.Entry e = catalog.find(root + "//./new/../a.mp4/");
+		assertNotNull(e);
+		assertTrue(catalog.lookup(root + "/a.mp4") == e);
+		assertEquals(1, catalog.videos().size());
+	}
+
+	@Test
+	public void normalize() {
+		assertEquals("/a/b", ContentCatalog.normalize("/a//b/"));
+		assertEquals("/a/c", ContentCatalog.normalize("/a/./b/../c"));
+		assertEquals("/b", ContentCatalog.normalize("/../b"));
+		assertEquals("../b", ContentCatalog.normalize("a/../../b"));
+		assertEquals("/", ContentCatalog.normalize("/"));
+	}
+
+	/** waits for everything queued on the executor so far */
+	private void idle() throws Exception {
+		executor.submit(new Runnable() {
+			public void run() {
+			}
+		}).get(5, TimeUnit.SECONDS);
+	}
+}
@@ -0,0 +1,86 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaResourceApi;
+import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Batches are written as JSON text by hand; they must parse to what the
+ * events say.
+ */
+public class EventChannelTest {
+
+	private final List<String> sent = new ArrayList<String>();
+	private EventChannel events;
+
+	@Before
+	public void setUp() {
+		Looper.prepareMainLooper();
+		CallbackContext callback = new CallbackContext("events", new CordovaWebView() {
+			public CordovaResourceApi getResourceApi() {
+				return null;
+			}
+
+			public void sendPluginResult(PluginResult result, String callbackId) {
+				sent.add(result.getStrMessage());
+			}
+		});
+		events = new EventChannel(new Handler(Looper.getMainLooper()));
+		events.open(callback, EventChannel.DEFAULT_INTERVAL);
+	}
+
+	@Test
+	public void writesABatchThatParses() throws JSONException {
+		events.post(EventChannel.PREPARED, "duration", 5400);
+		events.post(EventChannel.KEY, "keyCode", 22, "flags", 0, "action", "down");
+		events.post(EventChannel.KEY, "keyCode", 22, "flags", 0, "action", "down");
+		events.post(EventChannel.SWIPE, "direction", "say \"hi\"\\\n ");
+		events.post(EventChannel.BUFFERED, "duration", 120, "percent", 40, "network", true);
+		events.flush();
+
+		assertEquals(1, sent.size());
+		JSONArray batch = new JSONArray(sent.get(0));
+		assertEquals(4, batch.length());
+		assertEquals("prepared", batch.getJSONObject(0).getString("type"));
+		assertEquals(5400, batch.getJSONObject(0).getInt("duration"));
+		JSONObject key = batch.getJSONObject(1);
+		assertEquals(22, key.getInt("keyCode"));
+		assertEquals("down", key.getString("action"));
+		assertEquals(2, key.getInt("count"));
+		assertEquals("say \"hi\"\\\n ", batch.getJSONObject(2).getString("direction"));
+		assertEquals(true, batch.getJSONObject(3).getBoolean("network"));
+	}
+
+	@Test
+	public void leavesStructuredEventsAlone() throws JSONException {
+		JSONObject queue = new JSONObject().put("index", 1).put("items", new JSONArray().put("a.mp4"));
+		String before = queue.toString();
+		events.post(EventChannel.QUEUE, queue);
+		events.post(EventChannel.QUEUE, new JSONObject());
+		events.post(EventChannel.EVICTED, "position", 12);
+		events.flush();
+
+		assertEquals(before, queue.toString());
+		assertFalse(queue.has("type"));
+		JSONArray batch = new JSONArray(sent.get(0));
+		// only the latest queue event is kept
+		assertEquals(2, batch.length());
+		assertEquals("{\"type\":\"queue\"}", batch.getJSONObject(0).toString());
+		assertEquals(12, batch.getJSONObject(1).getInt("position"));
+	}
+}
@@ -0,0 +1,374 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+/**
+ * A {@link PlayerEngine} that decodes nothing, for driving the plugin on a
+ * plain JVM. It follows MediaPlayer's state rules, throwing
+ * IllegalStateException where MediaPlayer would and recording the misuse,
+ * and calls its listener through the main looper: prepared after the
+ * prepare latency, completed when the clip has played out, and errors
+ * where the {@link Factory} injects them. Time is the looper's virtual
+ * clock, so a run with the same seed is the same run.
+ */
+public class FakePlayerEngine implements PlayerEngine {
+
+	enum State {
+		IDLE, INITIALIZED, PREPARING, PREPARED, STARTED, PAUSED, STOPPED, COMPLETED, ERROR, RECYCLED
+	}
+
+	/** error code of injected failures, MediaPlayer's MEDIA_ERROR_UNKNOWN */
+	public static final int ERROR_INJECTED = 1;
+
+	/**
+	 * Makes engines with the given latencies and failure rates and keeps
+	 * count of them.
+	 */
+	public static class Factory implements PlayerEngine.Factory {
+		private final Handler handler = new Handler(Looper.getMainLooper());
+		private final Random random;
+
+		long prepareLatencyMs = 80;
+		long seekLatencyMs = 30;
+		int durationMs = 4000;
+		/** chance that setDataSource throws */
+		double dataSourceFailure;
+		/** chance that prepare ends in onError instead of onPrepared */
+		double prepareFailure;
+		/** chance that playback fails at a random point after start() */
+		double playbackFailure;
+
+		private final Set<FakePlayerEngine> live = new LinkedHashSet<FakePlayerEngine>();
+		private final List<String> violations = new ArrayList<String>();
+		private int created;
+		private int recycled;
+
+		public Factory(long seed) {
+			this.random = new Random(seed);
+		}
+
+		public PlayerEngine create() {
+			FakePlayerEngine engine = new FakePlayerEngine(this, ++created);
+			live.add(engine);
+			return engine;
+		}
+
+		public void recycle(PlayerEngine engine) {
+			FakePlayerEngine e = (FakePlayerEngine) engine;
+			if (!live.remove(e)) {
+				violation(e, "recycled twice or never created here");
+				return;
+			}
+			e.cancelCallbacks();
+			e.listener = null;
+			e.next = null;
+			e.state = State.RECYCLED;
+			recycled++;
+		}
+
+		public int created() {
+			return created;
+		}
+
+		public int recycled() {
+			return recycled;
+		}
+
+		/** engines handed out and not given back */
+		public List<FakePlayerEngine> live() {
+			return new ArrayList<FakePlayerEngine>(live);
+		}
+
+		/** every misuse seen so far, oldest first */
+		public List<String> violations() {
+			return violations;
+		}
+
+		void violation(FakePlayerEngine e, String what) {
+			violations.add("engine " + e.serial + " (" + e.state + "): " + what);
+		}
+
+		boolean roll(double chance) {
+			return chance > 0 && random.nextDouble() < chance;
+		}
+
+		int nextInt(int bound) {
+			return random.nextInt(bound);
+		}
+	}
+
+	private final Factory factory;
+	private final int serial;
+	private final Handler handler;
+	private final List<Runnable> scheduled = new ArrayList<Runnable>();
+
+	private State state = State.IDLE;
+	private Listener listener;
+	private FakePlayerEngine next;
+	private boolean looping;
+	private int position;
+	private long startedAt;
+
+	private FakePlayerEngine(Factory factory, int serial) {
+		this.factory = factory;
+		this.serial = serial;
+		this.handler = factory.handler;
+	}
+
+	State state() {
+		return state;
+	}
+
+	public void setListener(Listener listener) {
+		check("setListener", State.values());
+		this.listener = listener;
+	}
+
+	public void setDataSource(String path) throws IOException {
+		check("setDataSource", State.IDLE);
+		if (factory.roll(factory.dataSourceFailure)) {
+			throw new IOException("injected: cannot open " + path);
+		}
+		state = State.INITIALIZED;
+	}
+
+	public void setDataSource(FileDescriptor fd, long offset, long length) throws IOException {
+		setDataSource("fd");
+	}
+
+	public void setDisplay(SurfaceHolder holder) {
+		check("setDisplay", State.values());
+	}
+
+	public void setSurface(Surface surface) {
+		check("setSurface", State.values());
+	}
+
+	public void setVolume(float volume) {
+		checkNotError("setVolume");
+	}
+
+	public void setLooping(boolean looping) {
+		checkNotError("setLooping");
+		this.looping = looping;
+	}
+
+	public void setVideoScalingMode(int mode) {
+		check("setVideoScalingMode", State.INITIALIZED, State.PREPARING, State.PREPARED, State.STARTED, State.PAUSED,
+				State.STOPPED, State.COMPLETED);
+	}
+
+	public void setNext(PlayerEngine next) {
+		check("setNext", State.values());
+		FakePlayerEngine n = (FakePlayerEngine) next;
+		if (n != null && n.state == State.RECYCLED) {
+			factory.violation(this, "chained to recycled engine " + n.serial);
+		}
+		this.next = n;
+	}
+
+	public void prepareAsync() {
+		check("prepareAsync", State.INITIALIZED, State.STOPPED);
+		state = State.PREPARING;
+		schedule(new Runnable() {
+			public void run() {
+				if (factory.roll(factory.prepareFailure)) {
+					fail();
+					return;
+				}
+				state = State.PREPARED;
+				position = 0;
+				if (listener != null) {
+					listener.onPrepared(FakePlayerEngine.this);
+				}
+			}
+		}, factory.prepareLatencyMs);
+	}
+
+	public void start() {
+		check("start", State.PREPARED, State.STARTED, State.PAUSED, State.COMPLETED);
+		if (state == State.STARTED) {
+			return;
+		}
+		boolean first = state == State.PREPARED;
+		if (state == State.COMPLETED) {
+			position = 0;
+		}
+		play();
+		if (first) {
+			schedule(new Runnable() {
+				public void run() {
+					if (listener != null) {
+						listener.onInfo(FakePlayerEngine.this, INFO_RENDERING_START, 0);
+					}
+				}
+			}, 0);
+		}
+		if (factory.roll(factory.playbackFailure)) {
+			schedule(new Runnable() {
+				public void run() {
+					fail();
+				}
+			}, factory.nextInt(factory.durationMs));
+		}
+	}
+
+	public void pause() {
+		check("pause", State.STARTED, State.PAUSED, State.COMPLETED);
+		if (state == State.STARTED) {
+			position = getCurrentPosition();
+			state = State.PAUSED;
+			unschedule(completion);
+		}
+	}
+
+	public void stop() {
+		check("stop", State.PREPARED, State.STARTED, State.PAUSED, State.STOPPED, State.COMPLETED);
+		cancelCallbacks();
+		state = State.STOPPED;
+	}
+
+	public void seekTo(int msec) {
+		check("seekTo", State.PREPARED, State.STARTED, State.PAUSED, State.COMPLETED);
+		final int target = Math.max(0, Math.min(factory.durationMs, msec));
+		schedule(new Runnable() {
+			public void run() {
+				position = target;
+				if (state == State.STARTED) {
+					play();
+				}
+			}
+		}, factory.seekLatencyMs);
+	}
+
+	public boolean seekTo(long msec, int mode) {
+		// like a platform without seekTo(long, int)
+		return false;
+	}
+
+	public int getCurrentPosition() {
+		checkNotError("getCurrentPosition");
+		if (state == State.STARTED) {
+			return (int) Math.min(factory.durationMs, position + now() - startedAt);
+		}
+		return position;
+	}
+
+	public int getDuration() {
+		check("getDuration", State.PREPARED, State.STARTED, State.PAUSED, State.STOPPED, State.COMPLETED);
+		return factory.durationMs;
+	}
+
+	public int getVideoWidth() {
+		checkNotError("getVideoWidth");
+		return state == State.IDLE || state == State.INITIALIZED ? 0 : 1280;
+	}
+
+	public int getVideoHeight() {
+		checkNotError("getVideoHeight");
+		return state == State.IDLE || state == State.INITIALIZED ? 0 : 720;
+	}
+
+	@Override
+	public String toString() {
+		return "FakePlayerEngine " + serial + " (" + state + ")";
+	}
+
+	private final Runnable completion = new Runnable() {
+		public void run() {
+			scheduled.remove(this);
+			if (looping) {
+				position = 0;
+				play();
+				return;
+			}
+			position = factory.durationMs;
+			state = State.COMPLETED;
+			FakePlayerEngine n = next;
+			if (n != null && n.state == State.PREPARED) {
+				// setNextMediaPlayer: the next one takes over on its own
+				n.start();
+			}
+			if (listener != null) {
+				listener.onCompletion(FakePlayerEngine.this);
+			}
+		}
+	};
+
+	private void play() {
+		state = State.STARTED;
+		startedAt = now();
+		unschedule(completion);
+		scheduled.add(completion);
+		handler.postDelayed(completion, Math.max(0, factory.durationMs - position));
+	}
+
+	private void fail() {
+		cancelCallbacks();
+		state = State.ERROR;
+		if (listener != null) {
+			listener.onError(this, ERROR_INJECTED, 0);
+		}
+	}
+
+	private void schedule(final Runnable r, long delay) {
+		Runnable once = new Runnable() {
+			public void run() {
+				scheduled.remove(this);
+				if (state == State.RECYCLED) {
+					factory.violation(FakePlayerEngine.this, "callback after recycle");
+					return;
+				}
+				r.run();
+			}
+		};
+		scheduled.add(once);
+		handler.postDelayed(once, delay);
+	}
+
+	private void unschedule(Runnable r) {
+		scheduled.remove(r);
+		handler.removeCallbacks(r);
+	}
+
+	private void cancelCallbacks() {
+		for (Runnable r : scheduled) {
+			handler.removeCallbacks(r);
+		}
+		scheduled.clear();
+	}
+
+	private long now() {
+		return handler.getLooper().now();
+	}
+
+	private void checkNotError(String call) {
+		check(call, State.IDLE, State.INITIALIZED, State.PREPARING, State.PREPARED, State.STARTED, State.PAUSED,
+				State.STOPPED, State.COMPLETED);
+	}
+
+	private void check(String call, State... allowed) {
+		if (state == State.RECYCLED) {
+			factory.violation(this, call + " after recycle");
+			throw new IllegalStateException(call + " on a recycled engine");
+		}
+		for (State s : allowed) {
+			if (s == state) {
+				return;
+			}
+		}
+		factory.violation(this, call + " in state " + state);
+		throw new IllegalStateException(call + " in state " + state);
+	}
+}
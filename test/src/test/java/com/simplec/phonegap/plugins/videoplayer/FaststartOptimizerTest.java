@@ -0,0 +1,244 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Rewrites moov-last.mp4 from src/test/resources/mp4: the tracks of
+ * keyframes.mp4 with their moov after a 400-byte mdat, two chunks per track,
+ * offsets in stco for one track and in co64 for the other.
+ * moov-last-overrun.mp4 is the same with an stco claiming far more entries
+ * than it holds.
+ */
+public class FaststartOptimizerTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void movesMoovInFrontAndShiftsChunkOffsets() throws IOException {
+		File f = copy(sample("moov-last.mp4"), -1);
+		byte[] before = bytes(f);
+		long[] offsets = chunkOffsets(f);
+		KeyframeIndex keyframes = keyframes(f);
+		long moovSize = top(f).get(2).size;
+		assertTrue(FaststartOptimizer.needsFaststart(f));
+
+		assertTrue(new FaststartOptimizer(null).optimize(f, 0));
+
+		List<Mp4Reader.Box> boxes = top(f);
+		assertEquals("ftyp", boxes.get(0).typeName());
+		assertEquals("moov", boxes.get(1).typeName());
+		assertEquals("mdat", boxes.get(2).typeName());
+		assertFalse(FaststartOptimizer.needsFaststart(f));
+		assertEquals(before.length, f.length());
+
+		long[] shifted = chunkOffsets(f);
+		assertEquals(4, shifted.length);
+		byte[] after = bytes(f);
+		for (int i = 0; i < offsets.length; i++) {
+			assertEquals(offsets[i] + moovSize, shifted[i]);
+			int from = (int) offsets[i];
+			int to = (int) shifted[i];
+			assertArrayEquals("chunk " + i, Arrays.copyOfRange(before, from, from + 50),
+					Arrays.copyOfRange(after, to, to + 50));
+		}
+
+		KeyframeIndex again = keyframes(f);
+		assertEquals(keyframes.size(), again.size());
+		assertEquals(keyframes.getDurationMs(), again.getDurationMs());
+		for (long ms = 0; ms < keyframes.getDurationMs(); ms += 100) {
+			assertEquals(keyframes.snap(ms, KeyframeIndex.PREVIOUS), again.snap(ms, KeyframeIndex.PREVIOUS));
+			assertEquals(keyframes.snap(ms, KeyframeIndex.NEXT), again.snap(ms, KeyframeIndex.NEXT));
+		}
+		assertEquals(0, leftovers());
+	}
+
+	@Test
+	public void leavesAFaststartFileAlone() throws IOException {
+		File f = copy(sample("keyframes.mp4"), -1);
+		byte[] before = bytes(f);
+		assertFalse(new FaststartOptimizer(null).optimize(f, 0));
+		assertArrayEquals(before, bytes(f));
+	}
+
+	@Test
+	public void leavesCorruptAndTruncatedFilesUntouched() throws IOException {
+		File whole = sample("moov-last.mp4");
+		List<File> inputs = new ArrayList<File>();
+		inputs.add(copy(sample("moov-last-overrun.mp4"), -1));
+		// cut inside the mdat, inside the moov and just short of its end
+		inputs.add(copy(whole, 200));
+		inputs.add(copy(whole, 700));
+		inputs.add(copy(whole, (int) whole.length() - 1));
+
+		FaststartOptimizer optimizer = new FaststartOptimizer(null);
+		for (File f : inputs) {
+			byte[] before = bytes(f);
+			try {
+				assertFalse(f.getName(), optimizer.optimize(f, 0));
+			} catch (IOException expected) {
+			}
+			assertArrayEquals(f.getName(), before, bytes(f));
+		}
+		assertEquals(0, leftovers());
+	}
+
+	@Test
+	public void aFailingFileDoesNotStopThePass() throws IOException, JSONException, InterruptedException {
+		final File bad = copy(sample("moov-last.mp4"), -1);
+		File good = copy(sample("moov-last.mp4"), -1);
+		FaststartOptimizer optimizer = new FaststartOptimizer(new FaststartOptimizer.Guard() {
+			public boolean inUse(String path) {
+				if (path.equals(bad.getPath())) {
+					throw new IllegalStateException("broken guard");
+				}
+				return false;
+			}
+		});
+		try {
+			assertTrue(optimizer.start(Arrays.asList(bad.getPath(), good.getPath()), 0));
+			JSONObject status = await(optimizer);
+			assertEquals(2, status.getInt("checked"));
+			assertEquals(1, status.getInt("failed"));
+			assertEquals(1, status.getInt("optimized"));
+			assertFalse(FaststartOptimizer.needsFaststart(good));
+
+			// and the next pass can start
+			assertTrue(optimizer.start(Arrays.asList(bad.getPath()), 0));
+			await(optimizer);
+		} finally {
+			optimizer.shutdown();
+		}
+	}
+
+	private static JSONObject await(FaststartOptimizer optimizer) throws JSONException, InterruptedException {
+		for (int i = 0; i < 500; i++) {
+			JSONObject status = optimizer.status();
+			if (!status.getBoolean("running")) {
+				return status;
+			}
+			Thread.sleep(10);
+		}
+		fail("pass did not finish");
+		return null;
+	}
+
+	/** the chunk offsets of every track, stco or co64, in file order */
+	private static long[] chunkOffsets(File f) throws IOException {
+		List<Long> offsets = new ArrayList<Long>();
+		Mp4Reader reader = new Mp4Reader(f);
+		try {
+			ByteBuffer b = reader.map(reader.find(Mp4Reader.MOOV));
+			int trak = 8;
+			while ((trak = Mp4Reader.child(b, trak, b.limit(), Mp4Reader.TRAK)) >= 0) {
+				int end = trak + Mp4Reader.boxSize(b, trak);
+				int box = trak;
+				for (int type : new int[] { Mp4Reader.MDIA, Mp4Reader.MINF, Mp4Reader.STBL }) {
+					box = Mp4Reader.child(b, box + 8, box + Mp4Reader.boxSize(b, box), type);
+				}
+				int stblEnd = box + Mp4Reader.boxSize(b, box);
+				int stco = Mp4Reader.child(b, box + 8, stblEnd, Mp4Reader.STCO);
+				int co64 = Mp4Reader.child(b, box + 8, stblEnd, Mp4Reader.CO64);
+				if (stco >= 0) {
+					for (int i = 0; i < b.getInt(stco + 12); i++) {
+						offsets.add(Long.valueOf(b.getInt(stco + 16 + i * 4) & 0xffffffffL));
+					}
+				} else {
+					for (int i = 0; i < b.getInt(co64 + 12); i++) {
+						offsets.add(Long.valueOf(b.getLong(co64 + 16 + i * 8)));
+					}
+				}
+				trak = end;
+			}
+		} finally {
+			reader.close();
+		}
+		long[] result = new long[offsets.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = offsets.get(i).longValue();
+		}
+		return result;
+	}
+
+	private static List<Mp4Reader.Box> top(File f) throws IOException {
+		Mp4Reader reader = new Mp4Reader(f);
+		try {
+			return reader.topLevel();
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static KeyframeIndex keyframes(File f) throws IOException {
+		Mp4Reader reader = new Mp4Reader(f);
+		try {
+			return reader.readKeyframes();
+		} finally {
+			reader.close();
+		}
+	}
+
+	private int leftovers() {
+		int n = 0;
+		for (String name : tmp.getRoot().list()) {
+			if (name.endsWith(".faststart.tmp")) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	private static byte[] bytes(File f) throws IOException {
+		byte[] data = new byte[(int) f.length()];
+		RandomAccessFile in = new RandomAccessFile(f, "r");
+		try {
+			in.readFully(data);
+		} finally {
+			in.close();
+		}
+		return data;
+	}
+
+	/** copies a file into the temp folder, cut to length unless that is negative */
+	private File copy(File from, int length) throws IOException {
+		byte[] data = bytes(from);
+		if (length >= 0) {
+			data = Arrays.copyOf(data, length);
+		}
+		File to = tmp.newFile();
+		RandomAccessFile out = new RandomAccessFile(to, "rw");
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+		return to;
+	}
+
+	private static File sample(String name) {
+		try {
+			return new File(FaststartOptimizerTest.class.getResource("/mp4/" + name).toURI());
+		} catch (URISyntaxException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
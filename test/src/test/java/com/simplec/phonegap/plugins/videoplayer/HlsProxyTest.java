@@ -0,0 +1,220 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Plays the stream under src/test/resources/hls through the proxy from a
+ * stand-in origin: three aligned variants of five segments, two at 640x360
+ * and one at 1280x720, each segment holding its variant's name and number.
+ * The estimator is told which variant to pick.
+ */
+public class HlsProxyTest {
+
+	static {
+		// keep-alive would hand a cut-off connection to the next request
+		System.setProperty("http.keepAlive", "false");
+	}
+
+	private static final int LOW = 0;
+	private static final int MID = 1;
+	private static final int HIGH = 2;
+
+	/** picks whatever the test says */
+	private static class FixedEstimator extends BandwidthEstimator {
+		volatile int wanted;
+
+		@Override
+		public int choose(long[] bandwidths) {
+			return Math.min(wanted, bandwidths.length - 1);
+		}
+	}
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private HttpServer origin;
+	private LoopbackServer loopback;
+	private HlsProxy proxy;
+	private final FixedEstimator estimator = new FixedEstimator();
+	private final List<String> fetched = Collections.synchronizedList(new ArrayList<String>());
+
+	@Before
+	public void setUp() throws IOException {
+		origin = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		origin.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				serve(exchange);
+			}
+		});
+		origin.start();
+
+		loopback = new LoopbackServer();
+		proxy = new HlsProxy(loopback, new FileCache(tmp.newFolder("hls"), 1024 * 1024), estimator);
+	}
+
+	@After
+	public void tearDown() {
+		proxy.shutdown();
+		loopback.stop();
+		origin.stop(0);
+	}
+
+	@Test
+	public void loadsNothingUntilThePlayerAsks() throws IOException, JSONException {
+		String local = proxy.proxyUrl(originUrl("master.m3u8"), 0);
+		assertEquals(Collections.emptyList(), fetched);
+		assertEquals(0, proxy.toJSON().getJSONArray("sessions").getJSONObject(0).getInt("variants"));
+
+		String playlist = text(get(local));
+		assertEquals(Arrays.asList("/master.m3u8", "/low/index.m3u8"), fetched);
+		assertTrue(playlist, playlist.contains("#EXTINF:4.0,\nseg/0.ts\n"));
+		assertTrue(playlist, playlist.contains("seg/4.ts\n#EXT-X-ENDLIST\n"));
+		assertFalse(playlist, playlist.contains("#EXT-X-DISCONTINUITY"));
+		assertEquals(3, proxy.toJSON().getJSONArray("sessions").getJSONObject(0).getInt("variants"));
+	}
+
+	@Test
+	public void servesEachSegmentFromTheCacheOnceFetched() throws IOException {
+		String local = proxy.proxyUrl(originUrl("master.m3u8"), 0);
+		get(local);
+		assertEquals("low 0\n", text(get(segment(local, 0))));
+		int requests = fetched.size();
+		assertEquals("low 0\n", text(get(segment(local, 0))));
+		assertEquals(requests, fetched.size());
+	}
+
+	@Test
+	public void switchesWithinAResolutionAtAnySegment() throws IOException {
+		String local = proxy.proxyUrl(originUrl("master.m3u8"), 0);
+		get(local);
+		assertEquals("low 0\n", text(get(segment(local, 0))));
+		estimator.wanted = MID;
+		assertEquals("mid 1\n", text(get(segment(local, 1))));
+	}
+
+	@Test
+	public void marksAResolutionChangeWithADiscontinuity() throws IOException {
+		estimator.wanted = MID;
+		String local = proxy.proxyUrl(originUrl("master.m3u8"), 0);
+		get(local);
+		assertEquals("mid 0\n", text(get(segment(local, 0))));
+
+		// the player was not told of a break, so the switch waits
+		estimator.wanted = HIGH;
+		assertEquals("mid 1\n", text(get(segment(local, 1))));
+
+		String reloaded = text(get(local));
+		assertTrue(reloaded, reloaded.contains("seg/1.ts\n#EXT-X-DISCONTINUITY\n#EXTINF:4.0,\nseg/2.ts\n"));
+		assertEquals(reloaded.indexOf("#EXT-X-DISCONTINUITY"), reloaded.lastIndexOf("#EXT-X-DISCONTINUITY"));
+		assertEquals("high 2\n", text(get(segment(local, 2))));
+		assertEquals("high 3\n", text(get(segment(local, 3))));
+	}
+
+	@Test
+	public void switchesResolutionOnASeek() throws IOException {
+		String local = proxy.proxyUrl(originUrl("master.m3u8"), 0);
+		get(local);
+		assertEquals("low 0\n", text(get(segment(local, 0))));
+		estimator.wanted = HIGH;
+		assertEquals("low 1\n", text(get(segment(local, 1))));
+		assertEquals("high 4\n", text(get(segment(local, 4))));
+	}
+
+	@Test
+	public void redirectsAStreamItCannotHandle() throws IOException {
+		String url = originUrl("encrypted.m3u8");
+		HttpURLConnection conn = (HttpURLConnection) new URL(proxy.proxyUrl(url, 0)).openConnection();
+		conn.setInstanceFollowRedirects(false);
+		try {
+			assertEquals(302, conn.getResponseCode());
+			assertEquals(url, conn.getHeaderField("Location"));
+		} finally {
+			conn.disconnect();
+		}
+	}
+
+	private String originUrl(String path) {
+		return "http://127.0.0.1:" + origin.getAddress().getPort() + "/" + path;
+	}
+
+	private static String segment(String playlist, long sequence) throws IOException {
+		return new URL(new URL(playlist), "seg/" + sequence + ".ts").toString();
+	}
+
+	private static byte[] get(String url) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+		InputStream in = conn.getInputStream();
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[16 * 1024];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				out.write(buffer, 0, n);
+			}
+			if (conn.getContentLengthLong() >= 0 && out.size() != conn.getContentLengthLong()) {
+				throw new IOException("short response");
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+			conn.disconnect();
+		}
+	}
+
+	private static String text(byte[] data) throws IOException {
+		return new String(data, "UTF-8");
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		fetched.add(path);
+		InputStream in = HlsProxyTest.class.getResourceAsStream("/hls" + path);
+		try {
+			if (in == null) {
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+			ByteArrayOutputStream data = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				data.write(buffer, 0, n);
+			}
+			exchange.getResponseHeaders().set("Content-Type",
+					path.endsWith(".m3u8") ? "application/vnd.apple.mpegurl" : "video/mp2t");
+			exchange.sendResponseHeaders(200, data.size());
+			OutputStream out = exchange.getResponseBody();
+			data.writeTo(out);
+		} finally {
+			if (in != null) {
+				in.close();
+			}
+			exchange.close();
+		}
+	}
+}
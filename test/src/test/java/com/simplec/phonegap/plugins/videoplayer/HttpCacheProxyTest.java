@@ -0,0 +1,214 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Plays a resource through the proxy from a stand-in origin that honours
+ * Range and If-Range, then changes the resource underneath it.
+ */
+public class HttpCacheProxyTest {
+
+	/** two whole chunks and part of a third */
+	private static final int LENGTH = 2 * ChunkCache.CHUNK_SIZE + 1000;
+
+	static {
+		// keep-alive would hand a cut-off connection to the next request
+		System.setProperty("http.keepAlive", "false");
+	}
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private HttpServer origin;
+	private LoopbackServer loopback;
+	private ChunkCache cache;
+	private HttpCacheProxy proxy;
+	private String url;
+
+	private volatile byte[] body;
+	private volatile String etag;
+	private final List<String> fetched = Collections.synchronizedList(new ArrayList<String>());
+
+	@Before
+	public void setUp() throws IOException {
+		body = content(1);
+		etag = "\"v1\"";
+		origin = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		origin.createContext("/video.mp4", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				serve(exchange);
+			}
+		});
+		origin.start();
+		url = "http://127.0.0.1:" + origin.getAddress().getPort() + "/video.mp4";
+
+		loopback = new LoopbackServer();
+		cache = new ChunkCache(tmp.newFolder("http"), 16L * ChunkCache.CHUNK_SIZE);
+		proxy = new HttpCacheProxy(loopback, cache);
+	}
+
+	@After
+	public void tearDown() {
+		loopback.stop();
+		origin.stop(0);
+	}
+
+	@Test
+	public void servesFromTheCacheOnceFetched() throws IOException {
+		assertArrayEquals(body, get(null));
+		int requests = fetched.size();
+		assertArrayEquals(body, get(null));
+		assertEquals("second play went to the origin: " + fetched, requests, fetched.size());
+
+		byte[] part = get("bytes=300000-300099");
+		assertArrayEquals(Arrays.copyOfRange(body, 300000, 300100), part);
+		assertEquals(requests, fetched.size());
+	}
+
+	@Test
+	public void sendsTheValidatorWithEachFetch() throws IOException {
+		get("bytes=0-99");
+		get("bytes=" + ChunkCache.CHUNK_SIZE + "-");
+		// the info request, then one fetch per run of missing chunks
+		assertEquals(3, fetched.size());
+		assertNull(ifRange(fetched.get(0)));
+		assertEquals("\"v1\"", ifRange(fetched.get(1)));
+		assertEquals("\"v1\"", ifRange(fetched.get(2)));
+	}
+
+	@Test
+	public void dropsTheResourceWhenItChanges() throws IOException {
+		assertArrayEquals(Arrays.copyOf(body, 100), get("bytes=0-99"));
+
+		body = content(2);
+		etag = "\"v2\"";
+		try {
+			byte[] mixed = get("bytes=0-");
+			assertFalse("served a mix of both versions", Arrays.equals(content(2), mixed));
+		} catch (IOException expected) {
+			// cut off
+		}
+		String key = CacheIndex.keyFor(url);
+		assertFalse(cache.has(key, 0));
+
+		assertArrayEquals(content(2), get("bytes=0-"));
+		assertEquals("\"v2\"", cache.getInfo(key).validator);
+	}
+
+	@Test
+	public void evictionTakesInfoAndDirectoryAlong() throws IOException {
+		File dir = tmp.newFolder("evict");
+		ChunkCache small = new ChunkCache(dir, 2 * 1000);
+		byte[] chunk = new byte[1000];
+		small.putInfo("a", new ChunkCache.Info(2000, "video/mp4", "\"a\""));
+		small.put("a", 0, chunk, chunk.length);
+		small.put("a", 1, chunk, chunk.length);
+		small.putInfo("b", new ChunkCache.Info(2000, "video/mp4", null));
+		small.put("b", 0, chunk, chunk.length);
+		assertTrue(new File(dir, "a").isDirectory());
+		small.put("b", 1, chunk, chunk.length);
+
+		assertFalse(new File(dir, "a").exists());
+		assertNull(small.getInfo("a"));
+		assertEquals(2000, small.getTotalBytes());
+
+		small.remove("b");
+		assertFalse(new File(dir, "b").exists());
+		assertEquals(0, small.getTotalBytes());
+	}
+
+	private byte[] get(String range) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(proxy.proxyUrl(url)).openConnection();
+		if (range != null) {
+			conn.setRequestProperty("Range", range);
+		}
+		InputStream in = conn.getInputStream();
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[16 * 1024];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				out.write(buffer, 0, n);
+			}
+			if (conn.getContentLengthLong() >= 0 && out.size() != conn.getContentLengthLong()) {
+				throw new IOException("short response");
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+			conn.disconnect();
+		}
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		byte[] data = body;
+		String tag = etag;
+		String range = exchange.getRequestHeaders().getFirst("Range");
+		String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+		fetched.add(range + " if-range " + ifRange);
+
+		exchange.getResponseHeaders().set("Content-Type", "video/mp4");
+		exchange.getResponseHeaders().set("ETag", tag);
+		exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+		int from = 0;
+		int to = data.length - 1;
+		boolean partial = range != null && (ifRange == null || ifRange.equals(tag));
+		if (partial) {
+			String[] bounds = range.substring("bytes=".length()).split("-", -1);
+			from = Integer.parseInt(bounds[0]);
+			if (bounds[1].length() > 0) {
+				to = Math.min(to, Integer.parseInt(bounds[1]));
+			}
+			exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + data.length);
+		}
+		exchange.sendResponseHeaders(partial ? 206 : 200, to - from + 1);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(data, from, to - from + 1);
+		} catch (IOException e) {
+			// the proxy hung up
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static String ifRange(String request) {
+		String value = request.substring(request.indexOf(" if-range ") + " if-range ".length());
+		return "null".equals(value) ? null : value;
+	}
+
+	private static byte[] content(int version) {
+		byte[] data = new byte[LENGTH];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i * 31 + version * 7);
+		}
+		return data;
+	}
+}
@@ -0,0 +1,200 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Verifies copies of moov-last.mp4 against a manifest of their original
+ * digest, around a faststart rewrite of them.
+ */
+public class IntegrityVerifierTest {
+
+	/** saves the index on the calling thread */
+	private static final Executor DIRECT = new Executor() {
+		public void execute(Runnable r) {
+			r.run();
+		}
+	};
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private File index;
+	private IntegrityVerifier verifier;
+
+	@Before
+	public void setUp() throws IOException {
+		index = new File(tmp.newFolder("index"), "digests.idx");
+		verifier = new IntegrityVerifier(index, DIRECT);
+	}
+
+	@After
+	public void tearDown() {
+		verifier.shutdown();
+	}
+
+	@Test
+	public void aVerifiedFileStillMatchesAfterFaststart() throws Exception {
+		File f = copy(sample("moov-last.mp4"));
+		Map<String, String> manifest = Collections.singletonMap(f.getPath(), sha256(f));
+		assertTrue(verify(manifest).bad.isEmpty());
+
+		assertTrue(optimizer().optimize(f, 0));
+		assertFalse(manifest.get(f.getPath()).equals(sha256(f)));
+
+		assertFalse(verifier.isKnownBad(f.getPath()));
+		IntegrityVerifier.Report report = verify(manifest);
+		assertEquals(Collections.emptyList(), report.bad);
+		assertEquals(1, report.cached);
+	}
+
+	@Test
+	public void aFileRewrittenBeforeItWasVerifiedMatchesToo() throws Exception {
+		File f = copy(sample("moov-last.mp4"));
+		Map<String, String> manifest = Collections.singletonMap(f.getPath(), sha256(f));
+
+		assertTrue(optimizer().optimize(f, 0));
+
+		assertEquals(Collections.emptyList(), verify(manifest).bad);
+		assertFalse(verifier.isKnownBad(f.getPath()));
+	}
+
+	@Test
+	public void theRewriteIsRememberedAcrossARestart() throws Exception {
+		File f = copy(sample("moov-last.mp4"));
+		Map<String, String> manifest = Collections.singletonMap(f.getPath(), sha256(f));
+		verify(manifest);
+		assertTrue(optimizer().optimize(f, 0));
+
+		verifier.shutdown();
+		verifier = new IntegrityVerifier(index, DIRECT);
+		assertEquals(Collections.emptyList(), verify(manifest).bad);
+
+		// a touched but unchanged file is hashed again and still matches
+		assertTrue(f.setLastModified(f.lastModified() - 60000));
+		IntegrityVerifier.Report report = verify(manifest);
+		assertEquals(1, report.hashed);
+		assertEquals(Collections.emptyList(), report.bad);
+	}
+
+	@Test
+	public void aRewrittenFileThatIsDamagedIsBad() throws Exception {
+		File f = copy(sample("moov-last.mp4"));
+		Map<String, String> manifest = Collections.singletonMap(f.getPath(), sha256(f));
+		verify(manifest);
+		assertTrue(optimizer().optimize(f, 0));
+
+		RandomAccessFile out = new RandomAccessFile(f, "rw");
+		try {
+			out.seek(f.length() - 1);
+			out.write(out.read() ^ 0xff);
+		} finally {
+			out.close();
+		}
+		assertTrue(f.setLastModified(f.lastModified() + 60000));
+
+		assertEquals(Arrays.asList(f.getPath()), verify(manifest).bad);
+		assertTrue(verifier.isKnownBad(f.getPath()));
+	}
+
+	@Test
+	public void aBadFileStaysBadAfterFaststart() throws Exception {
+		File f = copy(sample("moov-last.mp4"));
+		Map<String, String> manifest = Collections.singletonMap(f.getPath(), sha256(sample("keyframes.mp4")));
+		assertEquals(Arrays.asList(f.getPath()), verify(manifest).bad);
+
+		assertTrue(optimizer().optimize(f, 0));
+
+		assertTrue(verifier.isKnownBad(f.getPath()));
+		assertEquals(Arrays.asList(f.getPath()), verify(manifest).bad);
+	}
+
+	private FaststartOptimizer optimizer() {
+		return new FaststartOptimizer(null, new FaststartOptimizer.Listener() {
+			public void rewriting(File file) throws IOException {
+				verifier.rewriting(file);
+			}
+
+			public void rewritten(File file) {
+				verifier.rewritten(file);
+			}
+		});
+	}
+
+	private IntegrityVerifier.Report verify(Map<String, String> manifest) throws InterruptedException {
+		final IntegrityVerifier.Report[] result = new IntegrityVerifier.Report[1];
+		final CountDownLatch done = new CountDownLatch(1);
+		assertTrue(verifier.verify(manifest, new IntegrityVerifier.Listener() {
+			public void progress(int done, int total, int bad) {
+			}
+
+			public void finished(IntegrityVerifier.Report report) {
+				result[0] = report;
+				done.countDown();
+			}
+		}));
+		assertTrue("verify did not finish", done.await(5, TimeUnit.SECONDS));
+		return result[0];
+	}
+
+	private static String sha256(File f) throws IOException, NoSuchAlgorithmException {
+		byte[] data = new byte[(int) f.length()];
+		RandomAccessFile in = new RandomAccessFile(f, "r");
+		try {
+			in.readFully(data);
+		} finally {
+			in.close();
+		}
+		StringBuilder sb = new StringBuilder();
+		for (byte b : MessageDigest.getInstance("SHA-256").digest(data)) {
+			sb.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+		}
+		return sb.toString();
+	}
+
+	private File copy(File from) throws IOException {
+		byte[] data = new byte[(int) from.length()];
+		RandomAccessFile in = new RandomAccessFile(from, "r");
+		try {
+			in.readFully(data);
+		} finally {
+			in.close();
+		}
+		File to = tmp.newFile();
+		RandomAccessFile out = new RandomAccessFile(to, "rw");
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+		return to;
+	}
+
+	private static File sample(String name) {
+		try {
+			return new File(IntegrityVerifierTest.class.getResource("/mp4/" + name).toURI());
+		} catch (URISyntaxException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Reads the keyframe index of the files under src/test/resources/mp4: 90
+ * frames at 29.97 fps with a keyframe every 30 and an edit list skipping
+ * the first two frames, the same without stss, one without video and some
+ * whose tables claim more entries than their boxes hold.
+ */
+public class Mp4ReaderTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void listsTopLevelBoxes() throws IOException {
+		Mp4Reader reader = new Mp4Reader(sample("keyframes.mp4"));
+		try {
+			List<Mp4Reader.Box> boxes = reader.topLevel();
+			assertEquals(3, boxes.size());
+			assertEquals("ftyp", boxes.get(0).typeName());
+			assertEquals("moov", boxes.get(1).typeName());
+			assertEquals("mdat", boxes.get(2).typeName());
+			assertEquals(reader.length(), boxes.get(2).end());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void readsKeyframesOfTheVideoTrack() throws IOException {
+		KeyframeIndex index = keyframes(sample("keyframes.mp4"));
+		assertEquals(3, index.size());
+		assertEquals(3003, index.getDurationMs());
+		// frames 1, 31 and 61, presented two frames early by the edit list
+		assertEquals(0, index.snap(0, KeyframeIndex.PREVIOUS));
+		assertEquals(934, index.snap(1000, KeyframeIndex.PREVIOUS));
+		assertEquals(1935, index.snap(1000, KeyframeIndex.NEXT));
+		assertEquals(934, index.snap(1200, KeyframeIndex.CLOSEST));
+		assertEquals(1935, index.snap(2900, KeyframeIndex.CLOSEST));
+		assertEquals(1200, index.snap(1200, KeyframeIndex.EXACT));
+	}
+
+	@Test
+	public void everyFrameIsAKeyframeWithoutStss() throws IOException {
+		KeyframeIndex index = keyframes(sample("all-sync.mp4"));
+		assertEquals(-1, index.size());
+		assertEquals(1234, index.snap(1234, KeyframeIndex.PREVIOUS));
+	}
+
+	@Test
+	public void noVideoTrackSnapsNothing() throws IOException {
+		assertSame(KeyframeIndex.NONE, keyframes(sample("audio-only.mp4")));
+	}
+
+	@Test
+	public void rejectsTablesLongerThanTheirBoxes() {
+		String[] names = { "stss-overrun.mp4", "stts-overrun.mp4", "stss-negative.mp4" };
+		for (String name : names) {
+			try {
+				keyframes(sample(name));
+				fail(name + " was indexed");
+			} catch (IOException expected) {
+				assertTrue(name + ": " + expected.getMessage(), expected.getMessage().contains("entries"));
+			}
+		}
+	}
+
+	@Test
+	public void truncatedFilesFailWithIOException() throws IOException {
+		File whole = sample("keyframes.mp4");
+		Mp4Reader reader = new Mp4Reader(whole);
+		long moovEnd;
+		try {
+			moovEnd = reader.find(Mp4Reader.MOOV).end();
+		} finally {
+			reader.close();
+		}
+		// cut anywhere before the end of moov; nothing but IOException may come out
+		for (int cut = 1; cut < moovEnd; cut++) {
+			File f = copy(whole, cut);
+			try {
+				keyframes(f);
+				fail("indexed a file cut at " + cut);
+			} catch (IOException expected) {
+			}
+		}
+	}
+
+	@Test
+	public void cachePeeksWithoutCheckingTheFile() {
+		KeyframeIndex.Cache cache = new KeyframeIndex.Cache(2);
+		KeyframeIndex index = new KeyframeIndex(new long[] { 0, 1000 }, 2000);
+		cache.put("/a.mp4", 10, 20, index);
+		assertSame(index, cache.peek("/a.mp4"));
+		assertEquals(null, cache.get("/a.mp4", 11, 20));
+		assertEquals(null, cache.peek("/b.mp4"));
+		cache.put("/b.mp4", 1, 1, KeyframeIndex.NONE);
+		cache.put("/c.mp4", 1, 1, KeyframeIndex.NONE);
+		assertEquals(null, cache.peek("/a.mp4"));
+	}
+
+	private static KeyframeIndex keyframes(File f) throws IOException {
+		Mp4Reader reader = new Mp4Reader(f);
+		try {
+			return reader.readKeyframes();
+		} finally {
+			reader.close();
+		}
+	}
+
+	private File copy(File from, int length) throws IOException {
+		byte[] data = new byte[length];
+		RandomAccessFile in = new RandomAccessFile(from, "r");
+		try {
+			in.readFully(data);
+		} finally {
+			in.close();
+		}
+		File to = tmp.newFile();
+		RandomAccessFile out = new RandomAccessFile(to, "rw");
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+		return to;
+	}
+
+	private static File sample(String name) {
+		try {
+			return new File(Mp4ReaderTest.class.getResource("/mp4/" + name).toURI());
+		} catch (URISyntaxException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,366 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaInterface;
+import org.apache.cordova.CordovaResourceApi;
+import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import android.app.Activity;
+import android.os.Looper;
+
+/**
+ * Drives the plugin headlessly through execute(), as the bridge does, with
+ * a seeded random mix of play, pause, resume, seek, stop, queue and
+ * instance commands while {@link FakePlayerEngine} prepares slowly, seeks
+ * slowly and fails now and then. The UI thread is the main looper, pumped
+ * by hand between commands, sometimes not at all so that commands pile up
+ * and get superseded.
+ *
+ * Afterwards every engine must have been given back, none may have been
+ * misused, every callback JS waits on must have been answered exactly once
+ * and nothing may be left on the looper. The latency of execute() per
+ * action and of the UI thread's turns is printed at the end.
+ *
+ * -Dharness.cycles and -Dharness.seed change the run.
+ */
+public class PlayerHarnessTest {
+
+	private static final int CYCLES = Integer.getInteger("harness.cycles", 5000);
+	private static final long SEED = Long.getLong("harness.seed", 20240611L);
+
+	/** actions JS calls without callbacks, so nothing waits for an answer */
+	private static final String[] UNANSWERED = { VideoPlayer.PAUSE };
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private Random random;
+	private FakePlayerEngine.Factory engines;
+	private VideoPlayer plugin;
+	private Looper looper;
+	private final List<Call> calls = new ArrayList<Call>();
+	private final Map<String, LatencyHistogram> executeLatency = new TreeMap<String, LatencyHistogram>();
+	private final LatencyHistogram looperLatency = new LatencyHistogram();
+	private int nextCallbackId;
+	private String[] videos;
+
+	/** a bridge call, checked for being answered once and never after that */
+	private class Call extends CallbackContext {
+		final String action;
+		int results;
+		int late;
+
+		Call(String action, CordovaWebView webView) {
+			super(action + "-" + (++nextCallbackId), webView);
+			this.action = action;
+		}
+
+		@Override
+		public void sendPluginResult(PluginResult result) {
+			if (isFinished()) {
+				late++;
+			}
+			results++;
+			super.sendPluginResult(result);
+		}
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		Looper.prepareMainLooper();
+		looper = Looper.getMainLooper();
+		random = new Random(SEED);
+		engines = new FakePlayerEngine.Factory(SEED);
+		engines.dataSourceFailure = 0.02;
+		engines.prepareFailure = 0.03;
+		engines.playbackFailure = 0.05;
+
+		File media = tmp.newFolder("media");
+		videos = new String[] { video(media, "a.mp4"), video(media, "b.mp4"), video(media, "c.mp4"),
+				new File(media, "missing.mp4").getPath() };
+
+		final Activity activity = new Activity(tmp.newFolder("data"));
+		final ExecutorService inline = new InlineExecutor();
+		CordovaInterface cordova = new CordovaInterface() {
+			public Activity getActivity() {
+				return activity;
+			}
+
+			public ExecutorService getThreadPool() {
+				return inline;
+			}
+		};
+		plugin = new VideoPlayer() {
+			@Override
+			protected PlayerEngine.Factory createEngineFactory() {
+				return engines;
+			}
+		};
+		plugin.initialize(cordova, new CordovaWebView() {
+			public CordovaResourceApi getResourceApi() {
+				return new CordovaResourceApi();
+			}
+
+			public void sendPluginResult(PluginResult result, String callbackId) {
+			}
+		});
+		pump(0);
+	}
+
+	@After
+	public void tearDown() {
+		plugin.onDestroy();
+	}
+
+	@Test
+	public void randomCommandsLeakNothing() throws JSONException {
+		for (int i = 0; i < CYCLES; i++) {
+			step();
+			// sometimes let commands pile up before the UI thread runs
+			if (random.nextInt(4) != 0) {
+				pump(random.nextInt(400));
+			}
+		}
+
+		execute(VideoPlayer.STOP, new JSONArray());
+		execute(VideoPlayer.CLEAR, new JSONArray());
+		execute(VideoPlayer.INSTANCE, args("tile", "stop"));
+		pump(0);
+		// flushes, tickers and late engine callbacks
+		looper.advanceBy(60000);
+
+		report();
+
+		assertEquals("engine misuse: " + engines.violations(), Collections.emptyList(), engines.violations());
+		assertEquals("engines not given back", Collections.emptyList(), engines.live());
+		assertEquals(engines.created(), engines.recycled());
+		assertEquals("left on the looper", 0, looper.pending());
+		List<String> unanswered = new ArrayList<String>();
+		List<String> answeredLate = new ArrayList<String>();
+		for (Call call : calls) {
+			if (call.late > 0) {
+				answeredLate.add(call.getCallbackId());
+			}
+			if (!call.isFinished() && !unansweredByDesign(call.action)) {
+				unanswered.add(call.getCallbackId());
+			}
+		}
+		assertEquals("results after the callback finished", Collections.emptyList(), answeredLate);
+		assertEquals("callbacks never finished", Collections.emptyList(), unanswered);
+		assertTrue("nothing was prepared", engines.created() > CYCLES / 20);
+	}
+
+	@Test
+	public void destroyingWhilePlayingGivesTheEnginesBack() throws JSONException {
+		engines.dataSourceFailure = 0;
+		engines.prepareFailure = 0;
+		engines.playbackFailure = 0;
+		JSONArray targets = new JSONArray().put("file://" + videos[0]).put("file://" + videos[1]);
+		execute(VideoPlayer.ENQUEUE, args(targets, new JSONObject().put("readAhead", 0)));
+		execute(VideoPlayer.NEXT, new JSONArray());
+		pump(100);
+		// whatever the harness does not pump is still posted
+		execute(VideoPlayer.SEEK, args(1));
+		assertTrue("no next player was prepared", engines.live().size() > 1);
+
+		plugin.onDestroy();
+
+		assertEquals("engines not given back", Collections.emptyList(), engines.live());
+		// only the engines' own late callbacks may still be posted
+		looper.advanceBy(60000);
+		assertEquals("engine misuse: " + engines.violations(), Collections.emptyList(), engines.violations());
+		assertEquals("left on the looper", 0, looper.pending());
+	}
+
+	private void step() throws JSONException {
+		int op = random.nextInt(100);
+		if (op < 18) {
+			JSONObject options = new JSONObject();
+			options.put("readAhead", 0);
+			options.put("resume", random.nextBoolean());
+			options.put("eventInterval", random.nextBoolean() ? 0 : EventChannel.DEFAULT_INTERVAL);
+			options.put("textureView", random.nextInt(5) == 0);
+			execute(VideoPlayer.PLAY, args(target(), options));
+		} else if (op < 30) {
+			execute(VideoPlayer.PAUSE, new JSONArray());
+		} else if (op < 42) {
+			execute(VideoPlayer.PLAY, new JSONArray());
+		} else if (op < 56) {
+			JSONArray args = args(random.nextInt(6));
+			if (random.nextBoolean()) {
+				JSONObject options = new JSONObject();
+				options.put("ms", random.nextInt(5000) - 100);
+				options.put("mode", random.nextBoolean() ? "previous" : "closest");
+				args.put(options);
+			}
+			execute(VideoPlayer.SEEK, args);
+		} else if (op < 64) {
+			execute(VideoPlayer.STOP, new JSONArray());
+		} else if (op < 68) {
+			execute(VideoPlayer.PLAYING, new JSONArray());
+		} else if (op < 71) {
+			execute(VideoPlayer.STATE, new JSONArray());
+		} else if (op < 74) {
+			JSONArray batch = new JSONArray();
+			batch.put(new JSONObject().put("cmd", "seek").put("seconds", random.nextInt(4)));
+			batch.put(new JSONObject().put("cmd", random.nextBoolean() ? "pause" : "resume"));
+			execute(VideoPlayer.BATCH, args(batch));
+		} else if (op < 80) {
+			JSONArray targets = new JSONArray();
+			targets.put(target());
+			targets.put(target());
+			JSONObject options = new JSONObject().put("readAhead", 0);
+			execute(VideoPlayer.ENQUEUE, args(targets, options));
+		} else if (op < 86) {
+			execute(random.nextInt(3) == 0 ? VideoPlayer.PREVIOUS : VideoPlayer.NEXT, new JSONArray());
+		} else if (op < 88) {
+			execute(VideoPlayer.CLEAR, new JSONArray());
+		} else if (op < 93) {
+			JSONObject options = new JSONObject().put("readAhead", 0).put("loop", random.nextBoolean());
+			execute(VideoPlayer.INSTANCE, args("tile", "play", target(), options));
+		} else if (op < 96) {
+			execute(VideoPlayer.INSTANCE, args("tile", random.nextBoolean() ? "pause" : "resume"));
+		} else {
+			execute(VideoPlayer.INSTANCE, args("tile", "stop"));
+		}
+	}
+
+	private String target() {
+		// now and then one that does not exist
+		String path = videos[random.nextInt(20) == 0 ? 3 : random.nextInt(3)];
+		return "file://" + path;
+	}
+
+	private void execute(String action, JSONArray args) throws JSONException {
+		Call call = new Call(action, new CordovaWebView() {
+			public CordovaResourceApi getResourceApi() {
+				return null;
+			}
+
+			public void sendPluginResult(PluginResult result, String callbackId) {
+			}
+		});
+		calls.add(call);
+		long start = System.nanoTime();
+		boolean handled = plugin.execute(action, args.toString(), call);
+		long elapsed = System.nanoTime() - start;
+		assertTrue(action + " not handled", handled);
+		histogram(action).record(elapsed);
+	}
+
+	private void pump(long millis) {
+		long start = System.nanoTime();
+		looper.runUntilIdle();
+		looperLatency.record(System.nanoTime() - start);
+		looper.advanceBy(millis);
+	}
+
+	private LatencyHistogram histogram(String action) {
+		LatencyHistogram h = executeLatency.get(action);
+		if (h == null) {
+			h = new LatencyHistogram();
+			executeLatency.put(action, h);
+		}
+		return h;
+	}
+
+	private void report() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%d cycles, seed %d: %d engines, %d calls%n", CYCLES, SEED, engines.created(),
+				calls.size()));
+		sb.append(String.format("%-12s %8s %10s %10s %10s%n", "execute()", "count", "p50 us", "p90 us", "p99 us"));
+		for (Map.Entry<String, LatencyHistogram> e : executeLatency.entrySet()) {
+			row(sb, e.getKey(), e.getValue());
+		}
+		row(sb, "(UI turn)", looperLatency);
+		System.out.print(sb);
+	}
+
+	private static void row(StringBuilder sb, String name, LatencyHistogram h) {
+		sb.append(String.format("%-12s %8d %10.1f %10.1f %10.1f%n", name, h.getCount(), h.percentile(50) / 1000.0,
+				h.percentile(90) / 1000.0, h.percentile(99) / 1000.0));
+	}
+
+	private static boolean unansweredByDesign(String action) {
+		for (String a : UNANSWERED) {
+			if (a.equals(action)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static JSONArray args(Object... values) {
+		JSONArray args = new JSONArray();
+		for (Object v : values) {
+			args.put(v);
+		}
+		return args;
+	}
+
+	private static String video(File dir, String name) throws IOException {
+		File f = new File(dir, name);
+		FileOutputStream out = new FileOutputStream(f);
+		try {
+			out.write(new byte[4096]);
+		} finally {
+			out.close();
+		}
+		return f.getPath();
+	}
+
+	/** the thread pool, run on the calling thread so that runs repeat */
+	private static class InlineExecutor extends AbstractExecutorService {
+		private boolean shutdown;
+
+		public void execute(Runnable command) {
+			command.run();
+		}
+
+		public void shutdown() {
+			shutdown = true;
+		}
+
+		public List<Runnable> shutdownNow() {
+			shutdown = true;
+			return Collections.emptyList();
+		}
+
+		public boolean isShutdown() {
+			return shutdown;
+		}
+
+		public boolean isTerminated() {
+			return shutdown;
+		}
+
+		public boolean awaitTermination(long timeout, TimeUnit unit) {
+			return true;
+		}
+	}
+}
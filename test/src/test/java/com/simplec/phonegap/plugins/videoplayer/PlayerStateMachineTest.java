@@ -0,0 +1,145 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.EnumSet;
+
+import org.junit.Test;
+
+import com.simplec.phonegap.plugins.videoplayer.PlayerStateMachine.State;
+
+public class PlayerStateMachineTest {
+
+	private final PlayerStateMachine state = new PlayerStateMachine();
+
+	@Test
+	public void playsThroughTheLifecycle() {
+		assertEquals(State.IDLE, state.get());
+		assertFalse(state.isActive());
+
+		assertTrue(state.moveTo(State.PREPARING));
+		assertTrue(state.isActive());
+		assertFalse(state.isPrepared());
+		assertFalse(state.canStart());
+
+		assertTrue(state.moveTo(State.PREPARED));
+		assertTrue(state.isPrepared());
+		assertTrue(state.canStart());
+		assertFalse(state.canPause());
+
+		assertTrue(state.moveTo(State.STARTED));
+		assertTrue(state.isPlaying());
+		assertTrue(state.canPause());
+		assertFalse(state.canStart());
+
+		assertTrue(state.moveTo(State.PAUSED));
+		assertFalse(state.isPlaying());
+		assertTrue(state.canStart());
+
+		assertTrue(state.moveTo(State.STARTED));
+		assertTrue(state.moveTo(State.STOPPED));
+		assertFalse(state.isActive());
+		assertFalse(state.isPrepared());
+
+		assertTrue(state.moveTo(State.IDLE));
+		assertEquals("idle", state.toString());
+	}
+
+	@Test
+	public void refusesIllegalTransitions() {
+		// the same table the player is checked against, written out
+		assertLegal(State.IDLE, State.PREPARING);
+		assertLegal(State.PREPARING, State.PREPARED, State.STOPPED, State.ERROR);
+		assertLegal(State.PREPARED, State.STARTED, State.PAUSED, State.STOPPED, State.ERROR);
+		assertLegal(State.STARTED, State.PAUSED, State.STOPPED, State.ERROR);
+		assertLegal(State.PAUSED, State.STARTED, State.STOPPED, State.ERROR);
+		assertLegal(State.STOPPED, State.IDLE, State.ERROR);
+		assertLegal(State.ERROR, State.IDLE);
+	}
+
+	@Test
+	public void anIllegalMoveLeavesTheStateAlone() {
+		assertFalse(state.moveTo(State.STARTED));
+		assertEquals(State.IDLE, state.get());
+
+		state.moveTo(State.PREPARING);
+		assertFalse(state.moveTo(State.PAUSED));
+		assertFalse(state.moveTo(State.PREPARING));
+		assertTrue(state.is(State.PREPARING));
+	}
+
+	@Test
+	public void errorsFromAnyActiveState() {
+		assertFalse("nothing to fail before a player exists", state.moveTo(State.ERROR));
+
+		state.moveTo(State.PREPARING);
+		state.moveTo(State.PREPARED);
+		state.moveTo(State.STARTED);
+		assertTrue(state.moveTo(State.ERROR));
+		assertFalse(state.isActive());
+		assertFalse(state.canStart());
+		assertFalse(state.canPause());
+
+		// only a reset gets out of it
+		assertFalse(state.moveTo(State.ERROR));
+		assertFalse(state.moveTo(State.PREPARING));
+		assertTrue(state.moveTo(State.IDLE));
+		assertTrue(state.moveTo(State.PREPARING));
+	}
+
+	@Test
+	public void resetReturnsToIdleFromAnywhere() {
+		for (State s : State.values()) {
+			reach(s);
+			state.setPlayWhenReady(false);
+			state.reset();
+			assertEquals(s.name(), State.IDLE, state.get());
+			assertTrue("playWhenReady restored after " + s, state.isPlayWhenReady());
+		}
+	}
+
+	@Test
+	public void pausingWhilePreparingOpensPaused() {
+		assertTrue(state.isPlayWhenReady());
+		state.moveTo(State.PREPARING);
+		state.setPlayWhenReady(false);
+		state.moveTo(State.PREPARED);
+		assertFalse(state.isPlayWhenReady());
+		assertTrue(state.moveTo(State.PAUSED));
+	}
+
+	private static void assertLegal(State from, State... to) {
+		EnumSet<State> legal = EnumSet.noneOf(State.class);
+		for (State s : to) {
+			legal.add(s);
+		}
+		for (State s : State.values()) {
+			assertEquals(from + " -> " + s, legal.contains(s), PlayerStateMachine.canMove(from, s));
+		}
+	}
+
+	/** moves the machine from IDLE to s along legal transitions */
+	private void reach(State s) {
+		state.reset();
+		switch (s) {
+		case IDLE:
+			return;
+		case PREPARING:
+			state.moveTo(State.PREPARING);
+			return;
+		case ERROR:
+			state.moveTo(State.PREPARING);
+			state.moveTo(State.ERROR);
+			return;
+		default:
+			state.moveTo(State.PREPARING);
+			state.moveTo(State.PREPARED);
+			if (s != State.PREPARED) {
+				state.moveTo(s);
+			}
+		}
+		assertEquals(s, state.get());
+	}
+}
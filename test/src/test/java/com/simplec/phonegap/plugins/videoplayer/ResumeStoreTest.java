@@ -0,0 +1,126 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Journal writes run on the calling thread, so the file can be checked as
+ * soon as a call returns.
+ */
+public class ResumeStoreTest {
+
+	private static final Executor DIRECT = new Executor() {
+		public void execute(Runnable r) {
+			r.run();
+		}
+	};
+
+	private static final long MINUTE = 60000;
+	private static final long HOUR = 60 * MINUTE;
+	/** magic */
+	private static final int HEADER = 4;
+	/** a PUT of a one-letter key: type, key, position, duration, time */
+	private static final int PUT = 1 + 2 + 1 + 3 * 8;
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private File journal;
+
+	@Before
+	public void setUp() throws IOException {
+		journal = new File(tmp.newFolder("resume"), "positions.journal");
+	}
+
+	@Test
+	public void replaysTheJournalAfterARestart() {
+		ResumeStore store = new ResumeStore(journal, DIRECT);
+		store.update("a", 10 * MINUTE, HOUR);
+		store.update("b", 20 * MINUTE, HOUR);
+		store.update("c", 30 * MINUTE, HOUR);
+		store.remove("b");
+		// moved too little to be journaled until committed
+		store.update("a", 10 * MINUTE + 1000, HOUR);
+		store.commit("a");
+		store.update("c", 30 * MINUTE + 1000, HOUR);
+
+		ResumeStore restarted = new ResumeStore(journal, DIRECT);
+		assertEquals(10 * MINUTE + 1000, restarted.get("a"));
+		assertEquals(0, restarted.get("b"));
+		assertEquals(30 * MINUTE, restarted.get("c"));
+		Map<String, ResumeStore.Position> positions = restarted.positions(null);
+		// most recently played last
+		assertEquals(Arrays.asList("c", "a"), Arrays.asList(positions.keySet().toArray()));
+		assertEquals(HOUR, positions.get("a").durationMs);
+	}
+
+	@Test
+	public void forgetsAVideoWatchedToTheEnd() {
+		ResumeStore store = new ResumeStore(journal, DIRECT);
+		store.update("a", 10 * MINUTE, HOUR);
+		store.update("a", HOUR - 1000, HOUR);
+		assertEquals(0, store.get("a"));
+		assertEquals(0, new ResumeStore(journal, DIRECT).get("a"));
+	}
+
+	@Test
+	public void compactsOnceTheJournalOutgrowsItsEntries() {
+		ResumeStore store = new ResumeStore(journal, DIRECT);
+		// one live entry allows 1 * 4 + 64 records
+		int limit = 4 + 64;
+		for (int i = 1; i <= limit; i++) {
+			store.update("a", i * MINUTE, 100 * HOUR);
+		}
+		assertEquals(HEADER + limit * PUT, journal.length());
+
+		store.update("a", (limit + 1) * MINUTE, 100 * HOUR);
+		assertEquals(HEADER + PUT, journal.length());
+		assertEquals((limit + 1) * MINUTE, new ResumeStore(journal, DIRECT).get("a"));
+
+		// and appends again afterwards
+		store.update("a", (limit + 2) * MINUTE, 100 * HOUR);
+		assertEquals(HEADER + 2 * PUT, journal.length());
+	}
+
+	@Test
+	public void dropsATornFinalRecord() throws IOException {
+		ResumeStore store = new ResumeStore(journal, DIRECT);
+		store.update("a", 10 * MINUTE, HOUR);
+		store.update("b", 20 * MINUTE, HOUR);
+		store.update("a", 11 * MINUTE, HOUR);
+		assertEquals(HEADER + 3 * PUT, journal.length());
+
+		// the last write was cut off by a crash
+		RandomAccessFile f = new RandomAccessFile(journal, "rw");
+		try {
+			f.setLength(journal.length() - 5);
+		} finally {
+			f.close();
+		}
+
+		ResumeStore restarted = new ResumeStore(journal, DIRECT);
+		assertEquals(10 * MINUTE, restarted.get("a"));
+		assertEquals(20 * MINUTE, restarted.get("b"));
+		// rewritten from memory before anything is appended after it
+		assertEquals(HEADER + 2 * PUT, journal.length());
+
+		restarted.update("c", 30 * MINUTE, HOUR);
+		ResumeStore again = new ResumeStore(journal, DIRECT);
+		assertEquals(10 * MINUTE, again.get("a"));
+		assertEquals(20 * MINUTE, again.get("b"));
+		assertEquals(30 * MINUTE, again.get("c"));
+		assertFalse(new File(journal.getPath() + ".tmp").exists());
+	}
+}
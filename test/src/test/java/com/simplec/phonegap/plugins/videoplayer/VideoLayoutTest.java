@@ -0,0 +1,46 @@
+package com.simplec.phonegap.plugins.videoplayer;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class VideoLayoutTest {
+
+	private final int[] out = new int[2];
+
+	@Test
+	public void tallVideoTakesFullHeight() {
+		VideoLayout.fit(1000, 1000, 1080, 1920, out);
+		assertEquals(900, out[1]);
+		assertEquals(506, out[0]);
+	}
+
+	@Test
+	public void wideVideoTakesFullWidth() {
+		VideoLayout.fit(1000, 1000, 1920, 1080, out);
+		assertEquals(900, out[0]);
+		assertEquals(506, out[1]);
+	}
+
+	@Test
+	public void wideVideoOnWideDisplayKeepsAspectRatio() {
+		// wider than the 16:10 area: limited by the width
+		VideoLayout.fit(1280, 800, 3840, 1600, out);
+		assertEquals(1152, out[0]);
+		assertEquals(480, out[1]);
+	}
+
+	@Test
+	public void narrowVideoOnWideDisplayKeepsAspectRatio() {
+		VideoLayout.fit(1280, 800, 640, 480, out);
+		assertEquals(720, out[1]);
+		assertEquals(960, out[0]);
+	}
+
+	@Test
+	public void sameAspectFillsTheArea() {
+		VideoLayout.fit(1920, 1080, 1280, 720, out);
+		assertEquals(1728, out[0]);
+		assertEquals(972, out[1]);
+	}
+}
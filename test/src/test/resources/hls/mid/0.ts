@@ -0,0 +1 @@
+mid 0
@@ -0,0 +1 @@
+mid 2
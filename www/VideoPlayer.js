@@ -14,10 +14,29 @@
 
 var exec = require("cordova/exec");
 
+// events arrive from the plugin in batches, as JSON text; hand them to the caller one at a time
+function unbatch(callback) {
+	if (!callback) {
+		return callback;
+	}
+	return function(result) {
+		if (typeof result === "string" && result.charAt(0) === "[") {
+			result = JSON.parse(result);
+		}
+		if (Array.isArray(result)) {
+			for (var i = 0; i < result.length; i++) {
+				callback(result[i]);
+			}
+		} else {
+			callback(result);
+		}
+	};
+}
+
 var VideoPlayer = {		
-	    play: function(url, success, failure) {
+	    play: function(url, success, failure, options) {
 	    	if (url) {
-		        exec(success, failure, "VideoPlayer", "play", [url]);
+		        exec(unbatch(success), failure, "VideoPlayer", "play", [url, options || {}]);
 	    	} else {
 		        exec(success, failure, "VideoPlayer", "play", []);
 	    	}
@@ -35,16 +54,130 @@ var VideoPlayer = {
 	        exec(null, null, "VideoPlayer", "pause", []);
 	    },
 	    
-	    getDuration: function(success, failure) {
-	        exec(success, failure, "VideoPlayer", "duration", []);
+	    getDuration: function(success, failure, url) {
+	    	if (url) {
+		        exec(success, failure, "VideoPlayer", "duration", [url]);
+	    	} else {
+		        exec(success, failure, "VideoPlayer", "duration", []);
+	    	}
 	    },
 	    
 	    seek: function(seekTo, success, failure) {
 	        exec(success, failure, "VideoPlayer", "seek", [seekTo]);
 	    },
 	    
+	    // mode: "previous", "next" or "closest" keyframe, or "exact"
+	    seekMs: function(ms, mode, success, failure) {
+	        exec(success, failure, "VideoPlayer", "seek", [Math.floor(ms / 1000), {ms: ms, mode: mode}]);
+	    },
+	    
 	    isPlaying: function(success, failure) {
 	        exec(success, failure, "VideoPlayer", "playing", []);
+	    },
+	    
+	    // position, duration, playing, buffered, width, height and source in one call
+	    getState: function(success, failure) {
+	        exec(success, failure, "VideoPlayer", "state", []);
+	    },
+	    
+	    // commands such as [{cmd: "seek", seconds: 30}, {cmd: "resume"}, {cmd: "volume", value: 0.5}], applied together
+	    batch: function(commands, success, failure) {
+	        exec(success, failure, "VideoPlayer", "batch", [commands]);
+	    },
+	    
+	    enqueue: function(urls, options, success, failure) {
+	        exec(success, failure, "VideoPlayer", "enqueue", [urls, options || {}]);
+	    },
+	    
+	    next: function(success, failure) {
+	        exec(unbatch(success), failure, "VideoPlayer", "next", []);
+	    },
+	    
+	    previous: function(success, failure) {
+	        exec(unbatch(success), failure, "VideoPlayer", "previous", []);
+	    },
+	    
+	    clearQueue: function(success, failure) {
+	        exec(success, failure, "VideoPlayer", "clear", []);
+	    },
+	    
+	    setProgressRate: function(hz, success, failure) {
+	        exec(success, failure, "VideoPlayer", "progress", [hz || 0]);
+	    },
+	    
+	    catalog: function(options, success, failure) {
+	        exec(success, failure, "VideoPlayer", "catalog", [options || {}]);
+	    },
+	    
+	    lookup: function(urls, success, failure) {
+	        exec(success, failure, "VideoPlayer", "lookup", [urls]);
+	    },
+	    
+	    getStats: function(success, failure) {
+	        exec(success, failure, "VideoPlayer", "stats", []);
+	    },
+	    
+	    resetStats: function(success, failure) {
+	        exec(success, failure, "VideoPlayer", "resetStats", []);
+	    },
+	    
+	    trace: function(options, success, failure) {
+	        exec(success, failure, "VideoPlayer", "trace", [options || {}]);
+	    },
+	    
+	    thumbnail: function(url, options, success, failure) {
+	        exec(success, failure, "VideoPlayer", "thumbnail", [url, options || {}]);
+	    },
+	    
+	    storyboard: function(url, options, success, failure) {
+	        exec(success, failure, "VideoPlayer", "storyboard", [url, options || {}]);
+	    },
+	    
+	    probe: function(urls, success, failure) {
+	        exec(success, failure, "VideoPlayer", "probe", [urls]);
+	    },
+	    
+	    faststart: function(options, success, failure) {
+	        exec(success, failure, "VideoPlayer", "faststart", [options || {}]);
+	    },
+	    
+	    // reads the start of local files into the page cache, e.g. for the likely next item
+	    preload: function(urls, options, success, failure) {
+	        exec(success, failure, "VideoPlayer", "preload", [urls, options || {}]);
+	    },
+	    
+	    // success receives {type: "progress", ...} events, then {type: "done", bad: [...], missing: [...]}
+	    verify: function(options, success, failure) {
+	        exec(success, failure, "VideoPlayer", "verify", [options || {}]);
+	    },
+	    
+	    getPositions: function(urls, success, failure) {
+	        exec(success, failure, "VideoPlayer", "positions", [urls || null]);
+	    },
+	    
+	    // a player addressed by id that runs alongside the main one, e.g. a preview tile
+	    instance: function(id) {
+	        return {
+	            play: function(url, success, failure, options) {
+	                exec(unbatch(success), failure, "VideoPlayer", "instance", [id, "play", url, options || {}]);
+	            },
+	            pause: function(success, failure) {
+	                exec(success, failure, "VideoPlayer", "instance", [id, "pause"]);
+	            },
+	            resume: function(success, failure) {
+	                exec(success, failure, "VideoPlayer", "instance", [id, "resume"]);
+	            },
+	            seek: function(seconds, success, failure) {
+	                exec(success, failure, "VideoPlayer", "instance", [id, "seek", seconds]);
+	            },
+	            stop: function(success, failure) {
+	                exec(success, failure, "VideoPlayer", "instance", [id, "stop"]);
+	            }
+	        };
+	    },
+	    
+	    players: function(options, success, failure) {
+	        exec(success, failure, "VideoPlayer", "players", [options || {}]);
 	    }
 };
 